@@ -9,14 +9,16 @@ import java.nio.DoubleBuffer;
 import java.text.DecimalFormat;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Comparator;
+import java.util.List;
 import java.util.Random;
+import java.util.concurrent.Callable;
 import java.util.prefs.PreferenceChangeEvent;
 
 import javax.print.attribute.standard.MediaName;
 import javax.swing.text.html.HTML.Tag;
 
 import SEE.kNNRegression;
+import expansion.Checkpoint;
 import expansion.Recorder;
 import expansion.dataIn;
 import expansion.dataOut;
@@ -26,11 +28,13 @@ import weka.attributeSelection.GreedyStepwise;
 import weka.attributeSelection.NSGAII;
 import weka.attributeSelection.RegressionEval;
 import weka.attributeSelection.SingleWrapperSubsetEval;
+import weka.attributeSelection.SubsetMeritCache;
 import weka.attributeSelection.WrapperSubsetEval;
 import weka.classifiers.Evaluation;
 import weka.classifiers.evaluation.AbstractEvaluationMetric;
 import weka.classifiers.functions.Logistic;
 import weka.classifiers.lazy.IBk;
+import weka.classifiers.lazy.IBkSubsetCrossValidation;
 import weka.core.Attribute;
 import weka.core.Instances;
 import weka.gui.knowledgeflow.steps.ImageViewerInteractiveView;
@@ -56,21 +60,9 @@ public class MOFES extends expansion.experiment{
 	
 	private Recorder[] perf;
 	
-	private class RecordCmp implements Comparator<Double[]>{
-
-		@Override
-		public int compare(Double[] a, Double[] b) {
-			if(a[0]>b[0])
-				return 1;
-			if(a[0]<b[0])
-				return -1;
-			if(a[1]<b[1])
-				return 1;
-			if(a[1]>b[1])
-				return -1;
-			return 0;
-		}
-	}
+	private Checkpoint checkpoint;
+	
+	private File meritCache;
 	
 	public MOFES() throws FileNotFoundException, IOException{
 		input=new dataIn(dataSetsName);
@@ -106,9 +98,14 @@ public class MOFES extends expansion.experiment{
 			perf[i]=new Recorder(searchNames[i], perfNames);
 		perf[4]=new Recorder("MOFES-A", perfNames);
 		perf[5]=new Recorder("MOFES-B", perfNames);
+		
+		checkpoint=new Checkpoint(output.getFile("checkpoint.bin"));
+		if(checkpoint.size()>0)
+			System.out.println("Resuming from checkpoint: "+checkpoint.size()+" finished cells");
+		meritCache=output.getFile("merits.cache");
 	}
 	
-	private long runOnce(ASSearch search,double ratio[],Recorder perfs,int seed) throws Exception {
+	private long runOnce(ASSearch search,double ratio[],Recorder perf,int seed) throws Exception {
 		int i,j;
 		long start;
 		long time=0;
@@ -117,11 +114,15 @@ public class MOFES extends expansion.experiment{
 		wrap.setClassifier(classifer);
 		wrap.setEvaluationMeasure("auc");
 		wrap.setFolds(3);
+		wrap.setMeritCacheFile(meritCache);
+		// cells run in parallel with different seeds, so each gets a share of the distance cache
+		wrap.setDistanceCacheSize(IBkSubsetCrossValidation.MAX_CACHED_VALUES/Math.max(1,numSlots));
 		wrap.buildEvaluator(trainSet);
 		wrap.setSeed(seed);
 
+		// the search and its evaluations run on this thread, so cpuTime counts all of it
 		int[][] temp;
-		start=System.currentTimeMillis();
+		start=cpuTime();
 		if (search instanceof NSGAII){
 			temp=((NSGAII)search).search(wrap, trainSet,statNames);
 			for(i=0;i<temp.length;++i)
@@ -141,9 +142,8 @@ public class MOFES extends expansion.experiment{
 			else
 				temp[0]=search.search(wrap, trainSet);
 		}
-		time+=System.currentTimeMillis()-start;
+		time+=cpuTime()-start;
 		
-		Recorder perf=new Recorder(perfs);
 		for(i=0;i<temp.length;++i){
 			int[] attrsIndex=new int[temp[i].length+1];
 			for(j=0;j<temp[i].length;++j)
@@ -155,7 +155,7 @@ public class MOFES extends expansion.experiment{
 			Evaluation eval=new Evaluation(trainCopy);
 			classifer.buildClassifier(trainCopy);
 			
-			Double[] record=new Double[2];
+			double[] record=new double[2];
 			eval=new Evaluation(trainCopy);
 			eval.evaluateModel(classifer, testCopy);
 			record[0]=(double)attrsIndex.length-1;
@@ -163,8 +163,7 @@ public class MOFES extends expansion.experiment{
 			perf.add(record);
 		}
 		
-		perf.paretoCurve(perf,new RecordCmp());
-		perfs.add(perf);
+		perf.paretoCurve(perf);
 		return time;
 	}
 	
@@ -178,23 +177,45 @@ public class MOFES extends expansion.experiment{
 			dataSet.setClassIndex("Defective");
 			output.setSubDir(dataSet.relationName());
 			randomSplit(dataSet, 0.7,1);
-			for(j=0;j<runtimes;++j){
-				int seed=rnd.nextInt();
-				for(k=0;k<searchs.length;++k)
-					time[i][k]+=runOnce(searchs[k],ratio[i*runtimes+j],perf[k],seed)/1000.0;
-			}
+			int[] seeds=new int[runtimes];
+			for(j=0;j<runtimes;++j)
+				seeds[j]=rnd.nextInt();
+			
+			Checkpoint.Cell[][] cells=new Checkpoint.Cell[runtimes][searchs.length];
+			List<Callable<Checkpoint.Cell>> tasks=new ArrayList<Callable<Checkpoint.Cell>>();
+			for(j=0;j<runtimes;++j)
+				for(k=0;k<searchs.length;++k){
+					cells[j][k]=checkpoint.get(dataSet.relationName(),j,k);
+					if(cells[j][k]==null)
+						tasks.add(cellTask(j,k,seeds[j]));
+					else if(cells[j][k].seed!=seeds[j])
+						throw new IllegalStateException("Checkpoint was written with other seeds");
+				}
+			for(Checkpoint.Cell cell:runTasks(tasks))
+				cells[cell.run][cell.search]=cell;
+			
+			// merge in grid order, so the results do not depend on the schedule
+			for(j=0;j<runtimes;++j)
+				for(k=0;k<searchs.length;++k){
+					Checkpoint.Cell cell=cells[j][k];
+					time[i][k]+=cell.time;
+					for(int a=0;a<cell.ratio.length;++a)
+						ratio[i*runtimes+j][a]+=cell.ratio[a];
+					perf[k].add(cell.perf);
+				}
 			
 			output.setSubDir(dataSet.relationName());
 			System.out.println(perf[5]);
-			perf[5].meanCurve(perf[4],new RecordCmp());
+			perf[5].meanCurve(perf[4]);
 			System.out.println(perf[5]);
 			System.out.println(perf[4]);
-			perf[4].paretoCurve(perf[4],new RecordCmp());
+			perf[4].paretoCurve(perf[4]);
 			System.out.println(perf[4]);
 			for(k=0;k<perf.length;++k){
 				output.outCSV(perf[k]);
 				perf[k].clear();
 			}
+			System.out.println(SubsetMeritCache.forFile(meritCache));
 		}
 		output.setSubDir("");
 		output.outCSV("Computational Cost",searchNames,time);
@@ -204,10 +225,35 @@ public class MOFES extends expansion.experiment{
 				ratioOut[j*ratio.length+k][1]=j+1;
 			}
 		output.outCSV("Selection Ratio",ratioName,ratioOut);
+		checkpoint.delete();
+		SubsetMeritCache.forFile(meritCache).close();
+	}
+	
+	private Callable<Checkpoint.Cell> cellTask(final int j,final int k,final int seed) throws Exception{
+		final ASSearch search=searchs[k]==null?null:ASSearch.makeCopies(searchs[k],1)[0];
+		return new Callable<Checkpoint.Cell>(){
+			@Override
+			public Checkpoint.Cell call() throws Exception{
+				Recorder cellPerf=new Recorder(perf[k].getName()+" run "+(j+1),perf[k].getColNames());
+				double[] cellRatio=new double[dataSet.numAttributes()-1];
+				File state=output.getFile(cellPerf.getName()+".state");
+				if(search instanceof NSGAII)
+					((NSGAII)search).setCheckpointFile(state);
+				double cellTime=runOnce(search,cellRatio,cellPerf,seed)/1000.0;
+				
+				Checkpoint.Cell cell=new Checkpoint.Cell(dataSet.relationName(),j,k,seed,cellTime,cellRatio,cellPerf);
+				checkpoint.add(cell);
+				output.outCSV(cellPerf);
+				state.delete();
+				return cell;
+			}
+		};
 	}
 	
 	public static void main(String[] args)throws Exception{
 		MOFES mofes=new MOFES();
+		if(args.length>0)
+			mofes.setNumSlots(Integer.parseInt(args[0]));
 		mofes.run();
 		//for(weka.core.Tag m:WrapperSubsetEval.TAGS_EVALUATION)
 		//	System.out.println(m);
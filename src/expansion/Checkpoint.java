@@ -0,0 +1,148 @@
+package expansion;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.HashMap;
+
+/**
+ * Append-only binary log of the finished cells of an experiment grid. Each
+ * record holds one (data set, run, search) cell: the seed of the run, the time
+ * the search took, the selection ratios of the run and the rows of the cell's
+ * Recorder. Records are flushed to disk as soon as they are added, and a
+ * record cut short by a crash is ignored when the log is read back. Cells may
+ * be added from several threads.
+ */
+public class Checkpoint {
+	private File file;
+
+	private DataOutputStream out;
+
+	private HashMap<String,Cell> cells=new HashMap<String,Cell>();
+
+	public static class Cell{
+		public String dataSet;
+
+		public int run;
+
+		public int search;
+
+		public int seed;
+
+		public double time;
+
+		public double[] ratio;
+
+		public Recorder perf;
+
+		public Cell(String dataSet,int run,int search,int seed,double time,double[] ratio,Recorder perf){
+			this.dataSet=dataSet;
+			this.run=run;
+			this.search=search;
+			this.seed=seed;
+			this.time=time;
+			this.ratio=ratio;
+			this.perf=perf;
+		}
+	}
+
+	public Checkpoint(File file) throws IOException{
+		this.file=file;
+		long valid=0;
+		if(file.exists()){
+			byte[] bytes=Files.readAllBytes(file.toPath());
+			ByteArrayInputStream buf=new ByteArrayInputStream(bytes);
+			DataInputStream in=new DataInputStream(buf);
+			try{
+				while(true){
+					Cell cell=read(in);
+					cells.put(key(cell.dataSet,cell.run,cell.search),cell);
+					valid=bytes.length-buf.available();
+				}
+			}
+			catch(EOFException e){
+				// the last record may have been cut short
+			}
+		}
+		FileOutputStream fos=new FileOutputStream(file,true);
+		fos.getChannel().truncate(valid);
+		out=new DataOutputStream(new BufferedOutputStream(fos));
+	}
+
+	public int size(){
+		return cells.size();
+	}
+
+	public boolean done(String dataSet,int run,int search){
+		return cells.containsKey(key(dataSet,run,search));
+	}
+
+	public Cell get(String dataSet,int run,int search){
+		return cells.get(key(dataSet,run,search));
+	}
+
+	public synchronized void add(Cell cell) throws IOException{
+		out.writeUTF(cell.dataSet);
+		out.writeInt(cell.run);
+		out.writeInt(cell.search);
+		out.writeInt(cell.seed);
+		out.writeDouble(cell.time);
+		out.writeInt(cell.ratio.length);
+		for(double m:cell.ratio)
+			out.writeDouble(m);
+		out.writeUTF(cell.perf.getName());
+		String[] colNames=cell.perf.getColNames();
+		out.writeInt(colNames.length);
+		for(String m:colNames)
+			out.writeUTF(m);
+		out.writeInt(cell.perf.nrow());
+		for(int i=0;i<cell.perf.nrow();++i)
+			for(int j=0;j<colNames.length;++j)
+				out.writeDouble(cell.perf.get(i,j));
+		out.flush();
+		cells.put(key(cell.dataSet,cell.run,cell.search),cell);
+	}
+
+	public void close() throws IOException{
+		out.close();
+	}
+
+	public void delete() throws IOException{
+		close();
+		file.delete();
+	}
+
+	private static Cell read(DataInputStream in) throws IOException{
+		String dataSet=in.readUTF();
+		int run=in.readInt();
+		int search=in.readInt();
+		int seed=in.readInt();
+		double time=in.readDouble();
+		double[] ratio=new double[in.readInt()];
+		for(int i=0;i<ratio.length;++i)
+			ratio[i]=in.readDouble();
+		String name=in.readUTF();
+		String[] colNames=new String[in.readInt()];
+		for(int i=0;i<colNames.length;++i)
+			colNames[i]=in.readUTF();
+		Recorder perf=new Recorder(name,colNames);
+		int nrow=in.readInt();
+		for(int i=0;i<nrow;++i){
+			double[] row=new double[colNames.length];
+			for(int j=0;j<row.length;++j)
+				row[j]=in.readDouble();
+			perf.add(row);
+		}
+		return new Cell(dataSet,run,search,seed,time,ratio,perf);
+	}
+
+	private static String key(String dataSet,int run,int search){
+		return dataSet+"/"+run+"/"+search;
+	}
+}
@@ -1,125 +1,256 @@
 package expansion;
 
-import java.nio.DoubleBuffer;
-import java.util.ArrayList;
-import java.util.Comparator;
-import org.netlib.util.intW;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
 
-public class Recorder extends ArrayList<Double[]>{
+/**
+ * Table of experiment results kept in primitive column arrays. Column 0 is
+ * the feature number and column 1 the performance, which is what paretoCurve
+ * and meanCurve work on.
+ */
+public class Recorder {
 	private String name;
-	
+
 	private String[] colNames;
-	
+
 	private int n;
-	
+
 	private int m;
-	
+
+	private double[][] cols;
+
 	public Recorder(String rName,String[] rColNames){
 		name=rName;
 		colNames=rColNames;
 		m=rColNames.length;
+		cols=new double[m][16];
 	}
-	
+
 	public Recorder(Recorder recorder){
-		name=recorder.getName();
-		colNames=recorder.getColNames();
-		m=colNames.length;
+		this(recorder.getName(),recorder.getColNames());
 	}
-	
+
 	public int nrow(){
 		return n;
 	}
-	
+
 	public int ncol(){
 		return m;
 	}
-	
+
+	public int size(){
+		return n;
+	}
+
+	public double get(int row,int col){
+		return cols[col][row];
+	}
+
+	public double[] row(int index){
+		double[] r=new double[m];
+		for(int j=0;j<m;++j)
+			r[j]=cols[j][index];
+		return r;
+	}
+
 	public void add(double[] row){
-		Double[] r=new Double[row.length];
-		for(int i=0;i<r.length;++i)
-			r[i]=row[i];
-		add(r);
+		if(row.length!=m)
+			throw new IllegalArgumentException("Row has "+row.length+" values, expected "+m);
+		grow(n+1);
+		for(int j=0;j<m;++j)
+			cols[j][n]=row[j];
+		++n;
 	}
-	
-	
+
 	public String getName(){
 		return name;
 	}
-	
+
 	public String[] getColNames(){
 		return colNames;
 	}
-	
+
 	public void removeLast(){
-		remove(size());
+		--n;
 	}
-	
-	public Double[] last(){
-		return get(size());
+
+	public double[] last(){
+		return row(n-1);
 	}
-	
+
 	public boolean empty(){
-		return isEmpty();
+		return n==0;
+	}
+
+	public void clear(){
+		n=0;
 	}
-	
+
 	public void delete(int index){
-		remove(index);
+		for(int j=0;j<m;++j)
+			System.arraycopy(cols[j],index+1,cols[j],index,n-index-1);
+		--n;
 	}
-	
+
 	public void add(Recorder recorder){
-		for(Double[] m:recorder)
-			add(m);
+		int rn=recorder.n;
+		grow(n+rn);
+		for(int j=0;j<m;++j)
+			System.arraycopy(recorder.cols[j],0,cols[j],n,rn);
+		n+=rn;
 	}
-	
+
 	public Recorder copy(){
 		Recorder copy=new Recorder(this);
-		for(Double[] m:this)
-			copy.add(m);
+		copy.add(this);
 		return copy;
 	}
-	
-	public void meanCurve(Recorder recorder,Comparator<Double[]> RecordCmp){
-		Recorder copy=recorder.copy();
-		copy.sort(RecordCmp);
-		int L,R;
+
+	/**
+	 * Replaces the rows with the mean performance per feature number of the
+	 * given recorder, in increasing order of feature number. The rows are
+	 * grouped in one pass over the recorder's rows in sorted order.
+	 */
+	public void meanCurve(Recorder recorder){
+		int[] order=recorder.sortedRows();
+		double[][] src=recorder.cols;
+		int rn=recorder.n;
+		double[][] res=new double[m][Math.max(rn,1)];
+		int L,R,count=0;
 		double sum;
-		Double[] t;
-		clear();
-		for(L=0,R=0;R<copy.size();L=R){
+		for(L=0,R=0;R<rn;L=R){
+			int key=(int)src[0][order[L]];
 			sum=0;
-			while(R<copy.size()&&copy.get(L)[0].intValue()==copy.get(R)[0].intValue()){
-				sum+=copy.get(R)[1];
+			while(R<rn&&(int)src[0][order[R]]==key){
+				sum+=src[1][order[R]];
 				++R;
 			}
-			t=new Double[2];
-			t[0]=copy.get(L)[0];
-			t[1]=sum/(R-L);
-			add(t);
+			res[0][count]=src[0][order[L]];
+			res[1][count]=sum/(R-L);
+			for(int j=2;j<m;++j)
+				res[j][count]=Double.NaN;
+			++count;
+		}
+		cols=res;
+		n=count;
+	}
+
+	/**
+	 * Replaces the rows with the Pareto front of the given recorder: the rows
+	 * no other row beats with fewer or as many features and a performance at
+	 * least as high. The front is kept as an archive sorted by feature
+	 * number, so the performance increases along it, and every row is
+	 * inserted with a binary search for the one front row that can dominate
+	 * it.
+	 */
+	public void paretoCurve(Recorder recorder){
+		double[][] src=recorder.cols;
+		int rn=recorder.n;
+		int[] archive=new int[Math.max(rn,1)];
+		int size=0;
+		for(int r=0;r<rn;++r){
+			double x=src[0][r],y=src[1][r];
+			// the last front row with at most x features
+			int lo=0,hi=size;
+			while(lo<hi){
+				int mid=(lo+hi)>>>1;
+				if(src[0][archive[mid]]<=x)
+					lo=mid+1;
+				else
+					hi=mid;
+			}
+			if(lo>0&&src[1][archive[lo-1]]>=y)
+				continue;
+			// rows with more features but no better performance are dominated
+			int p=lo;
+			while(p>0&&src[0][archive[p-1]]==x)
+				--p;
+			int q=p;
+			while(q<size&&src[1][archive[q]]<=y)
+				++q;
+			System.arraycopy(archive,q,archive,p+1,size-q);
+			archive[p]=r;
+			size+=p+1-q;
+		}
+
+		double[][] res=new double[m][Math.max(size,1)];
+		for(int j=0;j<m;++j)
+			for(int i=0;i<size;++i)
+				res[j][i]=src[j][archive[i]];
+		cols=res;
+		n=size;
+	}
+
+	/**
+	 * Writes the column names and the rows as CSV.
+	 */
+	public void writeCSV(Writer out) throws IOException{
+		for(int j=0;j<m;++j){
+			if(j>0)
+				out.write(',');
+			out.write(colNames[j]);
+		}
+		out.write('\n');
+		for(int i=0;i<n;++i){
+			for(int j=0;j<m;++j){
+				if(j>0)
+					out.write(',');
+				out.write(String.format("%.5f",cols[j][i]));
+			}
+			out.write('\n');
 		}
 	}
-	
-	public void paretoCurve(Recorder recorder,Comparator<Double[]> RecordCmp){
-		Recorder copy=recorder.copy();
-		clear();
-		for(Double[] m:copy)
-			add(m);
-		sort(RecordCmp);
-		for(int i=0;i<size()-1;++i)
-			while(i<size()-1&&get(i)[1]>=get(i+1)[1])
-				delete(i+1);
-	}
-	
+
 	public String toString(){
-		String str;
-		str=name+'\n';
-		for(String m:colNames)
-			str+=m+" ";
-		str+='\n';
-		for(Double[] m:this){
-			for(Double n:m)
-				str+=String.format("%.2f",n)+" ";
-			str+='\n';
+		StringBuilder str=new StringBuilder();
+		str.append(name).append('\n');
+		for(String c:colNames)
+			str.append(c).append(' ');
+		str.append('\n');
+		for(int i=0;i<n;++i){
+			for(int j=0;j<m;++j)
+				str.append(String.format("%.2f",cols[j][i])).append(' ');
+			str.append('\n');
 		}
-		return str;
+		return str.toString();
+	}
+
+	/**
+	 * Row indices sorted by increasing feature number, then decreasing
+	 * performance.
+	 */
+	private int[] sortedRows(){
+		int[] order=new int[n];
+		int[] buf=new int[n];
+		for(int i=0;i<n;++i)
+			order[i]=i;
+		for(int width=1;width<n;width*=2)
+			for(int from=0;from<n-width;from+=2*width){
+				int mid=from+width,to=Math.min(from+2*width,n);
+				int i=from,j=mid,k=from;
+				while(i<mid&&j<to)
+					buf[k++]=before(order[j],order[i])?order[j++]:order[i++];
+				while(i<mid)
+					buf[k++]=order[i++];
+				while(j<to)
+					buf[k++]=order[j++];
+				System.arraycopy(buf,from,order,from,to-from);
+			}
+		return order;
+	}
+
+	private boolean before(int a,int b){
+		if(cols[0][a]!=cols[0][b])
+			return cols[0][a]<cols[0][b];
+		return cols[1][a]>cols[1][b];
+	}
+
+	private void grow(int capacity){
+		if(m==0||capacity<=cols[0].length)
+			return;
+		int newCapacity=Math.max(capacity,2*cols[0].length);
+		for(int j=0;j<m;++j)
+			cols[j]=Arrays.copyOf(cols[j],newCapacity);
 	}
 }
@@ -1,9 +1,9 @@
 package expansion;
 
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
-import java.util.ArrayList;
 
 import weka.core.Instances;
 import weka.core.converters.ArffSaver;
@@ -42,64 +42,67 @@ public class dataOut {
 	
 	public void outCSV(String name,String[] attrNames,int[][] a) throws IOException{
 		int i,j;
-		FileWriter outFile=new FileWriter(mainDir+subDir+name+".csv");
-		for(i=0;i<attrNames.length;++i){
-			if(i>0)
-				outFile.write(',');
-			outFile.write(attrNames[i]);
-		}
-		outFile.write('\n');
-		for(i=0;i<a.length;++i){
-			for(j=0;j<a[i].length;++j){
-				if(j>0)
-					outFile.write(',');
-				outFile.write(a[i][j]);
+		BufferedWriter outFile=writer(name);
+		try{
+			writeHeader(outFile,attrNames);
+			for(i=0;i<a.length;++i){
+				for(j=0;j<a[i].length;++j){
+					if(j>0)
+						outFile.write(',');
+					outFile.write(Integer.toString(a[i][j]));
+				}
+				outFile.write('\n');
 			}
-			outFile.write('\n');
 		}
-		outFile.close();
+		finally{
+			outFile.close();
+		}
 	}
 	
 	public void outCSV(String name,String[] attrNames,double[][] a) throws IOException{
 		int i,j;
-		FileWriter outFile=new FileWriter(mainDir+subDir+name+".csv");
-		for(i=0;i<attrNames.length;++i){
-			if(i>0)
-				outFile.write(',');
-			outFile.write(attrNames[i]);
-		}
-		outFile.write('\n');
-		for(i=0;i<a.length;++i){
-			for(j=0;j<a[i].length;++j){
-				if(j>0)
-					outFile.write(',');
-				outFile.write(String.format("%.5f",a[i][j]));
+		BufferedWriter outFile=writer(name);
+		try{
+			writeHeader(outFile,attrNames);
+			for(i=0;i<a.length;++i){
+				for(j=0;j<a[i].length;++j){
+					if(j>0)
+						outFile.write(',');
+					outFile.write(String.format("%.5f",a[i][j]));
+				}
+				outFile.write('\n');
 			}
-			outFile.write('\n');
 		}
-		outFile.close();
+		finally{
+			outFile.close();
+		}
 	}
 	
 	public void outCSV(Recorder record) throws IOException{
-		int i,j;
-		String[] colNames=record.getColNames();
-		ArrayList<Double[]> data=record;
-		FileWriter outFile=new FileWriter(mainDir+subDir+record.getName()+".csv");
-		for(i=0;i<colNames.length;++i){
+		BufferedWriter outFile=writer(record.getName());
+		try{
+			record.writeCSV(outFile);
+		}
+		finally{
+			outFile.close();
+		}
+	}
+	
+	private BufferedWriter writer(String name) throws IOException{
+		return new BufferedWriter(new FileWriter(mainDir+subDir+name+".csv"));
+	}
+	
+	private void writeHeader(BufferedWriter outFile,String[] attrNames) throws IOException{
+		for(int i=0;i<attrNames.length;++i){
 			if(i>0)
 				outFile.write(',');
-			outFile.write(colNames[i]);
+			outFile.write(attrNames[i]);
 		}
 		outFile.write('\n');
-		for(i=0;i<data.size();++i){
-			for(j=0;j<data.get(i).length;++j){
-				if(j>0)
-					outFile.write(',');
-				outFile.write(String.format("%.5f",data.get(i)[j].doubleValue()));
-			}
-			outFile.write('\n');
-		}
-		outFile.close();
+	}
+	
+	public File getFile(String name){
+		return new File(mainDir+subDir+name);
 	}
 	
 	public void setSubDir(String name){
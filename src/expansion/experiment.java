@@ -1,6 +1,14 @@
 package expansion;
 
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 import jflex.Out;
 import weka.attributeSelection.RegressionEval;
@@ -19,6 +27,8 @@ public abstract class experiment {
 	
 	protected dataOut output;
 	
+	protected int numSlots=1;
+	
 	protected void randomSplit(Instances dataSet, double d,int seed) throws Exception {
 		dataSet.randomize(new Random(seed));
 		int dataSize = dataSet.numInstances();
@@ -28,6 +38,63 @@ public abstract class experiment {
         testSet = new Instances(dataSet, trainSize, testSize);
 	}
 	
+	public void setNumSlots(int n){
+		numSlots=n;
+	}
+	
+	public int getNumSlots(){
+		return numSlots;
+	}
+	
+	/**
+	 * Runs independent tasks of the experiment grid, on a fork-join pool with
+	 * numSlots threads if there is more than one slot. The results come back
+	 * in task order, so merging them does not depend on which task finished
+	 * first.
+	 */
+	protected <T> List<T> runTasks(List<Callable<T>> tasks) throws Exception{
+		List<T> results=new ArrayList<T>(tasks.size());
+		if(numSlots<=1||tasks.size()<=1){
+			for(Callable<T> task:tasks)
+				results.add(task.call());
+			return results;
+		}
+		
+		ForkJoinPool pool=new ForkJoinPool(Math.min(numSlots,tasks.size()));
+		try{
+			List<Future<T>> futures=new ArrayList<Future<T>>(tasks.size());
+			for(Callable<T> task:tasks)
+				futures.add(pool.submit(task));
+			for(Future<T> future:futures)
+				results.add(future.get());
+		}
+		catch(ExecutionException e){
+			if(e.getCause() instanceof Exception)
+				throw (Exception)e.getCause();
+			throw e;
+		}
+		finally{
+			pool.shutdownNow();
+		}
+		return results;
+	}
+	
+	/**
+	 * CPU time of the current thread in milliseconds, so that tasks running
+	 * side by side do not count each other's time. Falls back to wall-clock
+	 * time if the JVM can't measure thread CPU time.<br/>
+	 * Work the task hands to other threads is not counted, e.g. that of an
+	 * Evaluation with more than one cross-validation slot or of a search
+	 * with execution slots of its own, so such tasks should keep their
+	 * searches and evaluations on one slot while they are timed.
+	 */
+	protected static long cpuTime(){
+		ThreadMXBean bean=ManagementFactory.getThreadMXBean();
+		if(bean.isCurrentThreadCpuTimeSupported()&&bean.isThreadCpuTimeEnabled())
+			return bean.getCurrentThreadCpuTime()/1000000;
+		return System.currentTimeMillis();
+	}
+	
 	public experiment(){
 		PluginManager.addPlugin(AbstractEvaluationMetric.class.getName(),"RegressionEval",RegressionEval.class.getName());
 	}
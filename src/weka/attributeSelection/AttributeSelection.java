@@ -27,8 +27,15 @@ import java.beans.Introspector;
 import java.beans.PropertyDescriptor;
 import java.io.Serializable;
 import java.lang.reflect.Method;
+import java.util.ArrayList;
 import java.util.Enumeration;
+import java.util.List;
 import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import weka.core.Instance;
 import weka.core.Instances;
@@ -75,6 +82,11 @@ import weka.filters.unsupervised.attribute.Remove;
  * Specify a random number seed. Use in conjuction with -x. (Default = 1).
  * <p/>
  * 
+ * -cv-slots &lt;number of slots&gt; <br/>
+ * The number of folds to run in parallel. Use in conjuction with -x. (Default
+ * = 1).
+ * <p/>
+ * 
  * ------------------------------------------------------------------------
  * <p/>
  * 
@@ -122,6 +134,9 @@ public class AttributeSelection implements Serializable, RevisionHandler {
   /** seed used to randomly shuffle instances for cross validation */
   private int m_seed;
 
+  /** the number of cross validation folds to run in parallel */
+  private int m_numExecutionSlots = 1;
+
   /** number of attributes requested from ranked results */
   private int m_numToSelect;
 
@@ -243,6 +258,25 @@ public class AttributeSelection implements Serializable, RevisionHandler {
     m_seed = s;
   }
 
+  /**
+   * set the number of cross validation folds to run in parallel. Each fold
+   * gets its own copy of the evaluator and search method.
+   * 
+   * @param slots the number of execution slots
+   */
+  public void setNumExecutionSlots(int slots) {
+    m_numExecutionSlots = slots;
+  }
+
+  /**
+   * get the number of cross validation folds to run in parallel
+   * 
+   * @return the number of execution slots
+   */
+  public int getNumExecutionSlots() {
+    return m_numExecutionSlots;
+  }
+
   /**
    * get a description of the attribute selection
    * 
@@ -542,7 +576,7 @@ public class AttributeSelection implements Serializable, RevisionHandler {
    * @exception Exception if an error occurs during cross validation
    */
   public String CrossValidateAttributes() throws Exception {
-    Instances cvData = new Instances(m_trainInstances);
+    Instances cvData = m_trainInstances.view();
     Instances train;
 
     Random random = new Random(m_seed);
@@ -556,6 +590,11 @@ public class AttributeSelection implements Serializable, RevisionHandler {
 
     }
 
+    if (m_numExecutionSlots > 1 && m_numFolds > 1) {
+      crossValidateParallel(cvData, random);
+      return CVResultsString();
+    }
+
     for (int i = 0; i < m_numFolds; i++) {
       // Perform attribute selection
       train = cvData.trainCV(m_numFolds, i, random);
@@ -565,6 +604,68 @@ public class AttributeSelection implements Serializable, RevisionHandler {
     return CVResultsString();
   }
 
+  /**
+   * Runs the folds of a cross validation in parallel. The training splits are
+   * drawn up front, in the same order and with the same random numbers as in
+   * a serial run, and each fold is searched with its own copies of the
+   * evaluator and search method. The statistics are updated in fold order
+   * once all folds are done, so the results are the same as those of a
+   * serial run.
+   * 
+   * @param cvData the randomized (and stratified) data
+   * @param random the random number generator used for the splits
+   * @throws Exception if an error occurs in one of the folds
+   */
+  private void crossValidateParallel(Instances cvData, Random random)
+    throws Exception {
+    final Instances[] train = new Instances[m_numFolds];
+    final ASEvaluation[] evaluators =
+      ASEvaluation.makeCopies(m_ASEvaluator, m_numFolds);
+    final ASSearch[] searches = ASSearch.makeCopies(m_searchMethod, m_numFolds);
+    final int[][] attributeSets = new int[m_numFolds][];
+
+    for (int i = 0; i < m_numFolds; i++) {
+      train[i] = cvData.trainCV(m_numFolds, i, random);
+    }
+
+    ExecutorService pool =
+      Executors.newFixedThreadPool(Math.min(m_numExecutionSlots, m_numFolds));
+    try {
+      List<Future<Void>> results = new ArrayList<Future<Void>>();
+      for (int i = 0; i < m_numFolds; i++) {
+        final int fold = i;
+        results.add(pool.submit(new Callable<Void>() {
+          @Override
+          public Void call() throws Exception {
+            evaluators[fold].buildEvaluator(train[fold]);
+            int[] attributeSet =
+              searches[fold].search(evaluators[fold], train[fold]);
+            attributeSets[fold] = evaluators[fold].postProcess(attributeSet);
+            return null;
+          }
+        }));
+      }
+      for (Future<Void> result : results) {
+        try {
+          result.get();
+        } catch (ExecutionException e) {
+          if (e.getCause() instanceof Exception) {
+            throw (Exception) e.getCause();
+          }
+          throw e;
+        }
+      }
+    } finally {
+      pool.shutdownNow();
+    }
+
+    for (int i = 0; i < m_numFolds; i++) {
+      updateStatsForModelCVSplit(train[i], evaluators[i], searches[i],
+        attributeSets[i], m_doRank);
+      evaluators[i].clean();
+    }
+  }
+
   /**
    * Perform attribute selection on the supplied training instances.
    * 
@@ -811,8 +912,8 @@ public class AttributeSelection implements Serializable, RevisionHandler {
    */
   public static String SelectAttributes(ASEvaluation ASEvaluator,
     String[] options, Instances train) throws Exception {
-    int seed = 1, folds = 10;
-    String foldsString, seedString, searchName;
+    int seed = 1, folds = 10, slots = 1;
+    String foldsString, seedString, slotsString, searchName;
     String classString;
     String searchClassName;
     String[] searchOptions = null; // new String [1];
@@ -875,6 +976,14 @@ public class AttributeSelection implements Serializable, RevisionHandler {
 
       trainSelector.setSeed(seed);
 
+      slotsString = Utils.getOption("cv-slots", options);
+
+      if (slotsString.length() != 0) {
+        slots = Integer.parseInt(slotsString);
+      }
+
+      trainSelector.setNumExecutionSlots(slots);
+
       searchName = Utils.getOption('s', options);
 
       if ((searchName.length() == 0)
@@ -1022,6 +1131,9 @@ public class AttributeSelection implements Serializable, RevisionHandler {
     optionsText.append("\tPerform a cross validation.\n");
     optionsText.append("-n <random number seed>\n");
     optionsText.append("\tUse in conjunction with -x.\n");
+    optionsText.append("-cv-slots <number of slots>\n");
+    optionsText.append("\tNumber of folds to run in parallel.\n");
+    optionsText.append("\tUse in conjunction with -x. Default=1.\n");
 
     // Get attribute evaluator-specific options
     if (ASEvaluator instanceof OptionHandler) {
@@ -292,6 +292,9 @@ public class BestFirst extends ASSearch implements OptionHandler,
   /** total number of subsets evaluated during a search */
   protected int m_totalEvals;
 
+  /** number of subsets dropped by racing before they were fully evaluated */
+  protected int m_racedOut;
+
   /** for debugging */
   protected boolean m_debug;
 
@@ -648,6 +651,9 @@ public class BestFirst extends ASSearch implements OptionHandler,
       .append("\tStale search after " + m_maxStale + " node expansions\n");
     BfString.append("\tTotal number of subsets evaluated: " + m_totalEvals
       + "\n");
+    if (m_racedOut > 0) {
+      BfString.append("\tSubsets dropped by racing: " + m_racedOut + "\n");
+    }
     BfString.append("\tMerit of best subset found: "
       + Utils.doubleToString(Math.abs(m_bestMerit), 8, 3) + "\n");
     return BfString.toString();
@@ -676,6 +682,7 @@ public class BestFirst extends ASSearch implements OptionHandler,
   @Override
   public int[] search(ASEvaluation ASEval, Instances data) throws Exception {
     m_totalEvals = 0;
+    m_racedOut = 0;
     if (!(ASEval instanceof SubsetEvaluator)) {
       throw new Exception(ASEval.getClass().getName() + " is not a "
         + "Subset evaluator!");
@@ -742,6 +749,11 @@ public class BestFirst extends ASSearch implements OptionHandler,
       }
     }
 
+    // a wrapper set up for racing races the new subsets of every expansion
+    boolean racing = (ASEval instanceof WrapperSubsetEval)
+      && ((WrapperSubsetEval) ASEval).getRaceSignificance() > 0;
+    Hashtable<String, Double> raced = null;
+
     // evaluate the initial subset
     best_merit = ASEvaluator.evaluateSubset(best_group);
     // add the initial group to the list and the hash table
@@ -785,6 +797,9 @@ public class BestFirst extends ASSearch implements OptionHandler,
       }
 
       do {
+        if (racing) {
+          raced = race((WrapperSubsetEval) ASEval, temp_group, sd, lookup);
+        }
         for (i = 0; i < m_numAttribs; i++) {
           if (sd == SELECTION_FORWARD) {
             z = ((i != m_classIndex) && (!temp_group.get(i)));
@@ -810,8 +825,14 @@ public class BestFirst extends ASSearch implements OptionHandler,
             hashC = tt.toString();
 
             if (lookup.containsKey(hashC) == false) {
-              merit = ASEvaluator.evaluateSubset(temp_group);
-              m_totalEvals++;
+              Double racedMerit = racing ? raced.get(hashC) : null;
+              // raced subsets are counted by race()
+              if (racedMerit != null) {
+                merit = racedMerit.doubleValue();
+              } else {
+                merit = ASEvaluator.evaluateSubset(temp_group);
+                m_totalEvals++;
+              }
 
               // insert this one in the hashtable
               if (insertCount > m_cacheSize * m_numAttribs) {
@@ -888,6 +909,51 @@ public class BestFirst extends ASSearch implements OptionHandler,
     return attributeList(best_group);
   }
 
+  /**
+   * Races the subsets one step away from the given subset in the given
+   * direction that have not been seen yet. A subset that drops out of the
+   * race gets the lowest possible merit, so that it goes to the end of the
+   * open list and never becomes the best subset. Only the subsets that make
+   * it through the race count as evaluated.
+   * 
+   * @param evaluator the wrapper to race the subsets with
+   * @param group the subset being expanded
+   * @param direction the direction of the expansion
+   * @param lookup the subsets seen so far
+   * @return the merit of each raced subset, by its string form
+   * @throws Exception if a subset could not be evaluated
+   */
+  protected Hashtable<String, Double> race(WrapperSubsetEval evaluator,
+    BitSet group, int direction, Hashtable<String, Double> lookup)
+    throws Exception {
+
+    ArrayList<BitSet> candidates = new ArrayList<BitSet>();
+    for (int i = 0; i < m_numAttribs; i++) {
+      if (i != m_classIndex
+        && group.get(i) == (direction != SELECTION_FORWARD)) {
+        BitSet candidate = (BitSet) group.clone();
+        candidate.flip(i);
+        if (!lookup.containsKey(candidate.toString())) {
+          candidates.add(candidate);
+        }
+      }
+    }
+
+    WrapperSubsetEval.SubsetScore[] scores =
+      evaluator.raceSubsets(candidates.toArray(new BitSet[candidates.size()]));
+    Hashtable<String, Double> merits = new Hashtable<String, Double>();
+    for (WrapperSubsetEval.SubsetScore score : scores) {
+      merits.put(score.getSubset().toString(), score.isPromoted() ? score
+        .getObjectives()[0] : -Double.MAX_VALUE);
+      if (score.isPromoted()) {
+        m_totalEvals++;
+      } else {
+        m_racedOut++;
+      }
+    }
+    return merits;
+  }
+
   /**
    * Reset options to default values
    */
@@ -898,6 +964,7 @@ public class BestFirst extends ASSearch implements OptionHandler,
     m_startRange = new Range();
     m_classIndex = -1;
     m_totalEvals = 0;
+    m_racedOut = 0;
     m_cacheSize = 1;
     m_debug = false;
   }
@@ -21,15 +21,17 @@
 
 package weka.attributeSelection;
 
+import java.io.DataOutputStream;
+import java.io.File;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.BitSet;
 import java.util.Enumeration;
-import java.util.HashSet;
-import java.util.Set;
+import java.util.List;
 import java.util.Vector;
-import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import weka.core.Capabilities;
@@ -40,6 +42,8 @@ import weka.core.Instances;
 import weka.core.Option;
 import weka.core.OptionHandler;
 import weka.core.RevisionUtils;
+import weka.core.SerializationHelper;
+import weka.core.SparseInstance;
 import weka.core.TechnicalInformation;
 import weka.core.TechnicalInformation.Field;
 import weka.core.TechnicalInformation.Type;
@@ -113,6 +117,13 @@ import weka.filters.supervised.attribute.Discretize;
  *  Output debugging info.
  * </pre>
  * 
+ * <pre>
+ * -matrix-file &lt;file&gt;
+ *  File the correlation matrix is kept in between runs on the
+ *  same data.
+ *  (default: none)
+ * </pre>
+ * 
  * <!-- options-end -->
  * 
  * @author Mark Hall (mhall@cs.waikato.ac.nz)
@@ -172,8 +183,37 @@ public class CfsSubsetEval extends ASEvaluation implements SubsetEvaluator,
    */
   protected int m_poolSize = 1;
 
-  /** Thread pool */
-  protected transient ExecutorService m_pool = null;
+  /**
+   * The value of every attribute in every instance as an index, the number of
+   * values of the attribute standing for missing. Used by all pairs when the
+   * class is nominal and the attributes have been discretised. Takes an int
+   * per attribute and instance, so it is only filled for dense data
+   */
+  private int[][] m_codes;
+
+  /**
+   * For sparse data, the instances in which the index of each attribute's
+   * value is not 0, in increasing order
+   */
+  private int[][] m_nonZeroRows;
+
+  /** For sparse data, the value index of each attribute in those instances */
+  private int[][] m_nonZeroCodes;
+
+  /** The number of instances with each value (and missing) of every attribute */
+  private double[][] m_valueCounts;
+
+  /** The largest number of attributes in a block of the correlation matrix */
+  protected static final int MAX_BLOCK_SIZE = 64;
+
+  /** File the correlation matrix is kept in between runs */
+  protected File m_matrixFile = null;
+
+  /** Digest of the data and settings the correlation matrix is for */
+  protected transient byte[] m_matrixDigest;
+
+  /** Number of correlations in the matrix when it was last loaded or saved */
+  protected int m_numSaved;
 
   /**
    * Returns a string describing this attribute evaluator
@@ -242,6 +282,10 @@ public class CfsSubsetEval extends ASEvaluation implements SubsetEvaluator,
       + " (default 1)\n", "E", 1, "-E <int>"));
     newVector.addElement(new Option("\tOutput debugging info" + ".", "D", 0,
       "-D"));
+    newVector.addElement(new Option(
+      "\tFile the correlation matrix is kept in between runs on the\n"
+        + "\tsame data.\n" + "\t(default: none)", "matrix-file", 1,
+      "-matrix-file <file>"));
     return newVector.elements();
   }
 
@@ -282,6 +326,13 @@ public class CfsSubsetEval extends ASEvaluation implements SubsetEvaluator,
    *  Output debugging info.
    * </pre>
    * 
+   * <pre>
+   * -matrix-file &lt;file&gt;
+   *  File the correlation matrix is kept in between runs on the
+   *  same data.
+   *  (default: none)
+   * </pre>
+   * 
    * <!-- options-end -->
    * 
    * @param options the list of options as an array of strings
@@ -310,6 +361,11 @@ public class CfsSubsetEval extends ASEvaluation implements SubsetEvaluator,
     }
 
     setDebug(Utils.getFlag('D', options));
+
+    String matrixFile = Utils.getOption("matrix-file", options);
+    if (matrixFile.length() != 0) {
+      setMatrixFile(new File(matrixFile));
+    }
   }
 
   /**
@@ -453,6 +509,38 @@ public class CfsSubsetEval extends ASEvaluation implements SubsetEvaluator,
     return m_missingSeparate;
   }
 
+  /**
+   * Returns the tip text for this property
+   * 
+   * @return tip text for this property suitable for displaying in the
+   *         explorer/experimenter gui
+   */
+  public String matrixFileTipText() {
+    return "File the correlation matrix is kept in between runs. The matrix "
+      + "is loaded if it was saved for the same data and settings, and saved "
+      + "again whenever correlations have been added to it, so repeated runs "
+      + "only compute the correlations that earlier runs didn't need. None "
+      + "if not set.";
+  }
+
+  /**
+   * Set the file the correlation matrix is kept in
+   * 
+   * @param f the file, null to not keep the matrix
+   */
+  public void setMatrixFile(File f) {
+    m_matrixFile = f;
+  }
+
+  /**
+   * Get the file the correlation matrix is kept in
+   * 
+   * @return the file, null if the matrix is not kept
+   */
+  public File getMatrixFile() {
+    return m_matrixFile;
+  }
+
   /**
    * Set whether to output debugging info
    * 
@@ -513,6 +601,11 @@ public class CfsSubsetEval extends ASEvaluation implements SubsetEvaluator,
       options.add("-D");
     }
 
+    if (getMatrixFile() != null) {
+      options.add("-matrix-file");
+      options.add(getMatrixFile().getPath());
+    }
+
     return options.toArray(new String[0]);
   }
 
@@ -597,69 +690,280 @@ public class CfsSubsetEval extends ASEvaluation implements SubsetEvaluator,
       }
     }
 
-    if (m_preComputeCorrelationMatrix && m_poolSize > 1) {
-      m_pool = Executors.newFixedThreadPool(m_poolSize);
-
-      Set<Future<Void>> results = new HashSet<Future<Void>>();
-      int numEntriesPerThread = (m_numEntries + m_numAttribs) / m_numThreads;
-      numEntriesPerThread = numEntriesPerThread < 1 ? 1 : numEntriesPerThread;
-
-      int startRow = 0;
-      int startCol = 0;
-
-      int count = 0;
-      for (int i = 0; i < m_corr_matrix.length; i++) {
-        for (int j = 0; j < m_corr_matrix[i].length; j++) {
-          count++;
-          if (count == numEntriesPerThread
-            || (i == m_corr_matrix.length - 1 && j == m_corr_matrix[i].length - 1)) {
-            final int sR = startRow;
-            final int sC = startCol;
-            final int eR = i;
-            final int eC = j;
-
-            startRow = i;
-            startCol = j;
-            count = 0;
-
-            Future<Void> future = m_pool.submit(new Callable<Void>() {
-              @Override
-              public Void call() throws Exception {
-                if (m_debug) {
-                  System.err
-                    .println("Starting correlation computation task...");
-                }
-                for (int i = sR; i <= eR; i++) {
-                  for (int j = (i == sR ? sC : 0); j < (i == eR ? eC
-                    : m_corr_matrix[i].length); j++) {
-                    if (m_corr_matrix[i][j] == -999) {
-                      float corr = correlate(i, j);
-                      m_corr_matrix[i][j] = corr;
-                    }
-                  }
-                }
-                if (m_debug) {
-                  System.err
-                    .println("Percentage of correlation matrix computed: "
-                      + Utils.doubleToString(((double) m_numFilled.get()
-                        / m_numEntries * 100.0), 2) + "%");
-                }
+    if (!m_isNumeric) {
+      encodeValues();
+    }
+
+    m_numSaved = 0;
+    if (m_matrixFile != null) {
+      m_matrixDigest = matrixDigest();
+      loadMatrix();
+    }
 
-                return null;
+    if (m_preComputeCorrelationMatrix) {
+      preComputeCorrelationMatrix();
+      saveMatrix();
+    }
+  }
+
+  /**
+   * Computes all correlations that are not known yet. The lower triangle of
+   * the matrix is cut into square blocks of attributes that are computed in
+   * parallel on a fork-join pool of the configured size, so that the values
+   * of the attributes in a block are reused across its pairs.
+   * 
+   * @throws Exception if a correlation can't be computed
+   */
+  protected void preComputeCorrelationMatrix() throws Exception {
+
+    // at least as many blocks as threads, and more than workers to balance
+    // the load
+    int numBlocks = Math.max(m_numThreads, 4 * m_poolSize);
+    int perSide = 1;
+    while (perSide * (perSide + 1) / 2 < numBlocks && perSide < m_numAttribs) {
+      perSide++;
+    }
+    final int blockSize =
+      Math.min(MAX_BLOCK_SIZE, (m_numAttribs + perSide - 1) / perSide);
+
+    final List<RecursiveAction> blocks = new ArrayList<RecursiveAction>();
+    for (int r = 0; r < m_numAttribs; r += blockSize) {
+      for (int c = 0; c <= r; c += blockSize) {
+        final int startRow = r;
+        final int startCol = c;
+        blocks.add(new RecursiveAction() {
+          private static final long serialVersionUID = 3615932419467710232L;
+
+          @Override
+          protected void compute() {
+            int endRow = Math.min(startRow + blockSize, m_numAttribs);
+            for (int i = startRow; i < endRow; i++) {
+              int endCol = Math.min(startCol + blockSize, i);
+              for (int j = startCol; j < endCol; j++) {
+                if (m_corr_matrix[i][j] == -999) {
+                  m_corr_matrix[i][j] = correlate(i, j);
+                }
               }
-            });
-            results.add(future);
+            }
           }
+        });
+      }
+    }
+
+    if (m_debug) {
+      System.err.println("Computing the correlation matrix in "
+        + blocks.size() + " blocks of " + blockSize + " attributes...");
+    }
+
+    ForkJoinPool pool = new ForkJoinPool(Math.max(1, m_poolSize));
+    try {
+      pool.invoke(new RecursiveAction() {
+        private static final long serialVersionUID = -5720375024329447815L;
+
+        @Override
+        protected void compute() {
+          invokeAll(blocks);
         }
+      });
+    } finally {
+      pool.shutdown();
+    }
+
+    if (m_debug) {
+      System.err.println("Percentage of correlation matrix computed: "
+        + Utils.doubleToString(
+          ((double) m_numFilled.get() / m_numEntries * 100.0), 2) + "%");
+    }
+  }
+
+  /**
+   * Records the value index of every attribute in every instance, and the
+   * number of instances with each value, so that the contingency table of a
+   * pair is a single pass over two int arrays and its totals come for free.
+   * Dense data takes an int per attribute and instance. For sparse data only
+   * the indices that are not 0 are recorded, with their instances, so the
+   * memory grows with the number of values stored, as does the time taken by
+   * a contingency table.
+   */
+  private void encodeValues() {
+
+    m_codes = null;
+    m_nonZeroRows = null;
+    m_nonZeroCodes = null;
+    m_valueCounts = new double[m_numAttribs][];
+    int[] missing = new int[m_numAttribs];
+    for (int j = 0; j < m_numAttribs; j++) {
+      missing[j] = m_trainInstances.attribute(j).numValues();
+      m_valueCounts[j] = new double[missing[j] + 1];
+    }
+
+    boolean sparse = m_numInstances > 0;
+    for (int i = 0; i < m_numInstances && sparse; i++) {
+      sparse = m_trainInstances.instance(i) instanceof SparseInstance;
+    }
+
+    if (!sparse) {
+      m_codes = new int[m_numAttribs][m_numInstances];
+      for (int i = 0; i < m_numInstances; i++) {
+        Instance inst = m_trainInstances.instance(i);
+        for (int j = 0; j < m_numAttribs; j++) {
+          m_codes[j][i] = inst.isMissing(j) ? missing[j] : (int) inst.value(j);
+        }
+      }
+      for (int j = 0; j < m_numAttribs; j++) {
+        for (int i = 0; i < m_numInstances; i++) {
+          m_valueCounts[j][m_codes[j][i]]++;
+        }
+      }
+      return;
+    }
+
+    // count the indices that are not 0, then record them instance by
+    // instance, which keeps the instances of each attribute in order
+    int[] numNonZero = new int[m_numAttribs];
+    for (int i = 0; i < m_numInstances; i++) {
+      Instance inst = m_trainInstances.instance(i);
+      for (int k = 0; k < inst.numValues(); k++) {
+        if (inst.isMissingSparse(k) ? missing[inst.index(k)] != 0
+          : (int) inst.valueSparse(k) != 0) {
+          numNonZero[inst.index(k)]++;
+        }
+      }
+    }
+    m_nonZeroRows = new int[m_numAttribs][];
+    m_nonZeroCodes = new int[m_numAttribs][];
+    for (int j = 0; j < m_numAttribs; j++) {
+      m_nonZeroRows[j] = new int[numNonZero[j]];
+      m_nonZeroCodes[j] = new int[numNonZero[j]];
+      numNonZero[j] = 0;
+    }
+    for (int i = 0; i < m_numInstances; i++) {
+      Instance inst = m_trainInstances.instance(i);
+      for (int k = 0; k < inst.numValues(); k++) {
+        int j = inst.index(k);
+        int code =
+          inst.isMissingSparse(k) ? missing[j] : (int) inst.valueSparse(k);
+        if (code != 0) {
+          m_nonZeroRows[j][numNonZero[j]] = i;
+          m_nonZeroCodes[j][numNonZero[j]++] = code;
+          m_valueCounts[j][code]++;
+        }
+      }
+    }
+    for (int j = 0; j < m_numAttribs; j++) {
+      m_valueCounts[j][0] += m_numInstances - numNonZero[j];
+    }
+  }
+
+  /**
+   * Fills the contingency table of two attributes of sparse data from the
+   * instances in which either value index is not 0. All other instances are
+   * counted in the cell of the two 0 indices.
+   * 
+   * @param att1 the first attribute
+   * @param att2 the second attribute
+   * @param counts the contingency table to add the counts to
+   */
+  private void sparseCounts(int att1, int att2, double[][] counts) {
+
+    int[] rows1 = m_nonZeroRows[att1];
+    int[] codes1 = m_nonZeroCodes[att1];
+    int[] rows2 = m_nonZeroRows[att2];
+    int[] codes2 = m_nonZeroCodes[att2];
+    int p = 0;
+    int q = 0;
+    int numCounted = 0;
+    while (p < rows1.length || q < rows2.length) {
+      int row1 = (p < rows1.length) ? rows1[p] : Integer.MAX_VALUE;
+      int row2 = (q < rows2.length) ? rows2[q] : Integer.MAX_VALUE;
+      if (row1 == row2) {
+        counts[codes1[p++]][codes2[q++]]++;
+      } else if (row1 < row2) {
+        counts[codes1[p++]][0]++;
+      } else {
+        counts[0][codes2[q++]]++;
       }
+      numCounted++;
+    }
+    counts[0][0] += m_numInstances - numCounted;
+  }
+
+  /**
+   * Returns the digest of everything the correlations depend on: the
+   * treatment of missing values, the (discretised) data and its class.
+   * 
+   * @return the digest
+   * @throws Exception if the digest can't be computed
+   */
+  protected byte[] matrixDigest() throws Exception {
+
+    MessageDigest digest = MessageDigest.getInstance("SHA-256");
+    DataOutputStream out = SubsetMeritCache.digestStream(digest);
+    SubsetMeritCache.writeString(out, getClass().getName());
+    out.writeBoolean(m_missingSeparate);
+    SubsetMeritCache.writeData(out, m_trainInstances);
+    out.close();
+    return digest.digest();
+  }
 
-      for (Future<Void> f : results) {
-        f.get();
+  /**
+   * Loads the correlations and standard deviations from the matrix file, if
+   * it was saved for the same data and settings.
+   */
+  protected void loadMatrix() {
+
+    if (!m_matrixFile.exists()) {
+      return;
+    }
+    try {
+      Object[] saved = SerializationHelper.readAll(m_matrixFile.getPath());
+      if (!Arrays.equals((byte[]) saved[0], m_matrixDigest)) {
+        if (m_debug) {
+          System.err.println("Correlation matrix in " + m_matrixFile
+            + " is for different data");
+        }
+        return;
+      }
+      m_corr_matrix = (float[][]) saved[1];
+      m_std_devs = (double[]) saved[2];
+    } catch (Exception e) {
+      if (m_debug) {
+        System.err.println("Correlation matrix in " + m_matrixFile
+          + " can't be read: " + e.getMessage());
+      }
+      return;
+    }
+
+    int filled = 0;
+    for (int i = 0; i < m_numAttribs; i++) {
+      for (int j = 0; j < i; j++) {
+        if (m_corr_matrix[i][j] != -999) {
+          filled++;
+        }
       }
+    }
+    m_numFilled.set(filled);
+    m_numSaved = filled;
+    if (m_debug) {
+      System.err.println("Loaded " + filled + " correlations from "
+        + m_matrixFile);
+    }
+  }
 
-      // shut down the thread pool
-      m_pool.shutdown();
+  /**
+   * Saves the correlations and standard deviations to the matrix file, if
+   * any have been computed since it was loaded or last saved.
+   * 
+   * @throws Exception if the file can't be written
+   */
+  protected void saveMatrix() throws Exception {
+
+    if (m_matrixFile == null || m_numFilled.get() <= m_numSaved) {
+      return;
     }
+    m_numSaved = m_numFilled.get();
+    SerializationHelper.writeAll(m_matrixFile.getPath(), new Object[] {
+      m_matrixDigest, m_corr_matrix, m_std_devs });
   }
 
   /**
@@ -767,12 +1071,11 @@ public class CfsSubsetEval extends ASEvaluation implements SubsetEvaluator,
   }
 
   private double symmUncertCorr(int att1, int att2) {
-    int i, j, ii, jj;
+    int i, j;
     int ni, nj;
     double sum = 0.0;
     double sumi[], sumj[];
     double counts[][];
-    Instance inst;
     double corr_measure;
     boolean flag = false;
     double temp = 0.0;
@@ -787,52 +1090,21 @@ public class CfsSubsetEval extends ASEvaluation implements SubsetEvaluator,
     sumi = new double[ni];
     sumj = new double[nj];
 
-    for (i = 0; i < ni; i++) {
-      sumi[i] = 0.0;
-
-      for (j = 0; j < nj; j++) {
-        sumj[j] = 0.0;
-        counts[i][j] = 0.0;
-      }
-    }
-
     // Fill the contingency table
-    for (i = 0; i < m_numInstances; i++) {
-      inst = m_trainInstances.instance(i);
-
-      if (inst.isMissing(att1)) {
-        ii = ni - 1;
-      } else {
-        ii = (int) inst.value(att1);
-      }
-
-      if (inst.isMissing(att2)) {
-        jj = nj - 1;
-      } else {
-        jj = (int) inst.value(att2);
-      }
-
-      counts[ii][jj]++;
-    }
-
-    // get the row totals
-    for (i = 0; i < ni; i++) {
-      sumi[i] = 0.0;
-
-      for (j = 0; j < nj; j++) {
-        sumi[i] += counts[i][j];
-        sum += counts[i][j];
+    if (m_codes != null) {
+      int[] codes1 = m_codes[att1];
+      int[] codes2 = m_codes[att2];
+      for (i = 0; i < m_numInstances; i++) {
+        counts[codes1[i]][codes2[i]]++;
       }
+    } else {
+      sparseCounts(att1, att2, counts);
     }
 
-    // get the column totals
-    for (j = 0; j < nj; j++) {
-      sumj[j] = 0.0;
-
-      for (i = 0; i < ni; i++) {
-        sumj[j] += counts[i][j];
-      }
-    }
+    // the row and column totals are the value counts of the attributes
+    System.arraycopy(m_valueCounts[att1], 0, sumi, 0, ni);
+    System.arraycopy(m_valueCounts[att2], 0, sumj, 0, nj);
+    sum = m_numInstances;
 
     // distribute missing counts
     if (!m_missingSeparate && (sumi[ni - 1] < m_numInstances)
@@ -1269,6 +1541,10 @@ public class CfsSubsetEval extends ASEvaluation implements SubsetEvaluator,
       if (m_locallyPredictive) {
         text.append("\tIncluding locally predictive attributes\n");
       }
+
+      if (m_matrixFile != null) {
+        text.append("\tCorrelation matrix kept in " + m_matrixFile + "\n");
+      }
     }
 
     return text.toString();
@@ -1374,6 +1650,7 @@ public class CfsSubsetEval extends ASEvaluation implements SubsetEvaluator,
     int j = 0;
 
     if (!m_locallyPredictive) {
+      saveMatrix();
       return attributeSet;
     }
 
@@ -1384,6 +1661,7 @@ public class CfsSubsetEval extends ASEvaluation implements SubsetEvaluator,
     }
 
     addLocallyPredictive(bestGroup);
+    saveMatrix();
 
     // count how many are set
     for (int i = 0; i < m_numAttribs; i++) {
@@ -1410,6 +1688,10 @@ public class CfsSubsetEval extends ASEvaluation implements SubsetEvaluator,
       // save memory
       m_trainInstances = new Instances(m_trainInstances, 0);
     }
+    m_codes = null;
+    m_nonZeroRows = null;
+    m_nonZeroCodes = null;
+    m_valueCounts = null;
   }
 
   protected void resetOptions() {
@@ -1417,6 +1699,7 @@ public class CfsSubsetEval extends ASEvaluation implements SubsetEvaluator,
     m_missingSeparate = false;
     m_locallyPredictive = true;
     m_c_Threshold = 0.0;
+    m_matrixFile = null;
   }
 
   /**
@@ -22,11 +22,20 @@
 package weka.attributeSelection;
 
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.BitSet;
+import java.util.Comparator;
 import java.util.Enumeration;
-import java.util.Hashtable;
+import java.util.List;
 import java.util.Random;
 import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import weka.core.Instances;
 import weka.core.Option;
@@ -116,6 +125,29 @@ import weka.core.Utils;
  *  (default = 1)
  * </pre>
  * 
+ * <pre>
+ * -islands &lt;number of islands&gt;
+ *  Set the number of islands, each evolving its own population.
+ *  (default = 1)
+ * </pre>
+ * 
+ * <pre>
+ * -migration-interval &lt;number of generations&gt;
+ *  Set the number of generations between migrations.
+ *  (default = 5)
+ * </pre>
+ * 
+ * <pre>
+ * -migrants &lt;number of members&gt;
+ *  Set the number of members each island sends to the next.
+ *  (default = 1)
+ * </pre>
+ * 
+ * <pre>
+ * -num-slots &lt;int&gt;
+ *  The number of execution slots, for example, the number of cores in the CPU. (default 1)
+ * </pre>
+ * 
  * <!-- options-end -->
  * 
  * @author Mark Hall (mhall@cs.waikato.ac.nz)
@@ -161,7 +193,7 @@ public class GeneticSearch extends ASSearch implements StartSetHandler,
   private int m_lookupTableSize;
 
   /** the lookup table */
-  private Hashtable<BitSet, GABitSet> m_lookupTable;
+  private ConcurrentHashMap<BitSet, GABitSet> m_lookupTable;
 
   /** random number generation */
   private Random m_random;
@@ -188,6 +220,21 @@ public class GeneticSearch extends ASSearch implements StartSetHandler,
   /** how often reports are generated */
   private int m_reportFrequency;
 
+  /** the number of islands, each evolving its own population */
+  private int m_numIslands;
+
+  /** the number of generations between migrations */
+  private int m_migrationInterval;
+
+  /** the number of members each island sends to the next */
+  private int m_numMigrants;
+
+  /** the number of execution slots the islands share */
+  private int m_poolSize;
+
+  /** the members migrating to this island, if it is one */
+  private transient ConcurrentLinkedQueue<GABitSet> m_immigrants;
+
   /** holds the generation reports */
   private StringBuffer m_generationReports;
 
@@ -333,7 +380,7 @@ public class GeneticSearch extends ASSearch implements StartSetHandler,
    **/
   @Override
   public Enumeration<Option> listOptions() {
-    Vector<Option> newVector = new Vector<Option>(7);
+    Vector<Option> newVector = new Vector<Option>(11);
 
     newVector.addElement(new Option("\tSpecify a starting set of attributes."
       + "\n\tEg. 1,3,5-7." + "If supplied, the starting set becomes"
@@ -356,6 +403,18 @@ public class GeneticSearch extends ASSearch implements StartSetHandler,
       "-R <report frequency>"));
     newVector.addElement(new Option("\tSet the random number seed."
       + "\n\t(default = 1)", "S", 1, "-S <seed>"));
+    newVector.addElement(new Option(
+      "\tSet the number of islands, each evolving its own population."
+        + "\n\t(default = 1)", "islands", 1, "-islands <number of islands>"));
+    newVector.addElement(new Option(
+      "\tSet the number of generations between migrations."
+        + "\n\t(default = 5)", "migration-interval", 1,
+      "-migration-interval <number of generations>"));
+    newVector.addElement(new Option(
+      "\tSet the number of members each island sends to the next."
+        + "\n\t(default = 1)", "migrants", 1, "-migrants <number of members>"));
+    newVector.addElement(new Option("\t" + numExecutionSlotsTipText()
+      + " (default 1)\n", "num-slots", 1, "-num-slots <int>"));
     return newVector.elements();
   }
 
@@ -412,6 +471,29 @@ public class GeneticSearch extends ASSearch implements StartSetHandler,
    *  (default = 1)
    * </pre>
    * 
+   * <pre>
+   * -islands &lt;number of islands&gt;
+   *  Set the number of islands, each evolving its own population.
+   *  (default = 1)
+   * </pre>
+   * 
+   * <pre>
+   * -migration-interval &lt;number of generations&gt;
+   *  Set the number of generations between migrations.
+   *  (default = 5)
+   * </pre>
+   * 
+   * <pre>
+   * -migrants &lt;number of members&gt;
+   *  Set the number of members each island sends to the next.
+   *  (default = 1)
+   * </pre>
+   * 
+   * <pre>
+   * -num-slots &lt;int&gt;
+   *  The number of execution slots, for example, the number of cores in the CPU. (default 1)
+   * </pre>
+   * 
    * <!-- options-end -->
    * 
    * @param options the list of options as an array of strings
@@ -459,6 +541,26 @@ public class GeneticSearch extends ASSearch implements StartSetHandler,
       setSeed(Integer.parseInt(optionString));
     }
 
+    optionString = Utils.getOption("islands", options);
+    if (optionString.length() != 0) {
+      setNumIslands(Integer.parseInt(optionString));
+    }
+
+    optionString = Utils.getOption("migration-interval", options);
+    if (optionString.length() != 0) {
+      setMigrationInterval(Integer.parseInt(optionString));
+    }
+
+    optionString = Utils.getOption("migrants", options);
+    if (optionString.length() != 0) {
+      setNumMigrants(Integer.parseInt(optionString));
+    }
+
+    optionString = Utils.getOption("num-slots", options);
+    if (optionString.length() != 0) {
+      setNumExecutionSlots(Integer.parseInt(optionString));
+    }
+
     Utils.checkForRemainingOptions(options);
   }
 
@@ -488,6 +590,14 @@ public class GeneticSearch extends ASSearch implements StartSetHandler,
     options.add("" + getReportFrequency());
     options.add("-S");
     options.add("" + getSeed());
+    options.add("-islands");
+    options.add("" + getNumIslands());
+    options.add("-migration-interval");
+    options.add("" + getMigrationInterval());
+    options.add("-migrants");
+    options.add("" + getNumMigrants());
+    options.add("-num-slots");
+    options.add("" + getNumExecutionSlots());
 
     return options.toArray(new String[0]);
   }
@@ -528,6 +638,121 @@ public class GeneticSearch extends ASSearch implements StartSetHandler,
     return m_startRange.getRanges();
   }
 
+  /**
+   * Returns the tip text for this property
+   * 
+   * @return tip text for this property suitable for displaying in the
+   *         explorer/experimenter gui
+   */
+  public String numIslandsTipText() {
+    return "Set the number of islands. Each island evolves its own population "
+      + "of the given size, and every few generations sends its best members "
+      + "to the next island. The islands share the subsets evaluated so far.";
+  }
+
+  /**
+   * set the number of islands
+   * 
+   * @param n the number of islands
+   */
+  public void setNumIslands(int n) {
+    m_numIslands = n;
+  }
+
+  /**
+   * get the number of islands
+   * 
+   * @return the number of islands
+   */
+  public int getNumIslands() {
+    return m_numIslands;
+  }
+
+  /**
+   * Returns the tip text for this property
+   * 
+   * @return tip text for this property suitable for displaying in the
+   *         explorer/experimenter gui
+   */
+  public String migrationIntervalTipText() {
+    return "Set the number of generations between migrations.";
+  }
+
+  /**
+   * set the number of generations between migrations
+   * 
+   * @param m the number of generations
+   */
+  public void setMigrationInterval(int m) {
+    m_migrationInterval = m;
+  }
+
+  /**
+   * get the number of generations between migrations
+   * 
+   * @return the number of generations
+   */
+  public int getMigrationInterval() {
+    return m_migrationInterval;
+  }
+
+  /**
+   * Returns the tip text for this property
+   * 
+   * @return tip text for this property suitable for displaying in the
+   *         explorer/experimenter gui
+   */
+  public String numMigrantsTipText() {
+    return "Set the number of best members each island sends to the next. "
+      + "They take the place of the worst members there.";
+  }
+
+  /**
+   * set the number of members each island sends to the next
+   * 
+   * @param m the number of members
+   */
+  public void setNumMigrants(int m) {
+    m_numMigrants = m;
+  }
+
+  /**
+   * get the number of members each island sends to the next
+   * 
+   * @return the number of members
+   */
+  public int getNumMigrants() {
+    return m_numMigrants;
+  }
+
+  /**
+   * Returns the tip text for this property
+   * 
+   * @return tip text for this property suitable for displaying in the
+   *         explorer/experimenter gui
+   */
+  public String numExecutionSlotsTipText() {
+    return "The number of execution slots, for example, the number of cores in the CPU.";
+  }
+
+  /**
+   * Gets the number of threads.
+   * 
+   * @return the number of execution slots
+   */
+  public int getNumExecutionSlots() {
+    return m_poolSize;
+  }
+
+  /**
+   * Sets the number of threads
+   * 
+   * @param nT the number of execution slots
+   */
+  public void setNumExecutionSlots(int nT) {
+    m_poolSize = nT;
+  }
+
   /**
    * Returns the tip text for this property
    * 
@@ -807,6 +1032,12 @@ public class GeneticSearch extends ASSearch implements StartSetHandler,
       + Utils.doubleToString(m_pMutation, 6, 3));
     GAString.append("\n\tReport frequency: " + m_reportFrequency);
     GAString.append("\n\tRandom number seed: " + m_seed + "\n");
+    if (m_numIslands > 1) {
+      GAString.append("\tIslands: " + m_numIslands);
+      GAString.append("\n\tMigration interval: " + m_migrationInterval);
+      GAString.append("\n\tMigrants: " + m_numMigrants);
+      GAString.append("\n\tExecution slots: " + m_poolSize + "\n");
+    }
     GAString.append(m_generationReports.toString());
     return GAString.toString();
   }
@@ -846,7 +1077,10 @@ public class GeneticSearch extends ASSearch implements StartSetHandler,
     }
 
     // initial random population
-    m_lookupTable = new Hashtable<BitSet, GABitSet>(m_lookupTableSize);
+    m_lookupTable = new ConcurrentHashMap<BitSet, GABitSet>(m_lookupTableSize);
+    if (m_numIslands > 1) {
+      return searchIslands(ASEvaluator);
+    }
     m_random = new Random(m_seed);
     m_population = new GABitSet[m_popSize];
 
@@ -878,6 +1112,190 @@ public class GeneticSearch extends ASSearch implements StartSetHandler,
     return attributeList(m_best.getChromosome());
   }
 
+  /**
+   * Runs the island model. Every island is a copy of this search with its own
+   * population, random number generator and evaluator, and all of them share
+   * the lookup table. The islands evolve one generation at a time in
+   * parallel. Every m_migrationInterval generations, once all islands have
+   * finished the generation, each island puts copies of its best members in
+   * the queue of the next island, which takes them in at the start of its
+   * next generation. As the islands wait for each other after every
+   * generation, the result only depends on the seed and not on the threads.
+   * 
+   * @param ASEvaluator the subset evaluator
+   * @return the selected attributes
+   * @throws Exception if the search can't be completed
+   */
+  private int[] searchIslands(SubsetEvaluator ASEvaluator) throws Exception {
+
+    final GeneticSearch[] islands = new GeneticSearch[m_numIslands];
+    final SubsetEvaluator[] evaluators = new SubsetEvaluator[m_numIslands];
+    ASEvaluation[] copies = (ASEvaluator instanceof weka.core.ThreadSafe)
+      ? null : ASEvaluation.makeCopies((ASEvaluation) ASEvaluator, m_numIslands);
+    for (int k = 0; k < m_numIslands; k++) {
+      islands[k] = island(k);
+      evaluators[k] =
+        (copies == null) ? ASEvaluator : (SubsetEvaluator) copies[k];
+    }
+
+    ExecutorService pool =
+      Executors.newFixedThreadPool(Math.max(1, Math.min(m_poolSize, m_numIslands)));
+    try {
+      for (int i = 0; i <= m_maxGenerations; i++) {
+        final int generation = i;
+        final boolean migrate = (m_migrationInterval > 0) && (i > 0)
+          && (i % m_migrationInterval == 0);
+        List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+        for (int k = 0; k < m_numIslands; k++) {
+          final int island = k;
+          results.add(pool.submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+              return islands[island].step(generation, evaluators[island]);
+            }
+          }));
+        }
+        boolean converged = true;
+        for (Future<Boolean> f : results) {
+          converged &= f.get();
+        }
+        // only once every island has finished the generation, so that the
+        // migrants are taken in at the start of the next one
+        if (migrate) {
+          for (int k = 0; k < m_numIslands; k++) {
+            islands[k].emigrate(islands[(k + 1) % m_numIslands].m_immigrants);
+          }
+        }
+
+        for (GeneticSearch island : islands) {
+          if (m_best == null
+            || island.m_best.getObjective() > m_best.getObjective()
+            || (Utils.eq(island.m_best.getObjective(), m_best.getObjective())
+              && island.m_bestFeatureCount < m_bestFeatureCount)) {
+            m_best = (GABitSet) island.m_best.clone();
+            m_bestFeatureCount = island.m_bestFeatureCount;
+          }
+        }
+        if ((i == 0) || (i == m_maxGenerations)
+          || ((i % m_reportFrequency) == 0) || converged) {
+          for (int k = 0; k < m_numIslands; k++) {
+            m_generationReports.append("\nIsland " + (k + 1));
+            m_generationReports.append(islands[k].populationReport(i));
+          }
+        }
+        if (converged) {
+          break;
+        }
+      }
+    } finally {
+      pool.shutdown();
+    }
+    return attributeList(m_best.getChromosome());
+  }
+
+  /**
+   * Makes the search for one island: a copy of this search's settings and
+   * data with its own random number generator and migration queue, sharing
+   * the lookup table.
+   * 
+   * @param k the index of the island
+   * @return the island
+   */
+  private GeneticSearch island(int k) {
+    GeneticSearch island = new GeneticSearch();
+    island.m_starting = m_starting;
+    island.m_hasClass = m_hasClass;
+    island.m_classIndex = m_classIndex;
+    island.m_numAttribs = m_numAttribs;
+    island.m_popSize = m_popSize;
+    island.m_pCrossover = m_pCrossover;
+    island.m_pMutation = m_pMutation;
+    island.m_maxGenerations = m_maxGenerations;
+    island.m_seed = m_seed + k;
+    island.m_random = new Random(m_seed + k);
+    island.m_lookupTable = m_lookupTable;
+    island.m_population = new GABitSet[m_popSize];
+    island.m_immigrants = new ConcurrentLinkedQueue<GABitSet>();
+    return island;
+  }
+
+  /**
+   * Evolves this island by one generation: the initial population for
+   * generation 0, otherwise the immigrants replace the worst members and a
+   * new generation is bred.
+   * 
+   * @param generation the generation number
+   * @param ASEvaluator the subset evaluator of this island
+   * @return true if the population has converged
+   * @throws Exception if something goes wrong
+   */
+  private boolean step(int generation, SubsetEvaluator ASEvaluator)
+    throws Exception {
+    if (generation == 0) {
+      initPopulation();
+    } else {
+      if (!m_immigrants.isEmpty()) {
+        immigrate();
+      }
+      generation();
+    }
+    evaluatePopulation(ASEvaluator);
+    populationStatistics();
+    scalePopulation();
+    return checkBest();
+  }
+
+  /**
+   * Puts copies of the best members of the population in a queue, best first.
+   * 
+   * @param queue the queue of the next island
+   * @throws Exception if a member can't be copied
+   */
+  private void emigrate(ConcurrentLinkedQueue<GABitSet> queue)
+    throws Exception {
+    GABitSet[] sorted = byObjective();
+    for (int i = 0; i < m_numMigrants && i < sorted.length; i++) {
+      queue.add((GABitSet) sorted[sorted.length - 1 - i].clone());
+    }
+  }
+
+  /**
+   * Replaces the worst members of the population with the members in the
+   * migration queue, and updates the fitness of the population.
+   * 
+   * @throws Exception if a member can't be copied
+   */
+  private void immigrate() throws Exception {
+    GABitSet[] sorted = byObjective();
+    List<GABitSet> population = new ArrayList<GABitSet>(Arrays.asList(m_population));
+    GABitSet immigrant;
+    int i = 0;
+    while ((immigrant = m_immigrants.poll()) != null && i < sorted.length) {
+      population.set(population.indexOf(sorted[i++]), immigrant);
+    }
+    m_immigrants.clear();
+    m_population = population.toArray(m_population);
+    populationStatistics();
+    scalePopulation();
+  }
+
+  /**
+   * Returns the population sorted by increasing objective. Members with equal
+   * objectives keep their order.
+   * 
+   * @return the sorted population
+   */
+  private GABitSet[] byObjective() {
+    GABitSet[] sorted = m_population.clone();
+    Arrays.sort(sorted, new Comparator<GABitSet>() {
+      @Override
+      public int compare(GABitSet a, GABitSet b) {
+        return Double.compare(a.getObjective(), b.getObjective());
+      }
+    });
+    return sorted;
+  }
+
   /**
    * converts a BitSet into a list of attribute indexes
    * 
@@ -1322,6 +1740,10 @@ public class GeneticSearch extends ASSearch implements StartSetHandler,
     m_starting = null;
     m_startRange = new Range();
     m_seed = 1;
+    m_numIslands = 1;
+    m_migrationInterval = 5;
+    m_numMigrants = 1;
+    m_poolSize = 1;
   }
 
   /**
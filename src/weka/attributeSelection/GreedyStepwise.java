@@ -795,6 +795,11 @@ public class GreedyStepwise extends ASSearch implements RankedOutputSearch,
       }
     }
 
+    // a wrapper set up for racing races the candidates of every step, which
+    // takes the place of evaluating them in parallel
+    boolean racing = (m_ASEval instanceof WrapperSubsetEval)
+      && ((WrapperSubsetEval) m_ASEval).getRaceSignificance() > 0;
+
     // Evaluate the initial subset
     best_merit = ASEvaluator.evaluateSubset(m_best_group);
 
@@ -815,6 +820,10 @@ public class GreedyStepwise extends ASSearch implements RankedOutputSearch,
       }
       done = true;
       addone = false;
+      double[] raced = null;
+      if (racing) {
+        raced = race(temp_group);
+      }
       for (i = 0; i < m_numAttribs; i++) {
         if (m_backward) {
           z = ((i != m_classIndex) && (temp_group.get(i)));
@@ -829,7 +838,7 @@ public class GreedyStepwise extends ASSearch implements RankedOutputSearch,
             temp_group.set(i);
           }
 
-          if (parallel) {
+          if (parallel && !racing) {
             final BitSet tempCopy = (BitSet) temp_group.clone();
             final int attBeingEvaluated = i;
 
@@ -851,7 +860,8 @@ public class GreedyStepwise extends ASSearch implements RankedOutputSearch,
 
             results.add(future);
           } else {
-            temp_merit = ASEvaluator.evaluateSubset(temp_group);
+            temp_merit = racing ? raced[i] : ASEvaluator
+              .evaluateSubset(temp_group);
             if (m_backward) {
               z = (temp_merit >= temp_best);
             } else {
@@ -882,7 +892,7 @@ public class GreedyStepwise extends ASSearch implements RankedOutputSearch,
         }
       }
 
-      if (parallel) {
+      if (parallel && !racing) {
         for (int j = 0; j < results.size(); j++) {
           Future<Double[]> f = results.get(j);
 
@@ -937,6 +947,40 @@ public class GreedyStepwise extends ASSearch implements RankedOutputSearch,
     return attributeList(m_best_group);
   }
 
+  /**
+   * Races the subsets one step away from the given subset, and returns the
+   * merit of each candidate by the attribute added or removed. A candidate
+   * that drops out of the race gets NaN, so that it is never taken.
+   * 
+   * @param group the current subset
+   * @return the merit of each candidate, by attribute
+   * @throws Exception if a subset could not be evaluated
+   */
+  protected double[] race(BitSet group) throws Exception {
+    List<BitSet> candidates = new ArrayList<BitSet>();
+    List<Integer> flipped = new ArrayList<Integer>();
+    for (int i = 0; i < m_numAttribs; i++) {
+      if (i != m_classIndex && group.get(i) == m_backward) {
+        BitSet candidate = (BitSet) group.clone();
+        candidate.flip(i);
+        candidates.add(candidate);
+        flipped.add(i);
+      }
+    }
+
+    WrapperSubsetEval.SubsetScore[] scores = ((WrapperSubsetEval) m_ASEval)
+      .raceSubsets(candidates.toArray(new BitSet[candidates.size()]));
+    double[] merits = new double[m_numAttribs];
+    for (int j = 0; j < scores.length; j++) {
+      merits[flipped.get(j)] =
+        scores[j].isPromoted() ? scores[j].getObjectives()[0] : Double.NaN;
+    }
+    if (m_debug) {
+      System.err.println("Raced " + scores.length + " subsets");
+    }
+    return merits;
+  }
+
   /**
    * Produces a ranked list of attributes. Search must have been performed prior
    * to calling this function. Search is called by this function to complete the
@@ -0,0 +1,301 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ *    Hypervolume.java
+ *
+ */
+
+package weka.attributeSelection;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.TreeMap;
+
+import weka.core.RevisionHandler;
+import weka.core.RevisionUtils;
+
+/**
+ * Exact hypervolume indicator of a set of points with maximised objectives:
+ * the volume of the region that the points dominate and that dominates a
+ * reference point. Objective values below the reference point are clipped to
+ * it, and points with a missing (NaN) objective value are ignored.<br/>
+ * <br/>
+ * Two objectives are handled with a sweep, three with the dimension sweep of
+ * Beume et al., which keeps the two-dimensional front of the slices seen so
+ * far in a sorted map, and more with the WFG algorithm of While et al.<br/>
+ * <br/>
+ * For more information see:<br/>
+ * <br/>
+ * N. Beume, C.M. Fonseca, M. Lopez-Ibanez, L. Paquete, J. Vahrenhold (2009).
+ * On the Complexity of Computing the Hypervolume Indicator. IEEE Transactions
+ * on Evolutionary Computation. 13(5):1075-1082.<br/>
+ * <br/>
+ * L. While, L. Bradstreet, L. Barone (2012). A Fast Way of Calculating Exact
+ * Hypervolumes. IEEE Transactions on Evolutionary Computation. 16(1):86-95.
+ */
+public class Hypervolume implements RevisionHandler {
+
+  /**
+   * Orders points by decreasing value of one objective.
+   */
+  protected static class Decreasing implements Comparator<double[]> {
+
+    /** the objective to order by */
+    protected int m_objective;
+
+    /**
+     * Constructor.
+     *
+     * @param objective the objective to order by
+     */
+    public Decreasing(int objective) {
+      m_objective = objective;
+    }
+
+    @Override
+    public int compare(double[] a, double[] b) {
+      return Double.compare(b[m_objective], a[m_objective]);
+    }
+  }
+
+  /**
+   * Returns the hypervolume of the given points.
+   *
+   * @param points the objective values, point by objective
+   * @param reference the reference point
+   * @return the hypervolume
+   */
+  public static double compute(double[][] points, double[] reference) {
+
+    int numObjectives = reference.length;
+    double[][] boxes = new double[points.length][];
+    int n = 0;
+    for (double[] point : points) {
+      double[] box = new double[numObjectives];
+      boolean valid = true;
+      for (int j = 0; j < numObjectives; j++) {
+        if (Double.isNaN(point[j])) {
+          valid = false;
+          break;
+        }
+        box[j] = Math.max(0, point[j] - reference[j]);
+      }
+      if (valid) {
+        boxes[n++] = box;
+      }
+    }
+    boxes = Arrays.copyOf(boxes, n);
+
+    switch (numObjectives) {
+    case 0:
+      return 0;
+    case 1:
+      double max = 0;
+      for (double[] box : boxes) {
+        max = Math.max(max, box[0]);
+      }
+      return max;
+    case 2:
+      return area(boxes);
+    case 3:
+      return volume(boxes);
+    default:
+      return wfg(boxes, numObjectives);
+    }
+  }
+
+  /**
+   * Returns the area dominated by boxes in the first two objectives, sweeping
+   * over them in decreasing order of the first objective.
+   *
+   * @param boxes the box corners, relative to the reference point
+   * @return the area
+   */
+  protected static double area(double[][] boxes) {
+
+    double[][] sorted = boxes.clone();
+    Arrays.sort(sorted, new Decreasing(0));
+    double area = 0, height = 0;
+    for (double[] box : sorted) {
+      if (box[1] > height) {
+        area += box[0] * (box[1] - height);
+        height = box[1];
+      }
+    }
+    return area;
+  }
+
+  /**
+   * Returns the volume dominated by boxes in three objectives. The boxes are
+   * visited in decreasing order of the third objective, and the area of the
+   * two-dimensional front of the boxes seen so far is kept up to date as
+   * boxes are inserted into it.
+   *
+   * @param boxes the box corners, relative to the reference point
+   * @return the volume
+   */
+  protected static double volume(double[][] boxes) {
+
+    double[][] sorted = boxes.clone();
+    Arrays.sort(sorted, new Decreasing(2));
+
+    // the staircase: first objective to second, the second decreasing as the
+    // first increases
+    TreeMap<Double, Double> front = new TreeMap<Double, Double>();
+    double area = 0, volume = 0;
+    for (int i = 0; i < sorted.length; i++) {
+      double x = sorted[i][0], y = sorted[i][1];
+      Map.Entry<Double, Double> above = front.ceilingEntry(x);
+      if (above == null || above.getValue() < y) {
+        // remove the corners the new box dominates
+        Map.Entry<Double, Double> below = front.floorEntry(x);
+        while (below != null && below.getValue() <= y) {
+          area -= contribution(front, below.getKey(), below.getValue());
+          front.remove(below.getKey());
+          Map.Entry<Double, Double> next = front.higherEntry(below.getKey());
+          if (next != null) {
+            Double prev = front.lowerKey(below.getKey());
+            area +=
+              (below.getKey() - ((prev == null) ? 0 : prev)) * next.getValue();
+          }
+          below = front.floorEntry(x);
+        }
+        Double prev = front.lowerKey(x);
+        Map.Entry<Double, Double> next = front.higherEntry(x);
+        if (next != null) {
+          area -= (x - ((prev == null) ? 0 : prev)) * next.getValue();
+        }
+        front.put(x, y);
+        area += contribution(front, x, y);
+      }
+      double nextZ = (i + 1 < sorted.length) ? sorted[i + 1][2] : 0;
+      volume += area * (sorted[i][2] - nextZ);
+    }
+    return volume;
+  }
+
+  /**
+   * Returns the area a corner of the staircase adds on top of the corner
+   * before it.
+   *
+   * @param front the staircase
+   * @param x the first objective of the corner
+   * @param y the second objective of the corner
+   * @return the area of the corner's strip
+   */
+  private static double contribution(TreeMap<Double, Double> front, double x,
+    double y) {
+
+    Double prev = front.lowerKey(x);
+    return (x - ((prev == null) ? 0 : prev)) * y;
+  }
+
+  /**
+   * Returns the volume dominated by boxes with the WFG algorithm: the sum of
+   * the exclusive volumes of the boxes, each computed from the boxes after it
+   * limited to its own corner.
+   *
+   * @param boxes the box corners, relative to the reference point
+   * @param numObjectives the number of objectives
+   * @return the volume
+   */
+  protected static double wfg(double[][] boxes, int numObjectives) {
+
+    if (boxes.length == 0) {
+      return 0;
+    }
+    if (numObjectives == 3) {
+      return volume(boxes);
+    }
+    double[][] sorted = boxes.clone();
+    Arrays.sort(sorted, new Decreasing(numObjectives - 1));
+
+    double volume = 0;
+    for (int i = 0; i < sorted.length; i++) {
+      double inclusive = 1;
+      for (int j = 0; j < numObjectives; j++) {
+        inclusive *= sorted[i][j];
+      }
+      if (inclusive == 0) {
+        continue;
+      }
+      double[][] limited = new double[sorted.length - i - 1][];
+      for (int k = i + 1; k < sorted.length; k++) {
+        double[] box = new double[numObjectives];
+        for (int j = 0; j < numObjectives; j++) {
+          box[j] = Math.min(sorted[k][j], sorted[i][j]);
+        }
+        limited[k - i - 1] = box;
+      }
+      volume += inclusive - wfg(nonDominated(limited), numObjectives);
+    }
+    return volume;
+  }
+
+  /**
+   * Returns the boxes that no other box contains, keeping one of equal
+   * boxes.
+   *
+   * @param boxes the box corners
+   * @return the boxes on the front
+   */
+  protected static double[][] nonDominated(double[][] boxes) {
+
+    double[][] result = new double[boxes.length][];
+    int n = 0;
+    for (int i = 0; i < boxes.length; i++) {
+      boolean dominated = false;
+      for (int k = 0; k < boxes.length && !dominated; k++) {
+        if (k != i && contains(boxes[k], boxes[i])
+          && (k < i || !contains(boxes[i], boxes[k]))) {
+          dominated = true;
+        }
+      }
+      if (!dominated) {
+        result[n++] = boxes[i];
+      }
+    }
+    return Arrays.copyOf(result, n);
+  }
+
+  /**
+   * Returns whether box a contains box b.
+   *
+   * @param a the first box corner
+   * @param b the second box corner
+   * @return true if a is at least b in every objective
+   */
+  private static boolean contains(double[] a, double[] b) {
+
+    for (int j = 0; j < a.length; j++) {
+      if (a[j] < b[j]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Returns the revision string.
+   *
+   * @return the revision
+   */
+  @Override
+  public String getRevision() {
+    return RevisionUtils.extract("$Revision$");
+  }
+}
@@ -21,20 +21,39 @@
 
 package weka.attributeSelection;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
 import java.lang.reflect.Array;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.BitSet;
 import java.util.Comparator;
 import java.util.Enumeration;
 import java.util.HashSet;
-import java.util.Hashtable;
 import java.util.IllformedLocaleException;
+import java.util.List;
+import java.util.Map;
 import java.util.Observer;
 import java.util.Random;
 import java.util.Set;
 import java.util.TreeSet;
 import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.netlib.util.doubleW;
 import org.netlib.util.intW;
@@ -129,6 +148,11 @@ import weka.core.Utils;
  *  (default = 1)
  * </pre>
  * 
+ * <pre>
+ * -num-slots &lt;int&gt;
+ *  The number of execution slots, for example, the number of cores in the CPU. (default 1)
+ * </pre>
+ * 
  * <!-- options-end -->
  * 
  * @author Mark Hall (mhall@cs.waikato.ac.nz)
@@ -172,8 +196,71 @@ public class NSGAII extends ASSearch implements StartSetHandler, OptionHandler,
 	/** the number of entries to cache for lookup */
 	private int m_lookupTableSize;
 
-	/** the lookup table */
-	private Hashtable<BitSet, GABitSet> m_lookupTable;
+	/** the lookup table, shared by the evaluation threads */
+	private ConcurrentHashMap<BitSet, GABitSet> m_lookupTable;
+
+	/** the number of execution slots used to evaluate a population */
+	protected int m_poolSize = 1;
+
+	/** Thread pool */
+	protected transient ExecutorService m_pool = null;
+
+	/** one evaluator copy per execution slot */
+	protected transient WrapperSubsetEval[] m_evaluators = null;
+
+	/**
+	 * offspring are only evaluated in full if the surrogate predicts them in
+	 * this front or a better one, -1 to evaluate all of them in full
+	 */
+	protected int m_surrogateFront = -1;
+
+	/** the number of neighbours the surrogate averages over */
+	protected int m_surrogateNeighbours = 5;
+
+	/** the surrogate, trained on every subset evaluated in full */
+	protected transient SubsetSurrogate m_surrogate = null;
+
+	/** the number of subsets evaluated in full in the last generation */
+	protected int m_realEvaluations;
+
+	/**
+	 * the number of subsets estimated by the surrogate or by successive halving
+	 * in the last generation
+	 */
+	protected int m_surrogateEvaluations;
+
+	/** whether the evaluator screens batches of subsets by successive halving */
+	protected boolean m_halving;
+
+	/**
+	 * the file the state of the search is saved to after every generation and
+	 * resumed from, null for none
+	 */
+	protected File m_checkpointFile = null;
+
+	/**
+	 * the digest of the settings, evaluator and data a checkpoint must have
+	 * been saved for to be resumed
+	 */
+	protected transient byte[] m_checkpointContext;
+
+	/**
+	 * the search stops once the hypervolume of the first front has not grown
+	 * over this many generations, 0 to always run all generations
+	 */
+	protected int m_stagnationWindow = 0;
+
+	/** the relative hypervolume growth that still counts as stagnation */
+	protected double m_stagnationTolerance = 0.0;
+
+	/** the reference point of the hypervolume, the worst initial objectives */
+	protected double[] m_referencePoint;
+
+	/** the hypervolume of the first front after each generation */
+	protected double[] m_hypervolumes;
+
+	/** whether the search has stopped because the front stagnated */
+	protected boolean m_converged;
 
 	/** random number generation */
 	private Random m_random;
@@ -338,19 +425,9 @@ public class NSGAII extends ASSearch implements StartSetHandler, OptionHandler,
 		/** the fitness */
 		private MyDoub m_fitness;
 
-		/** the n (individualities that dominate it) by XieNaoban */
-		public int n;
-
-		/** the s (individualities that are dominated by it) by XieNaoban */
-		public int s;
-		public GABitSet[] sArr;
-
-		/** the n (individualities that dominate it) by XieNaoban */
+		/** the non-dominated front the individual belongs to */
 		public int rank;
 
-		/** the distance (individualities that dominate it) by XieNaoban */
-		public double d;
-
 		/**
 		 * Constructor
 		 */
@@ -358,11 +435,7 @@ public class NSGAII extends ASSearch implements StartSetHandler, OptionHandler,
 			m_objective = new MyDoub();
 			m_fitness = new MyDoub();
 			m_chromosome = new BitSet();
-			s = 0;
-			n = 0;
-			d = 0;
 			rank = -1;
-			sArr = new GABitSet[m_popSize * 2];
 		}
 
 		/**
@@ -379,11 +452,7 @@ public class NSGAII extends ASSearch implements StartSetHandler, OptionHandler,
 			temp.setObjective(this.getObjective());
 			temp.setFitness(this.getFitness());
 			temp.setChromosome((BitSet) (this.m_chromosome.clone()));
-			temp.s = 0;
-			temp.n = 0;
-			temp.d = 0;
 			temp.rank = rank;
-			temp.sArr = new GABitSet[m_popSize * 2];
 			return temp;
 			// return super.clone();
 		}
@@ -497,7 +566,7 @@ public class NSGAII extends ASSearch implements StartSetHandler, OptionHandler,
 	 **/
 	@Override
 	public Enumeration<Option> listOptions() {
-		Vector<Option> newVector = new Vector<Option>(7);
+		Vector<Option> newVector = new Vector<Option>(8);
 
 		newVector.addElement(new Option("\tSpecify a starting set of attributes." + "\n\tEg. 1,3,5-7."
 				+ "If supplied, the starting set becomes" + "\n\tone member of the initial random" + "\n\tpopulation.",
@@ -516,6 +585,18 @@ public class NSGAII extends ASSearch implements StartSetHandler, OptionHandler,
 						+ "\n\treport every 5th generation" + "\n\t(default = number of generations)",
 				"R", 1, "-R <report frequency>"));
 		newVector.addElement(new Option("\tSet the random number seed." + "\n\t(default = 1)", "S", 1, "-S <seed>"));
+		newVector.addElement(new Option("\t" + numExecutionSlotsTipText() + " (default 1)\n", "-num-slots", 1,
+				"-num-slots <int>"));
+		newVector.addElement(new Option("\t" + surrogateFrontTipText() + "\n\t(default = -1)", "surrogate-front", 1,
+				"-surrogate-front <front>"));
+		newVector.addElement(new Option("\t" + surrogateNeighboursTipText() + "\n\t(default = 5)",
+				"surrogate-neighbours", 1, "-surrogate-neighbours <int>"));
+		newVector.addElement(new Option("\t" + checkpointFileTipText() + "\n\t(default = none)", "checkpoint", 1,
+				"-checkpoint <file>"));
+		newVector.addElement(new Option("\t" + stagnationWindowTipText() + "\n\t(default = 0)", "stagnation-window", 1,
+				"-stagnation-window <generations>"));
+		newVector.addElement(new Option("\t" + stagnationToleranceTipText() + "\n\t(default = 0.0)",
+				"stagnation-tolerance", 1, "-stagnation-tolerance <fraction>"));
 		return newVector.elements();
 	}
 
@@ -572,6 +653,51 @@ public class NSGAII extends ASSearch implements StartSetHandler, OptionHandler,
 	 *  (default = 1)
 	 * </pre>
 	 * 
+	 * <pre>
+	 * -num-slots &lt;int&gt;
+	 *  The number of execution slots, for example, the number of cores in the CPU. (default 1)
+	 * </pre>
+	 * 
+	 * <pre>
+	 * -surrogate-front &lt;front&gt;
+	 *  Offspring are only evaluated in full if a surrogate trained on the
+	 *  subsets evaluated so far predicts them in this non-dominated front or a
+	 *  better one of the new offspring (0 is the first front). The others keep
+	 *  the predicted objectives until a later generation. -1 evaluates all
+	 *  offspring in full.
+	 *  (default = -1)
+	 * </pre>
+	 * 
+	 * <pre>
+	 * -surrogate-neighbours &lt;int&gt;
+	 *  The number of evaluated subsets, nearest in Hamming distance, whose
+	 *  objectives the surrogate averages.
+	 *  (default = 5)
+	 * </pre>
+	 * 
+	 * <pre>
+	 * -checkpoint &lt;file&gt;
+	 *  The file the state of the search is saved to after every generation.
+	 *  If the file exists when the search starts, the search resumes from it,
+	 *  as long as it was saved for the same settings, evaluator and data.
+	 *  The file is deleted when the search finishes.
+	 *  (default = none)
+	 * </pre>
+	 * 
+	 * <pre>
+	 * -stagnation-window &lt;generations&gt;
+	 *  Stop the search once the hypervolume of the first front has not grown
+	 *  over this many generations. 0 always runs all generations.
+	 *  (default = 0)
+	 * </pre>
+	 * 
+	 * <pre>
+	 * -stagnation-tolerance &lt;fraction&gt;
+	 *  The relative growth of the hypervolume over the stagnation window
+	 *  that still counts as stagnation.
+	 *  (default = 0.0)
+	 * </pre>
+	 * 
 	 * <!-- options-end -->
 	 * 
 	 * @param options
@@ -621,6 +747,36 @@ public class NSGAII extends ASSearch implements StartSetHandler, OptionHandler,
 			setSeed(Integer.parseInt(optionString));
 		}
 
+		optionString = Utils.getOption("num-slots", options);
+		if (optionString.length() != 0) {
+			setNumExecutionSlots(Integer.parseInt(optionString));
+		}
+
+		optionString = Utils.getOption("surrogate-front", options);
+		if (optionString.length() != 0) {
+			setSurrogateFront(Integer.parseInt(optionString));
+		}
+
+		optionString = Utils.getOption("surrogate-neighbours", options);
+		if (optionString.length() != 0) {
+			setSurrogateNeighbours(Integer.parseInt(optionString));
+		}
+
+		optionString = Utils.getOption("stagnation-window", options);
+		if (optionString.length() != 0) {
+			setStagnationWindow(Integer.parseInt(optionString));
+		}
+
+		optionString = Utils.getOption("stagnation-tolerance", options);
+		if (optionString.length() != 0) {
+			setStagnationTolerance(Double.parseDouble(optionString));
+		}
+
+		optionString = Utils.getOption("checkpoint", options);
+		if (optionString.length() != 0) {
+			setCheckpointFile(new File(optionString));
+		}
+
 		Utils.checkForRemainingOptions(options);
 	}
 
@@ -650,6 +806,20 @@ public class NSGAII extends ASSearch implements StartSetHandler, OptionHandler,
 		options.add("" + getReportFrequency());
 		options.add("-S");
 		options.add("" + getSeed());
+		options.add("-num-slots");
+		options.add("" + getNumExecutionSlots());
+		options.add("-surrogate-front");
+		options.add("" + getSurrogateFront());
+		options.add("-surrogate-neighbours");
+		options.add("" + getSurrogateNeighbours());
+		options.add("-stagnation-window");
+		options.add("" + getStagnationWindow());
+		options.add("-stagnation-tolerance");
+		options.add("" + getStagnationTolerance());
+		if (getCheckpointFile() != null) {
+			options.add("-checkpoint");
+			options.add(getCheckpointFile().getPath());
+		}
 
 		return options.toArray(new String[0]);
 	}
@@ -754,6 +924,181 @@ public class NSGAII extends ASSearch implements StartSetHandler, OptionHandler,
 		return m_reportFrequency;
 	}
 
+	/**
+	 * @return a string to describe the option
+	 */
+	public String numExecutionSlotsTipText() {
+		return "The number of execution slots, for example, the number of cores in the CPU.";
+	}
+
+	/**
+	 * Gets the number of threads.
+	 */
+	public int getNumExecutionSlots() {
+		return m_poolSize;
+	}
+
+	/**
+	 * Sets the number of threads
+	 */
+	public void setNumExecutionSlots(int nT) {
+		m_poolSize = nT;
+	}
+
+	/**
+	 * Returns the tip text for this property
+	 * 
+	 * @return tip text for this property suitable for displaying in the
+	 *         explorer/experimenter gui
+	 */
+	public String surrogateFrontTipText() {
+		return "Offspring are only evaluated in full if a surrogate trained on the subsets evaluated so far "
+				+ "predicts them in this non-dominated front or a better one of the new offspring (0 is the first front). "
+				+ "The others keep the predicted objectives until a later generation. "
+				+ "-1 evaluates all offspring in full.";
+	}
+
+	/**
+	 * Set the front up to which offspring are evaluated in full
+	 * 
+	 * @param f
+	 *            the front, or -1 to switch the surrogate off
+	 */
+	public void setSurrogateFront(int f) {
+		m_surrogateFront = f;
+	}
+
+	/**
+	 * Get the front up to which offspring are evaluated in full
+	 * 
+	 * @return the front, or -1 if the surrogate is switched off
+	 */
+	public int getSurrogateFront() {
+		return m_surrogateFront;
+	}
+
+	/**
+	 * Returns the tip text for this property
+	 * 
+	 * @return tip text for this property suitable for displaying in the
+	 *         explorer/experimenter gui
+	 */
+	public String surrogateNeighboursTipText() {
+		return "The number of evaluated subsets, nearest in Hamming distance, whose objectives the surrogate averages.";
+	}
+
+	/**
+	 * Set the number of neighbours the surrogate averages over
+	 * 
+	 * @param k
+	 *            the number of neighbours
+	 */
+	public void setSurrogateNeighbours(int k) {
+		m_surrogateNeighbours = k;
+	}
+
+	/**
+	 * Get the number of neighbours the surrogate averages over
+	 * 
+	 * @return the number of neighbours
+	 */
+	public int getSurrogateNeighbours() {
+		return m_surrogateNeighbours;
+	}
+
+	/**
+	 * Returns the tip text for this property
+	 * 
+	 * @return tip text for this property suitable for displaying in the
+	 *         explorer/experimenter gui
+	 */
+	public String checkpointFileTipText() {
+		return "The file the state of the search is saved to after every generation. "
+				+ "If the file exists when the search starts, the search resumes from it, "
+				+ "as long as it was saved for the same settings, evaluator and data. "
+				+ "The file is deleted when the search finishes.";
+	}
+
+	/**
+	 * Set the file the state of the search is saved to
+	 * 
+	 * @param f
+	 *            the file, or null to save nothing
+	 */
+	public void setCheckpointFile(File f) {
+		m_checkpointFile = f;
+	}
+
+	/**
+	 * Get the file the state of the search is saved to
+	 * 
+	 * @return the file, or null if nothing is saved
+	 */
+	public File getCheckpointFile() {
+		return m_checkpointFile;
+	}
+
+	/**
+	 * Returns the tip text for this property
+	 * 
+	 * @return tip text for this property suitable for displaying in the
+	 *         explorer/experimenter gui
+	 */
+	public String stagnationWindowTipText() {
+		return "Stop the search once the hypervolume of the first front has not grown over this many generations. "
+				+ "0 always runs all generations.";
+	}
+
+	/**
+	 * Set the number of generations without hypervolume growth after which
+	 * the search stops
+	 * 
+	 * @param w
+	 *            the number of generations, or 0 to run all generations
+	 */
+	public void setStagnationWindow(int w) {
+		m_stagnationWindow = w;
+	}
+
+	/**
+	 * Get the number of generations without hypervolume growth after which
+	 * the search stops
+	 * 
+	 * @return the number of generations, or 0 if all generations are run
+	 */
+	public int getStagnationWindow() {
+		return m_stagnationWindow;
+	}
+
+	/**
+	 * Returns the tip text for this property
+	 * 
+	 * @return tip text for this property suitable for displaying in the
+	 *         explorer/experimenter gui
+	 */
+	public String stagnationToleranceTipText() {
+		return "The relative growth of the hypervolume over the stagnation window that still counts as stagnation.";
+	}
+
+	/**
+	 * Set the relative hypervolume growth that still counts as stagnation
+	 * 
+	 * @param t
+	 *            the relative growth
+	 */
+	public void setStagnationTolerance(double t) {
+		m_stagnationTolerance = t;
+	}
+
+	/**
+	 * Get the relative hypervolume growth that still counts as stagnation
+	 * 
+	 * @return the relative growth
+	 */
+	public double getStagnationTolerance() {
+		return m_stagnationTolerance;
+	}
+
 	/**
 	 * Returns the tip text for this property
 	 * 
@@ -976,7 +1321,16 @@ public class NSGAII extends ASSearch implements StartSetHandler, OptionHandler,
 		GAString.append("\n\tProbability of crossover: " + Utils.doubleToString(m_pCrossover, 6, 3));
 		GAString.append("\n\tProbability of mutation: " + Utils.doubleToString(m_pMutation, 6, 3));
 		GAString.append("\n\tReport frequency: " + m_reportFrequency);
-		GAString.append("\n\tRandom number seed: " + m_seed + "\n");
+		GAString.append("\n\tRandom number seed: " + m_seed);
+		GAString.append("\n\tExecution slots: " + m_poolSize + "\n");
+		if (m_surrogateFront >= 0) {
+			GAString.append("\tSurrogate front: " + m_surrogateFront);
+			GAString.append("\n\tSurrogate neighbours: " + m_surrogateNeighbours + "\n");
+		}
+		if (m_stagnationWindow > 0) {
+			GAString.append("\tStagnation window: " + m_stagnationWindow);
+			GAString.append("\n\tStagnation tolerance: " + m_stagnationTolerance + "\n");
+		}
 		GAString.append(m_generationReports.toString());
 		return GAString.toString();
 	}
@@ -1264,29 +1618,177 @@ public class NSGAII extends ASSearch implements StartSetHandler, OptionHandler,
 	/**
 	 * evaluates an entire population. Population members are looked up in a
 	 * hash table and if they are not found then they are evaluated using
-	 * ASEvaluator.
+	 * ASEvaluator. With more than one execution slot the members that are not
+	 * in the table are shared out between the slots, each of which evaluates
+	 * with its own copy of ASEvaluator.<br/>
+	 * <br/>
+	 * When screening, a member that is not in the table is only evaluated if
+	 * the surrogate predicts it in front m_surrogateFront or a better one of
+	 * the members that are not in the table. The others get the predicted
+	 * objectives and stay out of the table, so they are screened again if they
+	 * survive. If ASEvaluator is set up for successive halving, the remaining
+	 * members then go through its sampled rounds, and only those it promotes
+	 * are evaluated in full; the others keep the objectives of the largest
+	 * sample they reached and likewise stay out of the table.
 	 * 
 	 * @param ASEvaluator
 	 *            the subset evaluator to use for evaluating population members
+	 * @param screen
+	 *            true if the surrogate may stand in for the evaluator
 	 * @throws Exception
 	 *             if something goes wrong during evaluation
 	 */
-	private void evaluatePopulation(WrapperSubsetEval ASEvaluator) throws Exception {
+	private void evaluatePopulation(WrapperSubsetEval ASEvaluator, boolean screen) throws Exception {
 		int i;
-		MyDoub merit = new MyDoub();
+
+		// collect the members that have not been seen yet (each chromosome once)
+		List<GABitSet> pending = new ArrayList<GABitSet>();
+		Set<BitSet> queued = new HashSet<BitSet>();
 		for (i = 0; i < m_population.length; i++) {
-			// if its not in the lookup table then evaluate and insert
-			if (m_lookupTable.containsKey(m_population[i].getChromosome()) == false) {
-				merit.d = ASEvaluator.evaluateSubset(m_population[i].getChromosome(), m_stateName);
-				m_population[i].setObjective(merit);
-				m_lookupTable.put(m_population[i].getChromosome(), m_population[i]);
-			} else {
-				GABitSet temp = m_lookupTable.get(m_population[i].getChromosome());
+			BitSet c = m_population[i].getChromosome();
+			if (!m_lookupTable.containsKey(c) && queued.add(c)) {
+				pending.add(m_population[i]);
+			}
+		}
+
+		List<GABitSet> estimated = new ArrayList<GABitSet>();
+		if (screen && m_surrogate != null && m_surrogate.numSubsets() > m_surrogateNeighbours
+				&& pending.size() > 0) {
+			pending = screen(pending, estimated);
+		}
+		if (screen && m_halving && pending.size() > 1) {
+			pending = halve(ASEvaluator, pending, estimated);
+		}
+		m_realEvaluations = pending.size();
+		m_surrogateEvaluations = estimated.size();
+
+		if (m_pool == null) {
+			for (GABitSet member : pending) {
+				MyDoub merit = new MyDoub();
+				merit.d = ASEvaluator.evaluateSubset(member.getChromosome(), m_stateName);
+				member.setObjective(merit);
+				m_lookupTable.put(member.getChromosome(), member);
+			}
+		} else {
+			// evaluation uses a freshly seeded random number generator for every
+			// subset, so the objectives do not depend on which slot computes them
+			final List<GABitSet> toEvaluate = pending;
+			List<Future<Void>> results = new ArrayList<Future<Void>>();
+			int slots = Math.min(m_poolSize, toEvaluate.size());
+			for (int k = 0; k < slots; k++) {
+				final int slot = k;
+				final int stride = slots;
+				final WrapperSubsetEval theEvaluator = m_evaluators[k];
+				results.add(m_pool.submit(new Callable<Void>() {
+					@Override
+					public Void call() throws Exception {
+						for (int j = slot; j < toEvaluate.size(); j += stride) {
+							GABitSet member = toEvaluate.get(j);
+							MyDoub merit = new MyDoub();
+							merit.d = theEvaluator.evaluateSubset(member.getChromosome(), m_stateName);
+							member.setObjective(merit);
+							m_lookupTable.put(member.getChromosome(), member);
+						}
+						return null;
+					}
+				}));
+			}
+			for (Future<Void> f : results) {
+				f.get();
+			}
+		}
+
+		// train the surrogate in population order, so that it does not depend
+		// on the number of execution slots
+		if (m_surrogate != null) {
+			for (GABitSet member : pending) {
+				m_surrogate.addSubset(member.getChromosome(), member.getObjective().d);
+			}
+		}
+
+		for (i = 0; i < m_population.length; i++) {
+			GABitSet temp = m_lookupTable.get(m_population[i].getChromosome());
+			if (temp != null && temp != m_population[i]) {
 				m_population[i].setObjective(temp.getObjective());
 			}
 		}
 	}
 
+	/**
+	 * Splits the members that are not in the lookup table into those to
+	 * evaluate in full and those to estimate. Each member gets the objectives
+	 * the surrogate predicts for it, and those predicted in front
+	 * m_surrogateFront or a better one are returned for full evaluation. The
+	 * members are only ranked against each other, as predictions that average
+	 * over neighbours rarely reach the front of real objectives.
+	 * 
+	 * @param pending
+	 *            the members that are not in the lookup table
+	 * @param estimated
+	 *            receives the members that keep the predicted objectives
+	 * @return the members to evaluate in full
+	 * @throws Exception
+	 *             if the surrogate can't make a prediction
+	 */
+	private List<GABitSet> screen(List<GABitSet> pending, List<GABitSet> estimated) throws Exception {
+		double[][] predicted = new double[pending.size()][];
+		for (int j = 0; j < pending.size(); j++) {
+			MyDoub merit = new MyDoub();
+			merit.d = m_surrogate.predict(pending.get(j).getChromosome());
+			pending.get(j).setObjective(merit);
+			predicted[j] = merit.d;
+		}
+
+		int[] front = NonDominatedSorting.frontIndices(predicted);
+		List<GABitSet> toEvaluate = new ArrayList<GABitSet>();
+		for (int j = 0; j < pending.size(); j++) {
+			if (front[j] <= m_surrogateFront) {
+				toEvaluate.add(pending.get(j));
+			} else {
+				estimated.add(pending.get(j));
+			}
+		}
+		return toEvaluate;
+	}
+
+	/**
+	 * Splits the members that are not in the lookup table into those to
+	 * evaluate in full and those to estimate by the sampled rounds of
+	 * successive halving of ASEvaluator. The rounds run here, and the
+	 * promoted members are evaluated in full like any other.
+	 * 
+	 * @param ASEvaluator
+	 *            the subset evaluator to use
+	 * @param pending
+	 *            the members that are not in the lookup table
+	 * @param estimated
+	 *            receives the members that keep the sampled objectives
+	 * @return the members to evaluate in full
+	 * @throws Exception
+	 *             if a member could not be evaluated
+	 */
+	private List<GABitSet> halve(WrapperSubsetEval ASEvaluator, List<GABitSet> pending, List<GABitSet> estimated)
+			throws Exception {
+		BitSet[] subsets = new BitSet[pending.size()];
+		for (int j = 0; j < pending.size(); j++) {
+			subsets[j] = pending.get(j).getChromosome();
+		}
+		WrapperSubsetEval.SubsetScore[] scores = ASEvaluator.screenSubsets(subsets, m_stateName);
+
+		List<GABitSet> toEvaluate = new ArrayList<GABitSet>();
+		for (int j = 0; j < pending.size(); j++) {
+			if (scores[j].isPromoted()) {
+				toEvaluate.add(pending.get(j));
+			} else {
+				MyDoub merit = new MyDoub();
+				merit.d = scores[j].getObjectives();
+				pending.get(j).setObjective(merit);
+				estimated.add(pending.get(j));
+			}
+		}
+		return toEvaluate;
+	}
+
 	/**
 	 * creates random population members for the initial population. Also sets
 	 * the first population member to be a start set (if any) provided by the
@@ -1456,6 +1958,285 @@ public class NSGAII extends ASSearch implements StartSetHandler, OptionHandler,
 	 * text.append((j + 1) + " "); } } return text.toString(); }
 	 */
 
+	/**
+	 * saves the state of the search after a generation to the checkpoint
+	 * file, if any. The state is written to a temporary file first and then
+	 * moved over the checkpoint file, so that a crash while saving leaves the
+	 * previous state intact.
+	 * 
+	 * @param generation
+	 *            the generation that has just finished
+	 * @throws IOException
+	 *             if the state can't be written
+	 */
+	private void saveState(int generation) throws IOException {
+		if (m_checkpointFile == null) {
+			return;
+		}
+
+		File temp = new File(m_checkpointFile.getPath() + ".tmp");
+		ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+		try {
+			out.writeInt(m_checkpointContext.length);
+			out.write(m_checkpointContext);
+			out.writeInt(generation);
+			out.writeObject(m_random);
+			out.writeObject(m_generationReports.toString());
+			writeDoubles(out, m_sumFitness.d);
+			writeDoubles(out, m_referencePoint);
+			writeDoubles(out, m_hypervolumes);
+			out.writeBoolean(m_converged);
+
+			out.writeInt(m_population.length);
+			for (GABitSet member : m_population) {
+				out.writeBoolean(member != null);
+				if (member != null) {
+					writeLongs(out, member.getChromosome().toLongArray());
+					writeDoubles(out, member.getObjective().d);
+					writeDoubles(out, member.getFitness().d);
+					out.writeInt(member.rank);
+				}
+			}
+
+			out.writeInt(m_lookupTable.size());
+			for (Map.Entry<BitSet, GABitSet> entry : m_lookupTable.entrySet()) {
+				writeLongs(out, entry.getKey().toLongArray());
+				writeDoubles(out, entry.getValue().getObjective().d);
+			}
+		} finally {
+			out.close();
+		}
+		Files.move(temp.toPath(), m_checkpointFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * computes the digest of everything the state of the search depends on:
+	 * the settings of the search, the statistics, the settings of the
+	 * evaluator and its training data
+	 * 
+	 * @param ASEvaluator
+	 *            the evaluator
+	 * @return the digest
+	 * @throws Exception
+	 *             if the digest can't be computed
+	 */
+	private byte[] checkpointContext(WrapperSubsetEval ASEvaluator) throws Exception {
+		MessageDigest digest = MessageDigest.getInstance("SHA-256");
+		DataOutputStream out = SubsetMeritCache.digestStream(digest);
+		out.writeInt(m_seed);
+		out.writeInt(m_popSize);
+		out.writeInt(m_numAttribs);
+		out.writeInt(m_maxGenerations);
+		out.writeDouble(m_pCrossover);
+		out.writeDouble(m_pMutation);
+		out.writeInt(m_surrogateFront);
+		out.writeInt(m_surrogateNeighbours);
+		out.writeInt(m_stagnationWindow);
+		out.writeDouble(m_stagnationTolerance);
+		SubsetMeritCache.writeString(out, getStartSet());
+		out.writeInt(m_objects);
+		for (String name : m_stateName) {
+			SubsetMeritCache.writeString(out, name);
+		}
+		out.write(ASEvaluator.cacheContext());
+		out.writeDouble(ASEvaluator.getHalvingMinFraction());
+		out.writeInt(ASEvaluator.getHalvingEta());
+		out.writeDouble(ASEvaluator.getRaceSignificance());
+		out.close();
+		return digest.digest();
+	}
+
+	/**
+	 * restores the state of the search from the checkpoint file. The
+	 * surrogate, if any, is retrained on the restored lookup table.
+	 * 
+	 * @return the last generation that finished before the state was saved
+	 * @throws Exception
+	 *             if the state can't be read or was saved by a search with
+	 *             different settings
+	 */
+	private int loadState() throws Exception {
+		ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(m_checkpointFile)));
+		try {
+			byte[] context = new byte[in.readInt()];
+			in.readFully(context);
+			if (!Arrays.equals(context, m_checkpointContext)) {
+				throw new Exception("Checkpoint file " + m_checkpointFile
+						+ " was saved by a search with different settings, evaluator or data.");
+			}
+			int generation = in.readInt();
+			m_random = (Random) in.readObject();
+			m_generationReports = new StringBuffer((String) in.readObject());
+			m_sumFitness = new MyDoub();
+			m_sumFitness.d = readDoubles(in);
+			m_referencePoint = readDoubles(in);
+			m_hypervolumes = Arrays.copyOf(readDoubles(in), m_maxGenerations + 1);
+			m_converged = in.readBoolean();
+
+			m_population = new GABitSet[in.readInt()];
+			for (int i = 0; i < m_population.length; i++) {
+				if (in.readBoolean()) {
+					m_population[i] = new GABitSet();
+					m_population[i].setChromosome(BitSet.valueOf(readLongs(in)));
+					MyDoub merit = new MyDoub();
+					merit.d = readDoubles(in);
+					m_population[i].setObjective(merit);
+					MyDoub fitness = new MyDoub();
+					fitness.d = readDoubles(in);
+					m_population[i].setFitness(fitness);
+					m_population[i].rank = in.readInt();
+				}
+			}
+
+			int size = in.readInt();
+			for (int i = 0; i < size; i++) {
+				GABitSet member = new GABitSet();
+				member.setChromosome(BitSet.valueOf(readLongs(in)));
+				MyDoub merit = new MyDoub();
+				merit.d = readDoubles(in);
+				member.setObjective(merit);
+				m_lookupTable.put(member.getChromosome(), member);
+				if (m_surrogate != null) {
+					m_surrogate.addSubset(member.getChromosome(), merit.d);
+				}
+			}
+			return generation;
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * writes an array of doubles preceded by its length
+	 * 
+	 * @param out
+	 *            the stream to write to
+	 * @param values
+	 *            the values
+	 * @throws IOException
+	 *             if the values can't be written
+	 */
+	private static void writeDoubles(ObjectOutputStream out, double[] values) throws IOException {
+		out.writeInt(values.length);
+		for (double v : values) {
+			out.writeDouble(v);
+		}
+	}
+
+	/**
+	 * reads an array of doubles written by writeDoubles
+	 * 
+	 * @param in
+	 *            the stream to read from
+	 * @return the values
+	 * @throws IOException
+	 *             if the values can't be read
+	 */
+	private static double[] readDoubles(ObjectInputStream in) throws IOException {
+		double[] values = new double[in.readInt()];
+		for (int i = 0; i < values.length; i++) {
+			values[i] = in.readDouble();
+		}
+		return values;
+	}
+
+	/**
+	 * writes an array of longs preceded by its length
+	 * 
+	 * @param out
+	 *            the stream to write to
+	 * @param values
+	 *            the values
+	 * @throws IOException
+	 *             if the values can't be written
+	 */
+	private static void writeLongs(ObjectOutputStream out, long[] values) throws IOException {
+		out.writeInt(values.length);
+		for (long v : values) {
+			out.writeLong(v);
+		}
+	}
+
+	/**
+	 * reads an array of longs written by writeLongs
+	 * 
+	 * @param in
+	 *            the stream to read from
+	 * @return the values
+	 * @throws IOException
+	 *             if the values can't be read
+	 */
+	private static long[] readLongs(ObjectInputStream in) throws IOException {
+		long[] values = new long[in.readInt()];
+		for (int i = 0; i < values.length; i++) {
+			values[i] = in.readLong();
+		}
+		return values;
+	}
+
+	/**
+	 * computes the hypervolume of the members of the first front that have
+	 * been evaluated in full. The reference point is set to the worst
+	 * objectives of the initial population the first time.
+	 * 
+	 * @return the hypervolume
+	 */
+	private double frontHypervolume() {
+		List<double[]> front = new ArrayList<double[]>();
+		for (GABitSet member : m_population) {
+			if (member != null && member.rank == 0 && m_lookupTable.containsKey(member.getChromosome())) {
+				front.add(member.getObjective().d);
+			}
+		}
+
+		if (m_referencePoint == null) {
+			m_referencePoint = new double[m_objects];
+			Arrays.fill(m_referencePoint, Double.POSITIVE_INFINITY);
+			for (GABitSet member : m_population) {
+				if (member != null) {
+					for (int j = 0; j < m_objects; j++) {
+						m_referencePoint[j] = Math.min(m_referencePoint[j], member.getObjective().d[j]);
+					}
+				}
+			}
+		}
+		return Hypervolume.compute(front.toArray(new double[0][]), m_referencePoint);
+	}
+
+	/**
+	 * checks whether the hypervolume of the first front has grown by more
+	 * than the stagnation tolerance over the stagnation window
+	 * 
+	 * @param genNum
+	 *            the generation that has just finished
+	 * @return true if the search should stop
+	 */
+	private boolean stagnated(int genNum) {
+		if (m_stagnationWindow <= 0 || genNum < m_stagnationWindow) {
+			return false;
+		}
+		double before = m_hypervolumes[genNum - m_stagnationWindow];
+		return m_hypervolumes[genNum] - before <= m_stagnationTolerance * Math.abs(before);
+	}
+
+	/**
+	 * reports the hypervolume of the first front after a generation, and the
+	 * number of subsets evaluated in full and estimated by the surrogate or by
+	 * successive halving
+	 * 
+	 * @param genNum
+	 *            the generation number
+	 * @return a string with the generation's report
+	 */
+	private String generationReport(int genNum) {
+		String report = "\nGeneration: " + genNum + "\thypervolume: " + Utils.doubleToString(m_hypervolumes[genNum], 8);
+		if (m_surrogate != null || m_halving) {
+			report += "\tevaluated: " + m_realEvaluations + "\testimated: " + m_surrogateEvaluations;
+		}
+		return report;
+	}
+
 	/**
 	 * reset to default values for options
 	 */
@@ -1470,6 +2251,12 @@ public class NSGAII extends ASSearch implements StartSetHandler, OptionHandler,
 		m_starting = null;
 		m_startRange = new Range();
 		m_seed = 1;
+		m_poolSize = 1;
+		m_surrogateFront = -1;
+		m_surrogateNeighbours = 5;
+		m_checkpointFile = null;
+		m_stagnationWindow = 0;
+		m_stagnationTolerance = 0.0;
 	}
 
 	/**
@@ -1538,36 +2325,6 @@ private class BitSetComparator implements Comparator<GABitSet> {
 		// System.out.println("bbbbb"+m_population.length);
 	}
 
-	private class PopComparator implements Comparator<GABitSet> {
-		int obj;
-
-		public PopComparator(int n) {
-			obj = n;
-		}
-
-		public int compare(GABitSet arg1, GABitSet arg2) {
-			return (int) (arg2.getObjective().d[obj] - arg1.getObjective().d[obj]);
-		}
-
-	}
-
-	public class DPopComparator implements Comparator<GABitSet> {
-		public int compare(GABitSet arg1, GABitSet arg2) {
-			if (arg1 == null && arg2 == null)
-				return 0;
-			if (arg1 == null)
-				return 1;
-			if (arg2 == null)
-				return -1;
-			if (arg2.d > arg1.d)
-				return 1;
-			if (arg2.d < arg1.d)
-				return -1;
-			return 0;
-		}
-
-	}
-
 	public class IntComparator implements Comparator<int[]> {
 		public int compare(int[] o1, int[] o2) {
 			if (o1.length != o2.length)
@@ -1605,93 +2362,58 @@ private class BitSetComparator implements Comparator<GABitSet> {
 
 	}
 
+	/**
+	 * Ranks the population into non-dominated fronts and keeps the best
+	 * m_popSize individuals: whole fronts while they fit, then the most
+	 * isolated members of the next front by crowding distance.
+	 * 
+	 * @see NonDominatedSorting
+	 */
 	private void nonDominatedSort() {
-		/** set the s and n of each popu */
-		for (int i = 0; i < m_population.length; ++i) {
-			for (int j = i + 1; j < m_population.length; ++j) {
-				int isDomi = dominate(m_population[i].getObjective(), m_population[j].getObjective());
-				if (isDomi == 1) {
-					if (m_population[i] == m_population[i + 1])
-						System.out.println(i);
-					// System.out.println(i+" "+j+" "+m_population[i+1].s);
-					m_population[i].sArr[m_population[i].s++] = m_population[j];
-					++m_population[j].n;
-				} else if (isDomi == -1) {
-					++m_population[i].n;
-					// System.out.println(" "+i+" "+j+" "+m_population[i].n);
-					m_population[j].sArr[m_population[j].s++] = m_population[i];
-				}
-			}
-		}
-
-		/** set layers (the first layer) */
-		Vector<Vector<GABitSet>> layers = new Vector<Vector<GABitSet>>();
-		Vector<GABitSet> H = new Vector<GABitSet>();
-		int layer = 0;
-		for (int i = 0; i < m_population.length; ++i) {
-			if (m_population[i].n == 0) {
-				m_population[i].rank = layer;
-				H.add(m_population[i]);
-			}
-		}
-		layers.add(H);
-
-		/** set layers (the other layers) */
-		while (layers.get(layer).size() != 0) {
-			H = new Vector<GABitSet>();
-			for (GABitSet e : layers.get(layer)) {
-				for (int j = 0; j < e.s; ++j)
-					if (--e.sArr[j].n == 0) {
-						e.sArr[j].rank = layer + 1;
-						H.add(e.sArr[j]);
-					}
-			}
-			if (H.size() > 0)
-				layers.add(H);
-			else
-				break;
-			++layer;
+		/** rank the population on its objective values */
+		int size = m_population.length;
+		double[][] objectives = new double[size][];
+		for (int i = 0; i < size; ++i)
+			objectives[i] = m_population[i].getObjective().d;
+		int[] front = NonDominatedSorting.frontIndices(objectives);
+
+		/** order the population by front, keeping population order within one */
+		int numFronts = 0;
+		for (int i = 0; i < size; ++i)
+			numFronts = Math.max(numFronts, front[i] + 1);
+		int[] start = new int[numFronts + 1];
+		for (int i = 0; i < size; ++i)
+			++start[front[i] + 1];
+		for (int i = 0; i < numFronts; ++i)
+			start[i + 1] += start[i];
+		int[] order = new int[size];
+		int[] next = Arrays.copyOf(start, numFronts);
+		for (int i = 0; i < size; ++i) {
+			m_population[i].rank = front[i];
+			order[next[front[i]]++] = i;
 		}
 
 		/** get new generation form lower layers */
 		GABitSet[] newPop = new GABitSet[m_popSize];
 		int sz = 0;
-		Vector<GABitSet> last = null;
-		for (Vector<GABitSet> ee : layers) {
-			if (ee.size() + sz < m_popSize) {
-				for (GABitSet e : ee) {
-					newPop[sz++] = e.clone();
-				}
+		int layer = 0;
+		for (; layer < numFronts; ++layer) {
+			if (start[layer + 1] - start[layer] + sz < m_popSize) {
+				for (int j = start[layer]; j < start[layer + 1]; ++j)
+					newPop[sz++] = m_population[order[j]].clone();
 			} else {
-				last = ee;
 				break;
 			}
 		}
 
-		/** get degree of congestion */
-		if (last == null) {
-			// System.out.println("Info from XieNaoban: \"last\" in
-			// nonDominatedSort() is null.");
-		} else {
-			for (int i = 0; i != m_objects; ++i) {
-				PopComparator cmp = new PopComparator(i);
-				last.sort(cmp);
-				for (int j = 1; j < last.size() - 1; ++j) {
-					last.get(j).d += Math
-							.abs(last.get(j + 1).getObjective().d[i] - last.get(j - 1).getObjective().d[i]);
-				}
-			}
-			DPopComparator cmpD = new DPopComparator();
-			last.sort(cmpD);
-			for (GABitSet e : last) {
-				newPop[sz++] = e.clone();
-				if (sz == m_popSize)
-					break;
-			}
+		/** fill up with the least crowded members of the next layer */
+		if (layer < numFronts) {
+			int[] last = NonDominatedSorting.sortByCrowdingDistance(objectives,
+					Arrays.copyOfRange(order, start[layer], start[layer + 1]));
+			for (int j = 0; j < last.length && sz < m_popSize; ++j)
+				newPop[sz++] = m_population[last[j]].clone();
 		}
 		m_population = newPop;
-		// System.out.println("Debug <<<" + m_population[0].rank + "<<<" +
-		// m_population[1].rank);
 	}
 
 	public int[][] search(WrapperSubsetEval ASEval, Instances data, String[] objs) throws Exception {
@@ -1713,41 +2435,82 @@ private class BitSetComparator implements Comparator<GABitSet> {
 		}
 
 		// initial random population
-		m_lookupTable = new Hashtable<BitSet, GABitSet>(m_lookupTableSize);
+		m_lookupTable = new ConcurrentHashMap<BitSet, GABitSet>(m_lookupTableSize);
 		m_random = new Random(m_seed);
 		m_population = new GABitSet[m_popSize * 2];
+		m_referencePoint = null;
+		m_hypervolumes = new double[m_maxGenerations + 1];
+		m_converged = false;
+		m_surrogate = null;
+		if (m_surrogateFront >= 0) {
+			m_surrogate = new SubsetSurrogate(m_numAttribs, m_objects, m_surrogateNeighbours);
+		}
+		m_halving = ASEvaluator.getHalvingMinFraction() < 1;
+		m_checkpointContext = (m_checkpointFile != null) ? checkpointContext(ASEvaluator) : null;
+
+		if (m_poolSize > 1) {
+			m_pool = Executors.newFixedThreadPool(m_poolSize);
+			ASEvaluation[] copies = ASEvaluation.makeCopies(ASEvaluator, m_poolSize);
+			m_evaluators = new WrapperSubsetEval[m_poolSize];
+			for (int i = 0; i < m_poolSize; i++) {
+				m_evaluators[i] = (WrapperSubsetEval) copies[i];
+			}
+		}
+
+		try {
+			int start = 0;
+			if (m_checkpointFile != null && m_checkpointFile.exists()) {
+				start = loadState();
+			} else {
+				// set up random initial population
+				initPopulation();
+				removeRepetitive();
+				evaluatePopulation(ASEvaluator, false);
+				populationStatistics();
+				scalePopulation();
+				nonDominatedSort();
+				m_hypervolumes[0] = frontHypervolume();
+				m_generationReports.append(generationReport(0));
+				saveState(0);
+			}
 
-		// set up random initial population
-		initPopulation();
-		removeRepetitive();
-		evaluatePopulation(ASEvaluator);
-		populationStatistics();
-		scalePopulation();
-		nonDominatedSort();
-		// checkBest();
-
-		// m_generationReports.append(populationReport(0));
-
-		// boolean converged;
-
-		for (int i = 1; i <= m_maxGenerations; i++) {
-			generation();
-			removeRepetitive();
-			evaluatePopulation(ASEvaluator);
-			populationStatistics();
-			scalePopulation();
-			nonDominatedSort();
-			
-			//printPop(m_population);
-			/*
-			 * populationStatistics(); scalePopulation(); // find the best pop
-			 * member and check for convergence converged = checkBest();
-			 * 
-			 * if ((i == m_maxGenerations) || ((i % m_reportFrequency) == 0) ||
-			 * (converged == true)) {
-			 * m_generationReports.append(populationReport(i)); if (converged ==
-			 * true) { break; } }
-			 */
+			for (int i = start + 1; i <= m_maxGenerations && !m_converged; i++) {
+				generation();
+				removeRepetitive();
+				// the last generation is evaluated in full, so that the
+				// returned front holds real objectives only
+				evaluatePopulation(ASEvaluator, i < m_maxGenerations);
+				populationStatistics();
+				scalePopulation();
+				nonDominatedSort();
+				m_hypervolumes[i] = frontHypervolume();
+				m_generationReports.append(generationReport(i));
+
+				if (stagnated(i)) {
+					m_converged = true;
+					m_generationReports.append("\nStopped: hypervolume did not grow over the last "
+							+ m_stagnationWindow + " generations");
+					if (m_surrogateEvaluations > 0) {
+						// the returned front must hold real objectives only
+						evaluatePopulation(ASEvaluator, false);
+						populationStatistics();
+						scalePopulation();
+						nonDominatedSort();
+					}
+				}
+				saveState(i);
+			}
+			// a finished search is not resumed
+			if (m_checkpointFile != null) {
+				m_checkpointFile.delete();
+			}
+		} finally {
+			if (m_pool != null) {
+				m_pool.shutdown();
+				m_pool = null;
+				m_evaluators = null;
+			}
+			m_surrogate = null;
 		}
 
 		int[][] ans;
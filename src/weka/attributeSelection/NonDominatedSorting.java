@@ -0,0 +1,754 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ *    NonDominatedSorting.java
+ *
+ */
+
+package weka.attributeSelection;
+
+import java.util.Arrays;
+
+import weka.core.RevisionHandler;
+import weka.core.RevisionUtils;
+
+/**
+ * Non-dominated sorting and crowding distance for multi-objective searches.
+ * All objectives are maximised, like the merits returned by subset
+ * evaluators, and a missing (NaN) objective value counts as the worst possible
+ * value. Points with equal objective values share a front.<br/>
+ * <br/>
+ * With up to three objectives the fronts are found with the divide-and-conquer
+ * algorithm of Jensen, as generalised by Fortin et al. and corrected by
+ * Buzdalov and Shalyto, in O(N log^(M-1) N) time. With more objectives the
+ * efficient non-dominated sort (ENS) with binary search of Zhang et al. is
+ * used. Both work on primitive arrays only.<br/>
+ * <br/>
+ * For more information see:<br/>
+ * <br/>
+ * M.T. Jensen (2003). Reducing the run-time complexity of multiobjective EAs:
+ * The NSGA-II and other algorithms. IEEE Transactions on Evolutionary
+ * Computation. 7(5):503-515.<br/>
+ * <br/>
+ * M. Buzdalov, A. Shalyto (2014). A Provably Asymptotically Fast Version of
+ * the Generalized Jensen Algorithm for Non-dominated Sorting. Parallel Problem
+ * Solving from Nature XIII, 528-537.<br/>
+ * <br/>
+ * X. Zhang, Y. Tian, R. Cheng, Y. Jin (2015). An Efficient Approach to
+ * Nondominated Sorting for Evolutionary Multiobjective Optimization. IEEE
+ * Transactions on Evolutionary Computation. 19(2):201-213.
+ */
+public class NonDominatedSorting implements RevisionHandler {
+
+  /** the number of objectives up to which the divide-and-conquer sort is used */
+  public static final int MAX_DIVIDE_AND_CONQUER_OBJECTIVES = 3;
+
+  /** the objectives to minimise, objective by point */
+  protected double[][] m_values;
+
+  /** the number of objectives */
+  protected int m_numObjectives;
+
+  /** the front of each point */
+  protected int[] m_front;
+
+  /**
+   * Constructor.
+   *
+   * @param points the objective values, point by objective
+   */
+  protected NonDominatedSorting(double[][] points) {
+
+    m_numObjectives = (points.length == 0) ? 0 : points[0].length;
+    m_values = minimised(points);
+    m_front = new int[points.length];
+  }
+
+  /**
+   * Returns the front of each point, where front 0 holds the points that are
+   * not dominated, front 1 those that are only dominated by points in front 0,
+   * and so on.
+   *
+   * @param points the objective values, point by objective
+   * @return the front of each point
+   */
+  public static int[] frontIndices(double[][] points) {
+
+    NonDominatedSorting sorting = new NonDominatedSorting(points);
+    sorting.sort();
+    return sorting.m_front;
+  }
+
+  /**
+   * Returns the given points of one front in order of decreasing crowding
+   * distance. The distance of a point is the sum over the objectives of the
+   * normalised distance between its two neighbours in the front, and the
+   * extreme points of every objective have an infinite distance. Points with
+   * equal distances keep their order.
+   *
+   * @param points the objective values, point by objective
+   * @param members the indices of the points in the front
+   * @return the members, most isolated first
+   */
+  public static int[] sortByCrowdingDistance(double[][] points, int[] members) {
+
+    int n = members.length;
+    int numObjectives = (points.length == 0) ? 0 : points[0].length;
+    double[] distance = new double[n];
+    double[] values = new double[n];
+    int[] order = new int[n];
+
+    for (int j = 0; j < numObjectives && n > 0; j++) {
+      for (int i = 0; i < n; i++) {
+        values[i] = minimised(points[members[i]][j]);
+        order[i] = i;
+      }
+      sort(order, values);
+      distance[order[0]] = Double.POSITIVE_INFINITY;
+      distance[order[n - 1]] = Double.POSITIVE_INFINITY;
+      double range = values[order[n - 1]] - values[order[0]];
+      if (range > 0 && !Double.isInfinite(range)) {
+        for (int i = 1; i < n - 1; i++) {
+          distance[order[i]] +=
+            (values[order[i + 1]] - values[order[i - 1]]) / range;
+        }
+      }
+    }
+
+    // most isolated first
+    for (int i = 0; i < n; i++) {
+      values[i] = -distance[i];
+      order[i] = i;
+    }
+    sort(order, values);
+    int[] result = new int[n];
+    for (int i = 0; i < n; i++) {
+      result[i] = members[order[i]];
+    }
+    return result;
+  }
+
+  /**
+   * Returns the indices of the best points: whole fronts are taken in order
+   * while they fit, and the front that does not fit is thinned by crowding
+   * distance.
+   *
+   * @param points the objective values, point by objective
+   * @param count the number of points to select
+   * @return the indices of the selected points, best front first
+   */
+  public static int[] selectBest(double[][] points, int count) {
+
+    int n = points.length;
+    count = Math.min(count, n);
+    int[] front = frontIndices(points);
+    int numFronts = 0;
+    for (int i = 0; i < n; i++) {
+      numFronts = Math.max(numFronts, front[i] + 1);
+    }
+    int[] start = new int[numFronts + 1];
+    for (int i = 0; i < n; i++) {
+      start[front[i] + 1]++;
+    }
+    for (int f = 0; f < numFronts; f++) {
+      start[f + 1] += start[f];
+    }
+    int[] byFront = new int[n];
+    int[] next = Arrays.copyOf(start, numFronts);
+    for (int i = 0; i < n; i++) {
+      byFront[next[front[i]]++] = i;
+    }
+
+    int[] result = new int[count];
+    int size = 0;
+    for (int f = 0; f < numFronts && size < count; f++) {
+      int[] members = Arrays.copyOfRange(byFront, start[f], start[f + 1]);
+      if (size + members.length > count) {
+        members = sortByCrowdingDistance(points, members);
+      }
+      int take = Math.min(members.length, count - size);
+      System.arraycopy(members, 0, result, size, take);
+      size += take;
+    }
+    return result;
+  }
+
+  /**
+   * Assigns the fronts. Equal points are sorted once and share the front of
+   * the first of them.
+   */
+  protected void sort() {
+
+    int n = m_front.length;
+    if (n == 0) {
+      return;
+    }
+    int[] order = new int[n];
+    for (int i = 0; i < n; i++) {
+      order[i] = i;
+    }
+    sortLexicographically(order);
+
+    int[] distinct = new int[n];
+    int numDistinct = 0;
+    for (int i = 0; i < n; i++) {
+      if (i == 0 || !equal(order[i - 1], order[i])) {
+        distinct[numDistinct++] = order[i];
+      }
+    }
+    distinct = Arrays.copyOf(distinct, numDistinct);
+
+    if (m_numObjectives == 0) {
+      // nothing dominates anything
+    } else if (m_numObjectives == 1) {
+      for (int i = 0; i < numDistinct; i++) {
+        m_front[distinct[i]] = i;
+      }
+    } else if (m_numObjectives <= MAX_DIVIDE_AND_CONQUER_OBJECTIVES) {
+      helperA(distinct, m_numObjectives - 1);
+    } else {
+      efficientNonDominatedSort(distinct);
+    }
+
+    for (int i = 1; i < n; i++) {
+      if (equal(order[i - 1], order[i])) {
+        m_front[order[i]] = m_front[order[i - 1]];
+      }
+    }
+  }
+
+  /**
+   * Assigns the fronts of distinct points that are equal in all objectives
+   * after k. All dominance relations between the points and points outside
+   * the set must have been taken into account already.
+   *
+   * @param s the points, in lexicographic order
+   * @param k the last objective the points may differ in
+   */
+  protected void helperA(int[] s, int k) {
+
+    if (s.length < 2) {
+      return;
+    }
+    if (s.length == 2) {
+      if (weaklyDominates(s[0], s[1], k)) {
+        update(s[0], s[1]);
+      }
+      return;
+    }
+    if (k == 1) {
+      sweepA(s);
+      return;
+    }
+    double[] values = m_values[k];
+    double median = median(s, values);
+    if (values[s[0]] == median && allEqual(s, values)) {
+      helperA(s, k - 1);
+      return;
+    }
+
+    int[] low = select(s, values, median, -1);
+    int[] equal = select(s, values, median, 0);
+    int[] high = select(s, values, median, 1);
+    int[] lowOrEqual = selectAtMost(s, values, median);
+
+    helperA(low, k);
+    helperB(low, equal, k - 1);
+    helperA(equal, k - 1);
+    helperB(lowOrEqual, high, k - 1);
+    helperA(high, k);
+  }
+
+  /**
+   * Updates the fronts of the points in h with the points in l, given that
+   * any point in l weakly dominating a point in h in the objectives up to k
+   * dominates it. The fronts of the points in l must be final.
+   *
+   * @param l the dominating candidates, in lexicographic order
+   * @param h the points to update, in lexicographic order
+   * @param k the last objective that has to be compared
+   */
+  protected void helperB(int[] l, int[] h, int k) {
+
+    if (l.length == 0 || h.length == 0) {
+      return;
+    }
+    if (l.length == 1 || h.length == 1) {
+      for (int hi : h) {
+        for (int li : l) {
+          if (weaklyDominates(li, hi, k)) {
+            update(li, hi);
+          }
+        }
+      }
+      return;
+    }
+    if (k == 1) {
+      sweepB(l, h);
+      return;
+    }
+
+    double[] values = m_values[k];
+    double maxL = Double.NEGATIVE_INFINITY, minL = Double.POSITIVE_INFINITY;
+    double maxH = Double.NEGATIVE_INFINITY, minH = Double.POSITIVE_INFINITY;
+    for (int li : l) {
+      maxL = Math.max(maxL, values[li]);
+      minL = Math.min(minL, values[li]);
+    }
+    for (int hi : h) {
+      maxH = Math.max(maxH, values[hi]);
+      minH = Math.min(minH, values[hi]);
+    }
+    if (maxL <= minH) {
+      helperB(l, h, k - 1);
+      return;
+    }
+    if (minL > maxH) {
+      return;
+    }
+
+    int[] both = new int[l.length + h.length];
+    System.arraycopy(l, 0, both, 0, l.length);
+    System.arraycopy(h, 0, both, l.length, h.length);
+    double median = median(both, values);
+
+    helperB(select(l, values, median, -1), select(h, values, median, -1), k);
+    helperB(selectAtMost(l, values, median), selectAtLeast(h, values, median),
+      k - 1);
+    helperB(select(l, values, median, 1), select(h, values, median, 1), k);
+  }
+
+  /**
+   * Assigns the fronts of distinct points in the first two objectives with a
+   * sweep over the points in lexicographic order, keeping the highest front
+   * so far per value of the second objective in a Fenwick tree.
+   *
+   * @param s the points, in lexicographic order
+   */
+  protected void sweepA(int[] s) {
+
+    double[] keys = sortedValues(s, m_values[1]);
+    int[] tree = new int[keys.length + 1];
+    for (int p : s) {
+      int pos = Arrays.binarySearch(keys, m_values[1][p]);
+      int best = prefixMax(tree, pos);
+      if (best >= 0 && m_front[p] < best + 1) {
+        m_front[p] = best + 1;
+      }
+      increase(tree, pos, m_front[p]);
+    }
+  }
+
+  /**
+   * Updates the fronts of the points in h with the points in l in the first
+   * two objectives, sweeping over both in lexicographic order.
+   *
+   * @param l the dominating candidates, in lexicographic order
+   * @param h the points to update, in lexicographic order
+   */
+  protected void sweepB(int[] l, int[] h) {
+
+    double[] keys = sortedValues(l, m_values[1]);
+    int[] tree = new int[keys.length + 1];
+    int li = 0;
+    for (int p : h) {
+      while (li < l.length && compare(l[li], p, 1) <= 0) {
+        int pos = Arrays.binarySearch(keys, m_values[1][l[li]]);
+        increase(tree, pos, m_front[l[li]]);
+        li++;
+      }
+      int pos = Arrays.binarySearch(keys, m_values[1][p]);
+      if (pos < 0) {
+        pos = -pos - 2;
+      }
+      int best = prefixMax(tree, pos);
+      if (best >= 0 && m_front[p] < best + 1) {
+        m_front[p] = best + 1;
+      }
+    }
+  }
+
+  /**
+   * Assigns the fronts of distinct points with the efficient non-dominated
+   * sort: the points are visited in lexicographic order, so only earlier
+   * points can dominate a point, and its front is found by binary search over
+   * the fronts so far, checking the members of a front from the last added.
+   *
+   * @param s the points, in lexicographic order
+   */
+  protected void efficientNonDominatedSort(int[] s) {
+
+    int[][] fronts = new int[s.length][];
+    int[] sizes = new int[s.length];
+    int numFronts = 0;
+
+    for (int p : s) {
+      int low = 0, high = numFronts;
+      while (low < high) {
+        int mid = (low + high) >>> 1;
+        if (dominatedByFront(p, fronts[mid], sizes[mid])) {
+          low = mid + 1;
+        } else {
+          high = mid;
+        }
+      }
+      if (low == numFronts) {
+        fronts[numFronts++] = new int[4];
+      } else if (sizes[low] == fronts[low].length) {
+        fronts[low] = Arrays.copyOf(fronts[low], 2 * sizes[low]);
+      }
+      fronts[low][sizes[low]++] = p;
+      m_front[p] = low;
+    }
+  }
+
+  /**
+   * Returns whether a member of a front dominates a later point.
+   *
+   * @param p the point
+   * @param front the members of the front, in lexicographic order
+   * @param size the number of members
+   * @return true if p is dominated
+   */
+  protected boolean dominatedByFront(int p, int[] front, int size) {
+
+    for (int i = size - 1; i >= 0; i--) {
+      if (weaklyDominates(front[i], p, m_numObjectives - 1)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Puts b in a later front than a.
+   *
+   * @param a the dominating point
+   * @param b the dominated point
+   */
+  protected void update(int a, int b) {
+
+    if (m_front[b] <= m_front[a]) {
+      m_front[b] = m_front[a] + 1;
+    }
+  }
+
+  /**
+   * Returns whether a is at most b in all objectives up to k.
+   *
+   * @param a the first point
+   * @param b the second point
+   * @param k the last objective to compare
+   * @return true if a weakly dominates b
+   */
+  protected boolean weaklyDominates(int a, int b, int k) {
+
+    for (int j = 0; j <= k; j++) {
+      if (m_values[j][a] > m_values[j][b]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Returns whether two points are equal in all objectives.
+   *
+   * @param a the first point
+   * @param b the second point
+   * @return true if the points are equal
+   */
+  protected boolean equal(int a, int b) {
+
+    return compare(a, b, m_numObjectives - 1) == 0;
+  }
+
+  /**
+   * Compares two points lexicographically in the objectives up to k.
+   *
+   * @param a the first point
+   * @param b the second point
+   * @param k the last objective to compare
+   * @return a negative number, zero or a positive number if a comes before,
+   *         with or after b
+   */
+  protected int compare(int a, int b, int k) {
+
+    for (int j = 0; j <= k; j++) {
+      if (m_values[j][a] < m_values[j][b]) {
+        return -1;
+      }
+      if (m_values[j][a] > m_values[j][b]) {
+        return 1;
+      }
+    }
+    return 0;
+  }
+
+  /**
+   * Sorts points lexicographically in all objectives with a stable merge
+   * sort.
+   *
+   * @param order the points to sort
+   */
+  protected void sortLexicographically(int[] order) {
+
+    int[] buffer = new int[order.length];
+    for (int width = 1; width < order.length; width *= 2) {
+      for (int from = 0; from < order.length - width; from += 2 * width) {
+        int mid = from + width;
+        int to = Math.min(from + 2 * width, order.length);
+        int i = from, j = mid, k = from;
+        while (i < mid && j < to) {
+          buffer[k++] =
+            (compare(order[j], order[i], m_numObjectives - 1) < 0) ? order[j++]
+              : order[i++];
+        }
+        while (i < mid) {
+          buffer[k++] = order[i++];
+        }
+        while (j < to) {
+          buffer[k++] = order[j++];
+        }
+        System.arraycopy(buffer, from, order, from, to - from);
+      }
+    }
+  }
+
+  /**
+   * Returns the median of the values of the given points.
+   *
+   * @param s the points
+   * @param values the values of one objective
+   * @return the median
+   */
+  protected static double median(int[] s, double[] values) {
+
+    double[] v = new double[s.length];
+    for (int i = 0; i < s.length; i++) {
+      v[i] = values[s[i]];
+    }
+    Arrays.sort(v);
+    return v[v.length / 2];
+  }
+
+  /**
+   * Returns whether all points have the same value.
+   *
+   * @param s the points
+   * @param values the values of one objective
+   * @return true if all values are equal
+   */
+  protected static boolean allEqual(int[] s, double[] values) {
+
+    for (int p : s) {
+      if (values[p] != values[s[0]]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Returns the points whose value is below, equal to or above a pivot,
+   * keeping their order.
+   *
+   * @param s the points
+   * @param values the values of one objective
+   * @param pivot the pivot
+   * @param side -1 for below, 0 for equal, 1 for above
+   * @return the selected points
+   */
+  protected static int[] select(int[] s, double[] values, double pivot,
+    int side) {
+
+    int[] result = new int[s.length];
+    int n = 0;
+    for (int p : s) {
+      double v = values[p];
+      if ((side < 0 && v < pivot) || (side == 0 && v == pivot)
+        || (side > 0 && v > pivot)) {
+        result[n++] = p;
+      }
+    }
+    return Arrays.copyOf(result, n);
+  }
+
+  /**
+   * Returns the points whose value is at most a pivot, keeping their order.
+   *
+   * @param s the points
+   * @param values the values of one objective
+   * @param pivot the pivot
+   * @return the selected points
+   */
+  protected static int[] selectAtMost(int[] s, double[] values, double pivot) {
+
+    int[] result = new int[s.length];
+    int n = 0;
+    for (int p : s) {
+      if (values[p] <= pivot) {
+        result[n++] = p;
+      }
+    }
+    return Arrays.copyOf(result, n);
+  }
+
+  /**
+   * Returns the points whose value is at least a pivot, keeping their order.
+   *
+   * @param s the points
+   * @param values the values of one objective
+   * @param pivot the pivot
+   * @return the selected points
+   */
+  protected static int[] selectAtLeast(int[] s, double[] values, double pivot) {
+
+    int[] result = new int[s.length];
+    int n = 0;
+    for (int p : s) {
+      if (values[p] >= pivot) {
+        result[n++] = p;
+      }
+    }
+    return Arrays.copyOf(result, n);
+  }
+
+  /**
+   * Returns the distinct values of the given points in increasing order.
+   *
+   * @param s the points
+   * @param values the values of one objective
+   * @return the sorted distinct values
+   */
+  protected static double[] sortedValues(int[] s, double[] values) {
+
+    double[] v = new double[s.length];
+    for (int i = 0; i < s.length; i++) {
+      v[i] = values[s[i]];
+    }
+    Arrays.sort(v);
+    int n = 0;
+    for (int i = 0; i < v.length; i++) {
+      if (i == 0 || v[i] != v[n - 1]) {
+        v[n++] = v[i];
+      }
+    }
+    return Arrays.copyOf(v, n);
+  }
+
+  /**
+   * Returns the highest front stored at or below a position of a Fenwick tree,
+   * or -1 if there is none.
+   *
+   * @param tree the tree, holding front + 1 per position
+   * @param pos the position
+   * @return the highest front
+   */
+  protected static int prefixMax(int[] tree, int pos) {
+
+    int result = 0;
+    for (int i = pos + 1; i > 0; i -= i & -i) {
+      result = Math.max(result, tree[i]);
+    }
+    return result - 1;
+  }
+
+  /**
+   * Stores a front at a position of a Fenwick tree.
+   *
+   * @param tree the tree, holding front + 1 per position
+   * @param pos the position
+   * @param front the front
+   */
+  protected static void increase(int[] tree, int pos, int front) {
+
+    for (int i = pos + 1; i < tree.length; i += i & -i) {
+      tree[i] = Math.max(tree[i], front + 1);
+    }
+  }
+
+  /**
+   * Sorts indices by increasing value with a stable merge sort.
+   *
+   * @param order the indices into values to sort
+   * @param values the values
+   */
+  protected static void sort(int[] order, double[] values) {
+
+    int[] buffer = new int[order.length];
+    for (int width = 1; width < order.length; width *= 2) {
+      for (int from = 0; from < order.length - width; from += 2 * width) {
+        int mid = from + width;
+        int to = Math.min(from + 2 * width, order.length);
+        int i = from, j = mid, k = from;
+        while (i < mid && j < to) {
+          buffer[k++] =
+            (values[order[j]] < values[order[i]]) ? order[j++] : order[i++];
+        }
+        while (i < mid) {
+          buffer[k++] = order[i++];
+        }
+        while (j < to) {
+          buffer[k++] = order[j++];
+        }
+        System.arraycopy(buffer, from, order, from, to - from);
+      }
+    }
+  }
+
+  /**
+   * Turns maximised objective values into values to minimise, objective by
+   * point.
+   *
+   * @param points the objective values, point by objective
+   * @return the values to minimise
+   */
+  protected static double[][] minimised(double[][] points) {
+
+    int numObjectives = (points.length == 0) ? 0 : points[0].length;
+    double[][] values = new double[numObjectives][points.length];
+    for (int i = 0; i < points.length; i++) {
+      for (int j = 0; j < numObjectives; j++) {
+        values[j][i] = minimised(points[i][j]);
+      }
+    }
+    return values;
+  }
+
+  /**
+   * Turns a maximised objective value into a value to minimise. A missing
+   * value becomes the worst value, and -0 becomes 0 so that it sorts as equal
+   * to 0.
+   *
+   * @param value the maximised value
+   * @return the value to minimise
+   */
+  protected static double minimised(double value) {
+
+    return Double.isNaN(value) ? Double.POSITIVE_INFINITY : 0.0 - value;
+  }
+
+  /**
+   * Returns the revision string.
+   *
+   * @return the revision
+   */
+  @Override
+  public String getRevision() {
+    return RevisionUtils.extract("$Revision$");
+  }
+}
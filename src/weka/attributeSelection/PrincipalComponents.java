@@ -23,12 +23,15 @@ package weka.attributeSelection;
 
 import java.util.ArrayList;
 import java.util.Enumeration;
+import java.util.Random;
 import java.util.Vector;
 
 import no.uib.cipr.matrix.*;
 
 import weka.core.*;
 import weka.core.Capabilities.Capability;
+import weka.core.converters.Loader;
+import weka.core.matrix.EigenvalueDecomposition;
 import weka.filters.Filter;
 import weka.filters.unsupervised.attribute.*;
 
@@ -39,7 +42,17 @@ import weka.filters.unsupervised.attribute.*;
  * account for some percentage of the variance in the original data---default
  * 0.95 (95%). Attribute noise can be filtered by transforming to the PC space,
  * eliminating some of the worst eigenvectors, and then transforming back to the
- * original space.
+ * original space.<br/>
+ * <br/>
+ * On wide data the top components can be computed with a randomized truncated
+ * SVD instead of a full eigendecomposition, optionally streaming the data
+ * rather than holding filtered copies of it in memory.<br/>
+ * <br/>
+ * For more information on the randomized SVD see:<br/>
+ * <br/>
+ * N. Halko, P. G. Martinsson, J. A. Tropp (2011). Finding Structure with
+ * Randomness: Probabilistic Algorithms for Constructing Approximate Matrix
+ * Decompositions. SIAM Review. 53(2):217-288.
  * <p/>
  * <!-- globalinfo-end -->
  * 
@@ -72,6 +85,40 @@ import weka.filters.unsupervised.attribute.*;
  *  transformed attribute names. (-1 = include all)
  * </pre>
  * 
+ * <pre>
+ * -mode &lt;dense|randomized|streaming&gt;
+ *  How the components are computed: a dense
+ *  eigendecomposition of the full matrix, a randomized
+ *  truncated SVD, or a randomized truncated SVD that
+ *  streams the data.
+ *  (default = dense)
+ * </pre>
+ * 
+ * <pre>
+ * -components &lt;num&gt;
+ *  Number of components computed by the randomized modes.
+ *  (default = 10)
+ * </pre>
+ * 
+ * <pre>
+ * -oversampling &lt;num&gt;
+ *  Number of extra random directions sampled by the
+ *  randomized modes.
+ *  (default = 10)
+ * </pre>
+ * 
+ * <pre>
+ * -power-iterations &lt;num&gt;
+ *  Number of power iterations of the randomized modes.
+ *  (default = 2)
+ * </pre>
+ * 
+ * <pre>
+ * -seed &lt;num&gt;
+ *  Seed for the random directions.
+ *  (default = 1)
+ * </pre>
+ * 
  * <!-- options-end -->
  * 
  * @author Mark Hall (mhall@cs.waikato.ac.nz)
@@ -164,6 +211,66 @@ public class PrincipalComponents extends UnsupervisedAttributeEvaluator
    */
   private double[][] m_eTranspose;
 
+  /** compute a dense eigendecomposition of the full matrix */
+  public static final int MODE_DENSE = 0;
+  /** compute the top components with a randomized truncated SVD */
+  public static final int MODE_RANDOMIZED = 1;
+  /** compute the top components with a randomized SVD, streaming the data */
+  public static final int MODE_STREAMING = 2;
+  /** the ways of computing the components */
+  public static final Tag[] TAGS_MODE = {
+    new Tag(MODE_DENSE, "dense", "Dense eigendecomposition"),
+    new Tag(MODE_RANDOMIZED, "randomized", "Randomized truncated SVD"),
+    new Tag(MODE_STREAMING, "streaming",
+      "Randomized truncated SVD, streaming the data") };
+
+  /** how the components are computed */
+  private int m_mode = MODE_DENSE;
+
+  /** the number of components computed by the randomized modes */
+  private int m_numComponents = 10;
+
+  /** the number of extra random directions of the randomized modes */
+  private int m_oversampling = 10;
+
+  /** the number of power iterations of the randomized modes */
+  private int m_powerIterations = 2;
+
+  /** the seed for the random directions */
+  private int m_seed = 1;
+
+  /** streaming: the original attribute each filtered attribute comes from */
+  private int[] m_columnAttribute;
+
+  /**
+   * streaming: the value of the original attribute each filtered attribute
+   * indicates, -1 if it takes the attribute's value
+   */
+  private int[] m_columnValue;
+
+  /** streaming: the value missing values of each original attribute get */
+  private double[] m_replacement;
+
+  /** streaming: the data being analysed, if it is in memory */
+  private transient Instances m_streamData;
+
+  /** streaming: the loader the data is read from, if it isn't */
+  private transient Loader m_streamLoader;
+
+  /**
+   * Visits the instances of the data in a pass in streaming mode.
+   */
+  private abstract class InstanceVisitor {
+
+    /**
+     * Visits an instance.
+     *
+     * @param inst the instance, in the original format
+     * @throws Exception if the instance can't be processed
+     */
+    abstract void visit(Instance inst) throws Exception;
+  }
+
   /**
    * Returns a string describing this attribute transformer
    *
@@ -177,7 +284,15 @@ public class PrincipalComponents extends UnsupervisedAttributeEvaluator
       + "account for some percentage of the variance in the original data---"
       + "default 0.95 (95%). Attribute noise can be filtered by transforming "
       + "to the PC space, eliminating some of the worst eigenvectors, and "
-      + "then transforming back to the original space.";
+      + "then transforming back to the original space.\n\n"
+      + "On wide data the top components can be computed with a randomized "
+      + "truncated SVD instead of a full eigendecomposition, optionally "
+      + "streaming the data rather than holding filtered copies of it in "
+      + "memory.\n\n"
+      + "For more information on the randomized SVD see:\n\n"
+      + "N. Halko, P. G. Martinsson, J. A. Tropp (2011). Finding Structure "
+      + "with Randomness: Probabilistic Algorithms for Constructing "
+      + "Approximate Matrix Decompositions. SIAM Review. 53(2):217-288.";
   }
 
   /**
@@ -204,6 +319,28 @@ public class PrincipalComponents extends UnsupervisedAttributeEvaluator
     newVector.addElement(new Option(
       "\tMaximum number of attributes to include in "
         + "\n\ttransformed attribute names. (-1 = include all)", "A", 1, "-A"));
+
+    newVector.addElement(new Option("\tHow the components are computed: a dense"
+      + "\n\teigendecomposition of the full matrix, a randomized"
+      + "\n\ttruncated SVD, or a randomized truncated SVD that"
+      + "\n\tstreams the data.\n\t(default = dense)", "mode", 1,
+      "-mode <dense|randomized|streaming>"));
+
+    newVector.addElement(new Option(
+      "\tNumber of components computed by the randomized modes."
+        + "\n\t(default = 10)", "components", 1, "-components <num>"));
+
+    newVector.addElement(new Option("\tNumber of extra random directions "
+      + "sampled by the\n\trandomized modes.\n\t(default = 10)",
+      "oversampling", 1, "-oversampling <num>"));
+
+    newVector.addElement(new Option(
+      "\tNumber of power iterations of the randomized modes."
+        + "\n\t(default = 2)", "power-iterations", 1,
+      "-power-iterations <num>"));
+
+    newVector.addElement(new Option("\tSeed for the random directions."
+      + "\n\t(default = 1)", "seed", 1, "-seed <num>"));
     return newVector.elements();
   }
 
@@ -240,6 +377,40 @@ public class PrincipalComponents extends UnsupervisedAttributeEvaluator
    *  transformed attribute names. (-1 = include all)
    * </pre>
    *
+   * <pre>
+   * -mode &lt;dense|randomized|streaming&gt;
+   *  How the components are computed: a dense
+   *  eigendecomposition of the full matrix, a randomized
+   *  truncated SVD, or a randomized truncated SVD that
+   *  streams the data.
+   *  (default = dense)
+   * </pre>
+   *
+   * <pre>
+   * -components &lt;num&gt;
+   *  Number of components computed by the randomized modes.
+   *  (default = 10)
+   * </pre>
+   *
+   * <pre>
+   * -oversampling &lt;num&gt;
+   *  Number of extra random directions sampled by the
+   *  randomized modes.
+   *  (default = 10)
+   * </pre>
+   *
+   * <pre>
+   * -power-iterations &lt;num&gt;
+   *  Number of power iterations of the randomized modes.
+   *  (default = 2)
+   * </pre>
+   *
+   * <pre>
+   * -seed &lt;num&gt;
+   *  Seed for the random directions.
+   *  (default = 1)
+   * </pre>
+   *
    * <!-- options-end -->
    *
    * @param options the list of options as an array of strings
@@ -263,6 +434,27 @@ public class PrincipalComponents extends UnsupervisedAttributeEvaluator
 
     setTransformBackToOriginal(Utils.getFlag('O', options));
     setCenterData(Utils.getFlag('C', options));
+
+    optionString = Utils.getOption("mode", options);
+    if (optionString.length() != 0) {
+      setMode(new SelectedTag(optionString, TAGS_MODE));
+    }
+    optionString = Utils.getOption("components", options);
+    if (optionString.length() != 0) {
+      setNumComponents(Integer.parseInt(optionString));
+    }
+    optionString = Utils.getOption("oversampling", options);
+    if (optionString.length() != 0) {
+      setOversampling(Integer.parseInt(optionString));
+    }
+    optionString = Utils.getOption("power-iterations", options);
+    if (optionString.length() != 0) {
+      setPowerIterations(Integer.parseInt(optionString));
+    }
+    optionString = Utils.getOption("seed", options);
+    if (optionString.length() != 0) {
+      setSeed(Integer.parseInt(optionString));
+    }
   }
 
   /**
@@ -272,6 +464,164 @@ public class PrincipalComponents extends UnsupervisedAttributeEvaluator
     m_coverVariance = 0.95;
     m_sumOfEigenValues = 0.0;
     m_transBackToOriginal = false;
+    m_mode = MODE_DENSE;
+    m_numComponents = 10;
+    m_oversampling = 10;
+    m_powerIterations = 2;
+    m_seed = 1;
+  }
+
+  /**
+   * Returns the tip text for this property
+   *
+   * @return tip text for this property suitable for displaying in the
+   *         explorer/experimenter gui
+   */
+  public String modeTipText() {
+    return "How the components are computed. Dense builds the full "
+      + "correlation (or covariance) matrix and decomposes it, which takes "
+      + "time cubic and memory quadratic in the number of attributes. "
+      + "Randomized computes only the top components with a randomized "
+      + "truncated SVD, from a few passes over the data. Streaming does the "
+      + "same without keeping filtered copies of the data, and can read the "
+      + "data from a loader.";
+  }
+
+  /**
+   * Sets how the components are computed.
+   *
+   * @param mode the mode
+   */
+  public void setMode(SelectedTag mode) {
+    if (mode.getTags() == TAGS_MODE) {
+      m_mode = mode.getSelectedTag().getID();
+    }
+  }
+
+  /**
+   * Gets how the components are computed.
+   *
+   * @return the mode
+   */
+  public SelectedTag getMode() {
+    return new SelectedTag(m_mode, TAGS_MODE);
+  }
+
+  /**
+   * Returns the tip text for this property
+   *
+   * @return tip text for this property suitable for displaying in the
+   *         explorer/experimenter gui
+   */
+  public String numComponentsTipText() {
+    return "The number of components computed by the randomized modes. The "
+      + "variance covered is still applied to these.";
+  }
+
+  /**
+   * Sets the number of components computed by the randomized modes.
+   *
+   * @param n the number of components
+   */
+  public void setNumComponents(int n) {
+    m_numComponents = n;
+  }
+
+  /**
+   * Gets the number of components computed by the randomized modes.
+   *
+   * @return the number of components
+   */
+  public int getNumComponents() {
+    return m_numComponents;
+  }
+
+  /**
+   * Returns the tip text for this property
+   *
+   * @return tip text for this property suitable for displaying in the
+   *         explorer/experimenter gui
+   */
+  public String oversamplingTipText() {
+    return "The number of random directions sampled by the randomized modes "
+      + "beyond the number of components, which makes the top components "
+      + "more accurate.";
+  }
+
+  /**
+   * Sets the number of extra random directions.
+   *
+   * @param n the number of extra directions
+   */
+  public void setOversampling(int n) {
+    m_oversampling = n;
+  }
+
+  /**
+   * Gets the number of extra random directions.
+   *
+   * @return the number of extra directions
+   */
+  public int getOversampling() {
+    return m_oversampling;
+  }
+
+  /**
+   * Returns the tip text for this property
+   *
+   * @return tip text for this property suitable for displaying in the
+   *         explorer/experimenter gui
+   */
+  public String powerIterationsTipText() {
+    return "The number of power iterations of the randomized modes. Each one "
+      + "costs a pass over the data and sharpens the components when the "
+      + "eigenvalues decay slowly.";
+  }
+
+  /**
+   * Sets the number of power iterations.
+   *
+   * @param n the number of power iterations
+   */
+  public void setPowerIterations(int n) {
+    m_powerIterations = n;
+  }
+
+  /**
+   * Gets the number of power iterations.
+   *
+   * @return the number of power iterations
+   */
+  public int getPowerIterations() {
+    return m_powerIterations;
+  }
+
+  /**
+   * Returns the tip text for this property
+   *
+   * @return tip text for this property suitable for displaying in the
+   *         explorer/experimenter gui
+   */
+  public String seedTipText() {
+    return "The seed for the random directions of the randomized modes.";
+  }
+
+  /**
+   * Sets the seed for the random directions.
+   *
+   * @param s the seed
+   */
+  public void setSeed(int s) {
+    m_seed = s;
+  }
+
+  /**
+   * Gets the seed for the random directions.
+   *
+   * @return the seed
+   */
+  public int getSeed() {
+    return m_seed;
   }
 
   /**
@@ -421,6 +771,17 @@ public class PrincipalComponents extends UnsupervisedAttributeEvaluator
       options.add("-O");
     }
 
+    options.add("-mode");
+    options.add(getMode().getSelectedTag().getIDStr());
+    options.add("-components");
+    options.add("" + getNumComponents());
+    options.add("-oversampling");
+    options.add("" + getOversampling());
+    options.add("-power-iterations");
+    options.add("" + getPowerIterations());
+    options.add("-seed");
+    options.add("" + getSeed());
+
     return options.toArray(new String[0]);
   }
 
@@ -466,12 +827,68 @@ public class PrincipalComponents extends UnsupervisedAttributeEvaluator
     buildAttributeConstructor(data);
   }
 
-  private void buildAttributeConstructor(Instances data) throws Exception {
+  /**
+   * Performs the analysis in streaming mode on the instances of a loader,
+   * which is reset for each pass over the data, so that the data is never
+   * held in memory.
+   *
+   * @param loader the loader, which must be able to read instances one at a
+   *          time and to be reset
+   * @param classIndex the index of the class attribute, -1 for none
+   * @throws Exception if analysis fails
+   */
+  public void buildEvaluator(Loader loader, int classIndex) throws Exception {
+    Instances structure = loader.getStructure();
+    structure.setClassIndex(classIndex);
+
+    // can evaluator handle the data? (the instances are yet to be read)
+    Capabilities capabilities = getCapabilities();
+    capabilities.setMinimumNumberInstances(0);
+    capabilities.testWithFail(structure);
+
+    resetAnalysis();
+    m_streamLoader = loader;
+    try {
+      analyseStream(structure);
+    } finally {
+      m_streamLoader = null;
+    }
+    finishAnalysis();
+  }
+
+  /**
+   * Clears the results of a previous analysis.
+   */
+  private void resetAnalysis() {
     m_eigenvalues = null;
     m_outputNumAtts = -1;
     m_attributeFilter = null;
     m_nominalToBinFilter = null;
+    m_replaceMissingFilter = null;
+    m_centerFilter = null;
+    m_standardizeFilter = null;
+    m_correlation = null;
+    m_columnAttribute = null;
+    m_columnValue = null;
+    m_replacement = null;
+    m_hasClass = false;
     m_sumOfEigenValues = 0.0;
+  }
+
+  private void buildAttributeConstructor(Instances data) throws Exception {
+    resetAnalysis();
+
+    if (m_mode == MODE_STREAMING) {
+      m_streamData = data;
+      try {
+        analyseStream(new Instances(data, 0));
+      } finally {
+        m_streamData = null;
+      }
+      finishAnalysis();
+      return;
+    }
+
     m_trainInstances = new Instances(data);
 
     // make a copy of the training data so that we can get the class
@@ -527,12 +944,17 @@ public class PrincipalComponents extends UnsupervisedAttributeEvaluator
     m_numInstances = m_trainInstances.numInstances();
     m_numAttribs = m_trainInstances.numAttributes();
 
-    fillCovariance();
+    if (m_mode == MODE_DENSE) {
+      fillCovariance();
 
-    SymmDenseEVD evd = SymmDenseEVD.factorize(m_correlation);
+      SymmDenseEVD evd = SymmDenseEVD.factorize(m_correlation);
 
-    m_eigenvectors = Matrices.getArray(evd.getEigenvectors());
-    m_eigenvalues = evd.getEigenvalues();
+      m_eigenvectors = Matrices.getArray(evd.getEigenvectors());
+      m_eigenvalues = evd.getEigenvalues();
+    } else {
+      standardizeData();
+      randomizedSVD();
+    }
 
     /*
      * for (int i = 0; i < m_numAttribs; i++) { for (int j = 0; j <
@@ -540,6 +962,16 @@ public class PrincipalComponents extends UnsupervisedAttributeEvaluator
      * System.err.println(d[i]); }
      */
 
+    finishAnalysis();
+  }
+
+  /**
+   * Sorts the eigenvalues and sets up the output formats once the
+   * eigenvectors have been computed.
+   *
+   * @throws Exception if the output formats can't be set up
+   */
+  private void finishAnalysis() throws Exception {
     // any eigenvalues less than 0 are not worth anything --- change to 0
     for (int i = 0; i < m_eigenvalues.length; i++) {
       if (m_eigenvalues[i] < 0) {
@@ -547,7 +979,9 @@ public class PrincipalComponents extends UnsupervisedAttributeEvaluator
       }
     }
     m_sortedEigens = Utils.sort(m_eigenvalues);
-    m_sumOfEigenValues = Utils.sum(m_eigenvalues);
+    if (m_correlation != null) {
+      m_sumOfEigenValues = Utils.sum(m_eigenvalues);
+    }
 
     m_transformedFormat = setOutputFormat();
     if (m_transBackToOriginal) {
@@ -560,11 +994,12 @@ public class PrincipalComponents extends UnsupervisedAttributeEvaluator
 
       double[][] orderedVectors =
         new double[m_eigenvectors.length][numVectors + 1];
+      int numEigens = m_eigenvalues.length;
 
       // try converting back to the original space
-      for (int i = m_numAttribs - 1; i > (m_numAttribs - numVectors - 1); i--) {
+      for (int i = numEigens - 1; i > (numEigens - numVectors - 1); i--) {
         for (int j = 0; j < m_numAttribs; j++) {
-          orderedVectors[j][m_numAttribs - i] =
+          orderedVectors[j][numEigens - i] =
             m_eigenvectors[j][m_sortedEigens[i]];
         }
       }
@@ -619,11 +1054,12 @@ public class PrincipalComponents extends UnsupervisedAttributeEvaluator
    * @return the correlation or covariance matrix
    */
   public double[][] getCorrelationMatrix() {
-    return Matrices.getArray(m_correlation);
+    return (m_correlation == null) ? null : Matrices.getArray(m_correlation);
   }
 
   /**
-   * Return the unsorted eigenvectors
+   * Return the unsorted eigenvectors, one per column. The randomized modes
+   * only compute the top components.
    *
    * @return the unsorted eigenvectors
    */
@@ -688,7 +1124,8 @@ public class PrincipalComponents extends UnsupervisedAttributeEvaluator
 
     // return 1-cumulative variance explained for this transformed att
     double cumulative = 0.0;
-    for (int i = m_numAttribs - 1; i >= m_numAttribs - att - 1; i--) {
+    int numEigens = m_eigenvalues.length;
+    for (int i = numEigens - 1; i >= numEigens - att - 1; i--) {
       cumulative += m_eigenvalues[m_sortedEigens[i]];
     }
 
@@ -696,6 +1133,31 @@ public class PrincipalComponents extends UnsupervisedAttributeEvaluator
   }
 
   private void fillCovariance() throws Exception {
+    standardizeData();
+
+    // now compute the covariance matrix
+    m_correlation = new UpperSymmDenseMatrix(m_numAttribs);
+    for (int i = 0; i < m_numAttribs; i++) {
+      for (int j = i; j < m_numAttribs; j++) {
+
+        double cov = 0;
+        for (Instance inst : m_trainInstances) {
+          cov += inst.value(i) * inst.value(j);
+        }
+
+        cov /= m_trainInstances.numInstances() - 1;
+        m_correlation.set(i, j, cov);
+      }
+    }
+  }
+
+  /**
+   * Stores the means and standard deviations of the attributes, and centers
+   * or standardizes the training data.
+   *
+   * @throws Exception if the data can't be filtered
+   */
+  private void standardizeData() throws Exception {
     // first store the means
     m_means = new double[m_trainInstances.numAttributes()];
     m_stdDevs = new double[m_trainInstances.numAttributes()];
@@ -715,23 +1177,290 @@ public class PrincipalComponents extends UnsupervisedAttributeEvaluator
       m_standardizeFilter.setInputFormat(m_trainInstances);
       m_trainInstances = Filter.useFilter(m_trainInstances, m_standardizeFilter);
     }
+  }
 
-    // now compute the covariance matrix
-    m_correlation = new UpperSymmDenseMatrix(m_numAttribs);
+  /**
+   * Computes the top eigenvectors and eigenvalues of the correlation (or
+   * covariance) matrix C with a randomized truncated SVD (Halko et al.),
+   * without forming C. A Gaussian test matrix is multiplied by C, refined
+   * with power iterations, and orthonormalized into a basis Q of the range of
+   * the top components. The small matrix Q'CQ is then decomposed and its
+   * eigenvectors mapped back through Q. Every product with C is a pass over
+   * the data.
+   *
+   * @throws Exception if a pass over the data fails
+   */
+  private void randomizedSVD() throws Exception {
+    int numComponents = Math.max(1, Math.min(m_numComponents, m_numAttribs));
+    int numSamples = Math.min(numComponents + Math.max(0, m_oversampling),
+      m_numAttribs);
+
+    Random random = new Random(m_seed);
+    weka.core.matrix.Matrix q =
+      new weka.core.matrix.Matrix(m_numAttribs, numSamples);
     for (int i = 0; i < m_numAttribs; i++) {
-      for (int j = i; j < m_numAttribs; j++) {
+      for (int j = 0; j < numSamples; j++) {
+        q.set(i, j, random.nextGaussian());
+      }
+    }
 
-        double cov = 0;
-        for (Instance inst : m_trainInstances) {
-          cov += inst.value(i) * inst.value(j);
+    weka.core.matrix.Matrix y = covarianceTimes(q);
+    for (int i = 0; i < m_powerIterations; i++) {
+      y = covarianceTimes(y.qr().getQ());
+    }
+    q = y.qr().getQ();
+
+    weka.core.matrix.Matrix b = q.transpose().times(covarianceTimes(q));
+    b = b.plus(b.transpose()).times(0.5);
+    EigenvalueDecomposition evd = b.eig();
+    weka.core.matrix.Matrix u = q.times(evd.getV());
+    double[] values = evd.getRealEigenvalues();
+
+    // keep the top components
+    int[] order = Utils.sort(values);
+    m_eigenvectors = new double[m_numAttribs][numComponents];
+    m_eigenvalues = new double[numComponents];
+    for (int k = 0; k < numComponents; k++) {
+      int col = order[numSamples - 1 - k];
+      m_eigenvalues[k] = values[col];
+      for (int i = 0; i < m_numAttribs; i++) {
+        m_eigenvectors[i][k] = u.get(i, col);
+      }
+    }
+
+    // the total variance is the trace of C, which is known without the
+    // eigenvalues that weren't computed
+    m_sumOfEigenValues = 0;
+    for (int i = 0; i < m_numAttribs; i++) {
+      m_sumOfEigenValues += m_center ? m_stdDevs[i] * m_stdDevs[i] : 1.0;
+    }
+  }
+
+  /**
+   * Multiplies the correlation (or covariance) matrix by a matrix in one pass
+   * over the data, as the sum over instances x of x (x'M) / (n - 1).
+   *
+   * @param m the matrix, with one row per attribute
+   * @return the product
+   * @throws Exception if the pass over the data fails
+   */
+  private weka.core.matrix.Matrix covarianceTimes(weka.core.matrix.Matrix m)
+    throws Exception {
+    final double[][] ma = m.getArray();
+    final double[][] product = new double[m_numAttribs][ma[0].length];
+
+    if (m_columnAttribute != null) {
+      streamPass(new InstanceVisitor() {
+        @Override
+        void visit(Instance inst) {
+          addOuterProduct(streamValues(inst), ma, product);
         }
+      });
+    } else {
+      for (Instance inst : m_trainInstances) {
+        addOuterProduct(inst.toDoubleArray(), ma, product);
+      }
+    }
 
-        cov /= m_trainInstances.numInstances() - 1;
-        m_correlation.set(i, j, cov);
+    for (double[] row : product) {
+      for (int j = 0; j < row.length; j++) {
+        row[j] /= m_numInstances - 1;
+      }
+    }
+    return new weka.core.matrix.Matrix(product);
+  }
+
+  /**
+   * Adds x (x'M) to a product.
+   *
+   * @param x the (filtered) instance values
+   * @param m the matrix
+   * @param product the product
+   */
+  private static void addOuterProduct(double[] x, double[][] m,
+    double[][] product) {
+    double[] xm = new double[m[0].length];
+    for (int i = 0; i < x.length; i++) {
+      if (x[i] != 0) {
+        for (int j = 0; j < xm.length; j++) {
+          xm[j] += x[i] * m[i][j];
+        }
+      }
+    }
+    for (int i = 0; i < x.length; i++) {
+      if (x[i] != 0) {
+        for (int j = 0; j < xm.length; j++) {
+          product[i][j] += x[i] * xm[j];
+        }
+      }
+    }
+  }
+
+  /**
+   * Visits every instance of the data in streaming mode, reading it again
+   * from the loader if there is one.
+   *
+   * @param visitor the visitor
+   * @throws Exception if the data can't be read
+   */
+  private void streamPass(InstanceVisitor visitor) throws Exception {
+    if (m_streamLoader == null) {
+      for (Instance inst : m_streamData) {
+        visitor.visit(inst);
+      }
+    } else {
+      m_streamLoader.reset();
+      Instances structure = m_streamLoader.getStructure();
+      Instance inst;
+      while ((inst = m_streamLoader.getNextInstance(structure)) != null) {
+        visitor.visit(inst);
       }
     }
   }
 
+  /**
+   * Analyses the data in streaming mode. A first pass gathers the statistics
+   * that the filters of the other modes would (means and modes to replace
+   * missing values, the binary attributes of nominal ones, and the means and
+   * standard deviations of those), and the randomized SVD then makes a few
+   * more passes, filtering each instance as it goes.
+   *
+   * @param structure the header of the data, with the class set
+   * @throws Exception if the data can't be read
+   */
+  private void analyseStream(Instances structure) throws Exception {
+    m_trainHeader = new Instances(structure, 0);
+    m_hasClass = structure.classIndex() >= 0;
+    m_classIndex = structure.classIndex();
+
+    final int numAtts = structure.numAttributes();
+    final double[] counts = new double[numAtts];
+    final double[] means = new double[numAtts];
+    final double[] squares = new double[numAtts];
+    final double[][] valueCounts = new double[numAtts][];
+    final int[] numInstances = new int[1];
+    for (int j = 0; j < numAtts; j++) {
+      if (structure.attribute(j).isNominal()) {
+        valueCounts[j] = new double[structure.attribute(j).numValues()];
+      }
+    }
+
+    streamPass(new InstanceVisitor() {
+      @Override
+      void visit(Instance inst) {
+        numInstances[0]++;
+        for (int j = 0; j < numAtts; j++) {
+          if (inst.isMissing(j)) {
+            continue;
+          }
+          double value = inst.value(j);
+          if (valueCounts[j] != null) {
+            valueCounts[j][(int) value]++;
+          } else {
+            // running mean and sum of squared deviations
+            counts[j]++;
+            double delta = value - means[j];
+            means[j] += delta / counts[j];
+            squares[j] += delta * (value - means[j]);
+          }
+        }
+      }
+    });
+    m_numInstances = numInstances[0];
+
+    // missing values get the mean or mode, and each nominal attribute with
+    // more than two values becomes one binary attribute per value
+    m_replacement = new double[numAtts];
+    ArrayList<Integer> columnAttribute = new ArrayList<Integer>();
+    ArrayList<Integer> columnValue = new ArrayList<Integer>();
+    ArrayList<Double> columnMean = new ArrayList<Double>();
+    ArrayList<Double> columnVariance = new ArrayList<Double>();
+    ArrayList<Attribute> columns = new ArrayList<Attribute>();
+    double n = m_numInstances;
+    for (int j = 0; j < numAtts; j++) {
+      Attribute att = structure.attribute(j);
+      if (j == m_classIndex) {
+        continue;
+      }
+      if (valueCounts[j] == null) {
+        m_replacement[j] = means[j];
+        columnAttribute.add(j);
+        columnValue.add(-1);
+        columnMean.add(means[j]);
+        columnVariance.add(squares[j] / (n - 1));
+        columns.add(new Attribute(att.name()));
+      } else {
+        int mode = Utils.maxIndex(valueCounts[j]);
+        m_replacement[j] = mode;
+        double missing = n - Utils.sum(valueCounts[j]);
+        int first = (att.numValues() <= 2) ? att.numValues() - 1 : 0;
+        for (int v = first; v < att.numValues(); v++) {
+          double ones = valueCounts[j][v] + ((v == mode) ? missing : 0);
+          columnAttribute.add(j);
+          columnValue.add((att.numValues() <= 2) ? -1 : v);
+          columnMean.add(ones / n);
+          columnVariance.add((ones - ones * ones / n) / (n - 1));
+          columns.add(new Attribute((att.numValues() <= 2) ? att.name()
+            : att.name() + "=" + att.value(v)));
+        }
+      }
+    }
+
+    // attributes with only one value are left out, as in the other modes
+    int numColumns = 0;
+    for (double variance : columnVariance) {
+      if (variance > 0) {
+        numColumns++;
+      }
+    }
+    m_columnAttribute = new int[numColumns];
+    m_columnValue = new int[numColumns];
+    m_means = new double[numColumns];
+    m_stdDevs = new double[numColumns];
+    ArrayList<Attribute> kept = new ArrayList<Attribute>();
+    for (int c = 0, k = 0; c < columns.size(); c++) {
+      if (columnVariance.get(c) > 0) {
+        m_columnAttribute[k] = columnAttribute.get(c);
+        m_columnValue[k] = columnValue.get(c);
+        m_means[k] = columnMean.get(c);
+        m_stdDevs[k] = Math.sqrt(columnVariance.get(c));
+        kept.add(columns.get(c));
+        k++;
+      }
+    }
+    if (numColumns == 0) {
+      throw new Exception("No attribute varies in the data");
+    }
+
+    m_trainInstances = new Instances(structure.relationName(), kept, 0);
+    m_numAttribs = numColumns;
+
+    randomizedSVD();
+  }
+
+  /**
+   * Filters an instance in streaming mode: replaces missing values, turns
+   * nominal values into binary ones, and centers or standardizes the result.
+   *
+   * @param inst the instance in the original format
+   * @return the filtered values
+   */
+  private double[] streamValues(Instance inst) {
+    double[] values = new double[m_numAttribs];
+    for (int c = 0; c < m_numAttribs; c++) {
+      int att = m_columnAttribute[c];
+      double value = inst.isMissing(att) ? m_replacement[att] : inst.value(att);
+      if (m_columnValue[c] >= 0) {
+        value = ((int) value == m_columnValue[c]) ? 1 : 0;
+      }
+      values[c] = value - m_means[c];
+      if (!m_center) {
+        values[c] /= m_stdDevs[c];
+      }
+    }
+    return values;
+  }
+
   /**
    * Return a summary of the analysis
    *
@@ -752,10 +1481,17 @@ public class PrincipalComponents extends UnsupervisedAttributeEvaluator
     }
     // tomorrow
     String corrCov = (m_center) ? "Covariance " : "Correlation ";
-    result
-      .append(corrCov + "matrix\n" + matrixToString(Matrices.getArray(m_correlation)) + "\n\n");
+    int numEigens = m_eigenvalues.length;
+    if (m_correlation != null) {
+      result.append(corrCov + "matrix\n"
+        + matrixToString(Matrices.getArray(m_correlation)) + "\n\n");
+    } else {
+      result.append("Top " + numEigens + " components of the "
+        + corrCov.toLowerCase() + "matrix by randomized SVD"
+        + (m_columnAttribute != null ? ", streaming the data" : "") + "\n\n");
+    }
     result.append("eigenvalue\tproportion\tcumulative\n");
-    for (int i = m_numAttribs - 1; i > (m_numAttribs - numVectors - 1); i--) {
+    for (int i = numEigens - 1; i > (numEigens - numVectors - 1); i--) {
       cumulative += m_eigenvalues[m_sortedEigens[i]];
       result.append(Utils
         .doubleToString(m_eigenvalues[m_sortedEigens[i]], 9, 5)
@@ -765,7 +1501,7 @@ public class PrincipalComponents extends UnsupervisedAttributeEvaluator
         + "\t"
         + Utils.doubleToString((cumulative / m_sumOfEigenValues), 9, 5)
         + "\t"
-        + output.attribute(m_numAttribs - i - 1).name() + "\n");
+        + output.attribute(numEigens - i - 1).name() + "\n");
     }
 
     result.append("\nEigenvectors\n");
@@ -775,7 +1511,7 @@ public class PrincipalComponents extends UnsupervisedAttributeEvaluator
     result.append("\n");
     for (int j = 0; j < m_numAttribs; j++) {
 
-      for (int i = m_numAttribs - 1; i > (m_numAttribs - numVectors - 1); i--) {
+      for (int i = numEigens - 1; i > (numEigens - numVectors - 1); i--) {
         result.append(Utils.doubleToString(
           m_eigenvectors[j][m_sortedEigens[i]], 7, 4) + "\t");
       }
@@ -889,34 +1625,11 @@ public class PrincipalComponents extends UnsupervisedAttributeEvaluator
         + instance.dataset().equalHeadersMsg(m_trainHeader));
     }
 
-    m_replaceMissingFilter.input(tempInst);
-    m_replaceMissingFilter.batchFinished();
-    tempInst = m_replaceMissingFilter.output();
-
-    /*
-     * if (m_normalize) { m_normalizeFilter.input(tempInst);
-     * m_normalizeFilter.batchFinished(); tempInst = m_normalizeFilter.output();
-     * }
-     */
-
-    m_nominalToBinFilter.input(tempInst);
-    m_nominalToBinFilter.batchFinished();
-    tempInst = m_nominalToBinFilter.output();
-
-    if (m_attributeFilter != null) {
-      m_attributeFilter.input(tempInst);
-      m_attributeFilter.batchFinished();
-      tempInst = m_attributeFilter.output();
-    }
-
-    if (!m_center) {
-      m_standardizeFilter.input(tempInst);
-      m_standardizeFilter.batchFinished();
-      tempInst = m_standardizeFilter.output();
+    double[] values;
+    if (m_columnAttribute != null) {
+      values = streamValues(instance);
     } else {
-      m_centerFilter.input(tempInst);
-      m_centerFilter.batchFinished();
-      tempInst = m_centerFilter.output();
+      values = filteredValues(tempInst);
     }
 
     if (m_hasClass) {
@@ -924,12 +1637,13 @@ public class PrincipalComponents extends UnsupervisedAttributeEvaluator
     }
 
     double cumulative = 0;
-    for (int i = m_numAttribs - 1; i >= 0; i--) {
+    int numEigens = m_eigenvalues.length;
+    for (int i = numEigens - 1; i >= 0; i--) {
       double tempval = 0.0;
       for (int j = 0; j < m_numAttribs; j++) {
-        tempval += (m_eigenvectors[j][m_sortedEigens[i]] * tempInst.value(j));
+        tempval += (m_eigenvectors[j][m_sortedEigens[i]] * values[j]);
       }
-      newVals[m_numAttribs - i - 1] = tempval;
+      newVals[numEigens - i - 1] = tempval;
       cumulative += m_eigenvalues[m_sortedEigens[i]];
       if ((cumulative / m_sumOfEigenValues) >= m_coverVariance) {
         break;
@@ -953,6 +1667,47 @@ public class PrincipalComponents extends UnsupervisedAttributeEvaluator
     }
   }
 
+  /**
+   * Passes an instance through the filters fitted to the training data.
+   *
+   * @param tempInst a copy of the instance in the original format
+   * @return the filtered values
+   * @throws Exception if the instance can't be filtered
+   */
+  private double[] filteredValues(Instance tempInst) throws Exception {
+    m_replaceMissingFilter.input(tempInst);
+    m_replaceMissingFilter.batchFinished();
+    tempInst = m_replaceMissingFilter.output();
+
+    /*
+     * if (m_normalize) { m_normalizeFilter.input(tempInst);
+     * m_normalizeFilter.batchFinished(); tempInst = m_normalizeFilter.output();
+     * }
+     */
+
+    m_nominalToBinFilter.input(tempInst);
+    m_nominalToBinFilter.batchFinished();
+    tempInst = m_nominalToBinFilter.output();
+
+    if (m_attributeFilter != null) {
+      m_attributeFilter.input(tempInst);
+      m_attributeFilter.batchFinished();
+      tempInst = m_attributeFilter.output();
+    }
+
+    if (!m_center) {
+      m_standardizeFilter.input(tempInst);
+      m_standardizeFilter.batchFinished();
+      tempInst = m_standardizeFilter.output();
+    } else {
+      m_centerFilter.input(tempInst);
+      m_centerFilter.batchFinished();
+      tempInst = m_centerFilter.output();
+    }
+
+    return tempInst.toDoubleArray();
+  }
+
   /**
    * Set up the header for the PC->original space dataset
    *
@@ -996,7 +1751,7 @@ public class PrincipalComponents extends UnsupervisedAttributeEvaluator
 
     double cumulative = 0.0;
     ArrayList<Attribute> attributes = new ArrayList<Attribute>();
-    for (int i = m_numAttribs - 1; i >= 0; i--) {
+    for (int i = m_eigenvalues.length - 1; i >= 0; i--) {
       StringBuffer attName = new StringBuffer();
       // build array of coefficients
       double[] coeff_mags = new double[m_numAttribs];
@@ -2,30 +2,129 @@ package weka.attributeSelection;
 
 import weka.classifiers.evaluation.StandardEvaluationMetric;
 
-import java.nio.DoubleBuffer;
+import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import weka.classifiers.evaluation.AbstractEvaluationMetric;
+import weka.core.Aggregateable;
 import weka.core.Instance;
 import weka.core.Utils;
 
-public class RegressionEval extends AbstractEvaluationMetric implements StandardEvaluationMetric{
+public class RegressionEval extends AbstractEvaluationMetric implements StandardEvaluationMetric,Aggregateable<AbstractEvaluationMetric>{
 	private static final long serialVersionUID = -1058021221696083139L;
 	
 	private static double MRE(double Eact,double Eest){
 		return Math.abs(Eact-Eest)/Eact;
 	}
 	
+	/**
+	 * Quantile sketch of MREs with bounded relative error. MREs are counted in
+	 * logarithmic buckets, (g^(i-1),g^i] with g=(1+a)/(1-a), and a bucket is
+	 * estimated by the value within a relative error a of all of it. Sketches
+	 * with the same accuracy merge by adding their counts.
+	 */
+	public static class MRESketch implements Serializable{
+		private static final long serialVersionUID = 4473160520325196374L;
+
+		/** MREs below this are counted as zero */
+		private static final double MIN_VALUE=1e-300;
+
+		private final double m_Accuracy;
+		private final double m_Gamma;
+		private final double m_LogGamma;
+		/** counts of buckets m_MinIndex, m_MinIndex+1, ... */
+		private long[] m_Counts=new long[0];
+		private int m_MinIndex;
+		/** zero MREs and infinite or undefined MREs, ranked below and above all others */
+		private long m_Zeros;
+		private long m_Overflows;
+		private long m_Count;
+
+		public MRESketch(double accuracy){
+			if(accuracy<=0||accuracy>=1)
+				throw new IllegalArgumentException("Sketch accuracy must be in (0,1)!");
+			m_Accuracy=accuracy;
+			m_Gamma=(1+accuracy)/(1-accuracy);
+			m_LogGamma=Math.log(m_Gamma);
+		}
+
+		public double getAccuracy(){
+			return m_Accuracy;
+		}
+
+		public long count(){
+			return m_Count;
+		}
+
+		public void add(double mre){
+			++m_Count;
+			if(Double.isNaN(mre)||Double.isInfinite(mre))
+				++m_Overflows;
+			else if(mre<MIN_VALUE)
+				++m_Zeros;
+			else
+				add((int)Math.ceil(Math.log(mre)/m_LogGamma),1);
+		}
+
+		private void add(int index,long count){
+			if(m_Counts.length==0){
+				m_Counts=new long[16];
+				m_MinIndex=index;
+			}
+			else if(index<m_MinIndex){
+				int shift=Math.max(m_MinIndex-index,m_Counts.length);
+				long[] counts=new long[m_Counts.length+shift];
+				System.arraycopy(m_Counts,0,counts,shift,m_Counts.length);
+				m_Counts=counts;
+				m_MinIndex-=shift;
+			}
+			else if(index-m_MinIndex>=m_Counts.length)
+				m_Counts=Arrays.copyOf(m_Counts,Math.max(2*m_Counts.length,index-m_MinIndex+1));
+			m_Counts[index-m_MinIndex]+=count;
+		}
+
+		public void merge(MRESketch other){
+			if(other.m_Accuracy!=m_Accuracy)
+				throw new IllegalArgumentException("Can't merge sketches of different accuracy!");
+			for(int i=0;i<other.m_Counts.length;++i)
+				if(other.m_Counts[i]>0)
+					add(other.m_MinIndex+i,other.m_Counts[i]);
+			m_Zeros+=other.m_Zeros;
+			m_Overflows+=other.m_Overflows;
+			m_Count+=other.m_Count;
+		}
+
+		/**
+		 * Estimates the k-th smallest MRE, k starting at 1.
+		 */
+		public double kthSmallestValue(long k){
+			if(k<=m_Zeros)
+				return 0;
+			k-=m_Zeros;
+			for(int i=0;i<m_Counts.length;++i){
+				if(k<=m_Counts[i])
+					return 2*Math.pow(m_Gamma,m_MinIndex+i)/(m_Gamma+1);
+				k-=m_Counts[i];
+			}
+			return Double.POSITIVE_INFINITY;
+		}
+	}
+
 	private double m_SumMRE;
 	private int m_SumPredR;
-	private ArrayList<Double> m_MREs=new ArrayList<Double>();
+	private int m_Count;
+	/** the MREs so far, unless they are sketched */
+	private double[] m_MREs=new double[16];
+	private int m_NumMREs;
+	private MRESketch m_Sketch;
 	private List<String> m_StatisticNames=new ArrayList<String>();
 	
 	public RegressionEval(){
 		m_StatisticNames.add("MMRE");
 		m_StatisticNames.add("FN");
-		m_StatisticNames.add("MrMRE");
+		m_StatisticNames.add("MdMRE");
 		m_StatisticNames.add("predR");
 	}
 	
@@ -45,43 +144,125 @@ public class RegressionEval extends AbstractEvaluationMetric implements Standard
 				"Statistic:\n"+
 				"    MMRE:Mean magnitude of relative error.\n"+
 				"    FN:Feature number.\n"+
-				"    MdMRE:Mean magnitude of relative error\n"+
+				"    MdMRE:Median magnitude of relative error\n"+
 				"    predR:The ratio of MRE(prediction) under 0.25";
 	}
 	
+	/**
+	 * Sketches MREs instead of keeping them, so that MdMRE is computed in
+	 * constant memory within the given relative error. MREs kept so far are
+	 * moved into the sketch. 0 keeps all MREs and computes MdMRE exactly.
+	 */
+	public void setSketchAccuracy(double accuracy){
+		if(accuracy<=0){
+			if(m_Sketch!=null&&m_Sketch.count()>0)
+				throw new IllegalStateException("Can't restore MREs from a sketch!");
+			m_Sketch=null;
+			return;
+		}
+		MRESketch sketch=new MRESketch(accuracy);
+		if(m_Sketch!=null)
+			sketch.merge(m_Sketch);
+		for(int i=0;i<m_NumMREs;++i)
+			sketch.add(m_MREs[i]);
+		m_Sketch=sketch;
+		m_MREs=new double[0];
+		m_NumMREs=0;
+	}
+
+	public double getSketchAccuracy(){
+		return m_Sketch==null?0:m_Sketch.getAccuracy();
+	}
+
 	@Override
 	public double getStatistic(String statName){
-		int size=m_MREs.size();
 		switch(statName){
 			case "MMRE":
-				return m_SumMRE/m_baseEvaluation.numInstances();
+				return m_SumMRE/m_Count;
 			case "FN":
 				return m_baseEvaluation.getHeader().numAttributes();
 			case "MdMRE":
-				double[] MREs=new double[size];
-				for(int i=0;i<size;++i)
-					MREs[i]=m_MREs.get(i);
-				if(size%2==1)
-					return Utils.kthSmallestValue(MREs, size/2+1);
-				else
-					return (Utils.kthSmallestValue(MREs, size/2)+Utils.kthSmallestValue(MREs, size/2+1))/2;
+				return medianMRE();
 			case "predR":
-				return (double)m_SumPredR/size;
+				return (double)m_SumPredR/m_Count;
 			default:
 				return 0;
 		}
 	}
 	
+	private double medianMRE(){
+		if(m_Count==0)
+			return Utils.missingValue();
+		if(m_Sketch!=null){
+			if(m_Count%2==1)
+				return m_Sketch.kthSmallestValue(m_Count/2+1);
+			else
+				return (m_Sketch.kthSmallestValue(m_Count/2)+m_Sketch.kthSmallestValue(m_Count/2+1))/2;
+		}
+		double[] MREs=Arrays.copyOf(m_MREs,m_NumMREs);
+		int k=m_NumMREs/2;
+		select(MREs,k);
+		if(m_NumMREs%2==1)
+			return MREs[k];
+		// after selection the lower middle value is the largest one below k
+		double lower=MREs[0];
+		for(int i=1;i<k;++i)
+			if(Double.compare(MREs[i],lower)>0)
+				lower=MREs[i];
+		return (lower+MREs[k])/2;
+	}
+
+	/**
+	 * Partially sorts values so that the k-th value (from 0) is in place, with
+	 * no greater values before it and no smaller ones after it.
+	 */
+	private static void select(double[] values,int k){
+		int left=0,right=values.length-1;
+		while(left<right){
+			int mid=(left+right)>>>1;
+			if(Double.compare(values[mid],values[left])<0)
+				swap(values,left,mid);
+			if(Double.compare(values[right],values[left])<0)
+				swap(values,left,right);
+			if(Double.compare(values[right],values[mid])<0)
+				swap(values,mid,right);
+			double pivot=values[mid];
+			int i=left,j=right;
+			while(i<=j){
+				while(Double.compare(values[i],pivot)<0)
+					++i;
+				while(Double.compare(values[j],pivot)>0)
+					--j;
+				if(i<=j)
+					swap(values,i++,j--);
+			}
+			if(k<=j)
+				right=j;
+			else if(k>=i)
+				left=i;
+			else
+				return;
+		}
+	}
+
+	private static void swap(double[] values,int i,int j){
+		double t=values[i];
+		values[i]=values[j];
+		values[j]=t;
+	}
+
 	@Override
 	public String getMetricName(){
 		return "RegressionEval";
 	};
 	
+	/**
+	 * Returns the MREs so far, or null if they are sketched.
+	 */
 	public double[] getMREs(){
-		double[] MREs=new double[m_MREs.size()];
-		for(int i=0;i<m_MREs.size();++i)
-			MREs[i]=m_MREs.get(i);
-		return MREs;
+		if(m_Sketch!=null)
+			return null;
+		return Arrays.copyOf(m_MREs,m_NumMREs);
 	}
 	
 	@Override
@@ -119,12 +300,54 @@ public class RegressionEval extends AbstractEvaluationMetric implements Standard
 	public void updateStatsForPredictor(double pred, Instance inst) throws Exception {
 		if(inst.classAttribute().isNumeric()){
 			double mre=MRE(pred,inst.classValue());
-			m_MREs.add(mre);
+			add(mre);
 			m_SumMRE+=mre;
 			if(mre<=0.25)
 				++m_SumPredR;
+			++m_Count;
 		}
 		else
 			throw new Exception("Can't solve nominal classes!");
 	}
+
+	private void add(double mre){
+		if(m_Sketch!=null){
+			m_Sketch.add(mre);
+			return;
+		}
+		if(m_NumMREs==m_MREs.length)
+			m_MREs=Arrays.copyOf(m_MREs,Math.max(16,2*m_MREs.length));
+		m_MREs[m_NumMREs++]=mre;
+	}
+
+	/**
+	 * Adds the statistics of another RegressionEval, e.g. of another fold or
+	 * thread, to this one. If either sketches its MREs the result does too.
+	 */
+	public void merge(RegressionEval other){
+		if(other.m_Sketch!=null){
+			if(m_Sketch==null)
+				setSketchAccuracy(other.m_Sketch.getAccuracy());
+			m_Sketch.merge(other.m_Sketch);
+		}
+		else
+			for(int i=0;i<other.m_NumMREs;++i)
+				add(other.m_MREs[i]);
+		m_SumMRE+=other.m_SumMRE;
+		m_SumPredR+=other.m_SumPredR;
+		m_Count+=other.m_Count;
+	}
+
+	@Override
+	public RegressionEval aggregate(AbstractEvaluationMetric toAggregate) throws Exception {
+		if(!(toAggregate instanceof RegressionEval))
+			throw new Exception("Can't aggregate "+toAggregate.getMetricName()+" into RegressionEval!");
+		merge((RegressionEval)toAggregate);
+		return this;
+	}
+
+	@Override
+	public void finalizeAggregation(){
+		// statistics are computed on demand
+	}
 }
@@ -21,9 +21,15 @@
 
 package weka.attributeSelection;
 
+import java.util.ArrayList;
 import java.util.Enumeration;
+import java.util.List;
 import java.util.Random;
 import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import weka.core.Attribute;
 import weka.core.Capabilities;
@@ -33,11 +39,13 @@ import weka.core.Instances;
 import weka.core.Option;
 import weka.core.OptionHandler;
 import weka.core.RevisionUtils;
+import weka.core.SerializedObject;
 import weka.core.TechnicalInformation;
 import weka.core.TechnicalInformation.Field;
 import weka.core.TechnicalInformation.Type;
 import weka.core.TechnicalInformationHandler;
 import weka.core.Utils;
+import weka.core.neighboursearch.NearestNeighbourSearch;
 
 /**
  * <!-- globalinfo-start --> ReliefFAttributeEval :<br/>
@@ -137,6 +145,19 @@ import weka.core.Utils;
  *  (Default = 2)
  * </pre>
  * 
+ * <pre>
+ * -search &lt;spec&gt;
+ *  The nearest neighbour search used to find the
+ *  hits and misses of each class, e.g.
+ *  weka.core.neighboursearch.KDTree.
+ *  (Default = exact scan with the ReliefF distance)
+ * </pre>
+ * 
+ * <pre>
+ * -num-slots &lt;int&gt;
+ *  The number of execution slots, for example, the number of cores in the CPU. (default 1)
+ * </pre>
+ * 
  * <!-- options-end -->
  * 
  * @author Mark Hall (mhall@cs.waikato.ac.nz)
@@ -199,24 +220,12 @@ public class ReliefFAttributeEval extends ASEvaluation implements
   /** The number of nearest hits/misses */
   private int m_Knn;
 
-  /** k nearest scores + instance indexes for n classes */
-  private double[][][] m_karray;
-
   /** Upper bound for numeric attributes */
   private double[] m_maxArray;
 
   /** Lower bound for numeric attributes */
   private double[] m_minArray;
 
-  /** Keep track of the farthest instance for each class */
-  private double[] m_worst;
-
-  /** Index in the m_karray of the farthest instance for each class */
-  private int[] m_index;
-
-  /** Number of nearest neighbours stored of each class */
-  private int[] m_stored;
-
   /** Random number seed used for sampling instances */
   private int m_seed;
 
@@ -233,6 +242,38 @@ public class ReliefFAttributeEval extends ASEvaluation implements
   /** Weight by distance rather than equal weights */
   private boolean m_weightByDistance;
 
+  /** The search used to find hits and misses, null for the exact scan */
+  private NearestNeighbourSearch m_neighbourSearch;
+
+  /**
+   * The search of each class (a single one when the class is numeric), built
+   * on the instances of the class, for each execution slot
+   */
+  private transient NearestNeighbourSearch[][] m_classSearch;
+
+  /** The number of execution slots */
+  private int m_poolSize;
+
+  /** The number of sampled instances whose neighbours are found in one round */
+  protected static final int BATCH_SIZE = 256;
+
+  /**
+   * The nearest hits and misses of a sampled instance: for every class (a
+   * single one when the class is numeric) up to k neighbours and their
+   * distances.
+   */
+  private class Neighbours {
+
+    /** the distances of the neighbours */
+    double[][] m_distances = new double[m_numClasses][m_Knn];
+
+    /** the neighbours */
+    Instance[][] m_instances = new Instance[m_numClasses][m_Knn];
+
+    /** the number of neighbours stored for each class */
+    int[] m_stored = new int[m_numClasses];
+  }
+
   /**
    * Constructor
    */
@@ -328,6 +369,14 @@ public class ReliefFAttributeEval extends ASEvaluation implements
       + "\tSensible value=1/5 to 1/10 of the\n"
       + "\tnumber of nearest neighbours.\n" + "\t(Default = 2)", "A", 1,
       "-A <num>"));
+    newVector.addElement(new Option(
+      "\tThe nearest neighbour search used to find the\n"
+        + "\thits and misses of each class, e.g.\n"
+        + "\tweka.core.neighboursearch.KDTree.\n"
+        + "\t(Default = exact scan with the ReliefF distance)", "search", 1,
+      "-search <spec>"));
+    newVector.addElement(new Option("\t" + numExecutionSlotsTipText()
+      + " (default 1)\n", "num-slots", 1, "-num-slots <int>"));
     return newVector.elements();
   }
 
@@ -375,6 +424,19 @@ public class ReliefFAttributeEval extends ASEvaluation implements
    *  (Default = 2)
    * </pre>
    * 
+   * <pre>
+   * -search &lt;spec&gt;
+   *  The nearest neighbour search used to find the
+   *  hits and misses of each class, e.g.
+   *  weka.core.neighboursearch.KDTree.
+   *  (Default = exact scan with the ReliefF distance)
+   * </pre>
+   * 
+   * <pre>
+   * -num-slots &lt;int&gt;
+   *  The number of execution slots, for example, the number of cores in the CPU. (default 1)
+   * </pre>
+   * 
    * <!-- options-end -->
    * 
    * @param options the list of options as an array of strings
@@ -409,6 +471,87 @@ public class ReliefFAttributeEval extends ASEvaluation implements
       setWeightByDistance(true); // turn on weighting by distance
       setSigma(Integer.parseInt(optionString));
     }
+
+    optionString = Utils.getOption("search", options);
+
+    if (optionString.length() != 0) {
+      String[] searchSpec = Utils.splitOptions(optionString);
+      if (searchSpec.length == 0) {
+        throw new Exception("Invalid NearestNeighbourSearch algorithm "
+          + "specification string.");
+      }
+      String className = searchSpec[0];
+      searchSpec[0] = "";
+      setNeighbourSearch((NearestNeighbourSearch) Utils.forName(
+        NearestNeighbourSearch.class, className, searchSpec));
+    }
+
+    optionString = Utils.getOption("num-slots", options);
+
+    if (optionString.length() != 0) {
+      setNumExecutionSlots(Integer.parseInt(optionString));
+    }
+  }
+
+  /**
+   * Returns the tip text for this property
+   * 
+   * @return tip text for this property suitable for displaying in the
+   *         explorer/experimenter gui
+   */
+  public String neighbourSearchTipText() {
+    return "The nearest neighbour search used to find the hits and misses. "
+      + "A search is built on the instances of each class, and uses its own "
+      + "distance function, so a tree such as KDTree, BallTree or CoverTree "
+      + "avoids scanning all instances for every sample but ranks neighbours "
+      + "by that distance rather than the ReliefF one. If not set, every "
+      + "instance is scanned with the ReliefF distance.";
+  }
+
+  /**
+   * Sets the nearest neighbour search.
+   * 
+   * @param search the search, null for the exact scan
+   */
+  public void setNeighbourSearch(NearestNeighbourSearch search) {
+    m_neighbourSearch = search;
+  }
+
+  /**
+   * Gets the nearest neighbour search.
+   * 
+   * @return the search, null for the exact scan
+   */
+  public NearestNeighbourSearch getNeighbourSearch() {
+    return m_neighbourSearch;
+  }
+
+  /**
+   * Returns the tip text for this property
+   * 
+   * @return tip text for this property suitable for displaying in the
+   *         explorer/experimenter gui
+   */
+  public String numExecutionSlotsTipText() {
+    return "The number of execution slots, for example, the number of cores in the CPU.";
+  }
+
+  /**
+   * Gets the number of threads.
+   * 
+   * @return the number of execution slots
+   */
+  public int getNumExecutionSlots() {
+    return m_poolSize;
+  }
+
+  /**
+   * Sets the number of threads
+   * 
+   * @param nT the number of execution slots
+   */
+  public void setNumExecutionSlots(int nT) {
+    m_poolSize = nT;
   }
 
   /**
@@ -586,6 +729,15 @@ public class ReliefFAttributeEval extends ASEvaluation implements
       options.add("" + getSigma());
     }
 
+    if (getNeighbourSearch() != null) {
+      options.add("-search");
+      options.add(getNeighbourSearch().getClass().getName() + " "
+        + Utils.joinOptions(getNeighbourSearch().getOptions()));
+    }
+
+    options.add("-num-slots");
+    options.add("" + getNumExecutionSlots());
+
     return options.toArray(new String[0]);
   }
 
@@ -619,6 +771,12 @@ public class ReliefFAttributeEval extends ASEvaluation implements
       } else {
         text.append("\tEqual influence nearest neighbours\n");
       }
+
+      if (m_neighbourSearch != null) {
+        text.append("\tNearest neighbour search: "
+          + m_neighbourSearch.getClass().getName() + " "
+          + Utils.joinOptions(m_neighbourSearch.getOptions()) + "\n");
+      }
     }
 
     return text.toString();
@@ -697,10 +855,6 @@ public class ReliefFAttributeEval extends ASEvaluation implements
 
     // the final attribute weights
     m_weights = new double[m_numAttribs];
-    // num classes (1 for numeric class) knn neighbours,
-    // and 0 = distance, 1 = instance index
-    m_karray = new double[m_numClasses][m_Knn][2];
-
     if (!m_numericClass) {
       m_classProbs = new double[m_numClasses];
 
@@ -715,9 +869,6 @@ public class ReliefFAttributeEval extends ASEvaluation implements
       }
     }
 
-    m_worst = new double[m_numClasses];
-    m_index = new int[m_numClasses];
-    m_stored = new int[m_numClasses];
     m_minArray = new double[m_numAttribs];
     m_maxArray = new double[m_numAttribs];
 
@@ -735,7 +886,9 @@ public class ReliefFAttributeEval extends ASEvaluation implements
       totalInstances = m_sampleM;
     }
 
-    // process each instance, updating attribute weights
+    // the sampled instances, drawn before any neighbours are searched so that
+    // the sample doesn't depend on the number of execution slots
+    int[] sample = new int[totalInstances];
     for (int i = 0; i < totalInstances; i++) {
       if (totalInstances == m_numInstances) {
         z = i;
@@ -747,24 +900,39 @@ public class ReliefFAttributeEval extends ASEvaluation implements
         z *= -1;
       }
 
-      if (!(m_trainInstances.instance(z).isMissing(m_classIndex))) {
-        // first clear the knn and worst index stuff for the classes
-        for (int j = 0; j < m_numClasses; j++) {
-          m_index[j] = m_stored[j] = 0;
-
-          for (int k = 0; k < m_Knn; k++) {
-            m_karray[j][k][0] = m_karray[j][k][1] = 0;
-          }
-        }
+      sample[i] = z;
+    }
 
-        findKHitMiss(z);
+    if (m_neighbourSearch != null) {
+      buildClassSearches();
+    }
 
-        if (m_numericClass) {
-          updateWeightsNumericClass(z);
-        } else {
-          updateWeightsDiscreteClass(z);
+    // process each instance, updating attribute weights. The neighbours of a
+    // round of samples are found in parallel, and the weights are then
+    // updated in sample order so that they don't depend on the number of
+    // execution slots
+    ExecutorService pool =
+      (m_poolSize > 1) ? Executors.newFixedThreadPool(m_poolSize) : null;
+    try {
+      for (int start = 0; start < totalInstances; start += BATCH_SIZE) {
+        int end = Math.min(start + BATCH_SIZE, totalInstances);
+        Neighbours[] found = findNeighbours(sample, start, end, pool);
+
+        for (int i = start; i < end; i++) {
+          if (found[i - start] != null) {
+            if (m_numericClass) {
+              updateWeightsNumericClass(sample[i], found[i - start]);
+            } else {
+              updateWeightsDiscreteClass(sample[i], found[i - start]);
+            }
+          }
         }
       }
+    } finally {
+      if (pool != null) {
+        pool.shutdown();
+      }
+      m_classSearch = null;
     }
 
     // now scale weights by 1/m_numInstances (nominal class) or
@@ -806,6 +974,8 @@ public class ReliefFAttributeEval extends ASEvaluation implements
     m_sigma = 2;
     m_weightByDistance = false;
     m_seed = 1;
+    m_neighbourSearch = null;
+    m_poolSize = 1;
   }
 
   /**
@@ -953,7 +1123,7 @@ public class ReliefFAttributeEval extends ASEvaluation implements
    * 
    * @param instNum the index of the instance to use when updating weights
    */
-  private void updateWeightsNumericClass(int instNum) {
+  private void updateWeightsNumericClass(int instNum, Neighbours nn) {
     int i, j;
     double temp, temp2;
     int[] tempSorted = null;
@@ -965,11 +1135,11 @@ public class ReliefFAttributeEval extends ASEvaluation implements
 
     // sort nearest neighbours and set up normalization variable
     if (m_weightByDistance) {
-      tempDist = new double[m_stored[0]];
+      tempDist = new double[nn.m_stored[0]];
 
-      for (j = 0, distNorm = 0; j < m_stored[0]; j++) {
+      for (j = 0, distNorm = 0; j < nn.m_stored[0]; j++) {
         // copy the distances
-        tempDist[j] = m_karray[0][j][0];
+        tempDist[j] = nn.m_distances[0][j];
         // sum normalizer
         distNorm += m_weightsByRank[j];
       }
@@ -977,28 +1147,23 @@ public class ReliefFAttributeEval extends ASEvaluation implements
       tempSorted = Utils.sort(tempDist);
     }
 
-    for (i = 0; i < m_stored[0]; i++) {
+    for (i = 0; i < nn.m_stored[0]; i++) {
       // P diff prediction (class) given nearest instances
       if (m_weightByDistance) {
-        temp = difference(
-          m_classIndex,
-          inst.value(m_classIndex),
-          m_trainInstances.instance((int) m_karray[0][tempSorted[i]][1]).value(
-            m_classIndex));
+        temp = difference(m_classIndex, inst.value(m_classIndex),
+          nn.m_instances[0][tempSorted[i]].value(m_classIndex));
         temp *= (m_weightsByRank[i] / distNorm);
       } else {
         temp = difference(m_classIndex, inst.value(m_classIndex),
-          m_trainInstances.instance((int) m_karray[0][i][1])
-            .value(m_classIndex));
-        temp *= (1.0 / m_stored[0]); // equal influence
+          nn.m_instances[0][i].value(m_classIndex));
+        temp *= (1.0 / nn.m_stored[0]); // equal influence
       }
 
       m_ndc += temp;
 
       Instance cmp;
-      cmp = (m_weightByDistance) ? m_trainInstances
-        .instance((int) m_karray[0][tempSorted[i]][1]) : m_trainInstances
-        .instance((int) m_karray[0][i][1]);
+      cmp = (m_weightByDistance) ? nn.m_instances[0][tempSorted[i]]
+        : nn.m_instances[0][i];
 
       double temp_diffP_diffA_givNearest = difference(m_classIndex,
         inst.value(m_classIndex), cmp.value(m_classIndex));
@@ -1046,7 +1211,7 @@ public class ReliefFAttributeEval extends ASEvaluation implements
         if (m_weightByDistance) {
           temp2 *= (m_weightsByRank[i] / distNorm);
         } else {
-          temp2 *= (1.0 / m_stored[0]); // equal influence
+          temp2 *= (1.0 / nn.m_stored[0]); // equal influence
         }
 
         m_ndcda[j] += temp2;
@@ -1055,7 +1220,7 @@ public class ReliefFAttributeEval extends ASEvaluation implements
         if (m_weightByDistance) {
           temp *= (m_weightsByRank[i] / distNorm);
         } else {
-          temp *= (1.0 / m_stored[0]); // equal influence
+          temp *= (1.0 / nn.m_stored[0]); // equal influence
         }
 
         m_nda[j] += temp;
@@ -1067,8 +1232,9 @@ public class ReliefFAttributeEval extends ASEvaluation implements
    * update attribute weights given an instance when the class is discrete
    * 
    * @param instNum the index of the instance to use when updating weights
+   * @param nn the nearest hits and misses of the instance
    */
-  private void updateWeightsDiscreteClass(int instNum) {
+  private void updateWeightsDiscreteClass(int instNum, Neighbours nn) {
     int i, j, k;
     int cl;
     double temp_diff, w_norm = 1.0;
@@ -1090,11 +1256,11 @@ public class ReliefFAttributeEval extends ASEvaluation implements
     if (m_weightByDistance) {
       // do class (hits) first
       // sort the distances
-      tempDistClass = new double[m_stored[cl]];
+      tempDistClass = new double[nn.m_stored[cl]];
 
-      for (j = 0, distNormClass = 0; j < m_stored[cl]; j++) {
+      for (j = 0, distNormClass = 0; j < nn.m_stored[cl]; j++) {
         // copy the distances
-        tempDistClass[j] = m_karray[cl][j][0];
+        tempDistClass[j] = nn.m_distances[cl][j];
         // sum normalizer
         distNormClass += m_weightsByRank[j];
       }
@@ -1108,11 +1274,11 @@ public class ReliefFAttributeEval extends ASEvaluation implements
         if (k != cl) // already done cl
         {
           // sort the distances
-          tempDistAtt = new double[m_stored[k]];
+          tempDistAtt = new double[nn.m_stored[k]];
 
-          for (j = 0, distNormAtt[k] = 0; j < m_stored[k]; j++) {
+          for (j = 0, distNormAtt[k] = 0; j < nn.m_stored[k]; j++) {
             // copy the distances
-            tempDistAtt[j] = m_karray[k][j][0];
+            tempDistAtt[j] = nn.m_distances[k][j];
             // sum normalizer
             distNormAtt[k] += m_weightsByRank[j];
           }
@@ -1129,11 +1295,10 @@ public class ReliefFAttributeEval extends ASEvaluation implements
     }
 
     // do the k nearest hits of the same class
-    for (j = 0, temp_diff = 0.0; j < m_stored[cl]; j++) {
+    for (j = 0, temp_diff = 0.0; j < nn.m_stored[cl]; j++) {
       Instance cmp;
-      cmp = (m_weightByDistance) ? m_trainInstances
-        .instance((int) m_karray[cl][tempSortedClass[j]][1]) : m_trainInstances
-        .instance((int) m_karray[cl][j][1]);
+      cmp = (m_weightByDistance) ? nn.m_instances[cl][tempSortedClass[j]]
+        : nn.m_instances[cl][j];
 
       for (int p1 = 0, p2 = 0; p1 < inst.numValues() || p2 < cmp.numValues();) {
         if (p1 >= inst.numValues()) {
@@ -1172,8 +1337,8 @@ public class ReliefFAttributeEval extends ASEvaluation implements
         if (m_weightByDistance) {
           temp_diff *= (m_weightsByRank[j] / distNormClass);
         } else {
-          if (m_stored[cl] > 0) {
-            temp_diff /= m_stored[cl];
+          if (nn.m_stored[cl] > 0) {
+            temp_diff /= nn.m_stored[cl];
           }
         }
         m_weights[i] -= temp_diff;
@@ -1187,11 +1352,10 @@ public class ReliefFAttributeEval extends ASEvaluation implements
     for (k = 0; k < m_numClasses; k++) {
       if (k != cl) // already done cl
       {
-        for (j = 0; j < m_stored[k]; j++) {
+        for (j = 0; j < nn.m_stored[k]; j++) {
           Instance cmp;
-          cmp = (m_weightByDistance) ? m_trainInstances
-            .instance((int) m_karray[k][tempSortedAtt[k][j]][1])
-            : m_trainInstances.instance((int) m_karray[k][j][1]);
+          cmp = (m_weightByDistance) ? nn.m_instances[k][tempSortedAtt[k][j]]
+            : nn.m_instances[k][j];
 
           for (int p1 = 0, p2 = 0; p1 < inst.numValues()
             || p2 < cmp.numValues();) {
@@ -1232,8 +1396,8 @@ public class ReliefFAttributeEval extends ASEvaluation implements
             if (m_weightByDistance) {
               temp_diff *= (m_weightsByRank[j] / distNormAtt[k]);
             } else {
-              if (m_stored[k] > 0) {
-                temp_diff /= m_stored[k];
+              if (nn.m_stored[k] > 0) {
+                temp_diff /= nn.m_stored[k];
               }
             }
             if (m_numClasses > 2) {
@@ -1247,19 +1411,72 @@ public class ReliefFAttributeEval extends ASEvaluation implements
     }
   }
 
+  /**
+   * Finds the nearest hits and misses of a round of sampled instances, in
+   * parallel if there is a thread pool. Each execution slot takes every
+   * slot-th sample and uses its own copies of the class searches.
+   * 
+   * @param sample the indexes of the sampled instances
+   * @param start the first sample of the round
+   * @param end the end of the round
+   * @param pool the thread pool, null to find the neighbours in this thread
+   * @return the neighbours of each sample in the round, null for samples
+   *         whose class is missing
+   * @throws Exception if a neighbour search fails
+   */
+  private Neighbours[] findNeighbours(final int[] sample, final int start,
+    final int end, ExecutorService pool) throws Exception {
+
+    final Neighbours[] found = new Neighbours[end - start];
+    final int numSlots = (pool == null) ? 1 : m_poolSize;
+    List<Future<Void>> results = new ArrayList<Future<Void>>();
+
+    for (int s = 0; s < numSlots; s++) {
+      final int slot = s;
+      Callable<Void> task = new Callable<Void>() {
+        @Override
+        public Void call() throws Exception {
+          for (int i = start + slot; i < end; i += numSlots) {
+            if (!m_trainInstances.instance(sample[i]).isMissing(m_classIndex)) {
+              found[i - start] = (m_classSearch == null) ? findKHitMiss(sample[i])
+                : searchKHitMiss(sample[i], m_classSearch[slot]);
+            }
+          }
+          return null;
+        }
+      };
+
+      if (pool == null) {
+        task.call();
+      } else {
+        results.add(pool.submit(task));
+      }
+    }
+
+    for (Future<Void> f : results) {
+      f.get();
+    }
+
+    return found;
+  }
+
   /**
    * Find the K nearest instances to supplied instance if the class is numeric,
    * or the K nearest Hits (same class) and Misses (K from each of the other
    * classes) if the class is discrete.
    * 
    * @param instNum the index of the instance to find nearest neighbours of
+   * @return the nearest hits and misses
    */
-  private void findKHitMiss(int instNum) {
+  private Neighbours findKHitMiss(int instNum) {
     int i, j;
     int cl;
     double ww;
     double temp_diff = 0.0;
     Instance thisInst = m_trainInstances.instance(instNum);
+    Neighbours nn = new Neighbours();
+    // index of the farthest stored neighbour of each class
+    int[] worst = new int[m_numClasses];
 
     for (i = 0; i < m_numInstances; i++) {
       if (i != instNum) {
@@ -1278,42 +1495,140 @@ public class ReliefFAttributeEval extends ASEvaluation implements
         }
 
         // add this diff to the list for the class of this instance
-        if (m_stored[cl] < m_Knn) {
-          m_karray[cl][m_stored[cl]][0] = temp_diff;
-          m_karray[cl][m_stored[cl]][1] = i;
-          m_stored[cl]++;
+        if (nn.m_stored[cl] < m_Knn) {
+          nn.m_distances[cl][nn.m_stored[cl]] = temp_diff;
+          nn.m_instances[cl][nn.m_stored[cl]] = cmpInst;
+          nn.m_stored[cl]++;
 
           // note the worst diff for this class
-          for (j = 0, ww = -1.0; j < m_stored[cl]; j++) {
-            if (m_karray[cl][j][0] > ww) {
-              ww = m_karray[cl][j][0];
-              m_index[cl] = j;
+          for (j = 0, ww = -1.0; j < nn.m_stored[cl]; j++) {
+            if (nn.m_distances[cl][j] > ww) {
+              ww = nn.m_distances[cl][j];
+              worst[cl] = j;
             }
           }
-
-          m_worst[cl] = ww;
         } else
         /*
          * if we already have stored knn for this class then check to see if
          * this instance is better than the worst
          */
         {
-          if (temp_diff < m_karray[cl][m_index[cl]][0]) {
-            m_karray[cl][m_index[cl]][0] = temp_diff;
-            m_karray[cl][m_index[cl]][1] = i;
-
-            for (j = 0, ww = -1.0; j < m_stored[cl]; j++) {
-              if (m_karray[cl][j][0] > ww) {
-                ww = m_karray[cl][j][0];
-                m_index[cl] = j;
+          if (temp_diff < nn.m_distances[cl][worst[cl]]) {
+            nn.m_distances[cl][worst[cl]] = temp_diff;
+            nn.m_instances[cl][worst[cl]] = cmpInst;
+
+            for (j = 0, ww = -1.0; j < nn.m_stored[cl]; j++) {
+              if (nn.m_distances[cl][j] > ww) {
+                ww = nn.m_distances[cl][j];
+                worst[cl] = j;
               }
             }
-
-            m_worst[cl] = ww;
           }
         }
       }
     }
+
+    return nn;
+  }
+
+  /**
+   * Finds the nearest hits and misses of an instance with the searches built
+   * on the instances of each class. The instance itself is among those of its
+   * own class, so one more neighbour is asked for there and the first one
+   * with the same values is left out.
+   * 
+   * @param instNum the index of the instance to find nearest neighbours of
+   * @param searches the search of each class
+   * @return the nearest hits and misses
+   * @throws Exception if a search fails
+   */
+  private Neighbours searchKHitMiss(int instNum,
+    NearestNeighbourSearch[] searches) throws Exception {
+
+    Instance thisInst = m_trainInstances.instance(instNum);
+    int own = m_numericClass ? 0 : (int) thisInst.value(m_classIndex);
+    Neighbours nn = new Neighbours();
+
+    for (int cl = 0; cl < m_numClasses; cl++) {
+      if (searches[cl] == null) {
+        continue;
+      }
+
+      Instances found =
+        searches[cl].kNearestNeighbours(thisInst, (cl == own) ? m_Knn + 1
+          : m_Knn);
+      double[] distances = searches[cl].getDistances();
+      boolean skipped = (cl != own);
+
+      for (int j = 0; j < found.numInstances() && nn.m_stored[cl] < m_Knn; j++) {
+        if (!skipped && sameValues(thisInst, found.instance(j))) {
+          skipped = true;
+          continue;
+        }
+        nn.m_distances[cl][nn.m_stored[cl]] = distances[j];
+        nn.m_instances[cl][nn.m_stored[cl]] = found.instance(j);
+        nn.m_stored[cl]++;
+      }
+    }
+
+    return nn;
+  }
+
+  /**
+   * Builds a copy of the neighbour search on the instances of each class (on
+   * all instances when the class is numeric) for each execution slot, since
+   * searches keep state while they look for neighbours.
+   * 
+   * @throws Exception if a search can't be built
+   */
+  private void buildClassSearches() throws Exception {
+
+    Instances[] byClass = new Instances[m_numClasses];
+    for (int cl = 0; cl < m_numClasses; cl++) {
+      byClass[cl] = new Instances(m_trainInstances, 0);
+    }
+    for (int i = 0; i < m_numInstances; i++) {
+      Instance inst = m_trainInstances.instance(i);
+      if (m_numericClass) {
+        byClass[0].add(inst);
+      } else if (!inst.classIsMissing()) {
+        byClass[(int) inst.value(m_classIndex)].add(inst);
+      }
+    }
+
+    int numSlots = Math.max(1, m_poolSize);
+    m_classSearch = new NearestNeighbourSearch[numSlots][m_numClasses];
+    for (int cl = 0; cl < m_numClasses; cl++) {
+      if (byClass[cl].numInstances() == 0) {
+        continue;
+      }
+      NearestNeighbourSearch search =
+        (NearestNeighbourSearch) new SerializedObject(m_neighbourSearch)
+          .getObject();
+      search.setInstances(byClass[cl]);
+      m_classSearch[0][cl] = search;
+      for (int slot = 1; slot < numSlots; slot++) {
+        m_classSearch[slot][cl] =
+          (NearestNeighbourSearch) new SerializedObject(search).getObject();
+      }
+    }
+  }
+
+  /**
+   * Tests whether two instances have the same values.
+   * 
+   * @param first the first instance
+   * @param second the second instance
+   * @return true if all values are equal or missing in both
+   */
+  private static boolean sameValues(Instance first, Instance second) {
+    for (int i = 0; i < first.numAttributes(); i++) {
+      if (first.isMissing(i) ? !second.isMissing(i)
+        : first.value(i) != second.value(i)) {
+        return false;
+      }
+    }
+    return true;
   }
 
   /**
@@ -16,10 +16,13 @@ public class SingleWrapperSubsetEval extends WrapperSubsetEval{
 
 	@Override
 	public double evaluateSubset(BitSet subset) throws Exception {
+		double[] cached = cachedMerits(subset, null);
+		if (cached != null)
+			return cached[0];
 		double evalMetric = 0;
 	    BitSet subsetCopy=(BitSet)subset.clone();
 	    subsetCopy.set(m_classIndex);
-	    Instances trainCopy = new Instances(m_trainInstances.attributeFilter(subsetCopy));
+	    Instances trainCopy = m_trainInstances.attributeFilter(subsetCopy);
 
 	    AbstractEvaluationMetric pluginMetric = null;
 	    String statName = null;
@@ -99,16 +102,26 @@ public class SingleWrapperSubsetEval extends WrapperSubsetEval{
 	      }
 	    }
 
+	    cacheMerits(subset, null, new double[] { evalMetric });
 	    return evalMetric;
 	}
 	
+	// subsets are evaluated on the training data, so a race's folds are of no use
+	@Override
+	protected double evaluateSubset(BitSet subset, Evaluation first, Random Rnd) throws Exception {
+		return evaluateSubset(subset);
+	}
+	
 	public double[] evaluateSubset(BitSet subset,String[] statNames) throws Exception {
+		double[] cached = cachedMerits(subset, statNames);
+		if (cached != null)
+			return cached;
 	    int i;
 	    int numObjective=statNames.length;
 	    double[] evalMetric=new double[numObjective];
 	    BitSet subsetCopy=(BitSet)subset.clone();
 	    subsetCopy.set(m_classIndex);
-	    Instances trainCopy = new Instances(m_trainInstances.attributeFilter(subsetCopy));
+	    Instances trainCopy = m_trainInstances.attributeFilter(subsetCopy);
 	    SelectedTag[] statTags=new SelectedTag[numObjective];
 	    for(i=0;i<numObjective;++i)
 	    	statTags[i]=new SelectedTag(statNames[i], TAGS_EVALUATION);
@@ -189,6 +202,7 @@ public class SingleWrapperSubsetEval extends WrapperSubsetEval{
 		}
 		
 		m_Evaluation = null;
+		cacheMerits(subset, statNames, evalMetric);
 		return evalMetric;
 	}
 }
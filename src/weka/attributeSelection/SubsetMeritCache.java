@@ -0,0 +1,467 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ *    SubsetMeritCache.java
+ *
+ */
+
+package weka.attributeSelection;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.RevisionHandler;
+import weka.core.RevisionUtils;
+import weka.core.SparseInstance;
+
+/**
+ * Persistent cache of subset merits, shared by all evaluators in the process
+ * that use the same file. Merits are addressed by a 128 bit digest of
+ * everything they depend on, so the cache can be kept across runs and
+ * searches as long as the keys cover the data, the evaluator's settings and
+ * the subset.<br/>
+ * <br/>
+ * The file is an append-only sequence of records, each the number of merits,
+ * the key and the merits, and is memory-mapped in a region that is doubled
+ * when it fills up. A record only counts once its length is written, which
+ * happens last, so a record cut short by a crash is ignored when the file is
+ * opened again. An index from keys to record positions is built when the
+ * file is opened, and the most recently used merits are kept in memory in
+ * front of it.
+ */
+public class SubsetMeritCache implements RevisionHandler {
+
+  /** the number of merits kept in memory */
+  public static final int DEFAULT_CAPACITY = 100000;
+
+  /** the initial size of the mapped region */
+  protected static final int INITIAL_SIZE = 1 << 20;
+
+  /** the open caches, by canonical path */
+  protected static final Map<String, SubsetMeritCache> CACHES =
+    new HashMap<String, SubsetMeritCache>();
+
+  /**
+   * A 128 bit key.
+   */
+  public static class Key {
+
+    /** the high bits */
+    protected long m_hi;
+
+    /** the low bits */
+    protected long m_lo;
+
+    /**
+     * Constructor.
+     *
+     * @param hi the high bits
+     * @param lo the low bits
+     */
+    public Key(long hi, long lo) {
+      m_hi = hi;
+      m_lo = lo;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof Key)) {
+        return false;
+      }
+      Key k = (Key) o;
+      return m_hi == k.m_hi && m_lo == k.m_lo;
+    }
+
+    @Override
+    public int hashCode() {
+      return (int) (m_lo ^ (m_lo >>> 32));
+    }
+  }
+
+  /**
+   * Keeps the most recently used merits up to a capacity.
+   */
+  protected static class LRU extends LinkedHashMap<Key, double[]> {
+
+    /** for serialization */
+    private static final long serialVersionUID = -3281902876435207121L;
+
+    /** the maximum number of entries */
+    protected int m_capacity;
+
+    /**
+     * Constructor.
+     *
+     * @param capacity the maximum number of entries
+     */
+    public LRU(int capacity) {
+      super(16, 0.75f, true);
+      m_capacity = capacity;
+    }
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<Key, double[]> eldest) {
+      return size() > m_capacity;
+    }
+  }
+
+  /** the file */
+  protected File m_file;
+
+  /** the channel of the file */
+  protected FileChannel m_channel;
+
+  /** the mapped region of the file */
+  protected MappedByteBuffer m_buffer;
+
+  /** the end of the last record */
+  protected int m_end;
+
+  /** the position of the record of every key in the file */
+  protected Map<Key, Integer> m_index = new HashMap<Key, Integer>();
+
+  /** the most recently used merits */
+  protected LRU m_recent;
+
+  /** the number of lookups that found a merit */
+  protected long m_hits;
+
+  /** the number of lookups that did not */
+  protected long m_misses;
+
+  /**
+   * Returns the cache of a file, opening it if no evaluator has yet.
+   *
+   * @param file the file
+   * @return the cache
+   * @throws IOException if the file can't be opened
+   */
+  public static SubsetMeritCache forFile(File file) throws IOException {
+
+    String path = file.getCanonicalPath();
+    synchronized (CACHES) {
+      SubsetMeritCache cache = CACHES.get(path);
+      if (cache == null) {
+        cache = new SubsetMeritCache(file, DEFAULT_CAPACITY);
+        CACHES.put(path, cache);
+      }
+      return cache;
+    }
+  }
+
+  /**
+   * Opens a cache file, indexing the records in it.
+   *
+   * @param file the file
+   * @param capacity the number of merits kept in memory
+   * @throws IOException if the file can't be opened
+   */
+  public SubsetMeritCache(File file, int capacity) throws IOException {
+
+    m_file = file;
+    m_recent = new LRU(capacity);
+    m_channel = new RandomAccessFile(file, "rw").getChannel();
+    long size = m_channel.size();
+    if (size > Integer.MAX_VALUE) {
+      throw new IOException("Cache file " + file + " is too large");
+    }
+    map(Math.max(INITIAL_SIZE, (int) size));
+
+    // records are written length last, so a zero length ends the file
+    while (m_end + 20 <= size) {
+      int n = m_buffer.getInt(m_end);
+      long next = m_end + 20 + 8L * n;
+      if (n <= 0 || next > size) {
+        break;
+      }
+      m_index.put(new Key(m_buffer.getLong(m_end + 4),
+        m_buffer.getLong(m_end + 12)), m_end);
+      m_end = (int) next;
+    }
+  }
+
+  /**
+   * Computes the key of a merit from the digest of its context and the
+   * statistics and subset it is for.
+   *
+   * @param context the digest of the data and evaluator settings
+   * @param statNames the statistics, or null for the evaluator's measure
+   * @param subset the subset
+   * @return the key
+   * @throws Exception if SHA-256 is not available
+   */
+  public static Key key(byte[] context, String[] statNames,
+    BitSet subset) throws Exception {
+
+    MessageDigest digest = MessageDigest.getInstance("SHA-256");
+    digest.update(context);
+    if (statNames != null) {
+      for (String name : statNames) {
+        digest.update(name.getBytes("UTF-8"));
+        digest.update((byte) 0);
+      }
+    }
+    long[] bits = subset.toLongArray();
+    ByteBuffer buf = ByteBuffer.allocate(1 + 8 * bits.length);
+    buf.put((byte) 1);
+    for (long b : bits) {
+      buf.putLong(b);
+    }
+    digest.update(buf.array());
+    ByteBuffer hash = ByteBuffer.wrap(digest.digest());
+    return new Key(hash.getLong(), hash.getLong());
+  }
+
+  /**
+   * Returns a stream that adds everything written to it to a digest, for
+   * computing the context of merits.
+   *
+   * @param digest the digest
+   * @return the stream, which should be closed before the digest is taken
+   */
+  public static DataOutputStream digestStream(MessageDigest digest) {
+
+    return new DataOutputStream(new BufferedOutputStream(
+      new DigestOutputStream(new OutputStream() {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+      }, digest)));
+  }
+
+  /**
+   * Writes a string of any length as the length and the UTF-8 bytes.
+   *
+   * @param out the stream
+   * @param s the string
+   * @throws IOException if writing fails
+   */
+  public static void writeString(DataOutputStream out, String s)
+    throws IOException {
+
+    byte[] bytes = s.getBytes("UTF-8");
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  /**
+   * Writes a dataset for a digest: its header, the class index and the
+   * weight and values of every instance. Only the stored values of sparse
+   * instances are written, with their indices.
+   *
+   * @param out the stream
+   * @param data the dataset
+   * @throws IOException if writing fails
+   */
+  public static void writeData(DataOutputStream out, Instances data)
+    throws IOException {
+
+    writeString(out, new Instances(data, 0).toString());
+    out.writeInt(data.classIndex());
+    out.writeInt(data.numInstances());
+    for (Instance inst : data) {
+      out.writeDouble(inst.weight());
+      if (inst instanceof SparseInstance) {
+        out.writeInt(inst.numValues());
+        for (int k = 0; k < inst.numValues(); k++) {
+          out.writeInt(inst.index(k));
+          out.writeDouble(inst.valueSparse(k));
+        }
+      } else {
+        for (int i = 0; i < inst.numAttributes(); i++) {
+          out.writeDouble(inst.value(i));
+        }
+      }
+    }
+  }
+
+  /**
+   * Looks up merits, first in memory and then in the file.
+   *
+   * @param key the key
+   * @return the merits, or null if they are not in the cache
+   */
+  public synchronized double[] get(Key key) {
+
+    double[] merits = m_recent.get(key);
+    if (merits == null) {
+      Integer pos = m_index.get(key);
+      if (pos != null) {
+        merits = new double[m_buffer.getInt(pos)];
+        for (int i = 0; i < merits.length; i++) {
+          merits[i] = m_buffer.getDouble(pos + 20 + 8 * i);
+        }
+        m_recent.put(key, merits);
+      }
+    }
+    if (merits == null) {
+      m_misses++;
+      return null;
+    }
+    m_hits++;
+    return merits.clone();
+  }
+
+  /**
+   * Adds merits to the cache and appends them to the file, unless they are
+   * in it already.
+   *
+   * @param key the key
+   * @param merits the merits
+   * @throws IOException if the file can't be grown
+   */
+  public synchronized void put(Key key, double[] merits) throws IOException {
+
+    if (m_index.containsKey(key)) {
+      return;
+    }
+    int size = 20 + 8 * merits.length;
+    if (m_end + (long) size > m_buffer.capacity()) {
+      long needed = m_end + (long) size;
+      if (needed > Integer.MAX_VALUE) {
+        throw new IOException("Cache file " + m_file
+          + " can't grow beyond 2 GiB");
+      }
+      map((int) Math.min(Integer.MAX_VALUE,
+        Math.max(2L * m_buffer.capacity(), needed)));
+    }
+    m_buffer.putLong(m_end + 4, key.m_hi);
+    m_buffer.putLong(m_end + 12, key.m_lo);
+    for (int i = 0; i < merits.length; i++) {
+      m_buffer.putDouble(m_end + 20 + 8 * i, merits[i]);
+    }
+    m_buffer.putInt(m_end, merits.length);
+    m_index.put(key, m_end);
+    m_recent.put(key, merits.clone());
+    m_end += size;
+  }
+
+  /**
+   * Returns whether the cache has been closed.
+   *
+   * @return true if the cache is closed
+   */
+  public synchronized boolean isClosed() {
+    return m_buffer == null;
+  }
+
+  /**
+   * Returns the number of merits in the cache.
+   *
+   * @return the number of merits
+   */
+  public synchronized int size() {
+    return m_index.size();
+  }
+
+  /**
+   * Returns the number of lookups that found a merit.
+   *
+   * @return the number of hits
+   */
+  public synchronized long getHits() {
+    return m_hits;
+  }
+
+  /**
+   * Returns the number of lookups that did not find a merit.
+   *
+   * @return the number of misses
+   */
+  public synchronized long getMisses() {
+    return m_misses;
+  }
+
+  /**
+   * Writes the mapped region to disk, cuts the file back to its records and
+   * closes it. Evaluators that use the file afterwards open it again.
+   *
+   * @throws IOException if the file can't be written
+   */
+  public void close() throws IOException {
+
+    synchronized (CACHES) {
+      CACHES.remove(m_file.getCanonicalPath());
+    }
+    synchronized (this) {
+      m_buffer.force();
+      m_buffer = null;
+      try {
+        m_channel.truncate(m_end);
+      } catch (IOException e) {
+        // some platforms can't truncate a file that is still mapped; the
+        // zero tail is skipped when the file is opened again
+      }
+      m_channel.close();
+    }
+  }
+
+  /**
+   * Maps a region of the file, growing the file if needed. The previous
+   * mapping is written to disk and dropped first, so that at most one
+   * mapping is held; it is only unmapped once it is garbage collected.
+   *
+   * @param size the size of the region
+   * @throws IOException if the file can't be mapped
+   */
+  protected void map(int size) throws IOException {
+    if (m_buffer != null) {
+      m_buffer.force();
+      m_buffer = null;
+    }
+    m_buffer = m_channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+  }
+
+  /**
+   * Returns a description of the cache.
+   *
+   * @return the file, its size and the hit and miss counts
+   */
+  @Override
+  public synchronized String toString() {
+    return "Merit cache " + m_file + ": " + m_index.size() + " merits, "
+      + m_hits + " hits, " + m_misses + " misses";
+  }
+
+  /**
+   * Returns the revision string.
+   *
+   * @return the revision
+   */
+  @Override
+  public String getRevision() {
+    return RevisionUtils.extract("$Revision$");
+  }
+}
@@ -0,0 +1,166 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ *    SubsetSurrogate.java
+ *
+ */
+
+package weka.attributeSelection;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.BitSet;
+
+import weka.classifiers.lazy.IBk;
+import weka.core.Attribute;
+import weka.core.DenseInstance;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.RevisionHandler;
+import weka.core.RevisionUtils;
+import weka.core.Utils;
+
+/**
+ * Cheap stand-in for a subset evaluator, trained online on the subsets that
+ * have been evaluated in full. Every attribute of a subset becomes a 0/1
+ * feature and one IBk model per objective predicts the objective value, so
+ * that the prediction is the mean over the nearest subsets in Hamming space.
+ * The models are rebuilt lazily, the first time a prediction is asked for
+ * after new subsets were added.
+ */
+public class SubsetSurrogate implements Serializable, RevisionHandler {
+
+  /** for serialization */
+  private static final long serialVersionUID = 4213406927536412384L;
+
+  /** the training subsets, one dataset per objective */
+  protected Instances[] m_data;
+
+  /** the models, one per objective */
+  protected IBk[] m_models;
+
+  /** the number of neighbours to average over */
+  protected int m_kNN;
+
+  /** whether subsets were added since the models were built */
+  protected boolean m_modelsOutOfDate = true;
+
+  /**
+   * Constructor.
+   *
+   * @param numAttributes the number of bits in a subset
+   * @param numObjectives the number of objectives to predict
+   * @param kNN the number of neighbours to average over
+   */
+  public SubsetSurrogate(int numAttributes, int numObjectives, int kNN) {
+
+    ArrayList<Attribute> atts = new ArrayList<Attribute>(numAttributes + 1);
+    for (int i = 0; i < numAttributes; i++) {
+      atts.add(new Attribute("bit" + i));
+    }
+    atts.add(new Attribute("objective"));
+
+    m_data = new Instances[numObjectives];
+    m_models = new IBk[numObjectives];
+    for (int j = 0; j < numObjectives; j++) {
+      m_data[j] = new Instances("surrogate-" + j, atts, 0);
+      m_data[j].setClassIndex(numAttributes);
+    }
+    m_kNN = kNN;
+  }
+
+  /**
+   * Adds a subset that has been evaluated in full.
+   *
+   * @param subset the subset
+   * @param objectives its objective values
+   */
+  public void addSubset(BitSet subset, double[] objectives) {
+
+    for (int j = 0; j < m_data.length; j++) {
+      Instance inst = toInstance(subset, m_data[j]);
+      inst.setClassValue(objectives[j]);
+      m_data[j].add(inst);
+    }
+    m_modelsOutOfDate = true;
+  }
+
+  /**
+   * Returns the number of subsets the surrogate has been trained on.
+   *
+   * @return the number of training subsets
+   */
+  public int numSubsets() {
+
+    return (m_data.length == 0) ? 0 : m_data[0].numInstances();
+  }
+
+  /**
+   * Predicts the objective values of a subset.
+   *
+   * @param subset the subset
+   * @return the predicted objective values
+   * @throws Exception if the models can't be built
+   */
+  public double[] predict(BitSet subset) throws Exception {
+
+    if (m_modelsOutOfDate) {
+      for (int j = 0; j < m_data.length; j++) {
+        m_models[j] = new IBk(m_kNN);
+        m_models[j].buildClassifier(m_data[j]);
+      }
+      m_modelsOutOfDate = false;
+    }
+
+    double[] result = new double[m_data.length];
+    for (int j = 0; j < m_data.length; j++) {
+      Instance inst = toInstance(subset, m_data[j]);
+      result[j] = m_models[j].classifyInstance(inst);
+    }
+    return result;
+  }
+
+  /**
+   * Turns a subset into an instance of the given dataset with a missing class
+   * value.
+   *
+   * @param subset the subset
+   * @param header the dataset the instance is for
+   * @return the instance
+   */
+  protected Instance toInstance(BitSet subset, Instances header) {
+
+    double[] values = new double[header.numAttributes()];
+    for (int i = subset.nextSetBit(0); i >= 0 && i < header.classIndex(); i =
+      subset.nextSetBit(i + 1)) {
+      values[i] = 1;
+    }
+    values[header.classIndex()] = Utils.missingValue();
+    Instance inst = new DenseInstance(1.0, values);
+    inst.setDataset(header);
+    return inst;
+  }
+
+  /**
+   * Returns the revision string.
+   *
+   * @return the revision
+   */
+  @Override
+  public String getRevision() {
+    return RevisionUtils.extract("$Revision$");
+  }
+}
@@ -22,31 +22,47 @@
 package weka.attributeSelection;
 
 import weka.classifiers.AbstractClassifier;
+import weka.classifiers.AggregateableEvaluation;
 import weka.classifiers.Classifier;
 import weka.classifiers.Evaluation;
 import weka.classifiers.evaluation.AbstractEvaluationMetric;
 import weka.classifiers.evaluation.InformationRetrievalEvaluationMetric;
+import weka.classifiers.lazy.IBk;
+import weka.classifiers.lazy.IBkSubsetCrossValidation;
 import weka.classifiers.rules.ZeroR;
+import weka.core.Aggregateable;
 import weka.core.Capabilities;
 import weka.core.Capabilities.Capability;
+import weka.core.Instance;
 import weka.core.Instances;
 import weka.core.Option;
 import weka.core.OptionHandler;
 import weka.core.RevisionUtils;
 import weka.core.SelectedTag;
+import weka.core.SerializedObject;
 import weka.core.Tag;
 import weka.core.TechnicalInformation;
 import weka.core.TechnicalInformation.Field;
 import weka.core.TechnicalInformation.Type;
 import weka.core.TechnicalInformationHandler;
 import weka.core.Utils;
+import weka.experiment.PairedStats;
 import weka.filters.Filter;
 import weka.filters.unsupervised.attribute.Remove;
 
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.Serializable;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
 import java.util.BitSet;
 import java.util.Collections;
 import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
 import java.util.Vector;
 
@@ -128,6 +144,41 @@ import java.util.Vector;
  * </pre>
  * 
  * <pre>
+ * -halving-min-fraction &lt;num&gt;
+ *  Fraction of the training data used by the first round of
+ *  successive halving when a batch of subsets is evaluated.
+ *  (default: 1.0, no halving)
+ * </pre>
+ * 
+ * <pre>
+ * -halving-eta &lt;num&gt;
+ *  Factor by which successive halving cuts the number of subsets
+ *  and grows the sample in each round.
+ *  (default: 3)
+ * </pre>
+ * 
+ * <pre>
+ * -race-significance &lt;num&gt;
+ *  Significance level of the paired t-test that drops a subset
+ *  from a race of candidate subsets, fold by fold.
+ *  (default: 0, no racing)
+ * </pre>
+ * 
+ * <pre>
+ * -merit-cache &lt;file&gt;
+ *  File of a persistent cache of subset merits, shared by the
+ *  evaluators that use the same file.
+ *  (default: none)
+ * </pre>
+ * 
+ * <pre>
+ * -distance-cache-size &lt;num&gt;
+ *  Number of per-attribute distances an IBk base learner may
+ *  cache for all evaluators with the same settings and data.
+ *  (default: 33554432)
+ * </pre>
+ * 
+ * <pre>
  * Options specific to scheme weka.classifiers.rules.ZeroR:
  * </pre>
  * 
@@ -158,6 +209,8 @@ public class WrapperSubsetEval extends ASEvaluation
   protected Evaluation m_Evaluation;
   /** holds the base classifier object */
   protected Classifier m_BaseClassifier;
+  /** cached per-attribute distances, if the base classifier is a suitable IBk */
+  protected transient IBkSubsetCrossValidation m_subsetCrossValidation;
   /** number of folds to use for cross validation */
   private int m_folds;
   /** random number seed */
@@ -167,6 +220,120 @@ public class WrapperSubsetEval extends ASEvaluation
    * accuracy of a subset
    */
   private double m_threshold;
+  /**
+   * the fraction of the training data used by the first round of successive
+   * halving, 1 for no halving
+   */
+  protected double m_halvingMinFraction = 1.0;
+  /** the factor by which each round of successive halving cuts the subsets */
+  protected int m_halvingEta = 3;
+  /** the stratified samples used by successive halving, by fraction */
+  protected transient Map<Double, Instances> m_samples;
+  /**
+   * the significance level at which a subset is dropped from a race, 0 for no
+   * racing
+   */
+  protected double m_raceSignificance = 0;
+  /** the file of the persistent merit cache, null for none */
+  protected File m_meritCacheFile = null;
+  /** the digest of the data and settings the merits depend on */
+  protected transient byte[] m_cacheContext;
+  /** the persistent merit cache, once resolved from its file */
+  protected transient SubsetMeritCache m_meritCache;
+  /** the number of per-attribute distances an IBk base learner may cache */
+  protected long m_distanceCacheSize =
+    IBkSubsetCrossValidation.MAX_CACHED_VALUES;
+  /**
+   * the cached per-attribute distances in use, by the context of the
+   * evaluators that share them
+   */
+  protected static final Map<ByteBuffer, WeakReference<IBkSubsetCrossValidation>> SUBSET_CROSS_VALIDATIONS =
+    new HashMap<ByteBuffer, WeakReference<IBkSubsetCrossValidation>>();
+
+  /**
+   * The objective values of a subset together with the fraction of the
+   * training data they were estimated on.
+   */
+  public static class SubsetScore implements Serializable {
+
+    /** for serialization */
+    private static final long serialVersionUID = 7014733582240614826L;
+
+    /** the subset */
+    protected BitSet m_subset;
+
+    /** the objective values */
+    protected double[] m_objectives;
+
+    /** the fraction of the training data used, 1 for the full evaluation */
+    protected double m_fraction;
+
+    /** whether the subset survived every round of successive halving */
+    protected boolean m_promoted;
+
+    /**
+     * Constructor.
+     * 
+     * @param subset the subset
+     * @param objectives the objective values
+     * @param fraction the fraction of the training data used
+     * @param promoted whether the subset survived every round
+     */
+    public SubsetScore(BitSet subset, double[] objectives, double fraction,
+      boolean promoted) {
+      m_subset = subset;
+      m_objectives = objectives;
+      m_fraction = fraction;
+      m_promoted = promoted;
+    }
+
+    /**
+     * Returns the subset.
+     * 
+     * @return the subset
+     */
+    public BitSet getSubset() {
+      return m_subset;
+    }
+
+    /**
+     * Returns the objective values.
+     * 
+     * @return the objective values
+     */
+    public double[] getObjectives() {
+      return m_objectives;
+    }
+
+    /**
+     * Returns the fraction of the training data the objective values were
+     * estimated on.
+     * 
+     * @return the fraction, 1 for the full evaluation
+     */
+    public double getFraction() {
+      return m_fraction;
+    }
+
+    /**
+     * Returns whether the objective values come from the full evaluation.
+     * 
+     * @return true if the subset was evaluated in full
+     */
+    public boolean isFull() {
+      return m_fraction >= 1;
+    }
+
+    /**
+     * Returns whether the subset survived every round of successive halving
+     * and is due for the full evaluation.
+     * 
+     * @return true if the subset was promoted
+     */
+    public boolean isPromoted() {
+      return m_promoted;
+    }
+  }
 
   public static final int EVAL_DEFAULT = 1;
   public static final int EVAL_ACCURACY = 2;
@@ -338,7 +505,7 @@ public class WrapperSubsetEval extends ASEvaluation
    **/
   @Override
   public Enumeration<Option> listOptions() {
-    Vector<Option> newVector = new Vector<Option>(4);
+    Vector<Option> newVector = new Vector<Option>(10);
     newVector.addElement(new Option(
       "\tclass name of base learner to use for \taccuracy estimation.\n"
         + "\tPlace any classifier options LAST on the command line\n"
@@ -374,6 +541,34 @@ public class WrapperSubsetEval extends ASEvaluation
         + "\tthe class-weighted average.",
       "IRclass", 1, "-IRclass <label | index>"));
 
+    newVector.addElement(new Option(
+      "\tFraction of the training data used by the first round of\n"
+        + "\tsuccessive halving when a batch of subsets is evaluated.\n"
+        + "\t(default: 1.0, no halving)", "halving-min-fraction", 1,
+      "-halving-min-fraction <num>"));
+
+    newVector.addElement(new Option(
+      "\tFactor by which successive halving cuts the number of subsets\n"
+        + "\tand grows the sample in each round.\n" + "\t(default: 3)",
+      "halving-eta", 1, "-halving-eta <num>"));
+
+    newVector.addElement(new Option(
+      "\tSignificance level of the paired t-test that drops a subset\n"
+        + "\tfrom a race of candidate subsets, fold by fold.\n"
+        + "\t(default: 0, no racing)", "race-significance", 1,
+      "-race-significance <num>"));
+
+    newVector.addElement(new Option(
+      "\tFile of a persistent cache of subset merits, shared by the\n"
+        + "\tevaluators that use the same file.\n" + "\t(default: none)",
+      "merit-cache", 1, "-merit-cache <file>"));
+
+    newVector.addElement(new Option(
+      "\tNumber of per-attribute distances an IBk base learner may\n"
+        + "\tcache for all evaluators with the same settings and data.\n"
+        + "\t(default: " + IBkSubsetCrossValidation.MAX_CACHED_VALUES + ")",
+      "distance-cache-size", 1, "-distance-cache-size <num>"));
+
     if ((m_BaseClassifier != null)
       && (m_BaseClassifier instanceof OptionHandler)) {
       newVector.addElement(new Option("", "", 0, "\nOptions specific to scheme "
@@ -435,6 +630,41 @@ public class WrapperSubsetEval extends ASEvaluation
    * </pre>
    * 
    * <pre>
+   * -halving-min-fraction &lt;num&gt;
+   *  Fraction of the training data used by the first round of
+   *  successive halving when a batch of subsets is evaluated.
+   *  (default: 1.0, no halving)
+   * </pre>
+   * 
+   * <pre>
+   * -halving-eta &lt;num&gt;
+   *  Factor by which successive halving cuts the number of subsets
+   *  and grows the sample in each round.
+   *  (default: 3)
+   * </pre>
+   * 
+   * <pre>
+   * -race-significance &lt;num&gt;
+   *  Significance level of the paired t-test that drops a subset
+   *  from a race of candidate subsets, fold by fold.
+   *  (default: 0, no racing)
+   * </pre>
+   * 
+   * <pre>
+   * -merit-cache &lt;file&gt;
+   *  File of a persistent cache of subset merits, shared by the
+   *  evaluators that use the same file.
+   *  (default: none)
+   * </pre>
+   * 
+   * <pre>
+   * -distance-cache-size &lt;num&gt;
+   *  Number of per-attribute distances an IBk base learner may
+   *  cache for all evaluators with the same settings and data.
+   *  (default: 33554432)
+   * </pre>
+   * 
+   * <pre>
    * Options specific to scheme weka.classifiers.rules.ZeroR:
    * </pre>
    * 
@@ -498,6 +728,31 @@ public class WrapperSubsetEval extends ASEvaluation
     if (optionString.length() > 0) {
       setIRClassValue(optionString);
     }
+
+    optionString = Utils.getOption("halving-min-fraction", options);
+    if (optionString.length() != 0) {
+      setHalvingMinFraction(Double.parseDouble(optionString));
+    }
+
+    optionString = Utils.getOption("halving-eta", options);
+    if (optionString.length() != 0) {
+      setHalvingEta(Integer.parseInt(optionString));
+    }
+
+    optionString = Utils.getOption("race-significance", options);
+    if (optionString.length() != 0) {
+      setRaceSignificance(Double.parseDouble(optionString));
+    }
+
+    optionString = Utils.getOption("merit-cache", options);
+    if (optionString.length() != 0) {
+      setMeritCacheFile(new File(optionString));
+    }
+
+    optionString = Utils.getOption("distance-cache-size", options);
+    if (optionString.length() != 0) {
+      setDistanceCacheSize(Long.parseLong(optionString));
+    }
   }
 
     /**
@@ -510,6 +765,7 @@ public class WrapperSubsetEval extends ASEvaluation
      */
   	public void setIRClassValue(String val) {
   		m_IRClassValS = val;
+  		m_cacheContext = null;
   	}
 
   	/**
@@ -589,6 +845,7 @@ public class WrapperSubsetEval extends ASEvaluation
    */
   public void setThreshold(double t) {
     m_threshold = t;
+    m_cacheContext = null;
   }
 
   /**
@@ -617,6 +874,9 @@ public class WrapperSubsetEval extends ASEvaluation
    */
   public void setFolds(int f) {
     m_folds = f;
+    m_cacheContext = null;
+    m_subsetCrossValidation = null;
+    m_samples = null;
   }
 
   /**
@@ -645,6 +905,9 @@ public class WrapperSubsetEval extends ASEvaluation
    */
   public void setSeed(int s) {
     m_seed = s;
+    m_cacheContext = null;
+    m_subsetCrossValidation = null;
+    m_samples = null;
   }
 
   /**
@@ -656,6 +919,191 @@ public class WrapperSubsetEval extends ASEvaluation
     return m_seed;
   }
 
+  /**
+   * Returns the tip text for this property
+   * 
+   * @return tip text for this property suitable for displaying in the
+   *         explorer/experimenter gui
+   */
+  public String halvingMinFractionTipText() {
+    return "Fraction of the training data used by the first round of "
+      + "successive halving when a batch of subsets is evaluated. Each round "
+      + "cross-validates the remaining subsets once on a stratified sample, "
+      + "and only the best of them are promoted to a larger sample and "
+      + "finally to the full evaluation. 1 evaluates every subset in full.";
+  }
+
+  /**
+   * Set the fraction of the training data used by the first round of
+   * successive halving
+   * 
+   * @param f the fraction, 1 for no halving
+   */
+  public void setHalvingMinFraction(double f) {
+    m_halvingMinFraction = f;
+    m_samples = null;
+  }
+
+  /**
+   * Get the fraction of the training data used by the first round of
+   * successive halving
+   * 
+   * @return the fraction
+   */
+  public double getHalvingMinFraction() {
+    return m_halvingMinFraction;
+  }
+
+  /**
+   * Returns the tip text for this property
+   * 
+   * @return tip text for this property suitable for displaying in the
+   *         explorer/experimenter gui
+   */
+  public String halvingEtaTipText() {
+    return "Factor by which each round of successive halving cuts the number "
+      + "of subsets and grows the sample.";
+  }
+
+  /**
+   * Set the factor by which successive halving cuts the subsets
+   * 
+   * @param eta the factor, at least 2
+   */
+  public void setHalvingEta(int eta) {
+    m_halvingEta = eta;
+  }
+
+  /**
+   * Get the factor by which successive halving cuts the subsets
+   * 
+   * @return the factor
+   */
+  public int getHalvingEta() {
+    return m_halvingEta;
+  }
+
+  /**
+   * Returns the tip text for this property
+   * 
+   * @return tip text for this property suitable for displaying in the
+   *         explorer/experimenter gui
+   */
+  public String raceSignificanceTipText() {
+    return "Significance level at which a subset is dropped from a race. "
+      + "Searches that expand several subsets at once can race them: the "
+      + "subsets are cross-validated fold by fold on the same folds, and after "
+      + "every fold from the second on, a subset that a paired t-test finds "
+      + "significantly worse than the best so far is dropped. Only the "
+      + "subsets left at the end are evaluated in full. 0 turns racing off.";
+  }
+
+  /**
+   * Set the significance level at which a subset is dropped from a race
+   * 
+   * @param sig the significance level, 0 for no racing
+   */
+  public void setRaceSignificance(double sig) {
+    m_raceSignificance = sig;
+  }
+
+  /**
+   * Get the significance level at which a subset is dropped from a race
+   * 
+   * @return the significance level
+   */
+  public double getRaceSignificance() {
+    return m_raceSignificance;
+  }
+
+  /**
+   * Returns the tip text for this property
+   * 
+   * @return tip text for this property suitable for displaying in the
+   *         explorer/experimenter gui
+   */
+  public String meritCacheFileTipText() {
+    return "File of a persistent cache of subset merits. Merits are stored "
+      + "under a digest of the training data, the evaluator's settings, the "
+      + "classifier and its options, the statistics and the subset, so the "
+      + "file can be shared by searches and runs on the same data. Evaluators "
+      + "using the same file share the cache. None if not set.";
+  }
+
+  /**
+   * Set the file of the persistent merit cache
+   * 
+   * @param f the file, null for no cache
+   */
+  public void setMeritCacheFile(File f) {
+    m_meritCacheFile = f;
+    m_meritCache = null;
+  }
+
+  /**
+   * Get the file of the persistent merit cache
+   * 
+   * @return the file, null if there is no cache
+   */
+  public File getMeritCacheFile() {
+    return m_meritCacheFile;
+  }
+
+  /**
+   * Returns the persistent merit cache. The cache is resolved from its file
+   * when the evaluator is built, and again only if it has been closed since
+   * or the evaluator is a copy.
+   * 
+   * @return the cache, null if there is none
+   * @throws Exception if the cache file can't be opened
+   */
+  public SubsetMeritCache getMeritCache() throws Exception {
+    if (m_meritCacheFile == null) {
+      return null;
+    }
+    SubsetMeritCache cache = m_meritCache;
+    if (cache == null || cache.isClosed()) {
+      cache = SubsetMeritCache.forFile(m_meritCacheFile);
+      m_meritCache = cache;
+    }
+    return cache;
+  }
+
+  /**
+   * Returns the tip text for this property
+   * 
+   * @return tip text for this property suitable for displaying in the
+   *         explorer/experimenter gui
+   */
+  public String distanceCacheSizeTipText() {
+    return "Number of per-attribute distances an IBk base learner may cache. "
+      + "The distances only depend on the data and the settings, so copies of "
+      + "the evaluator, such as those of a parallel search, share one cache. "
+      + "Evaluators with different seeds or data each have their own, so "
+      + "when several run at once the size should be divided between them. "
+      + "Subsets are cross-validated without the cache if up to 5 "
+      + "repetitions of the cross-validation don't fit.";
+  }
+
+  /**
+   * Set the number of per-attribute distances an IBk base learner may cache
+   * 
+   * @param size the number of distances, 0 for no cache
+   */
+  public void setDistanceCacheSize(long size) {
+    m_distanceCacheSize = size;
+    m_subsetCrossValidation = null;
+  }
+
+  /**
+   * Get the number of per-attribute distances an IBk base learner may cache
+   * 
+   * @return the number of distances
+   */
+  public long getDistanceCacheSize() {
+    return m_distanceCacheSize;
+  }
+
   /**
    * Returns the tip text for this property
    * 
@@ -673,6 +1121,8 @@ public class WrapperSubsetEval extends ASEvaluation
    */
   public void setClassifier(Classifier newClassifier) {
     m_BaseClassifier = newClassifier;
+    m_cacheContext = null;
+    m_subsetCrossValidation = null;
   }
 
   /**
@@ -698,7 +1148,7 @@ public class WrapperSubsetEval extends ASEvaluation
       classifierOptions = ((OptionHandler) m_BaseClassifier).getOptions();
     }
 
-    String[] options = new String[13 + classifierOptions.length];
+    String[] options = new String[23 + classifierOptions.length];
     int current = 0;
 
     if (getClassifier() != null) {
@@ -721,6 +1171,21 @@ public class WrapperSubsetEval extends ASEvaluation
       options[current++] = m_IRClassValS;
     }
 
+    options[current++] = "-halving-min-fraction";
+    options[current++] = "" + getHalvingMinFraction();
+    options[current++] = "-halving-eta";
+    options[current++] = "" + getHalvingEta();
+    options[current++] = "-race-significance";
+    options[current++] = "" + getRaceSignificance();
+
+    if (m_meritCacheFile != null) {
+      options[current++] = "-merit-cache";
+      options[current++] = m_meritCacheFile.getPath();
+    }
+
+    options[current++] = "-distance-cache-size";
+    options[current++] = "" + getDistanceCacheSize();
+
     options[current++] = "--";
     System.arraycopy(classifierOptions, 0, options, current,
       classifierOptions.length);
@@ -740,6 +1205,13 @@ public class WrapperSubsetEval extends ASEvaluation
     m_folds = 5;
     m_seed = 1;
     m_threshold = 0.01;
+    m_halvingMinFraction = 1.0;
+    m_halvingEta = 3;
+    m_samples = null;
+    m_raceSignificance = 0;
+    m_meritCacheFile = null;
+    m_cacheContext = null;
+    m_distanceCacheSize = IBkSubsetCrossValidation.MAX_CACHED_VALUES;
   }
 
   /**
@@ -807,6 +1279,11 @@ public class WrapperSubsetEval extends ASEvaluation
     m_trainInstances = data;
     m_classIndex = m_trainInstances.classIndex();
     m_numAttribs = m_trainInstances.numAttributes();
+    m_subsetCrossValidation = null;
+    m_samples = null;
+    m_cacheContext = null;
+    m_meritCache = null;
+    getMeritCache();
 
     if (m_IRClassValS != null && m_IRClassValS.length() > 0) {
       // try to parse as a number first
@@ -821,6 +1298,114 @@ public class WrapperSubsetEval extends ASEvaluation
     }
   }
 
+  /**
+   * Returns the cached per-attribute distances of the evaluators with the
+   * same context as this one, creating them if there are none. The distances
+   * are kept as long as an evaluator uses them.
+   * 
+   * @return the shared distances
+   * @throws Exception if the context can't be computed
+   */
+  protected IBkSubsetCrossValidation sharedSubsetCrossValidation()
+    throws Exception {
+
+    ByteBuffer context = ByteBuffer.wrap(cacheContext());
+    synchronized (SUBSET_CROSS_VALIDATIONS) {
+      Iterator<WeakReference<IBkSubsetCrossValidation>> refs =
+        SUBSET_CROSS_VALIDATIONS.values().iterator();
+      while (refs.hasNext()) {
+        if (refs.next().get() == null) {
+          refs.remove();
+        }
+      }
+      WeakReference<IBkSubsetCrossValidation> ref =
+        SUBSET_CROSS_VALIDATIONS.get(context);
+      IBkSubsetCrossValidation shared = (ref == null) ? null : ref.get();
+      if (shared == null) {
+        shared = ((IBk) m_BaseClassifier).subsetCrossValidation(
+          m_trainInstances, m_folds, m_seed);
+        SUBSET_CROSS_VALIDATIONS.put(context,
+          new WeakReference<IBkSubsetCrossValidation>(shared));
+      }
+      return shared;
+    }
+  }
+
+  /**
+   * Cross-validates the base classifier on a subset of the training data and
+   * collects the result in m_Evaluation. If the base classifier is an IBk whose
+   * distances can be cached per attribute, the per-attribute distances of the
+   * full training data are computed once and summed for each subset, which
+   * gives the same result as Evaluation.crossValidateModel() in a fraction of
+   * the time.
+   * 
+   * @param data the training data reduced to the subset
+   * @param subset the subset, including the class attribute
+   * @param repetition the number of earlier cross-validations of this subset
+   * @param random the random number generator shared by the repetitions
+   * @throws Exception if the classifier could not be evaluated
+   */
+  protected void crossValidateSubset(Instances data, BitSet subset,
+    int repetition, Random random) throws Exception {
+
+    if (subsetCrossValidation() != null) {
+      m_subsetCrossValidation.crossValidateModel(m_Evaluation, data, subset,
+        repetition);
+    } else {
+      m_Evaluation.crossValidateModel(m_BaseClassifier, data, m_folds, random);
+    }
+  }
+
+  /**
+   * Evaluates the base classifier on one fold of the first cross-validation
+   * of a subset and adds the predictions to the given evaluation, in the same
+   * way as crossValidateSubset() does for that fold. The per-attribute
+   * distances are used if crossValidateSubset() would use them.
+   * 
+   * @param eval the evaluation to add the predictions to
+   * @param data the training data reduced to the subset
+   * @param subset the subset, including the class attribute
+   * @param train the training part of the fold, with all attributes
+   * @param test the test part of the fold, with all attributes
+   * @param fold the fold
+   * @throws Exception if the classifier could not be evaluated
+   */
+  protected void crossValidateFold(Evaluation eval, Instances data,
+    BitSet subset, Instances train, Instances test, int fold) throws Exception {
+
+    if (subsetCrossValidation() != null) {
+      m_subsetCrossValidation.crossValidateFold(eval, data, subset, 0, fold);
+    } else {
+      Instances trainCopy = train.attributeFilter(subset);
+      eval.setPriors(trainCopy);
+      Classifier classifier = AbstractClassifier.makeCopy(m_BaseClassifier);
+      classifier.buildClassifier(trainCopy);
+      eval.evaluateModel(classifier, test.attributeFilter(subset));
+    }
+  }
+
+  /**
+   * Returns the per-attribute distances used to cross-validate subsets,
+   * looking them up the first time. There are none unless the base classifier
+   * is an IBk whose distances can be cached and up to 5 repetitions fit in
+   * the distance cache.
+   * 
+   * @return the distances, or null if subsets are cross-validated in full
+   * @throws Exception if the distances can't be looked up
+   */
+  protected IBkSubsetCrossValidation subsetCrossValidation() throws Exception {
+
+    // up to 5 repetitions are cached
+    if (m_subsetCrossValidation == null
+      && m_BaseClassifier instanceof IBk
+      && ((IBk) m_BaseClassifier).canCacheSubsetDistances()
+      && 5 * IBkSubsetCrossValidation.cacheSize(m_trainInstances, m_folds)
+        <= m_distanceCacheSize) {
+      m_subsetCrossValidation = sharedSubsetCrossValidation();
+    }
+    return m_subsetCrossValidation;
+  }
+
    /**
     * Evaluates a subset of attributes
     * 
@@ -830,21 +1415,43 @@ public class WrapperSubsetEval extends ASEvaluation
     */
     @Override
     public double evaluateSubset(BitSet subset) throws Exception {
+    	return evaluateSubset(subset, null, new Random(m_seed));
+    }
+
+  /**
+   * Evaluates a subset of attributes, going on from a first cross-validation
+   * that has already been done, as by raceSubsets().
+   * 
+   * @param subset a bitset representing the attribute subset to be evaluated
+   * @param first the first cross-validation of the subset, or null to start
+   *          with none
+   * @param Rnd the random number generator of the repetitions, in the state
+   *          the first cross-validation left it in if there is one
+   * @return the error rate
+   * @throws Exception if the subset could not be evaluated
+   */
+    protected double evaluateSubset(BitSet subset, Evaluation first, Random Rnd) throws Exception {
+	    double[] cached = cachedMerits(subset, null);
+	    if (cached != null)
+	    	return cached[0];
     	double evalMetric = 0;
 	    double[] repError = new double[5];
 	    int i, j;
-	    Random Rnd = new Random(m_seed);
 	    BitSet subsetCopy=(BitSet)subset.clone();
 	    subsetCopy.set(m_classIndex);
-	    Instances trainCopy = new Instances(m_trainInstances.attributeFilter(subsetCopy));
+	    Instances trainCopy = m_trainInstances.attributeFilter(subsetCopy);
 
 	    AbstractEvaluationMetric pluginMetric = null;
 	    String statName = null;
 	    String metricName = null;
 	    // max of 5 repetitions of cross validation
 	    for (i = 0; i < 5; i++) {
-	    	m_Evaluation = new Evaluation(trainCopy);
-	    	m_Evaluation.crossValidateModel(m_BaseClassifier, trainCopy, m_folds,Rnd);
+	    	if (i == 0 && first != null) {
+	    		m_Evaluation = first;
+	    	} else {
+	    		m_Evaluation = new Evaluation(trainCopy);
+	    		crossValidateSubset(trainCopy, subsetCopy, i, Rnd);
+	    	}
 	    	
 	    	switch (m_evaluationMeasure.getID()) {
 	    		case EVAL_DEFAULT:
@@ -930,19 +1537,50 @@ public class WrapperSubsetEval extends ASEvaluation
         evalMetric = -evalMetric; // maximize
     }
 
+    cacheMerits(subset, null, new double[] { evalMetric });
     return evalMetric;
   }
 
+  /**
+   * Evaluates a subset of attributes on several statistics, all of them
+   * turned into values to maximise
+   * 
+   * @param subset a bitset representing the attribute subset to be evaluated
+   * @param statNames the names of the statistics
+   * @return the value of each statistic
+   * @throws Exception if the subset could not be evaluated
+   */
     public double[] evaluateSubset(BitSet subset,String[] statNames) throws Exception {
+	    double[] merits = cachedMerits(subset, statNames);
+	    if (merits == null) {
+	    	merits = evaluateSubset(subset, statNames, m_trainInstances, 5);
+	    	cacheMerits(subset, statNames, merits);
+	    }
+	    return merits;
+    }
+
+  /**
+   * Evaluates a subset of attributes on several statistics with up to the
+   * given number of cross validations of the given data, which is either the
+   * training data or a sample of it.
+   * 
+   * @param subset a bitset representing the attribute subset to be evaluated
+   * @param statNames the names of the statistics
+   * @param data the training data or a sample of it
+   * @param maxRepetitions the maximum number of cross validations
+   * @return the value of each statistic
+   * @throws Exception if the subset could not be evaluated
+   */
+    protected double[] evaluateSubset(BitSet subset,String[] statNames,Instances data,int maxRepetitions) throws Exception {
 	    boolean terminate;
 	    int i,j,k;
 	    int numObj=statNames.length;
 	    double[] evalMetric=new double[numObj];
-	    double[][] repError = new double[numObj][5];
+	    double[][] repError = new double[numObj][maxRepetitions];
 	    Random Rnd = new Random(m_seed);
 	    BitSet subsetCopy=(BitSet)subset.clone();
 	    subsetCopy.set(m_classIndex);
-	    Instances trainCopy = new Instances(m_trainInstances.attributeFilter(subsetCopy));
+	    Instances trainCopy = data.attributeFilter(subsetCopy);
 	    SelectedTag[] statTags=new SelectedTag[numObj];
 	    for(i=0;i<numObj;++i)
 	    	statTags[i]=new SelectedTag(statNames[i], TAGS_EVALUATION);
@@ -951,11 +1589,15 @@ public class WrapperSubsetEval extends ASEvaluation
 	    String statName = null;
 	    String metricName = null;
 
-	    // max of 5 repetitions of cross validation
+	    // max of maxRepetitions repetitions of cross validation
 	    terminate=false;
-	    for (j = 0; j < 5; j++) {
+	    for (j = 0; j < maxRepetitions; j++) {
 	    	m_Evaluation = new Evaluation(trainCopy);
-	    	m_Evaluation.crossValidateModel(m_BaseClassifier, trainCopy, m_folds,Rnd);
+	    	// the distance cache only covers the full training data
+	    	if (data == m_trainInstances)
+	    		crossValidateSubset(trainCopy, subsetCopy, j, Rnd);
+	    	else
+	    		m_Evaluation.crossValidateModel(m_BaseClassifier, trainCopy, m_folds, Rnd);
 	    	terminate=true;
  
 	    	for(i = 0; i < numObj; ++i){
@@ -1047,6 +1689,407 @@ public class WrapperSubsetEval extends ASEvaluation
 	  }
 	  return evalMetric;
   }
+  /**
+   * Evaluates a batch of subsets with successive halving. The subsets are
+   * first cross-validated once on a stratified sample of the training data,
+   * and only the best of them, by front and crowding distance, move on to a
+   * sample that is m_halvingEta times larger. The subsets that survive the
+   * last sample are evaluated in full, while the others keep the objective
+   * values of the largest sample they reached. Without halving every subset
+   * is evaluated in full.
+   * 
+   * @param subsets the subsets to evaluate
+   * @param statNames the names of the statistics
+   * @return the score of each subset, in the order of the subsets
+   * @throws Exception if a subset could not be evaluated
+   */
+  public SubsetScore[] evaluateSubsets(BitSet[] subsets, String[] statNames)
+    throws Exception {
+
+    SubsetScore[] scores = screenSubsets(subsets, statNames);
+    for (int i = 0; i < scores.length; i++) {
+      if (scores[i].isPromoted() && !scores[i].isFull()) {
+        scores[i] =
+          new SubsetScore(subsets[i], evaluateSubset(subsets[i], statNames),
+            1.0, true);
+      }
+    }
+    return scores;
+  }
+
+  /**
+   * Runs the sampled rounds of successive halving on a batch of subsets and
+   * leaves the full evaluation of the promoted subsets to the caller, so
+   * that it can share them out as it sees fit. Every round keeps the best
+   * 1/m_halvingEta of the subsets, rounded up, and there are no more rounds
+   * once the sample would cover the training data or a single subset is
+   * left. Without halving every subset is promoted straight away with no
+   * objective values.
+   * 
+   * @param subsets the subsets to evaluate
+   * @param statNames the names of the statistics
+   * @return the score of each subset, in the order of the subsets
+   * @throws Exception if a subset could not be evaluated
+   */
+  public SubsetScore[] screenSubsets(BitSet[] subsets, String[] statNames)
+    throws Exception {
+
+    int n = subsets.length;
+    SubsetScore[] scores = new SubsetScore[n];
+    int[] alive = new int[n];
+    for (int i = 0; i < n; i++) {
+      alive[i] = i;
+    }
+
+    int eta = Math.max(2, m_halvingEta);
+    for (double fraction = m_halvingMinFraction; fraction < 1
+      && alive.length > 1; fraction *= eta) {
+      Instances sample = subsample(fraction);
+      double[][] points = new double[alive.length][];
+      for (int i = 0; i < alive.length; i++) {
+        points[i] = evaluateSubset(subsets[alive[i]], statNames, sample, 1);
+        scores[alive[i]] =
+          new SubsetScore(subsets[alive[i]], points[i], fraction, false);
+      }
+      int[] best =
+        NonDominatedSorting.selectBest(points, (alive.length + eta - 1) / eta);
+      int[] survivors = new int[best.length];
+      for (int i = 0; i < best.length; i++) {
+        survivors[i] = alive[best[i]];
+      }
+      alive = survivors;
+    }
+
+    for (int i : alive) {
+      double[] objectives = (scores[i] == null) ? null : scores[i].getObjectives();
+      double fraction = (scores[i] == null) ? 0 : scores[i].getFraction();
+      scores[i] = new SubsetScore(subsets[i], objectives, fraction, true);
+    }
+    return scores;
+  }
+
+  /**
+   * Races a batch of subsets, such as the neighbours of the current subset of
+   * a search step. The subsets are cross-validated fold by fold on the folds
+   * of the first cross-validation of evaluateSubset(BitSet), and from the
+   * second fold on, every subset is compared with the one with the best mean
+   * so far by a paired t-test on their fold statistics. A subset that is
+   * significantly worse at m_raceSignificance is dropped and keeps the mean of
+   * the folds it got through. The subsets that are left go through all the
+   * folds, which make up their first cross-validation, and are then evaluated
+   * in full with the repetitions evaluateSubset(BitSet) would add, so their
+   * merits are the same as without racing. Subsets whose merits are in the
+   * merit cache are not raced.
+   * 
+   * @param subsets the subsets to race
+   * @return the score of each subset, in the order of the subsets; the
+   *         fraction of a dropped subset is the fraction of the folds it got
+   *         through
+   * @throws Exception if a subset could not be evaluated
+   */
+  public SubsetScore[] raceSubsets(BitSet[] subsets) throws Exception {
+
+    int n = subsets.length;
+    SubsetScore[] scores = new SubsetScore[n];
+    double[][] stats = new double[n][m_folds];
+    boolean[] dropped = new boolean[n];
+    int alive = n;
+    // subsets with cached merits are promoted straight away and sit out
+    for (int i = 0; i < n; i++) {
+      double[] cached = cachedMerits(subsets[i], null);
+      if (cached != null) {
+        scores[i] = new SubsetScore(subsets[i], cached, 1.0, true);
+        dropped[i] = true;
+        alive--;
+      }
+    }
+
+    // the folds are drawn as crossValidateSubset() draws those of the first
+    // cross-validation, so the fold statistics add up to it
+    Random random = new Random(m_seed);
+    Instances data = m_trainInstances.view();
+    data.randomize(random);
+    if (data.classAttribute().isNominal()) {
+      data.stratify(m_folds);
+    }
+    Instances[] trains = new Instances[m_folds];
+    Instances[] tests = new Instances[m_folds];
+    for (int f = 0; f < m_folds; f++) {
+      trains[f] = data.trainCV(m_folds, f, random);
+      tests[f] = data.testCV(m_folds, f);
+    }
+
+    // plugin metrics are only added up over the folds if all of them are
+    // aggregateable, else the survivors start their cross-validations afresh
+    boolean aggregate = true;
+    if (m_evaluationMeasure.getID() >= EVAL_PLUGIN) {
+      List<AbstractEvaluationMetric> metrics =
+        new Evaluation(m_trainInstances).getPluginMetrics();
+      if (metrics != null) {
+        for (AbstractEvaluationMetric metric : metrics) {
+          aggregate &= metric instanceof Aggregateable;
+        }
+      }
+    }
+    BitSet[] subsetCopies = new BitSet[n];
+    Instances[] trainCopies = new Instances[n];
+    AggregateableEvaluation[] firsts = new AggregateableEvaluation[n];
+    for (int i = 0; i < n; i++) {
+      if (!dropped[i]) {
+        subsetCopies[i] = (BitSet) subsets[i].clone();
+        subsetCopies[i].set(m_classIndex);
+        trainCopies[i] = m_trainInstances.attributeFilter(subsetCopies[i]);
+        if (aggregate) {
+          firsts[i] = new AggregateableEvaluation(trainCopies[i]);
+        }
+      }
+    }
+
+    // the survivors need all the folds if they make up their first
+    // cross-validation, else the race is over when one subset is left
+    for (int f = 0; f < m_folds && (aggregate || alive > 1); f++) {
+      for (int i = 0; i < n; i++) {
+        if (!dropped[i]) {
+          m_Evaluation = new Evaluation(trainCopies[i]);
+          crossValidateFold(m_Evaluation, trainCopies[i], subsetCopies[i],
+            trains[f], tests[f], f);
+          stats[i][f] = maximised(getRepError(m_evaluationMeasure.getID()));
+          if (aggregate) {
+            firsts[i].aggregate(m_Evaluation);
+          }
+        }
+      }
+      m_Evaluation = null;
+      if (f == 0 || alive < 2) {
+        continue;
+      }
+
+      // the leader has the best mean so far
+      int leader = -1;
+      double best = -Double.MAX_VALUE;
+      for (int i = 0; i < n; i++) {
+        double mean = mean(stats[i], f + 1);
+        if (!dropped[i] && mean > best) {
+          best = mean;
+          leader = i;
+        }
+      }
+      for (int i = 0; i < n && leader >= 0; i++) {
+        if (dropped[i] || i == leader || Double.isNaN(mean(stats[i], f + 1))) {
+          continue;
+        }
+        PairedStats paired = new PairedStats(m_raceSignificance);
+        for (int k = 0; k <= f; k++) {
+          paired.add(stats[i][k], stats[leader][k]);
+        }
+        paired.calculateDerived();
+        if (paired.differencesSignificance < 0) {
+          dropped[i] = true;
+          alive--;
+          firsts[i] = null;
+          scores[i] = new SubsetScore(subsets[i],
+            new double[] { mean(stats[i], f + 1) }, (f + 1.0) / m_folds, false);
+        }
+      }
+    }
+
+    for (int i = 0; i < n; i++) {
+      if (!dropped[i]) {
+        double merit;
+        if (aggregate) {
+          // leave the priors of the last fold, as crossValidateModel() does,
+          // and go on with the generator in the state the folds left it in
+          firsts[i].setPriors(trains[m_folds - 1]);
+          merit = evaluateSubset(subsets[i], firsts[i],
+            (Random) new SerializedObject(random).getObject());
+        } else {
+          merit = evaluateSubset(subsets[i]);
+        }
+        scores[i] =
+          new SubsetScore(subsets[i], new double[] { merit }, 1.0, true);
+      }
+    }
+    return scores;
+  }
+
+  /**
+   * Returns the mean of the first values of an array.
+   * 
+   * @param values the values
+   * @param count the number of values to average
+   * @return the mean
+   */
+  private static double mean(double[] values, int count) {
+    double sum = 0;
+    for (int i = 0; i < count; i++) {
+      sum += values[i];
+    }
+    return sum / count;
+  }
+
+  /**
+   * Turns a statistic of the current evaluation measure into a value to
+   * maximise, in the same way as evaluateSubset(BitSet).
+   * 
+   * @param value the statistic
+   * @return the value to maximise
+   * @throws Exception if the plugin metric is not available
+   */
+  private double maximised(double value) throws Exception {
+    switch (m_evaluationMeasure.getID()) {
+    case EVAL_DEFAULT:
+    case EVAL_ACCURACY:
+    case EVAL_RMSE:
+    case EVAL_MAE:
+      if (m_trainInstances.classAttribute().isNominal()
+        && (m_evaluationMeasure.getID() == EVAL_DEFAULT
+          || m_evaluationMeasure.getID() == EVAL_ACCURACY)) {
+        return 1 - value;
+      }
+      return -value; // maximize
+    default:
+      if (m_evaluationMeasure.getID() >= EVAL_PLUGIN) {
+        PluginTag tag = (PluginTag) m_evaluationMeasure;
+        AbstractEvaluationMetric metric =
+          m_Evaluation.getPluginMetric(tag.getMetricName());
+        if (metric != null
+          && !metric.statisticIsMaximisable(tag.getStatisticName())) {
+          return -value; // maximize
+        }
+      }
+      return value;
+    }
+  }
+
+  /**
+   * Looks up the merits of a subset in the persistent merit cache.
+   * 
+   * @param subset the subset
+   * @param statNames the statistics, or null for the evaluation measure
+   * @return the merits, or null if there is no cache or they are not in it
+   * @throws Exception if the cache can't be read
+   */
+  protected double[] cachedMerits(BitSet subset, String[] statNames)
+    throws Exception {
+    SubsetMeritCache cache = getMeritCache();
+    if (cache == null) {
+      return null;
+    }
+    return cache.get(SubsetMeritCache.key(cacheContext(), cacheStats(statNames),
+      subset));
+  }
+
+  /**
+   * Adds the merits of a subset to the persistent merit cache, if there is
+   * one.
+   * 
+   * @param subset the subset
+   * @param statNames the statistics, or null for the evaluation measure
+   * @param merits the merits
+   * @throws Exception if the cache can't be written
+   */
+  protected void cacheMerits(BitSet subset, String[] statNames, double[] merits)
+    throws Exception {
+    SubsetMeritCache cache = getMeritCache();
+    if (cache != null) {
+      cache.put(SubsetMeritCache.key(cacheContext(), cacheStats(statNames),
+        subset), merits);
+    }
+  }
+
+  /**
+   * Returns the statistics a cached merit is for, marking the evaluation
+   * measure apart from lists of statistics.
+   * 
+   * @param statNames the statistics, or null for the evaluation measure
+   * @return the statistics for the cache key
+   */
+  private String[] cacheStats(String[] statNames) {
+    return (statNames != null) ? statNames : new String[] { "#"
+      + m_evaluationMeasure.getIDStr() };
+  }
+
+  /**
+   * Returns the digest of everything the merits depend on apart from the
+   * statistics and the subset: the evaluator, its cross-validation settings,
+   * the classifier and its options, and the training data.
+   * 
+   * @return the digest
+   * @throws Exception if the digest can't be computed
+   */
+  protected byte[] cacheContext() throws Exception {
+    if (m_cacheContext == null) {
+      MessageDigest digest = MessageDigest.getInstance("SHA-256");
+      DataOutputStream out = SubsetMeritCache.digestStream(digest);
+      SubsetMeritCache.writeString(out, getClass().getName());
+      out.writeInt(m_folds);
+      out.writeInt(m_seed);
+      out.writeDouble(m_threshold);
+      SubsetMeritCache.writeString(out, m_IRClassValS == null ? ""
+        : m_IRClassValS);
+      SubsetMeritCache.writeString(out, m_BaseClassifier.getClass().getName());
+      if (m_BaseClassifier instanceof OptionHandler) {
+        SubsetMeritCache.writeString(out, Utils
+          .joinOptions(((OptionHandler) m_BaseClassifier).getOptions()));
+      }
+      SubsetMeritCache.writeData(out, m_trainInstances);
+      out.close();
+      m_cacheContext = digest.digest();
+    }
+    return m_cacheContext;
+  }
+
+  /**
+   * Returns a stratified sample of the training data: the given fraction of
+   * the instances of every class, drawn from the training data shuffled with
+   * the seed, so that the same fraction always gives the same sample. The
+   * sample holds at least one instance per fold.
+   * 
+   * @param fraction the fraction of the training data to sample
+   * @return the sample
+   */
+  protected Instances subsample(double fraction) {
+
+    if (m_samples == null) {
+      m_samples = new HashMap<Double, Instances>();
+    }
+    Instances sample = m_samples.get(fraction);
+    if (sample != null) {
+      return sample;
+    }
+
+    Instances data = m_trainInstances.view();
+    data.randomize(new Random(m_seed));
+    sample = new Instances(data, 0);
+    if (data.classAttribute().isNominal()) {
+      int[] quota = new int[data.numClasses()];
+      for (Instance inst : data) {
+        if (!inst.classIsMissing()) {
+          quota[(int) inst.classValue()]++;
+        }
+      }
+      for (int c = 0; c < quota.length; c++) {
+        quota[c] = (int) Math.ceil(fraction * quota[c]);
+      }
+      for (Instance inst : data) {
+        if (!inst.classIsMissing() && quota[(int) inst.classValue()]-- > 0) {
+          sample.add(inst);
+        }
+      }
+    } else {
+      int size = (int) Math.ceil(fraction * data.numInstances());
+      for (int i = 0; i < size; i++) {
+        sample.add(data.instance(i));
+      }
+    }
+    if (sample.numInstances() < m_folds) {
+      sample = data;
+    }
+
+    m_samples.put(fraction, sample);
+    return sample;
+  }
+
   /**
    * Returns a string describing the wrapper
    * 
@@ -1131,6 +2174,13 @@ public class WrapperSubsetEval extends ASEvaluation
 
       text
         .append("\tNumber of folds for accuracy estimation: " + m_folds + "\n");
+      if (m_meritCacheFile != null) {
+        try {
+          text.append("\t" + getMeritCache() + "\n");
+        } catch (Exception e) {
+          text.append("\tMerit cache " + m_meritCacheFile + " can't be opened\n");
+        }
+      }
     }
 
     return text.toString();
@@ -300,6 +300,26 @@ public class Evaluation implements Serializable, Summarizable, RevisionHandler {
     return m_delegate.getDiscardPredictions();
   }
 
+  /**
+   * Sets the number of execution slots used for the folds of a
+   * cross-validation.
+   * 
+   * @param numSlots the number of execution slots (1 = sequential)
+   */
+  public void setNumCrossValidationSlots(int numSlots) {
+    m_delegate.setNumCrossValidationSlots(numSlots);
+  }
+
+  /**
+   * Gets the number of execution slots used for the folds of a
+   * cross-validation.
+   * 
+   * @return the number of execution slots
+   */
+  public int getNumCrossValidationSlots() {
+    return m_delegate.getNumCrossValidationSlots();
+  }
+
   /**
    * Returns the area under ROC for those predictions that have been collected
    * in the evaluateClassifier(Classifier, Instances) method. Returns
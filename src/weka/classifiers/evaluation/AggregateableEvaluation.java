@@ -21,6 +21,7 @@
 package weka.classifiers.evaluation;
 
 import java.util.ArrayList;
+import java.util.List;
 
 import weka.classifiers.CostMatrix;
 import weka.core.Aggregateable;
@@ -90,73 +91,147 @@ public class AggregateableEvaluation extends Evaluation implements
   /**
    * Adds the statistics encapsulated in the supplied Evaluation object into
    * this one. Does not perform any checks for compatibility between the
-   * supplied Evaluation object and this one.
+   * supplied Evaluation object and this one.<br/>
+   * <br/>
+   * If all plugin metrics of this object implement Aggregateable, they are
+   * aggregated with those of the same name of the supplied object. Otherwise
+   * the plugin metrics are left as they are, as they always were before
+   * plugin metrics could be aggregated.
    * 
    * @param evaluation the evaluation object to aggregate
+   * @throws IllegalArgumentException if a plugin metric fails to aggregate,
+   *           with the failure as its cause
    */
   @Override
   public AggregateableEvaluation aggregate(Evaluation evaluation) {
-    m_Incorrect += evaluation.incorrect();
-    m_Correct += evaluation.correct();
-    m_Unclassified += evaluation.unclassified();
-    m_MissingClass += evaluation.m_MissingClass;
-    m_WithClass += evaluation.m_WithClass;
+    aggregateStatistics(this, evaluation);
+    if (pluginMetricsAggregateable(this)) {
+      try {
+        aggregatePluginMetrics(this, evaluation);
+      } catch (Exception ex) {
+        throw new IllegalArgumentException(ex);
+      }
+    }
+
+    return this;
+  }
+
+  /**
+   * Adds the built-in statistics encapsulated in one Evaluation object into
+   * another. Does not perform any checks for compatibility between the two.
+   * 
+   * @param target the evaluation object to add to
+   * @param evaluation the evaluation object to aggregate
+   */
+  protected static void aggregateStatistics(Evaluation target,
+    Evaluation evaluation) {
+    target.m_Incorrect += evaluation.incorrect();
+    target.m_Correct += evaluation.correct();
+    target.m_Unclassified += evaluation.unclassified();
+    target.m_MissingClass += evaluation.m_MissingClass;
+    target.m_WithClass += evaluation.m_WithClass;
 
     if (evaluation.m_ConfusionMatrix != null) {
       double[][] newMatrix = evaluation.confusionMatrix();
       if (newMatrix != null) {
-        for (int i = 0; i < m_ConfusionMatrix.length; i++) {
-          for (int j = 0; j < m_ConfusionMatrix[i].length; j++) {
-            m_ConfusionMatrix[i][j] += newMatrix[i][j];
+        for (int i = 0; i < target.m_ConfusionMatrix.length; i++) {
+          for (int j = 0; j < target.m_ConfusionMatrix[i].length; j++) {
+            target.m_ConfusionMatrix[i][j] += newMatrix[i][j];
           }
         }
       }
     }
 
     double[] newClassPriors = evaluation.m_ClassPriors;
-    if (newClassPriors != null && m_ClassPriors != null) {
-      for (int i = 0; i < this.m_ClassPriors.length; i++) {
-        m_ClassPriors[i] = newClassPriors[i];
+    if (newClassPriors != null && target.m_ClassPriors != null) {
+      for (int i = 0; i < target.m_ClassPriors.length; i++) {
+        target.m_ClassPriors[i] = newClassPriors[i];
       }
     }
 
-    m_ClassPriorsSum = evaluation.m_ClassPriorsSum;
-    m_TotalCost += evaluation.totalCost();
-    m_SumErr += evaluation.m_SumErr;
-    m_SumAbsErr += evaluation.m_SumAbsErr;
-    m_SumSqrErr += evaluation.m_SumSqrErr;
-    m_SumClass += evaluation.m_SumClass;
-    m_SumSqrClass += evaluation.m_SumSqrClass;
-    m_SumPredicted += evaluation.m_SumPredicted;
-    m_SumSqrPredicted += evaluation.m_SumSqrPredicted;
-    m_SumClassPredicted += evaluation.m_SumClassPredicted;
-    m_SumPriorAbsErr += evaluation.m_SumPriorAbsErr;
-    m_SumPriorSqrErr += evaluation.m_SumPriorSqrErr;
-    m_SumKBInfo += evaluation.m_SumKBInfo;
+    target.m_ClassPriorsSum = evaluation.m_ClassPriorsSum;
+    target.m_TotalCost += evaluation.totalCost();
+    target.m_SumErr += evaluation.m_SumErr;
+    target.m_SumAbsErr += evaluation.m_SumAbsErr;
+    target.m_SumSqrErr += evaluation.m_SumSqrErr;
+    target.m_SumClass += evaluation.m_SumClass;
+    target.m_SumSqrClass += evaluation.m_SumSqrClass;
+    target.m_SumPredicted += evaluation.m_SumPredicted;
+    target.m_SumSqrPredicted += evaluation.m_SumSqrPredicted;
+    target.m_SumClassPredicted += evaluation.m_SumClassPredicted;
+    target.m_SumPriorAbsErr += evaluation.m_SumPriorAbsErr;
+    target.m_SumPriorSqrErr += evaluation.m_SumPriorSqrErr;
+    target.m_SumKBInfo += evaluation.m_SumKBInfo;
     double[] newMarginCounts = evaluation.m_MarginCounts;
     if (newMarginCounts != null) {
-      for (int i = 0; i < m_MarginCounts.length; i++) {
-        m_MarginCounts[i] += newMarginCounts[i];
+      for (int i = 0; i < target.m_MarginCounts.length; i++) {
+        target.m_MarginCounts[i] += newMarginCounts[i];
       }
     }
-    m_ComplexityStatisticsAvailable = evaluation.m_ComplexityStatisticsAvailable;
-    m_CoverageStatisticsAvailable = evaluation.m_CoverageStatisticsAvailable;
-    m_SumPriorEntropy += evaluation.m_SumPriorEntropy;
-    m_SumSchemeEntropy += evaluation.m_SumSchemeEntropy;
-    m_TotalSizeOfRegions += evaluation.m_TotalSizeOfRegions;
-    m_TotalCoverage += evaluation.m_TotalCoverage;
+    target.m_ComplexityStatisticsAvailable = evaluation.m_ComplexityStatisticsAvailable;
+    target.m_CoverageStatisticsAvailable = evaluation.m_CoverageStatisticsAvailable;
+    target.m_SumPriorEntropy += evaluation.m_SumPriorEntropy;
+    target.m_SumSchemeEntropy += evaluation.m_SumSchemeEntropy;
+    target.m_TotalSizeOfRegions += evaluation.m_TotalSizeOfRegions;
+    target.m_TotalCoverage += evaluation.m_TotalCoverage;
 
     ArrayList<Prediction> predsToAdd = evaluation.m_Predictions;
     if (predsToAdd != null) {
-      if (m_Predictions == null) {
-        m_Predictions = new ArrayList<Prediction>();
+      if (target.m_Predictions == null) {
+        target.m_Predictions = new ArrayList<Prediction>();
       }
       for (int i = 0; i < predsToAdd.size(); i++) {
-        m_Predictions.add(predsToAdd.get(i));
+        target.m_Predictions.add(predsToAdd.get(i));
       }
     }
+  }
 
-    return this;
+  /**
+   * Aggregates the plugin metrics of one Evaluation object into the
+   * corresponding (same name) plugin metrics of another. Only metrics that
+   * implement Aggregateable are aggregated.
+   * 
+   * @param target the evaluation object to add to
+   * @param evaluation the evaluation object to aggregate
+   * @throws Exception if a plugin metric can't be aggregated
+   */
+  @SuppressWarnings("unchecked")
+  protected static void aggregatePluginMetrics(Evaluation target,
+    Evaluation evaluation) throws Exception {
+    List<AbstractEvaluationMetric> targetMetrics = target.m_pluginMetrics;
+    List<AbstractEvaluationMetric> newMetrics = evaluation.m_pluginMetrics;
+    if (targetMetrics == null || newMetrics == null) {
+      return;
+    }
+    for (AbstractEvaluationMetric m : targetMetrics) {
+      if (!(m instanceof Aggregateable)) {
+        continue;
+      }
+      for (AbstractEvaluationMetric n : newMetrics) {
+        if (n.getMetricName().equals(m.getMetricName())) {
+          ((Aggregateable<AbstractEvaluationMetric>) m).aggregate(n);
+          break;
+        }
+      }
+    }
+  }
+
+  /**
+   * Checks whether all plugin metrics of the supplied Evaluation object can be
+   * aggregated.
+   * 
+   * @param evaluation the evaluation object to check
+   * @return true if every plugin metric implements Aggregateable
+   */
+  protected static boolean pluginMetricsAggregateable(Evaluation evaluation) {
+    if (evaluation.m_pluginMetrics != null) {
+      for (AbstractEvaluationMetric m : evaluation.m_pluginMetrics) {
+        if (!(m instanceof Aggregateable)) {
+          return false;
+        }
+      }
+    }
+    return true;
   }
 
   @Override
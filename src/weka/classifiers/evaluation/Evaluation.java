@@ -76,6 +76,12 @@ import java.util.Date;
 import java.util.Enumeration;
 import java.util.List;
 import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 
@@ -387,6 +393,30 @@ public class Evaluation implements Summarizable, RevisionHandler, Serializable {
   /** The list of metrics to display in the output */
   protected List<String> m_metricsToDisplay = new ArrayList<String>();
 
+  /**
+   * The number of execution slots used for the folds of a cross-validation (1
+   * = sequential).
+   */
+  protected int m_NumCrossValidationSlots = 1;
+
+  /**
+   * Thread type of the cross-validation pools. A cross-validation started from
+   * one of these threads runs sequentially, so that nested cross-validations
+   * can't wait on each other for a free slot.
+   */
+  protected static class CrossValidationThread extends Thread {
+
+    /**
+     * Constructor
+     * 
+     * @param r the task to run
+     */
+    public CrossValidationThread(Runnable r) {
+      super(r, "Evaluation-CV");
+      setDaemon(true);
+    }
+  }
+
   public static final String[] BUILT_IN_EVAL_METRICS = { "Correct",
     "Incorrect", "Kappa", "Total cost", "Average cost", "KB relative",
     "KB information", "Correlation", "Complexity 0", "Complexity scheme",
@@ -627,9 +657,7 @@ public class Evaluation implements Summarizable, RevisionHandler, Serializable {
     	if (m_Predictions == null)
     		return Utils.missingValue();
     	else {
-    		ThresholdCurve tc = new ThresholdCurve();
-    		Instances result = tc.getCurve(m_Predictions, classIndex);
-    		return ThresholdCurve.getROCArea(result);
+    		return ThresholdCurve.getROCArea(m_Predictions, classIndex);
     	}
     }
 
@@ -727,7 +755,8 @@ public class Evaluation implements Summarizable, RevisionHandler, Serializable {
    * Performs a (stratified if class is nominal) cross-validation for a
    * classifier on a set of instances. Now performs a deep copy of the
    * classifier before each call to buildClassifier() (just in case the
-   * classifier is not initialized properly).
+   * classifier is not initialized properly). If more than one cross-validation
+   * slot is set and no predictions are printed, the folds are run in parallel.
    * 
    * @param classifier the classifier with any options set.
    * @param data the data on which the cross-validation is to be performed
@@ -744,8 +773,8 @@ public class Evaluation implements Summarizable, RevisionHandler, Serializable {
     int numFolds, Random random, Object... forPredictionsPrinting)
     throws Exception {
 
-    // Make a copy of the data we can reorder
-    data = new Instances(data);
+    // Make a view of the data we can reorder
+    data = data.view();
     data.randomize(random);
     if (data.classAttribute().isNominal()) {
       data.stratify(numFolds);
@@ -762,13 +791,17 @@ public class Evaluation implements Summarizable, RevisionHandler, Serializable {
     }
 
     // Do the folds
-    for (int i = 0; i < numFolds; i++) {
-      Instances train = data.trainCV(numFolds, i, random);
-      setPriors(train);
-      Classifier copiedClassifier = AbstractClassifier.makeCopy(classifier);
-      copiedClassifier.buildClassifier(train);
-      Instances test = data.testCV(numFolds, i);
-      evaluateModel(copiedClassifier, test, forPredictionsPrinting);
+    if (classificationOutput == null && useParallelCrossValidation(numFolds)) {
+      crossValidateFoldsInParallel(classifier, data, numFolds, random);
+    } else {
+      for (int i = 0; i < numFolds; i++) {
+        Instances train = data.trainCV(numFolds, i, random);
+        setPriors(train);
+        Classifier copiedClassifier = AbstractClassifier.makeCopy(classifier);
+        copiedClassifier.buildClassifier(train);
+        Instances test = data.testCV(numFolds, i);
+        evaluateModel(copiedClassifier, test, forPredictionsPrinting);
+      }
     }
     m_NumFolds = numFolds;
 
@@ -777,6 +810,128 @@ public class Evaluation implements Summarizable, RevisionHandler, Serializable {
     }
   }
 
+  /**
+   * Sets the number of execution slots used for the folds of a
+   * cross-validation by this Evaluation object. With more than one slot,
+   * crossValidateModel() builds and evaluates the folds on a thread pool of
+   * that size, which only lasts for the cross-validation. Other Evaluation
+   * objects, such as those used inside the classifier, are not affected.
+   * 
+   * @param numSlots the number of execution slots (1 = sequential)
+   */
+  public void setNumCrossValidationSlots(int numSlots) {
+    m_NumCrossValidationSlots = numSlots;
+  }
+
+  /**
+   * Gets the number of execution slots used for the folds of a
+   * cross-validation.
+   * 
+   * @return the number of execution slots
+   */
+  public int getNumCrossValidationSlots() {
+    return m_NumCrossValidationSlots;
+  }
+
+  /**
+   * Checks whether crossValidateModel() should run the folds in parallel. This
+   * is the case if more than one execution slot is set, the cross-validation
+   * is not itself running in a fold of another one and all plugin metrics can
+   * be aggregated.
+   * 
+   * @param numFolds the number of folds
+   * @return true if the folds are to be run in parallel
+   */
+  protected boolean useParallelCrossValidation(int numFolds) {
+    return getNumCrossValidationSlots() > 1 && numFolds > 1
+      && !(Thread.currentThread() instanceof CrossValidationThread)
+      && AggregateableEvaluation.pluginMetricsAggregateable(this);
+  }
+
+  /**
+   * Builds and evaluates the folds of a cross-validation on a thread pool of
+   * its own, which is shut down once the folds are done. Each fold is evaluated into its own Evaluation object and these are
+   * aggregated into this one in fold order. The folds themselves are generated
+   * up front, in order, so the random number generator is used exactly as in
+   * the sequential case.
+   * 
+   * @param classifier the classifier with any options set.
+   * @param data the randomized (and stratified) data
+   * @param numFolds the number of folds for the cross-validation
+   * @param random random number generator for randomization
+   * @throws Exception if a classifier could not be generated successfully or
+   *           a fold could not be evaluated
+   */
+  protected void crossValidateFoldsInParallel(Classifier classifier,
+    Instances data, int numFolds, Random random) throws Exception {
+
+    ExecutorService pool =
+      Executors.newFixedThreadPool(Math.min(m_NumCrossValidationSlots, numFolds),
+        new ThreadFactory() {
+          @Override
+          public Thread newThread(Runnable r) {
+            return new CrossValidationThread(r);
+          }
+        });
+    try {
+      crossValidateFoldsOnPool(pool, classifier, data, numFolds, random);
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
+  /**
+   * Builds and evaluates the folds of a cross-validation on a thread pool.
+   * 
+   * @param pool the thread pool
+   * @param classifier the classifier with any options set.
+   * @param data the randomized (and stratified) data
+   * @param numFolds the number of folds for the cross-validation
+   * @param random random number generator for randomization
+   * @throws Exception if a classifier could not be generated successfully or
+   *           a fold could not be evaluated
+   */
+  protected void crossValidateFoldsOnPool(ExecutorService pool,
+    Classifier classifier, Instances data, int numFolds, Random random)
+    throws Exception {
+
+    List<Future<Evaluation>> results = new ArrayList<Future<Evaluation>>();
+    Instances train = null;
+    for (int i = 0; i < numFolds; i++) {
+      final Instances foldTrain = data.trainCV(numFolds, i, random);
+      final Instances foldTest = data.testCV(numFolds, i);
+      final Classifier copiedClassifier = AbstractClassifier.makeCopy(classifier);
+      results.add(pool.submit(new Callable<Evaluation>() {
+        @Override
+        public Evaluation call() throws Exception {
+          Evaluation foldEval = new Evaluation(foldTrain, m_CostMatrix);
+          foldEval.setDiscardPredictions(m_DiscardPredictions);
+          copiedClassifier.buildClassifier(foldTrain);
+          foldEval.evaluateModel(copiedClassifier, foldTest);
+          return foldEval;
+        }
+      }));
+      train = foldTrain;
+    }
+
+    for (Future<Evaluation> f : results) {
+      Evaluation foldEval;
+      try {
+        foldEval = f.get();
+      } catch (ExecutionException ex) {
+        if (ex.getCause() instanceof Exception) {
+          throw (Exception) ex.getCause();
+        }
+        throw ex;
+      }
+      AggregateableEvaluation.aggregateStatistics(this, foldEval);
+      AggregateableEvaluation.aggregatePluginMetrics(this, foldEval);
+    }
+
+    // leave the priors of the last fold, as the sequential loop does
+    setPriors(train);
+  }
+
   /**
    * Performs a (stratified if class is nominal) cross-validation for a
    * classifier on a set of instances.
@@ -2008,6 +2163,24 @@ public class Evaluation implements Summarizable, RevisionHandler, Serializable {
     return evaluationForSingleInstance(classifier, instance, false);
   }
 
+  /**
+   * Marks the coverage and complexity statistics of a numeric class as
+   * unavailable once a bare distribution has been evaluated, since it comes
+   * with neither prediction intervals nor densities, just as for a
+   * classifier that estimates neither.
+   * 
+   * @param instance the test instance
+   * @param pred the prediction
+   */
+  protected void noEstimatorStatistics(Instance instance, double pred) {
+
+    if (!m_ClassIsNominal && !instance.classIsMissing()
+      && !Utils.isMissingValue(pred)) {
+      m_CoverageStatisticsAvailable = false;
+      m_ComplexityStatisticsAvailable = false;
+    }
+  }
+
   /**
    * Evaluates the supplied distribution on a single instance.
    * 
@@ -2019,7 +2192,9 @@ public class Evaluation implements Summarizable, RevisionHandler, Serializable {
   public double evaluateModelOnce(double[] dist, Instance instance)
     throws Exception {
 
-    return evaluationForSingleInstance(dist, instance, false);
+    double pred = evaluationForSingleInstance(dist, instance, false);
+    noEstimatorStatistics(instance, pred);
+    return pred;
   }
 
   /**
@@ -2033,7 +2208,9 @@ public class Evaluation implements Summarizable, RevisionHandler, Serializable {
   public double evaluateModelOnceAndRecordPrediction(double[] dist,
     Instance instance) throws Exception {
 
-    return evaluationForSingleInstance(dist, instance, true);
+    double pred = evaluationForSingleInstance(dist, instance, true);
+    noEstimatorStatistics(instance, pred);
+    return pred;
   }
 
   /**
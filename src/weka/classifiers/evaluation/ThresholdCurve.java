@@ -328,6 +328,112 @@ public class ThresholdCurve implements RevisionHandler {
     return area;
   }
 
+  /**
+   * Calculates the area under the ROC curve as the Wilcoxon-Mann-Whitney
+   * statistic directly from the predictions, without building the threshold
+   * curve first. The probabilities are sorted once and the area is accumulated
+   * while walking over the thresholds, visiting the same points in the same
+   * order as getCurve() followed by getROCArea(Instances), so both give the
+   * same result.
+   *
+   * @param predictions the predictions to base the curve on
+   * @param classIndex index of the class of interest.
+   * @return the ROC area, or Double.NaN if there are no predictions or the
+   *         class index is out of range.
+   */
+  public static double getROCArea(ArrayList<Prediction> predictions,
+    int classIndex) {
+    if ((predictions.size() == 0)
+      || (((NominalPrediction) predictions.get(0)).distribution().length <= classIndex)) {
+      return Double.NaN;
+    }
+
+    final int n = predictions.size();
+    final double[] probs = new double[n];
+    final double[] pos = new double[n];
+    final double[] neg = new double[n];
+    double totPos = 0, totNeg = 0;
+
+    // Get distribution of positive/negatives, skipped predictions count as
+    // neither
+    for (int i = 0; i < n; i++) {
+      NominalPrediction pred = (NominalPrediction) predictions.get(i);
+      probs[i] = pred.distribution()[classIndex];
+      if ((pred.actual() == Prediction.MISSING_VALUE) || (pred.weight() < 0)) {
+        continue;
+      }
+      if (pred.actual() == classIndex) {
+        pos[i] = pred.weight();
+        totPos += pos[i];
+      } else {
+        neg[i] = pred.weight();
+        totNeg += neg[i];
+      }
+    }
+
+    return getROCArea(probs, pos, neg, totPos, totNeg);
+  }
+
+  /**
+   * Walks over the thresholds in the way getCurve() does and accumulates the
+   * Mann-Whitney area point by point, keeping only the previous point.
+   *
+   * @param probs the predicted probabilities of the class of interest
+   * @param pos the weight of each prediction if it is positive, 0 otherwise
+   * @param neg the weight of each prediction if it is negative, 0 otherwise
+   * @param totPos the total positive weight
+   * @param totNeg the total negative weight
+   * @return the ROC area
+   */
+  private static double getROCArea(double[] probs, double[] pos, double[] neg,
+    double totPos, double totNeg) {
+    final int[] sorted = Utils.sort(probs);
+    double tp = totPos, fn = 0, fp = totNeg, tn = 0;
+    double lastTp = 0, lastFp = 0;
+    double threshold = 0;
+    double cumulativePos = 0;
+    double cumulativeNeg = 0;
+    double area = 0.0, cumNeg = 0.0;
+
+    for (int i = 0; i < sorted.length; i++) {
+
+      if ((i == 0) || (probs[sorted[i]] > threshold)) {
+        tp -= cumulativePos;
+        fn += cumulativePos;
+        fp -= cumulativeNeg;
+        tn += cumulativeNeg;
+        threshold = probs[sorted[i]];
+        if (i > 0) {
+          double cin = lastFp - fp;
+          area += (lastTp - tp) * (cumNeg + (0.5 * cin));
+          cumNeg += cin;
+        }
+        lastTp = tp;
+        lastFp = fp;
+        cumulativePos = 0;
+        cumulativeNeg = 0;
+        if (i == sorted.length - 1) {
+          break;
+        }
+      }
+      cumulativePos += pos[sorted[i]];
+      cumulativeNeg += neg[sorted[i]];
+    }
+
+    // the zero point
+    if (fn != totPos || tn != totNeg) {
+      double cin = lastFp;
+      area += lastTp * (cumNeg + (0.5 * cin));
+      cumNeg += cin;
+      lastTp = 0;
+      lastFp = 0;
+    }
+    area += lastTp * (cumNeg + (0.5 * lastFp));
+    area /= (totNeg * totPos);
+
+    return area;
+  }
+
   /**
    * Gets the index of the instance with the closest threshold value to the
    * desired target
@@ -32,6 +32,8 @@ import weka.core.AdditionalMeasureProducer;
 import weka.core.Attribute;
 import weka.core.Capabilities;
 import weka.core.Capabilities.Capability;
+import weka.core.DistanceFunction;
+import weka.core.EuclideanDistance;
 import weka.core.Instance;
 import weka.core.Instances;
 import weka.core.Option;
@@ -449,6 +451,44 @@ public class IBk
     return m_Train.numInstances();
   }
 
+  /**
+   * Returns whether the predictions of this configuration can be computed
+   * from squared differences cached per attribute, as IBkSubsetCrossValidation
+   * does. This needs a linear search with a Euclidean distance on all
+   * attributes, no window and a fixed k.
+   *
+   * @return true if subset distances can be cached
+   */
+  public boolean canCacheSubsetDistances() {
+
+    if ((m_WindowSize > 0) || m_CrossValidate
+        || (m_NNSearch.getClass() != LinearNNSearch.class)) {
+      return false;
+    }
+    DistanceFunction df = m_NNSearch.getDistanceFunction();
+    return (df.getClass() == EuclideanDistance.class)
+      && df.getAttributeIndices().equals("first-last")
+      && !df.getInvertSelection();
+  }
+
+  /**
+   * Returns a cross-validation of this configuration that evaluates attribute
+   * subsets of the given data from cached per-attribute distances. The
+   * result for a subset is the same as that of Evaluation.crossValidateModel()
+   * with this classifier on the subset.
+   *
+   * @param data the data, with all attributes
+   * @param numFolds the number of folds
+   * @param seed the seed of the random number generator used for the folds
+   * @return the subset cross-validation
+   * @throws Exception if canCacheSubsetDistances() does not hold
+   */
+  public IBkSubsetCrossValidation subsetCrossValidation(Instances data,
+    int numFolds, int seed) throws Exception {
+
+    return new IBkSubsetCrossValidation(this, data, numFolds, seed);
+  }
+
   /**
    * Returns default capabilities of the classifier.
    *
@@ -851,22 +891,48 @@ public class IBk
   protected double [] makeDistribution(Instances neighbours, double[] distances)
     throws Exception {
 
+    return makeDistribution(neighbours, null, distances,
+                            m_Train.numInstances(), m_NumAttributesUsed);
+  }
+
+  /**
+   * Turn nearest neighbors, given as indices into a set of instances, into a
+   * probability distribution.
+   *
+   * @param instances the instances the neighbours are taken from
+   * @param neighbours the indices of the nearest neighbours in instances, or
+   * null if all of the instances are neighbours
+   * @param distances the distances of the neighbors
+   * @param numTraining the number of training instances
+   * @param numAttributesUsed the number of attributes the distances are
+   * based on
+   * @return the probability distribution
+   * @throws Exception if computation goes wrong or has no class attribute
+   */
+  protected double [] makeDistribution(Instances instances, int[] neighbours,
+                                       double[] distances, int numTraining,
+                                       double numAttributesUsed)
+    throws Exception {
+
     double total = 0, weight;
+    int numNeighbours = (neighbours == null) ? instances.numInstances()
+      : neighbours.length;
     double [] distribution = new double [m_NumClasses];
     
     // Set up a correction to the estimator
     if (m_ClassType == Attribute.NOMINAL) {
       for(int i = 0; i < m_NumClasses; i++) {
-	distribution[i] = 1.0 / Math.max(1,m_Train.numInstances());
+	distribution[i] = 1.0 / Math.max(1,numTraining);
       }
-      total = (double)m_NumClasses / Math.max(1,m_Train.numInstances());
+      total = (double)m_NumClasses / Math.max(1,numTraining);
     }
 
-    for(int i=0; i < neighbours.numInstances(); i++) {
+    for(int i=0; i < numNeighbours; i++) {
       // Collect class counts
-      Instance current = neighbours.instance(i);
+      Instance current = (neighbours == null) ? instances.instance(i)
+        : instances.instance(neighbours[i]);
       distances[i] = distances[i]*distances[i];
-      distances[i] = Math.sqrt(distances[i]/m_NumAttributesUsed);
+      distances[i] = Math.sqrt(distances[i]/numAttributesUsed);
       switch (m_DistanceWeighting) {
         case WEIGHT_INVERSE:
           weight = 1.0 / (distances[i] + 0.001); // to avoid div by zero
@@ -0,0 +1,404 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ *    IBkSubsetCrossValidation.java
+ *
+ */
+
+package weka.classifiers.lazy;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Random;
+
+import weka.classifiers.AbstractClassifier;
+import weka.classifiers.Classifier;
+import weka.classifiers.Evaluation;
+import weka.classifiers.rules.ZeroR;
+import weka.core.Attribute;
+import weka.core.DenseInstance;
+import weka.core.EuclideanDistance;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.RevisionHandler;
+import weka.core.RevisionUtils;
+import weka.core.neighboursearch.LinearNNSearch;
+
+/**
+ * Cross-validates an IBk configuration on many attribute subsets of the same
+ * data. A Euclidean distance is a sum of per-attribute terms, and the
+ * normalisation of each attribute only depends on the values of that
+ * attribute. So for every fold the squared difference of every test instance
+ * to every training instance is computed once per attribute, under the
+ * attribute ranges IBk would use at that point, and the distances for a
+ * subset are the sum of the columns of the attributes in the subset. The
+ * folds, the neighbours and the predictions are the same as those of
+ * Evaluation.crossValidateModel() with IBk on the subset of the data.<br/>
+ * <br/>
+ * The folds of the i'th repetition are those of the i'th of a series of
+ * cross-validations that share one random number generator seeded with the
+ * given seed. The columns of a repetition are computed when the repetition is
+ * first used and kept until this object is discarded. The columns only
+ * depend on the classifier, the data, the number of folds and the seed, so
+ * one object can be shared by copies of an evaluator: subsets may be
+ * cross-validated from several threads at once.
+ *
+ * @see IBk#subsetCrossValidation(Instances, int, int)
+ */
+public class IBkSubsetCrossValidation implements Serializable, RevisionHandler {
+
+  /** for serialization */
+  private static final long serialVersionUID = -2394755236616850342L;
+
+  /** The default number of cached squared differences callers stay below */
+  public static final long MAX_CACHED_VALUES = 1L << 25;
+
+  /** The classifier whose predictions are reproduced */
+  protected IBk m_Classifier;
+
+  /** The nearest neighbour search of the classifier */
+  protected LinearNNSearch m_NNSearch;
+
+  /** The full data */
+  protected Instances m_Data;
+
+  /** The class values and weights of the data, with the row of each instance */
+  protected Instances m_Rows;
+
+  /** The number of folds */
+  protected int m_NumFolds;
+
+  /** The random number generator shared by the repetitions */
+  protected Random m_Random;
+
+  /** The folds of the repetitions used so far, also the lock for adding more */
+  protected ArrayList<Fold[]> m_Repetitions = new ArrayList<Fold[]>();
+
+  /**
+   * Constructor.
+   *
+   * @param classifier the classifier to cross-validate, for which
+   *          canCacheSubsetDistances() must hold
+   * @param data the data, with all attributes
+   * @param numFolds the number of folds
+   * @param seed the seed of the random number generator used for the folds
+   * @throws Exception if the classifier cannot be copied
+   */
+  public IBkSubsetCrossValidation(IBk classifier, Instances data, int numFolds,
+    int seed) throws Exception {
+
+    if (!classifier.canCacheSubsetDistances()) {
+      throw new IllegalArgumentException("Subset distances cannot be cached "
+        + "for this configuration of IBk!");
+    }
+    m_Classifier = (IBk) AbstractClassifier.makeCopy(classifier);
+    m_Classifier.m_NumClasses = data.numClasses();
+    m_Classifier.m_ClassType = data.classAttribute().type();
+    m_NNSearch = (LinearNNSearch) m_Classifier.getNearestNeighbourSearchAlgorithm();
+    m_Data = data;
+    m_NumFolds = numFolds;
+    m_Random = new Random(seed);
+
+    ArrayList<Attribute> atts = new ArrayList<Attribute>(2);
+    atts.add((Attribute) data.classAttribute().copy());
+    atts.add(new Attribute("row"));
+    m_Rows = new Instances(data.relationName(), atts, data.numInstances());
+    m_Rows.setClassIndex(0);
+    for (int i = 0; i < data.numInstances(); i++) {
+      Instance instance = data.instance(i);
+      m_Rows.add(new DenseInstance(instance.weight(), new double[] {
+        instance.classValue(), i }));
+    }
+  }
+
+  /**
+   * Returns the number of squared differences cached per repetition for the
+   * given data.
+   *
+   * @param data the data, with all attributes
+   * @param numFolds the number of folds
+   * @return the number of cached values
+   */
+  public static long cacheSize(Instances data, int numFolds) {
+
+    long numAttributes = 0;
+    for (int i = 0; i < data.numAttributes(); i++) {
+      if (isCached(data, i)) {
+        numAttributes++;
+      }
+    }
+    long pairs = 0;
+    int numInstances = data.numInstances();
+    for (int i = 0; i < numFolds; i++) {
+      long numTest = numInstances / numFolds;
+      if (i < numInstances % numFolds) {
+        numTest++;
+      }
+      pairs += numTest * (numInstances - numTest);
+    }
+    return numAttributes * pairs;
+  }
+
+  /**
+   * Cross-validates the classifier on a subset of the attributes and adds
+   * the predictions to the given evaluation, in the same way as
+   * Evaluation.crossValidateModel() would.
+   *
+   * @param eval the evaluation to add the predictions to
+   * @param data the data reduced to the attributes in the subset
+   * @param subset the indices of the attributes in the full data
+   * @param repetition the repetition whose folds are used
+   * @throws Exception if the classifier could not be evaluated
+   */
+  public void crossValidateModel(Evaluation eval, Instances data,
+    BitSet subset, int repetition) throws Exception {
+
+    for (int f = 0; f < m_NumFolds; f++) {
+      crossValidateFold(eval, data, subset, repetition, f);
+    }
+  }
+
+  /**
+   * Evaluates the classifier on one fold of a repetition for a subset of the
+   * attributes and adds the predictions to the given evaluation, in the same
+   * way as the loop of Evaluation.crossValidateModel() would for that fold.
+   * The folds of the first repetition are those of a cross-validation with
+   * a random number generator seeded with the seed of this object.
+   *
+   * @param eval the evaluation to add the predictions to
+   * @param data the data reduced to the attributes in the subset
+   * @param subset the indices of the attributes in the full data
+   * @param repetition the repetition whose folds are used
+   * @param fold the fold
+   * @throws Exception if the classifier could not be evaluated
+   */
+  public void crossValidateFold(Evaluation eval, Instances data,
+    BitSet subset, int repetition, int fold) throws Exception {
+
+    Fold current = folds(repetition)[fold];
+
+    // the search holds the state of one call
+    LinearNNSearch search = new LinearNNSearch();
+    search.setSkipIdentical(m_NNSearch.getSkipIdentical());
+
+    double numAttributesUsed = 0;
+    for (int i = subset.nextSetBit(0); i >= 0; i = subset.nextSetBit(i + 1)) {
+      if ((i != m_Data.classIndex())
+        && (m_Data.attribute(i).isNominal() || m_Data.attribute(i).isNumeric())) {
+        numAttributesUsed += 1.0;
+      }
+    }
+
+    eval.setPriors(current.m_Train);
+    int numTrain = current.m_IBkTrain.numInstances();
+    double[] distances = new double[numTrain];
+    for (int t = 0; t < current.m_TestRows.length; t++) {
+      Instance instance = data.instance(current.m_TestRows[t]);
+      double[] distribution;
+      if (numTrain == 0) {
+        distribution =
+          current.m_DefaultModel.distributionForInstance(instance);
+      } else {
+        Arrays.fill(distances, 0);
+        int offset = t * numTrain;
+        for (int i = subset.nextSetBit(0); i >= 0; i =
+          subset.nextSetBit(i + 1)) {
+          double[] column = current.m_Columns[i];
+          if (column == null) {
+            continue;
+          }
+          for (int j = 0; j < numTrain; j++) {
+            distances[j] += column[offset + j];
+          }
+        }
+        int[] neighbours =
+          search.kNearestNeighbours(distances, m_Classifier.getKNN());
+        distribution =
+          m_Classifier.makeDistribution(current.m_IBkTrain, neighbours,
+            search.getDistances(), numTrain, numAttributesUsed);
+      }
+      eval.evaluateModelOnceAndRecordPrediction(distribution, instance);
+    }
+  }
+
+  /**
+   * Returns the folds of a repetition, computing those of the repetitions up
+   * to it that have not been used yet.
+   *
+   * @param repetition the repetition
+   * @return the folds
+   * @throws Exception if the squared differences could not be computed
+   */
+  protected Fold[] folds(int repetition) throws Exception {
+
+    synchronized (m_Repetitions) {
+      while (m_Repetitions.size() <= repetition) {
+        m_Repetitions.add(makeFolds());
+      }
+      return m_Repetitions.get(repetition);
+    }
+  }
+
+  /**
+   * Draws the folds of the next repetition, consuming the random number
+   * generator as Evaluation.crossValidateModel() does, and computes their
+   * squared differences.
+   *
+   * @return the folds
+   * @throws Exception if the squared differences could not be computed
+   */
+  protected Fold[] makeFolds() throws Exception {
+
+    Instances rows = new Instances(m_Rows);
+    rows.randomize(m_Random);
+    if (rows.classAttribute().isNominal()) {
+      rows.stratify(m_NumFolds);
+    }
+    Fold[] folds = new Fold[m_NumFolds];
+    for (int i = 0; i < m_NumFolds; i++) {
+      Instances train = rows.trainCV(m_NumFolds, i, m_Random);
+      folds[i] = new Fold(train, rows.testCV(m_NumFolds, i));
+    }
+    return folds;
+  }
+
+  /**
+   * Returns whether squared differences are cached for an attribute, i.e.
+   * whether it is a nominal or numeric attribute other than the class.
+   *
+   * @param data the data
+   * @param index the index of the attribute
+   * @return true if the attribute contributes to distances
+   */
+  protected static boolean isCached(Instances data, int index) {
+
+    int type = data.attribute(index).type();
+    return (index != data.classIndex())
+      && ((type == Attribute.NOMINAL) || (type == Attribute.NUMERIC));
+  }
+
+  /**
+   * One fold of a repetition.
+   */
+  protected class Fold implements Serializable {
+
+    /** for serialization */
+    private static final long serialVersionUID = 5100375012358316101L;
+
+    /** The training rows as returned by trainCV(), for the priors */
+    protected Instances m_Train;
+
+    /** The training rows IBk keeps, i.e. those with a class value */
+    protected Instances m_IBkTrain;
+
+    /** The rows of the test instances, in the order they are classified */
+    protected int[] m_TestRows;
+
+    /**
+     * The squared differences per attribute, test instance by training
+     * instance, or null for attributes that do not contribute to distances
+     */
+    protected double[][] m_Columns;
+
+    /** The model IBk falls back on without training instances */
+    protected Classifier m_DefaultModel;
+
+    /**
+     * Computes the squared differences for a fold.
+     *
+     * @param train the training rows
+     * @param test the test rows
+     * @throws Exception if the squared differences could not be computed
+     */
+    protected Fold(Instances train, Instances test) throws Exception {
+
+      m_Train = train;
+      m_IBkTrain = new Instances(train);
+      m_IBkTrain.deleteWithMissingClass();
+      m_TestRows = rows(test);
+      m_Columns = new double[m_Data.numAttributes()][];
+
+      int numTrain = m_IBkTrain.numInstances();
+      if (numTrain == 0) {
+        m_DefaultModel = new ZeroR();
+        m_DefaultModel.buildClassifier(m_IBkTrain);
+        return;
+      }
+
+      int[] trainRows = rows(m_IBkTrain);
+      Instances trainData = new Instances(m_Data, numTrain);
+      for (int j = 0; j < numTrain; j++) {
+        trainData.add(m_Data.instance(trainRows[j]));
+      }
+      EuclideanDistance distance =
+        (EuclideanDistance) m_NNSearch.getDistanceFunction();
+      distance.setInstances(trainData);
+
+      double[][] trainValues = new double[m_Data.numAttributes()][];
+      for (int i = 0; i < m_Data.numAttributes(); i++) {
+        if (isCached(m_Data, i)) {
+          trainValues[i] = trainData.attributeToDoubleArray(i);
+          m_Columns[i] = new double[m_TestRows.length * numTrain];
+        }
+      }
+
+      // IBk updates the ranges with each test instance before it is classified
+      for (int t = 0; t < m_TestRows.length; t++) {
+        Instance instance = m_Data.instance(m_TestRows[t]);
+        distance.update(instance);
+        int offset = t * numTrain;
+        for (int i = 0; i < m_Data.numAttributes(); i++) {
+          if (m_Columns[i] == null) {
+            continue;
+          }
+          double value = instance.value(i);
+          for (int j = 0; j < numTrain; j++) {
+            m_Columns[i][offset + j] =
+              distance.sqDifference(i, value, trainValues[i][j]);
+          }
+        }
+      }
+      distance.clean();
+    }
+
+    /**
+     * Returns the row of each of the given instances.
+     *
+     * @param instances the instances, taken from m_Rows
+     * @return the rows
+     */
+    protected int[] rows(Instances instances) {
+
+      int[] rows = new int[instances.numInstances()];
+      for (int i = 0; i < rows.length; i++) {
+        rows[i] = (int) instances.instance(i).value(1);
+      }
+      return rows;
+    }
+  }
+
+  /**
+   * Returns the revision string.
+   *
+   * @return the revision
+   */
+  @Override
+  public String getRevision() {
+    return RevisionUtils.extract("$Revision$");
+  }
+}
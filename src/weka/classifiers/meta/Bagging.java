@@ -672,7 +672,7 @@ public class Bagging
       if (bagSize < m_data.numInstances()) {
         bagData = m_data.resampleWithWeights(r, false); // Need to turn off representation using weights in this case.
         bagData.randomize(r);
-        Instances newBagData = new Instances(bagData, 0, bagSize);
+        Instances newBagData = bagData.view(0, bagSize);
         bagData = newBagData;
       } else {
         bagData = m_data.resampleWithWeights(r, getRepresentCopiesUsingWeights());
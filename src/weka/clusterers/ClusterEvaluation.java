@@ -890,7 +890,7 @@ public class ClusterEvaluation implements Serializable, RevisionHandler {
     Instances train, test;
     double foldAv = 0;
     ;
-    data = new Instances(data);
+    data = data.view();
     data.randomize(random);
     // double sumOW = 0;
     for (int i = 0; i < numFolds; i++) {
@@ -0,0 +1,397 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ *    ColumnStore.java
+ *
+ */
+
+package weka.core;
+
+import java.util.Arrays;
+
+/**
+ * Column-major storage for the attribute values of a set of instances: one
+ * array of doubles per attribute, indexed by row. Rows are only ever
+ * appended, so a row index stays valid for the lifetime of the store; rows
+ * of instances that were removed from a dataset are no longer referenced,
+ * and the dataset moves the others into a new store once they are fewer
+ * than half of all rows.<br/>
+ * <br/>
+ * The store backs the ColumnarInstances of a columnar dataset, and lets
+ * column scans read contiguous memory instead of one value vector per
+ * instance.<br/>
+ * <br/>
+ * A store can also be created over columns that are read on demand, e.g.
+ * from a file, so that only the attributes that are actually used are ever
+ * loaded. Columns are loaded under the store's lock and published through a
+ * volatile reference to the list of columns, so threads reading a column
+ * without the lock see either no column or all its values; appending a row
+ * loads all of them.
+ *
+ * @see Instances#setColumnar(boolean)
+ * @see ColumnarInstance
+ */
+public class ColumnStore implements RevisionHandler {
+
+  /** the initial capacity of an empty store */
+  protected static final int INITIAL_CAPACITY = 16;
+
+  /**
+   * Reads the columns of a store whose columns are loaded on demand.
+   */
+  public interface ColumnLoader {
+
+    /**
+     * Reads a column.
+     *
+     * @param column the index of the column in the source
+     * @return the values of the column, at least one per row of the store
+     */
+    double[] loadColumn(int column);
+  }
+
+  /**
+   * the values, one array per attribute; replaced by a copy when a column is
+   * loaded, never changed in place then
+   */
+  protected volatile double[][] m_Columns;
+
+  /** the number of rows */
+  protected int m_NumRows;
+
+  /** the source of columns not loaded yet, null once all are */
+  protected ColumnLoader m_Loader;
+
+  /** the index in the source of each column, -1 for inserted columns */
+  protected int[] m_Sources;
+
+  /**
+   * Creates an empty store.
+   *
+   * @param numColumns the number of attributes
+   * @param capacity the number of rows to reserve
+   */
+  public ColumnStore(int numColumns, int capacity) {
+
+    capacity = Math.max(capacity, INITIAL_CAPACITY);
+    m_Columns = new double[numColumns][];
+    for (int j = 0; j < numColumns; j++) {
+      m_Columns[j] = new double[capacity];
+    }
+  }
+
+  /**
+   * Creates a store over columns that are read when they are first used.
+   *
+   * @param numColumns the number of attributes
+   * @param numRows the number of rows
+   * @param loader the source of the columns
+   */
+  public ColumnStore(int numColumns, int numRows, ColumnLoader loader) {
+
+    m_Columns = new double[numColumns][];
+    m_NumRows = numRows;
+    m_Loader = loader;
+    m_Sources = new int[numColumns];
+    for (int j = 0; j < numColumns; j++) {
+      m_Sources[j] = j;
+    }
+  }
+
+  /**
+   * Returns whether a column has been loaded (always the case unless the
+   * store reads its columns on demand).
+   *
+   * @param column the attribute's index
+   * @return true if the column is in memory
+   */
+  public boolean isLoaded(int column) {
+    return m_Columns[column] != null;
+  }
+
+  /**
+   * Returns a column, loading it if necessary.
+   *
+   * @param column the attribute's index
+   * @return the values of the attribute, by row
+   */
+  protected double[] col(int column) {
+
+    double[] values = m_Columns[column];
+    if (values == null) {
+      values = load(column);
+    }
+    return values;
+  }
+
+  /**
+   * Loads a column from the source.
+   *
+   * @param column the attribute's index
+   * @return the values of the attribute, by row
+   */
+  protected synchronized double[] load(int column) {
+
+    double[][] columns = m_Columns;
+    if (columns[column] == null) {
+      columns = columns.clone();
+      columns[column] = m_Loader.loadColumn(m_Sources[column]);
+      m_Columns = columns;
+    }
+    return columns[column];
+  }
+
+  /**
+   * Loads all columns that haven't been loaded yet, after which the store no
+   * longer refers to its source.
+   */
+  protected synchronized void loadAll() {
+
+    if (m_Loader == null) {
+      return;
+    }
+    double[][] columns = m_Columns.clone();
+    for (int j = 0; j < columns.length; j++) {
+      if (columns[j] == null) {
+        columns[j] = m_Loader.loadColumn(m_Sources[j]);
+      }
+    }
+    m_Columns = columns;
+    m_Loader = null;
+    m_Sources = null;
+  }
+
+  /**
+   * Returns the number of attributes.
+   *
+   * @return the number of columns
+   */
+  public int numColumns() {
+    return m_Columns.length;
+  }
+
+  /**
+   * Returns the number of rows, including those no longer referenced.
+   *
+   * @return the number of rows
+   */
+  public int numRows() {
+    return m_NumRows;
+  }
+
+  /**
+   * Returns the array backing a column. It may be longer than the number of
+   * rows and must not be kept across appends, which may replace it.
+   *
+   * @param column the attribute's index
+   * @return the values of the attribute, by row
+   */
+  public double[] column(int column) {
+    return col(column);
+  }
+
+  /**
+   * Returns a value.
+   *
+   * @param row the row
+   * @param column the attribute's index
+   * @return the value
+   */
+  public double value(int row, int column) {
+    return col(column)[row];
+  }
+
+  /**
+   * Sets a value.
+   *
+   * @param row the row
+   * @param column the attribute's index
+   * @param value the value
+   */
+  public void setValue(int row, int column, double value) {
+    col(column)[row] = value;
+  }
+
+  /**
+   * Copies the values of a row into an array.
+   *
+   * @param row the row
+   * @return the values of the row
+   */
+  public double[] row(int row) {
+
+    double[] values = new double[m_Columns.length];
+    for (int j = 0; j < values.length; j++) {
+      values[j] = col(j)[row];
+    }
+    return values;
+  }
+
+  /**
+   * Appends the values of an instance as a new row. The instance must have
+   * as many attributes as the store has columns.
+   *
+   * @param instance the instance
+   * @return the index of the new row
+   */
+  public int addRow(Instance instance) {
+
+    loadAll();
+    ensureCapacity(m_NumRows + 1);
+    int row = m_NumRows++;
+    double[][] columns = m_Columns;
+    if (instance.numValues() == columns.length) {
+      for (int j = 0; j < columns.length; j++) {
+        columns[j][row] = instance.value(j);
+      }
+    } else {
+      // sparse: everything not stored is zero
+      for (double[] column : columns) {
+        column[row] = 0;
+      }
+      for (int p = 0; p < instance.numValues(); p++) {
+        columns[instance.index(p)][row] = instance.valueSparse(p);
+      }
+    }
+    return row;
+  }
+
+  /**
+   * Removes a column.
+   *
+   * @param position the attribute's index
+   */
+  public void deleteColumn(int position) {
+
+    double[][] columns = new double[m_Columns.length - 1][];
+    System.arraycopy(m_Columns, 0, columns, 0, position);
+    System.arraycopy(m_Columns, position + 1, columns, position,
+      columns.length - position);
+    m_Columns = columns;
+    if (m_Sources != null) {
+      int[] sources = new int[m_Sources.length - 1];
+      System.arraycopy(m_Sources, 0, sources, 0, position);
+      System.arraycopy(m_Sources, position + 1, sources, position,
+        sources.length - position);
+      m_Sources = sources;
+    }
+  }
+
+  /**
+   * Inserts a column of missing values.
+   *
+   * @param position the attribute's index
+   */
+  public void insertColumn(int position) {
+
+    double[][] columns = new double[m_Columns.length + 1][];
+    System.arraycopy(m_Columns, 0, columns, 0, position);
+    System.arraycopy(m_Columns, position, columns, position + 1,
+      m_Columns.length - position);
+    columns[position] = new double[Math.max(m_NumRows, INITIAL_CAPACITY)];
+    Arrays.fill(columns[position], Utils.missingValue());
+    m_Columns = columns;
+    if (m_Sources != null) {
+      int[] sources = new int[m_Sources.length + 1];
+      System.arraycopy(m_Sources, 0, sources, 0, position);
+      System.arraycopy(m_Sources, position, sources, position + 1,
+        m_Sources.length - position);
+      sources[position] = -1;
+      m_Sources = sources;
+    }
+  }
+
+  /**
+   * Returns a store with the same rows and columns as this one, sharing the
+   * arrays of the columns but not the list of them, so that columns can be
+   * deleted from and inserted into either store without affecting the other.
+   * Values set in the rows both stores hold show in both, until either
+   * grows its columns.
+   *
+   * @return the new store
+   */
+  public ColumnStore shareColumns() {
+
+    ColumnStore result = new ColumnStore(0, 0);
+    synchronized (this) {
+      result.m_Columns = m_Columns.clone();
+      result.m_NumRows = m_NumRows;
+      result.m_Loader = m_Loader;
+      result.m_Sources = (m_Sources == null) ? null : m_Sources.clone();
+    }
+    return result;
+  }
+
+  /**
+   * Copies some of the rows and columns of this store into a new one.
+   *
+   * @param rows the rows to copy, in their order in the new store
+   * @param columns the attributes to copy, in their order in the new store
+   * @return the new store
+   */
+  public ColumnStore select(int[] rows, int[] columns) {
+
+    ColumnStore result = new ColumnStore(columns.length, rows.length);
+    for (int j = 0; j < columns.length; j++) {
+      double[] from = col(columns[j]);
+      double[] to = result.m_Columns[j];
+      for (int i = 0; i < rows.length; i++) {
+        to[i] = from[rows[i]];
+      }
+    }
+    result.m_NumRows = rows.length;
+    return result;
+  }
+
+  /**
+   * Reduces the capacity of the columns to the number of rows.
+   */
+  public void trimToSize() {
+
+    for (int j = 0; j < m_Columns.length; j++) {
+      if (m_Columns[j] != null && m_Columns[j].length > m_NumRows) {
+        m_Columns[j] = Arrays.copyOf(m_Columns[j], m_NumRows);
+      }
+    }
+  }
+
+  /**
+   * Grows the columns so that they hold at least the given number of rows.
+   *
+   * @param capacity the number of rows
+   */
+  protected void ensureCapacity(int capacity) {
+
+    for (int j = 0; j < m_Columns.length; j++) {
+      // columns may differ in capacity after columns were inserted
+      if (m_Columns[j].length < capacity) {
+        int newCapacity = Math.max(capacity,
+          Math.max(INITIAL_CAPACITY, 2 * m_Columns[j].length));
+        m_Columns[j] = Arrays.copyOf(m_Columns[j], newCapacity);
+      }
+    }
+  }
+
+  /**
+   * Returns the revision string.
+   *
+   * @return the revision
+   */
+  @Override
+  public String getRevision() {
+    return RevisionUtils.extract("$Revision$");
+  }
+}
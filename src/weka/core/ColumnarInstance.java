@@ -0,0 +1,296 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ *    ColumnarInstance.java
+ *
+ */
+
+package weka.core;
+
+import java.io.ObjectStreamException;
+
+/**
+ * Dense instance whose attribute values live in a row of a ColumnStore
+ * instead of an array of its own. Only the weight and the dataset are kept
+ * in the instance itself.<br/>
+ * <br/>
+ * Unlike DenseInstance, changing a value writes through to the store, as
+ * the instance is the only one referring to its row. Copies are ordinary
+ * DenseInstances, and so is what gets serialized. Deleting or inserting an
+ * attribute in the instance alone (rather than in its dataset) detaches it
+ * from the store, after which it behaves like a DenseInstance.
+ *
+ * @see Instances#setColumnar(boolean)
+ */
+public class ColumnarInstance extends DenseInstance {
+
+  /** for serialization */
+  static final long serialVersionUID = 6032950186315749203L;
+
+  /** the store holding the values, null once detached */
+  protected transient ColumnStore m_Store;
+
+  /** the row of the values in the store */
+  protected int m_Row;
+
+  /**
+   * Constructor for an instance backed by a row of a store. Reference to the
+   * dataset is set to null.
+   *
+   * @param store the store
+   * @param row the row
+   * @param weight the instance's weight
+   */
+  public ColumnarInstance(ColumnStore store, int row, double weight) {
+
+    super(weight, null);
+    m_Store = store;
+    m_Row = row;
+  }
+
+  /**
+   * Returns the store holding the values of this instance.
+   *
+   * @return the store, or null if the instance has been detached
+   */
+  public ColumnStore store() {
+    return m_Store;
+  }
+
+  /**
+   * Returns the row of the values of this instance in its store.
+   *
+   * @return the row
+   */
+  public int row() {
+    return m_Row;
+  }
+
+  /**
+   * Produces a copy of this instance as a DenseInstance. The copy has access
+   * to the same dataset.
+   *
+   * @return the copy
+   */
+  @Override
+  public Object copy() {
+
+    DenseInstance result = new DenseInstance(m_Weight, toDoubleArray());
+    result.m_Dataset = m_Dataset;
+    return result;
+  }
+
+  /**
+   * Returns the number of attributes.
+   *
+   * @return the number of attributes as an integer
+   */
+  @Override
+  public int numAttributes() {
+
+    if (m_Store == null) {
+      return super.numAttributes();
+    }
+    return m_Store.numColumns();
+  }
+
+  /**
+   * Returns the number of values present. Always the same as
+   * numAttributes().
+   *
+   * @return the number of values
+   */
+  @Override
+  public int numValues() {
+    return numAttributes();
+  }
+
+  /**
+   * Replaces all missing values in the instance with the values contained in
+   * the given array.
+   *
+   * @param array containing the means and modes
+   * @throws IllegalArgumentException if numbers of attributes are unequal
+   */
+  @Override
+  public void replaceMissingValues(double[] array) {
+
+    if (m_Store == null) {
+      super.replaceMissingValues(array);
+      return;
+    }
+    if ((array == null) || (array.length != m_Store.numColumns())) {
+      throw new IllegalArgumentException("Unequal number of attributes!");
+    }
+    for (int i = 0; i < array.length; i++) {
+      if (isMissing(i)) {
+        m_Store.setValue(m_Row, i, array[i]);
+      }
+    }
+  }
+
+  /**
+   * Sets a specific value in the instance to the given value (internal
+   * floating-point format), in the store.
+   *
+   * @param attIndex the attribute's index
+   * @param value the new attribute value
+   */
+  @Override
+  public void setValue(int attIndex, double value) {
+
+    if (m_Store == null) {
+      super.setValue(attIndex, value);
+      return;
+    }
+    m_Store.setValue(m_Row, attIndex, value);
+  }
+
+  /**
+   * Sets a specific value in the instance to the given value. Does exactly
+   * the same thing as setValue().
+   *
+   * @param indexOfIndex the index of the attribute's index
+   * @param value the new attribute value
+   */
+  @Override
+  public void setValueSparse(int indexOfIndex, double value) {
+    setValue(indexOfIndex, value);
+  }
+
+  /**
+   * Returns the values of each attribute as an array of doubles.
+   *
+   * @return an array containing all the instance attribute values
+   */
+  @Override
+  public double[] toDoubleArray() {
+
+    if (m_Store == null) {
+      return super.toDoubleArray();
+    }
+    return m_Store.row(m_Row);
+  }
+
+  /**
+   * Returns the description of one instance (without weight appended).
+   *
+   * @param afterDecimalPoint maximum number of digits after the decimal point
+   *          for numeric values
+   * @return the instance's description as a string
+   */
+  @Override
+  public String toStringNoWeight(int afterDecimalPoint) {
+
+    if (m_Store == null) {
+      return super.toStringNoWeight(afterDecimalPoint);
+    }
+    StringBuffer text = new StringBuffer();
+    for (int i = 0; i < m_Store.numColumns(); i++) {
+      if (i > 0) {
+        text.append(",");
+      }
+      text.append(toString(i, afterDecimalPoint));
+    }
+    return text.toString();
+  }
+
+  /**
+   * Returns an instance's attribute value in internal format.
+   *
+   * @param attIndex the attribute's index
+   * @return the specified value as a double
+   */
+  @Override
+  public double value(int attIndex) {
+
+    if (m_Store == null) {
+      return super.value(attIndex);
+    }
+    return m_Store.value(m_Row, attIndex);
+  }
+
+  /**
+   * Returns an instance's attribute value in internal format, given an index
+   * in the sparse representation.
+   *
+   * @param indexOfIndex the index of the attribute's index
+   * @return the specified value as a double
+   */
+  @Override
+  public double valueSparse(int indexOfIndex) {
+    return value(indexOfIndex);
+  }
+
+  /**
+   * Deletes an attribute at the given position, detaching the instance from
+   * its store first.
+   *
+   * @param position the attribute's position
+   */
+  @Override
+  protected void forceDeleteAttributeAt(int position) {
+
+    detach();
+    super.forceDeleteAttributeAt(position);
+  }
+
+  /**
+   * Inserts an attribute at the given position and sets its value to be
+   * missing, detaching the instance from its store first.
+   *
+   * @param position the attribute's position
+   */
+  @Override
+  protected void forceInsertAttributeAt(int position) {
+
+    detach();
+    super.forceInsertAttributeAt(position);
+  }
+
+  /**
+   * Copies the values of this instance out of the store, after which it no
+   * longer refers to it.
+   */
+  protected void detach() {
+
+    if (m_Store != null) {
+      m_AttValues = m_Store.row(m_Row);
+      m_Store = null;
+    }
+  }
+
+  /**
+   * Serializes the instance as a DenseInstance, so that the store does not
+   * have to be written with it.
+   *
+   * @return a DenseInstance with the same values, weight and dataset
+   * @throws ObjectStreamException never
+   */
+  protected Object writeReplace() throws ObjectStreamException {
+    return copy();
+  }
+
+  /**
+   * Returns the revision string.
+   *
+   * @return the revision
+   */
+  @Override
+  public String getRevision() {
+    return RevisionUtils.extract("$Revision$");
+  }
+}
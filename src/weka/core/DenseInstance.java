@@ -75,7 +75,8 @@ public class DenseInstance extends AbstractInstance {
    * Constructor that copies the attribute values and the weight from the given
    * instance. It does NOT perform a deep copy of the attribute values if the
    * instance provided is also of type DenseInstance (it simply copies the
-   * reference to the array of values), otherwise it does. Reference to the
+   * reference to the array of values), otherwise it does. The values of a
+   * ColumnarInstance are always copied out of its store. Reference to the
    * dataset is set to null. (ie. the instance doesn't have access to
    * information about the attribute types)
    * 
@@ -85,7 +86,8 @@ public class DenseInstance extends AbstractInstance {
   // @ ensures m_Dataset == null;
   public DenseInstance(/* @non_null@ */Instance instance) {
 
-    if (instance instanceof DenseInstance) {
+    if (instance instanceof DenseInstance
+      && ((DenseInstance) instance).m_AttValues != null) {
       m_AttValues = ((DenseInstance) instance).m_AttValues;
     } else {
       m_AttValues = instance.toDoubleArray();
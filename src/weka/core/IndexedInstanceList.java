@@ -0,0 +1,138 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ *    IndexedInstanceList.java
+ *
+ */
+
+package weka.core;
+
+import java.io.ObjectStreamException;
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * Read-only list of instances given by an index into an array of instances
+ * that is shared with other lists and never changed. Taking a sublist or
+ * permutation of an indexed list composes the two indices, so that all lists
+ * derived from the same instances share one array however often they are
+ * split.<br/>
+ * <br/>
+ * The list holds the instance views of Instances: the folds of a
+ * cross-validation and the datasets created with Instances#view(). The only
+ * change it supports is swapping two positions, which permutes the index.
+ *
+ * @see Instances#Instances(Instances, int[])
+ */
+public class IndexedInstanceList extends AbstractList<Instance> implements
+  RandomAccess, Serializable, RevisionHandler {
+
+  /** for serialization */
+  static final long serialVersionUID = -1734458930547231642L;
+
+  /** the shared instances */
+  protected final Instance[] m_Base;
+
+  /** the position in m_Base of each instance of the list */
+  protected final int[] m_Rows;
+
+  /**
+   * Creates a list of some of the instances of another list.
+   *
+   * @param instances the instances to choose from
+   * @param rows the positions in instances of the instances of the list, in
+   *          order
+   * @throws IllegalArgumentException if a position is out of range
+   */
+  public IndexedInstanceList(List<Instance> instances, int[] rows) {
+
+    m_Rows = new int[rows.length];
+    for (int i = 0; i < rows.length; i++) {
+      if (rows[i] < 0 || rows[i] >= instances.size()) {
+        throw new IllegalArgumentException("Row " + rows[i]
+          + " out of range");
+      }
+    }
+    if (instances instanceof IndexedInstanceList) {
+      IndexedInstanceList source = (IndexedInstanceList) instances;
+      m_Base = source.m_Base;
+      for (int i = 0; i < rows.length; i++) {
+        m_Rows[i] = source.m_Rows[rows[i]];
+      }
+    } else {
+      m_Base = instances.toArray(new Instance[instances.size()]);
+      System.arraycopy(rows, 0, m_Rows, 0, rows.length);
+    }
+  }
+
+  /**
+   * Returns an instance.
+   *
+   * @param index the instance's position in the list
+   * @return the instance
+   */
+  @Override
+  public Instance get(int index) {
+    return m_Base[m_Rows[index]];
+  }
+
+  /**
+   * Returns the number of instances.
+   *
+   * @return the number of instances
+   */
+  @Override
+  public int size() {
+    return m_Rows.length;
+  }
+
+  /**
+   * Swaps two instances.
+   *
+   * @param i the first instance's position
+   * @param j the second instance's position
+   */
+  public void swap(int i, int j) {
+
+    int row = m_Rows[i];
+    m_Rows[i] = m_Rows[j];
+    m_Rows[j] = row;
+  }
+
+  /**
+   * Serializes the list as an ArrayList, so that the shared array is not
+   * written in full.
+   *
+   * @return an ArrayList with the same instances
+   * @throws ObjectStreamException never
+   */
+  protected Object writeReplace() throws ObjectStreamException {
+    return new ArrayList<Instance>(this);
+  }
+
+  /**
+   * Returns the revision string.
+   *
+   * @return the revision
+   */
+  @Override
+  public String getRevision() {
+    return RevisionUtils.extract("$Revision$");
+  }
+}
@@ -23,6 +23,7 @@ package weka.core;
 
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Reader;
 import java.io.Serializable;
 import java.util.AbstractList;
@@ -71,6 +72,14 @@ import weka.filters.unsupervised.attribute.Remove;
  * instances does not affect any other sets of instances. All methods that
  * change a datasets's attribute information clone the dataset before it is
  * changed.
+ * <p>
+ * 
+ * A dataset can be made columnar with <code>setColumnar(true)</code>. Its
+ * attribute values are then kept in a ColumnStore, one array per attribute,
+ * and its instances are ColumnarInstances that read and write their row of
+ * the store. Column scans such as <code>attributeToDoubleArray</code> and
+ * <code>attributeStats</code> then read contiguous memory, and other code can
+ * do the same through <code>columnStore()</code>.
  * 
  * @author Eibe Frank (eibe@cs.waikato.ac.nz)
  * @author Len Trigg (trigg@cs.waikato.ac.nz)
@@ -111,13 +120,28 @@ RevisionHandler {
   /** A map to quickly find attribute indices based on their names. */
   protected HashMap<String, Integer> m_NamesToAttributeIndices;
 
-  /** The instances. */
-  protected/* @spec_public non_null@ */ArrayList<Instance> m_Instances;
+  /** The instances, an IndexedInstanceList while the dataset is a view. */
+  protected/* @spec_public non_null@ */List<Instance> m_Instances;
 
   /** The class attribute's index */
   protected int m_ClassIndex;
   // @ protected invariant classIndex() == m_ClassIndex;
 
+  /** whether the attribute values are kept in a column store */
+  protected boolean m_Columnar;
+
+  /** the column store, if the dataset is columnar */
+  protected transient ColumnStore m_Store;
+
+  /** whether instance i of a columnar dataset is row i of its store */
+  protected transient boolean m_InStoreOrder;
+
+  /** whether the instances may be shared with the dataset this is a view of */
+  protected boolean m_View;
+
+  /** whether views of this dataset may share its instances */
+  protected transient boolean m_Viewed;
+
   /**
    * The lines read so far in case of incremental loading. Since the
    * StreamTokenizer will be re-initialized with every instance that is read, we
@@ -198,6 +222,71 @@ RevisionHandler {
     initialize(dataset, capacity);
   }
 
+  /**
+   * Creates a view of some of the instances of another set, in the given
+   * order. Copies references to the header information from the given set.
+   * Unlike the other constructors, the view neither copies the instances nor
+   * adds them one by one: it holds an index into the instances of the source,
+   * which it shares (and with them the column store of a columnar source).
+   * Views of views share the same instances.<br/>
+   * <br/>
+   * Reordering the view, e.g. with randomize() or stratify(), only permutes
+   * its index. Adding, removing or replacing instances gives the view a list
+   * of its own; changing the attributes or the class index gives it copies of
+   * the instances, since instances refer to the header of their dataset.
+   * None of this affects the source, and changing the attributes or the
+   * class index of the source gives the source copies instead, so the view
+   * keeps the instances and header it was made with. Changing the values or
+   * weights of the instances of either set does change those of the other,
+   * as they are the same objects.
+   * 
+   * @param source the set of instances to take the instances from
+   * @param rows the indices in source of the instances of the view
+   * @throws IllegalArgumentException if an index is out of range
+   */
+  public Instances(/* @non_null@ */Instances source, int[] rows) {
+
+    initialize(source, 0);
+    m_Instances = new IndexedInstanceList(source.m_Instances, rows);
+    m_Store = source.m_Store;
+    m_Columnar = source.m_Columnar;
+    m_View = true;
+    source.m_Viewed = true;
+  }
+
+  /**
+   * Constructor creating a columnar set of instances over all rows of a
+   * column store, such as one whose columns are read from a file on demand.
+   * Copies references to the header information from the given set of
+   * instances.
+   *
+   * @param dataset the instances from which the header information is to be
+   *          taken
+   * @param store the attribute values, one column per attribute
+   * @param weights the weights of the rows, or null if all weights are 1
+   * @throws IllegalArgumentException if the store has the wrong number of
+   *           columns
+   */
+  public Instances(/* @non_null@ */Instances dataset, ColumnStore store,
+    double[] weights) {
+
+    initialize(dataset, store.numRows());
+    if (store.numColumns() != numAttributes()) {
+      throw new IllegalArgumentException("Column store has "
+        + store.numColumns() + " columns for " + numAttributes()
+        + " attributes!");
+    }
+    m_Store = store;
+    m_Columnar = true;
+    m_InStoreOrder = true;
+    for (int i = 0; i < store.numRows(); i++) {
+      Instance row =
+        new ColumnarInstance(store, i, weights == null ? 1.0 : weights[i]);
+      row.setDataset(this);
+      m_Instances.add(row);
+    }
+  }
+
   /**
    * initializes with the header information of the given dataset and sets the
    * capacity of the set of instances.
@@ -322,9 +411,11 @@ RevisionHandler {
    */
   	@Override
   	public boolean add(/* @non_null@ */Instance instance) {
-  		Instance newInstance = (Instance) instance.copy();
+  		ensureModifiable();
+  		Instance newInstance = copyForDataset(instance);
   		newInstance.setDataset(this);
   		m_Instances.add(newInstance);
+  		m_InStoreOrder &= m_Store != null && m_Store.numRows() == m_Instances.size();
   		return true;
   	}
 
@@ -342,9 +433,11 @@ RevisionHandler {
   	// @ requires index < m_Instances.size();
   	@Override
   	public void add(int index, /* @non_null@ */Instance instance) {
-  		Instance newInstance = (Instance) instance.copy();
+  		ensureModifiable();
+  		Instance newInstance = copyForDataset(instance);
   		newInstance.setDataset(this);
   		m_Instances.add(index, newInstance);
+  		m_InStoreOrder = false;
   	}
   	
   	public void add(Instances insts){
@@ -473,7 +566,12 @@ RevisionHandler {
    */
   public void compactify() {
 
-    m_Instances.trimToSize();
+    if (m_Instances instanceof ArrayList) {
+      ((ArrayList<Instance>) m_Instances).trimToSize();
+    }
+    if (m_Store != null) {
+      m_Store.trimToSize();
+    }
   }
 
   /**
@@ -482,6 +580,11 @@ RevisionHandler {
   public void delete() {
 
     m_Instances = new ArrayList<Instance>();
+    m_View = false;
+    if (m_Store != null) {
+      m_Store = new ColumnStore(numAttributes(), 0);
+      m_InStoreOrder = true;
+    }
   }
 
   /**
@@ -492,7 +595,10 @@ RevisionHandler {
   // @ requires 0 <= index && index < numInstances();
   public void delete(int index) {
 
+    ensureModifiable();
     m_Instances.remove(index);
+    m_InStoreOrder &= index == m_Instances.size();
+    reclaimRows();
   }
 
   /**
@@ -514,6 +620,7 @@ RevisionHandler {
     if (position == m_ClassIndex) {
       throw new IllegalArgumentException("Can't delete class attribute");
     }
+    unshareInstances();
 
     ArrayList<Attribute> newList = new ArrayList<Attribute>(m_Attributes.size() - 1);
     HashMap<String, Integer> newMap = new HashMap<String, Integer>((int) ((m_Attributes.size() - 1) / 0.75));
@@ -534,7 +641,13 @@ RevisionHandler {
     if (m_ClassIndex > position) {
       m_ClassIndex--;
     }
+    if (m_Store != null) {
+      m_Store.deleteColumn(position);
+    }
     for (int i = 0; i < numInstances(); i++) {
+      if (isStored(instance(i))) {
+        continue;
+      }
       instance(i).setDataset(null);
       instance(i).deleteAttributeAt(position);
       instance(i).setDataset(this);
@@ -590,6 +703,8 @@ RevisionHandler {
       }
     }
     m_Instances = newInstances;
+    m_InStoreOrder = false;
+    reclaimRows();
   }
 
   /**
@@ -728,6 +843,7 @@ RevisionHandler {
       throw new IllegalArgumentException("Attribute name '" + att.name()
         + "' already in use at position #" + attribute(att.name()).index());
     }
+    unshareInstances();
     att = (Attribute) att.copy();
     att.setIndex(position);
 
@@ -749,7 +865,13 @@ RevisionHandler {
     m_Attributes = newList;
     m_NamesToAttributeIndices = newMap;
 
+    if (m_Store != null) {
+      m_Store.insertColumn(position);
+    }
     for (int i = 0; i < numInstances(); i++) {
+      if (isStored(instance(i))) {
+        continue;
+      }
       instance(i).setDataset(null);
       instance(i).insertAttributeAt(position);
       instance(i).setDataset(this);
@@ -1053,6 +1175,7 @@ RevisionHandler {
           attribute(att.name()).index());
       }
     }
+    unshareInstances();
     att = (Attribute) att.copy();
     att.setIndex(position);
 
@@ -1073,7 +1196,15 @@ RevisionHandler {
     m_Attributes = newList;
     m_NamesToAttributeIndices = newMap;
 
+    if (m_Store != null) {
+      // a new column of missing values, as views may share the old one
+      m_Store.deleteColumn(position);
+      m_Store.insertColumn(position);
+    }
     for (int i = 0; i < numInstances(); i++) {
+      if (isStored(instance(i))) {
+        continue;
+      }
       instance(i).setDataset(null);
       instance(i).setMissing(position);
       instance(i).setDataset(this);
@@ -1102,7 +1233,11 @@ RevisionHandler {
   @Override
   public Instance remove(int index) {
 
-    return m_Instances.remove(index);
+    ensureModifiable();
+    m_InStoreOrder &= index == m_Instances.size() - 1;
+    Instance removed = m_Instances.remove(index);
+    reclaimRows();
+    return removed;
   }
 
   /**
@@ -1123,6 +1258,7 @@ RevisionHandler {
       }
     }
 
+    copyViewInstances();
     Attribute newAtt = attribute(att).copy(name);
     ArrayList<Attribute> newVec = new ArrayList<Attribute>(numAttributes());
     HashMap<String, Integer> newMap = new HashMap<String, Integer>((int)(numAttributes() / 0.75));
@@ -1160,6 +1296,7 @@ RevisionHandler {
    */
   public void renameAttributeValue(int att, int val, String name) {
 
+    copyViewInstances();
     Attribute newAtt = (Attribute) attribute(att).copy();
     ArrayList<Attribute> newVec = new ArrayList<Attribute>(numAttributes());
 
@@ -1437,11 +1574,13 @@ RevisionHandler {
   @Override
   public Instance set(int index, /* @non_null@ */Instance instance) {
 
-    Instance newInstance = (Instance) instance.copy();
+    ensureModifiable();
+    Instance newInstance = copyForDataset(instance);
     Instance oldInstance = m_Instances.get(index);
 
     newInstance.setDataset(this);
     m_Instances.set(index, newInstance);
+    m_InStoreOrder = false;
 
     return oldInstance;
   }
@@ -1466,6 +1605,10 @@ RevisionHandler {
     public void setClassIndex(int classIndex) {
     	if (classIndex >= numAttributes())
     		throw new IllegalArgumentException("Invalid class index: " + classIndex);
+    	if (classIndex != m_ClassIndex) {
+    		// instances report the class of their dataset, and views may share them
+    		unshareInstances();
+    	}
     	m_ClassIndex = classIndex;
     }
     
@@ -1509,6 +1652,8 @@ RevisionHandler {
       indices[i] = start;
       start += counts[i];
     }
+    ensureModifiable();
+    m_InStoreOrder = false;
     for (Instance inst : backup) { // Use backup here
       if (!inst.isMissing(attIndex)) {
         m_Instances.set(indices[(int)inst.value(attIndex)]++, inst);
@@ -1546,9 +1691,11 @@ RevisionHandler {
       }
 
       int[] sortOrder = Utils.sortWithNoMissingValues(vals);
+      ensureModifiable();
       for (int i = 0; i < vals.length; i++) {
         m_Instances.set(i, backup[sortOrder[i]]);
       }
+      m_InStoreOrder = false;
     } else {
       sortBasedOnNominalAttribute(attIndex);
     }
@@ -1591,9 +1738,11 @@ RevisionHandler {
       }
 
       int[] sortOrder = Utils.stableSort(vals);
+      ensureModifiable();
       for (int i = 0; i < vals.length; i++) {
         m_Instances.set(i, backup[sortOrder[i]]);
       }
+      m_InStoreOrder = false;
     } else {
       sortBasedOnNominalAttribute(attIndex);
     }
@@ -1667,6 +1816,11 @@ RevisionHandler {
 
   /**
    * Creates the test set for one fold of a cross-validation on the dataset.
+   * The test set is a view that shares the instances of the dataset (see
+   * Instances(Instances, int[])). Deleting, inserting or replacing
+   * attributes of the dataset or changing its class index afterwards leaves
+   * the test set as it is, but changing the values of its instances does
+   * not.
    * 
    * @param numFolds the number of folds in the cross-validation. Must be
    *          greater than 1.
@@ -1696,9 +1850,8 @@ RevisionHandler {
     } else {
       offset = numInstances() % numFolds;
     }
-    test = new Instances(this, numInstForFold);
     first = numFold * (numInstances() / numFolds) + offset;
-    copyInstances(first, test, numInstForFold);
+    test = view(first, numInstForFold);
     return test;
   }
 
@@ -1746,6 +1899,11 @@ RevisionHandler {
 
   /**
    * Creates the training set for one fold of a cross-validation on the dataset.
+   * The training set is a view that shares the instances of the dataset (see
+   * Instances(Instances, int[])). Deleting, inserting or replacing
+   * attributes of the dataset or changing its class index afterwards leaves
+   * the training set as it is, but changing the values of its instances
+   * does not.
    * 
    * @param numFolds the number of folds in the cross-validation. Must be
    *          greater than 1.
@@ -1775,11 +1933,15 @@ RevisionHandler {
     } else {
       offset = numInstances() % numFolds;
     }
-    train = new Instances(this, numInstances() - numInstForFold);
     first = numFold * (numInstances() / numFolds) + offset;
-    copyInstances(0, train, first);
-    copyInstances(first + numInstForFold, train, numInstances() - first
-      - numInstForFold);
+    int[] rows = new int[numInstances() - numInstForFold];
+    for (int i = 0; i < first; i++) {
+      rows[i] = i;
+    }
+    for (int i = first; i < rows.length; i++) {
+      rows[i] = i + numInstForFold;
+    }
+    train = new Instances(this, rows);
 
     return train;
   }
@@ -1787,7 +1949,7 @@ RevisionHandler {
   /**
    * Creates the training set for one fold of a cross-validation on the dataset.
    * The data is subsequently randomized based on the given random number
-   * generator.
+   * generator, which only permutes the index of the view.
    * 
    * @param numFolds the number of folds in the cross-validation. Must be
    *          greater than 1.
@@ -1949,20 +2111,22 @@ RevisionHandler {
     result.totalCount = numInstances();
 
     HashMap<Double,double[]> map = new HashMap<Double,double[]>(2 * result.totalCount);
-    for (Instance current : this) {
-      double key = current.value(index);
+    double[] column = attributeToDoubleArray(index);
+    for (int i = 0; i < column.length; i++) {
+      double key = column[i];
       if (Utils.isMissingValue(key)) {
         result.missingCount++;
       } else {
+        double weight = instance(i).weight();
         double[] values = map.get(key);
         if (values == null) {
           values = new double[2];
           values[0] = 1.0;
-          values[1] = current.weight();
+          values[1] = weight;
           map.put(key, values);
         } else {
           values[0]++;
-          values[1] += current.weight();
+          values[1] += weight;
         }
       }
     }
@@ -1976,7 +2140,8 @@ RevisionHandler {
   /**
    * Gets the value of all instances in this dataset for a particular attribute.
    * Useful in conjunction with Utils.sort to allow iterating through the
-   * dataset in sorted order for some attribute.
+   * dataset in sorted order for some attribute. If the dataset is columnar
+   * the values are read from the column store.
    * 
    * @param index the index of the attribute.
    * @return an array containing the value of the desired attribute for each
@@ -1986,12 +2151,194 @@ RevisionHandler {
   public/* @pure@ */double[] attributeToDoubleArray(int index) {
 
     double[] result = new double[numInstances()];
+    if (m_InStoreOrder) {
+      System.arraycopy(m_Store.column(index), 0, result, 0, result.length);
+      return result;
+    }
+    if (m_Store != null) {
+      double[] column = m_Store.column(index);
+      for (int i = 0; i < result.length; i++) {
+        Instance current = instance(i);
+        if (isStored(current)) {
+          result[i] = column[((ColumnarInstance) current).m_Row];
+        } else {
+          result[i] = current.value(index);
+        }
+      }
+      return result;
+    }
     for (int i = 0; i < result.length; i++) {
       result[i] = instance(i).value(index);
     }
     return result;
   }
 
+  /**
+   * Returns whether the attribute values of this dataset are kept in a
+   * column store.
+   * 
+   * @return true if the dataset is columnar
+   */
+  public boolean isColumnar() {
+    return m_Store != null;
+  }
+
+  /**
+   * Switches between keeping the attribute values in the instances and in a
+   * column store. When switching to columnar, the values of all instances are
+   * copied into a new store and the instances are replaced by
+   * ColumnarInstances; instances added later are appended to the store.
+   * When switching back, they are replaced by DenseInstances. Either way, the
+   * instances are copies, and other datasets holding the old ones are not
+   * affected.<br/>
+   * <br/>
+   * The rows of removed instances stay in the store until fewer than half of
+   * its rows are held by the dataset, when the remaining rows are moved into
+   * a new store (see reclaimRows()). A dataset whose instances are removed
+   * as others are added therefore keeps a store of at most about twice its
+   * size.
+   * 
+   * @param columnar true to keep the values in a column store
+   */
+  public void setColumnar(boolean columnar) {
+
+    if (columnar == (m_Store != null)) {
+      return;
+    }
+    ensureModifiable();
+    if (columnar) {
+      ColumnStore store = new ColumnStore(numAttributes(), numInstances());
+      for (int i = 0; i < numInstances(); i++) {
+        Instance current = instance(i);
+        Instance stored =
+          new ColumnarInstance(store, store.addRow(current), current.weight());
+        stored.setDataset(this);
+        m_Instances.set(i, stored);
+      }
+      m_Store = store;
+      m_InStoreOrder = true;
+      m_View = false;
+    } else {
+      m_Store = null;
+      m_InStoreOrder = false;
+      for (int i = 0; i < numInstances(); i++) {
+        Instance current = instance(i);
+        if (current instanceof ColumnarInstance) {
+          Instance copy = (Instance) current.copy();
+          copy.setDataset(this);
+          m_Instances.set(i, copy);
+        }
+      }
+    }
+    m_Columnar = columnar;
+  }
+
+  /**
+   * Returns the column store of a columnar dataset, for code that wants to
+   * scan attribute values column by column. The values of an instance of
+   * this dataset are in row <code>row()</code> of the store if the instance
+   * is a ColumnarInstance whose <code>store()</code> is this store.
+   * 
+   * @return the column store, or null if the dataset is not columnar
+   */
+  public ColumnStore columnStore() {
+    return m_Store;
+  }
+
+  /**
+   * Checks whether an instance keeps its values in the column store of this
+   * dataset.
+   * 
+   * @param instance the instance
+   * @return true if the instance is a row of the column store
+   */
+  protected boolean isStored(Instance instance) {
+    return m_Store != null && instance instanceof ColumnarInstance
+      && ((ColumnarInstance) instance).m_Store == m_Store;
+  }
+
+  /**
+   * Moves the rows of the instances of a columnar dataset into a new column
+   * store once fewer than half the rows of its store are held by them, so
+   * that the store doesn't keep growing when instances are removed as others
+   * are added. The instances keep their identity and are given their new
+   * rows; instances removed earlier keep the old store, as do views.
+   */
+  protected void reclaimRows() {
+
+    if (m_Store == null || m_View
+      || m_Store.numRows() <= Math.max(2 * m_Instances.size(),
+        ColumnStore.INITIAL_CAPACITY)) {
+      return;
+    }
+    int numStored = 0;
+    for (Instance inst : m_Instances) {
+      if (isStored(inst)) {
+        numStored++;
+      }
+    }
+    int[] rows = new int[numStored];
+    int n = 0;
+    for (Instance inst : m_Instances) {
+      if (isStored(inst)) {
+        rows[n++] = ((ColumnarInstance) inst).m_Row;
+      }
+    }
+    int[] columns = new int[numAttributes()];
+    for (int j = 0; j < columns.length; j++) {
+      columns[j] = j;
+    }
+    ColumnStore oldStore = m_Store;
+    m_Store = oldStore.select(rows, columns);
+    n = 0;
+    for (Instance inst : m_Instances) {
+      if (inst instanceof ColumnarInstance
+        && ((ColumnarInstance) inst).m_Store == oldStore) {
+        ((ColumnarInstance) inst).m_Store = m_Store;
+        ((ColumnarInstance) inst).m_Row = n++;
+      }
+    }
+    m_InStoreOrder = numStored == m_Instances.size();
+  }
+
+  /**
+   * Copies an instance before it is added to this dataset: into a new row of
+   * the column store if the dataset is columnar and not a view, otherwise
+   * with <code>copy()</code>.
+   * 
+   * @param instance the instance to copy
+   * @return the copy
+   */
+  protected Instance copyForDataset(Instance instance) {
+
+    // a view doesn't add rows to the store it shares with its source
+    if (m_Store == null || m_View) {
+      return (Instance) instance.copy();
+    }
+    Instance result = new ColumnarInstance(m_Store, m_Store.addRow(instance),
+      instance.weight());
+    result.setDataset(instance.dataset());
+    return result;
+  }
+
+  /**
+   * Restores the column store of a columnar dataset after deserialization,
+   * since the instances are written as DenseInstances.
+   * 
+   * @param in the stream to read from
+   * @throws IOException if the object can't be read
+   * @throws ClassNotFoundException if a class can't be found
+   */
+  private void readObject(ObjectInputStream in) throws IOException,
+    ClassNotFoundException {
+
+    in.defaultReadObject();
+    if (m_Columnar) {
+      m_Columnar = false;
+      setColumnar(true);
+    }
+  }
+
   /**
    * Generates a string summarizing the set of instances. Gives a breakdown for
    * each attribute indicating the number of missing/discrete/unique values and
@@ -2127,19 +2474,28 @@ RevisionHandler {
    */
   protected void stratStep(int numFolds) {
 
-    ArrayList<Instance> newVec = new ArrayList<Instance>(m_Instances.size());
-    int start = 0, j;
+    int[] rows = new int[numInstances()];
+    int start = 0, j, k = 0;
 
     // create stratified batch
-    while (newVec.size() < numInstances()) {
+    while (k < rows.length) {
       j = start;
       while (j < numInstances()) {
-        newVec.add(instance(j));
+        rows[k++] = j;
         j = j + numFolds;
       }
       start++;
     }
-    m_Instances = newVec;
+    if (m_Instances instanceof IndexedInstanceList) {
+      m_Instances = new IndexedInstanceList(m_Instances, rows);
+    } else {
+      ArrayList<Instance> newVec = new ArrayList<Instance>(rows.length);
+      for (int row : rows) {
+        newVec.add(instance(row));
+      }
+      m_Instances = newVec;
+    }
+    m_InStoreOrder = false;
   }
 
   /**
@@ -2152,9 +2508,127 @@ RevisionHandler {
   // @ requires 0 <= j && j < numInstances();
   public void swap(int i, int j) {
 
-    Instance in = m_Instances.get(i);
-    m_Instances.set(i, m_Instances.get(j));
-    m_Instances.set(j, in);
+    if (m_Instances instanceof IndexedInstanceList) {
+      ((IndexedInstanceList) m_Instances).swap(i, j);
+    } else {
+      Instance in = m_Instances.get(i);
+      m_Instances.set(i, m_Instances.get(j));
+      m_Instances.set(j, in);
+    }
+    m_InStoreOrder &= i == j;
+  }
+
+  /**
+   * Returns a view of all instances of the set, in their current order. The
+   * view can be reordered and split into folds without copying any
+   * instances, and without affecting the order of this set.
+   * 
+   * @return the view
+   * @see #Instances(Instances, int[])
+   */
+  public Instances view() {
+
+    return view(0, numInstances());
+  }
+
+  /**
+   * Returns a view of a range of instances of the set, the counterpart of
+   * Instances(Instances, int, int) that doesn't copy the instances.
+   * 
+   * @param first the index of the first instance of the view
+   * @param num the number of instances in the view
+   * @return the view
+   * @throws IllegalArgumentException if first and num are out of range
+   * @see #Instances(Instances, int[])
+   */
+  public Instances view(int first, int num) {
+
+    if ((first < 0) || (num < 0) || ((first + num) > numInstances())) {
+      throw new IllegalArgumentException("Parameters first and/or num out "
+        + "of range");
+    }
+    int[] rows = new int[num];
+    for (int i = 0; i < num; i++) {
+      rows[i] = first + i;
+    }
+    return new Instances(this, rows);
+  }
+
+  /**
+   * Gives a view a list of its own before instances are added, removed or
+   * replaced. The instances themselves are still shared.
+   */
+  protected void ensureModifiable() {
+
+    if (m_Instances instanceof IndexedInstanceList) {
+      m_Instances = new ArrayList<Instance>(m_Instances);
+    }
+  }
+
+  /**
+   * Gives a view copies of its instances, and of their values if they are
+   * rows of the store of its source, before they are changed along with the
+   * attributes.
+   */
+  protected void copyViewInstances() {
+
+    if (!m_View) {
+      return;
+    }
+    ArrayList<Instance> copies = new ArrayList<Instance>(numInstances());
+    for (Instance inst : m_Instances) {
+      Instance copy = (Instance) inst.copy();
+      copy.setDataset(this);
+      copies.add(copy);
+    }
+    m_Instances = copies;
+    m_Store = null;
+    m_Columnar = false;
+    m_InStoreOrder = false;
+    m_View = false;
+  }
+
+  /**
+   * Gives a dataset instances of its own before they are changed along with
+   * the attributes. A view gets copies (see copyViewInstances()). Any other
+   * dataset may have views sharing its instances and its column store, so it
+   * replaces its instances by copies and its store by one that shares the
+   * columns but not the list of them, unless no view has been taken. The
+   * old instances stay as they are, with a copy of the current header as
+   * their dataset, so the views that hold them are not affected.
+   */
+  protected void unshareInstances() {
+
+    if (m_View) {
+      copyViewInstances();
+      return;
+    }
+    if (!m_Viewed) {
+      return;
+    }
+    m_Viewed = false;
+    Instances oldHeader = new Instances(this, 0);
+    ColumnStore oldStore = m_Store;
+    if (m_Store != null) {
+      m_Store = m_Store.shareColumns();
+    }
+    for (int i = 0; i < m_Instances.size(); i++) {
+      Instance old = m_Instances.get(i);
+      Instance inst;
+      if (oldStore != null && old instanceof ColumnarInstance
+        && ((ColumnarInstance) old).m_Store == oldStore) {
+        inst =
+          new ColumnarInstance(m_Store, ((ColumnarInstance) old).m_Row,
+            old.weight());
+      } else {
+        inst = (Instance) old.copy();
+      }
+      inst.setDataset(this);
+      m_Instances.set(i, inst);
+      if (old.dataset() == this) {
+        old.setDataset(oldHeader);
+      }
+    }
   }
 
   /**
@@ -2546,19 +3020,153 @@ RevisionHandler {
     	return RevisionUtils.extract("$Revision: 12446 $");
     }
 
+    /**
+     * Returns the data reduced to the given attributes. The attributes keep
+     * their original order and the class attribute stays the class if it is
+     * among them. If all instances are dense and there are no string or
+     * relational attributes, the result is a view: its instances are
+     * ProjectedInstances that share the attribute values of this dataset
+     * instead of copying them. A columnar dataset is reduced by copying the
+     * columns of the attributes into a new columnar dataset. Otherwise the
+     * Remove filter is used.
+     * 
+     * @param features the indexes of the attributes to keep
+     * @return the reduced data
+     * @throws Exception if the data can't be reduced
+     */
     public Instances attributeFilter(int[] features) throws Exception{
-    	Remove delTransform = new Remove();
-    	Instances trainCopy = new Instances(this);
-    	delTransform.setInvertSelection(true);
-    	delTransform.setAttributeIndicesArray(features);
-    	delTransform.setInputFormat(trainCopy);
-    	trainCopy = Filter.useFilter(trainCopy, delTransform);
-    	for(int i:features)
-    		if (i==classIndex()) {
-    			trainCopy.setClassIndex(classAttribute().name());
-    			break;
-			}
-    	return trainCopy;
+    	if (m_Store != null && allStored()) {
+    		return columnarAttributeFilter(features);
+    	}
+    	if (!isProjectable()) {
+    		Remove delTransform = new Remove();
+    		Instances trainCopy = new Instances(this);
+    		delTransform.setInvertSelection(true);
+    		delTransform.setAttributeIndicesArray(features);
+    		delTransform.setInputFormat(trainCopy);
+    		trainCopy = Filter.useFilter(trainCopy, delTransform);
+    		for(int i:features)
+    			if (i==classIndex()) {
+    				trainCopy.setClassIndex(classAttribute().name());
+    				break;
+    			}
+    		return trainCopy;
+    	}
+
+    	int[] projection = sortedUnique(features);
+    	ArrayList<Attribute> atts = new ArrayList<Attribute>(projection.length);
+    	int outputClass = -1;
+    	for (int current : projection) {
+    		if (current == m_ClassIndex) {
+    			outputClass = atts.size();
+    		}
+    		atts.add((Attribute) attribute(current).copy());
+    	}
+    	Instances result = new Instances(m_RelationName, atts, numInstances());
+    	result.m_ClassIndex = outputClass;
+    	for (Instance inst : m_Instances) {
+    		ProjectedInstance view;
+    		if (inst instanceof ProjectedInstance) {
+    			view = new ProjectedInstance((ProjectedInstance) inst, projection);
+    		} else {
+    			view = new ProjectedInstance((DenseInstance) inst, projection);
+    		}
+    		view.setDataset(result);
+    		result.m_Instances.add(view);
+    	}
+    	return result;
+    }
+
+    /**
+     * Reduces a columnar dataset to the given attributes by copying their
+     * columns, in the order of the instances, into a new columnar dataset.
+     * 
+     * @param features the indexes of the attributes to keep
+     * @return the reduced data
+     */
+    private Instances columnarAttributeFilter(int[] features) {
+    	int[] projection = sortedUnique(features);
+    	ArrayList<Attribute> atts = new ArrayList<Attribute>(projection.length);
+    	int outputClass = -1;
+    	for (int current : projection) {
+    		if (current == m_ClassIndex) {
+    			outputClass = atts.size();
+    		}
+    		atts.add((Attribute) attribute(current).copy());
+    	}
+    	int[] rows = new int[numInstances()];
+    	for (int i = 0; i < rows.length; i++) {
+    		rows[i] = ((ColumnarInstance) instance(i)).m_Row;
+    	}
+    	Instances result = new Instances(m_RelationName, atts, rows.length);
+    	result.m_ClassIndex = outputClass;
+    	result.m_Store = m_Store.select(rows, projection);
+    	result.m_Columnar = true;
+    	result.m_InStoreOrder = true;
+    	for (int i = 0; i < rows.length; i++) {
+    		Instance row = new ColumnarInstance(result.m_Store, i, instance(i).weight());
+    		row.setDataset(result);
+    		result.m_Instances.add(row);
+    	}
+    	return result;
+    }
+
+    /**
+     * Checks whether all instances of a columnar dataset keep their values in
+     * its column store.
+     * 
+     * @return true if every instance is a row of the store
+     */
+    private boolean allStored() {
+    	for (Instance inst : m_Instances) {
+    		if (!isStored(inst)) {
+    			return false;
+    		}
+    	}
+    	return true;
+    }
+
+    /**
+     * Checks whether attributeFilter can return a view of this dataset.
+     * 
+     * @return true if all instances are dense and all attribute values are
+     *         stored in the instances themselves
+     */
+    private boolean isProjectable() {
+    	if (checkForAttributeType(Attribute.STRING)
+    		|| checkForAttributeType(Attribute.RELATIONAL)) {
+    		return false;
+    	}
+    	for (Instance inst : m_Instances) {
+    		if (!(inst instanceof DenseInstance) && !(inst instanceof ProjectedInstance)) {
+    			return false;
+    		}
+    	}
+    	return true;
+    }
+
+    /**
+     * Returns the given attribute indexes in ascending order without
+     * duplicates, as the Remove filter would keep them.
+     * 
+     * @param features the attribute indexes
+     * @return the sorted indexes
+     * @throws IllegalArgumentException if an index is out of range
+     */
+    private int[] sortedUnique(int[] features) {
+    	BitSet keep = new BitSet(numAttributes());
+    	for (int i : features) {
+    		if (i < 0 || i >= numAttributes()) {
+    			throw new IllegalArgumentException("Attribute index " + i
+    				+ " out of range");
+    		}
+    		keep.set(i);
+    	}
+    	int[] projection = new int[keep.cardinality()];
+    	for (int i = keep.nextSetBit(0), j = 0; i >= 0; i = keep.nextSetBit(i + 1)) {
+    		projection[j++] = i;
+    	}
+    	return projection;
     }
     
     public Instances attributeFilter(BitSet bitFeatures) throws Exception{
@@ -0,0 +1,407 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ *    ProjectedInstance.java
+ *
+ */
+
+package weka.core;
+
+/**
+ * Dense instance that shows a subset of the attributes of another dense
+ * instance without copying its values. The attribute value vector of the
+ * source instance is shared and an index map translates the position of an
+ * attribute in the projection to its position in the shared vector.<br/>
+ * <br/>
+ * As with DenseInstance, methods that change attribute values never affect
+ * any other instance: the projected values are copied into a private vector
+ * before the first change, and later changes write to that vector until a
+ * copy() shares it again.
+ *
+ * @see Instances#attributeFilter(int[])
+ */
+public class ProjectedInstance extends AbstractInstance {
+
+  /** for serialization */
+  static final long serialVersionUID = -3851622340162478591L;
+
+  /** maps a position in this instance to a position in m_AttValues */
+  protected int[] m_Projection;
+
+  /** whether m_AttValues is private to this instance and may be changed */
+  protected boolean m_OwnsValues;
+
+  /**
+   * Constructor that projects the given dense instance onto the given
+   * attributes. The value vector of the instance is shared, not copied,
+   * unless the instance keeps its values in a column store. Reference to the
+   * dataset is set to null.
+   *
+   * @param instance the instance to project
+   * @param projection the indexes of the source attributes to keep, in the
+   *          order they appear in the projection
+   */
+  public ProjectedInstance(DenseInstance instance, int[] projection) {
+
+    m_AttValues = instance.m_AttValues != null ? instance.m_AttValues
+      : instance.toDoubleArray();
+    m_Projection = projection;
+    m_Weight = instance.weight();
+    m_Dataset = null;
+  }
+
+  /**
+   * Constructor that projects a projected instance a second time. The two
+   * index maps are composed so that the shared value vector is still only
+   * one lookup away. Reference to the dataset is set to null.
+   *
+   * @param instance the projected instance to project
+   * @param projection the indexes of the attributes of instance to keep
+   */
+  public ProjectedInstance(ProjectedInstance instance, int[] projection) {
+
+    // the vector is shared from now on
+    instance.m_OwnsValues = false;
+    m_AttValues = instance.m_AttValues;
+    m_Projection = new int[projection.length];
+    for (int i = 0; i < projection.length; i++) {
+      m_Projection[i] = instance.m_Projection[projection[i]];
+    }
+    m_Weight = instance.weight();
+    m_Dataset = null;
+  }
+
+  /**
+   * Constructor used by copy(). Shares both the value vector and the index
+   * map.
+   *
+   * @param weight the instance's weight
+   * @param attValues the shared value vector
+   * @param projection the shared index map
+   */
+  protected ProjectedInstance(double weight, double[] attValues,
+    int[] projection) {
+
+    m_AttValues = attValues;
+    m_Projection = projection;
+    m_Weight = weight;
+    m_Dataset = null;
+  }
+
+  /**
+   * Produces a shallow copy of this instance. The copy shares the value vector
+   * and has access to the same dataset.
+   *
+   * @return the shallow copy
+   */
+  @Override
+  public/* @pure@ */Object copy() {
+
+    // the vector is shared from now on
+    m_OwnsValues = false;
+    ProjectedInstance result =
+      new ProjectedInstance(m_Weight, m_AttValues, m_Projection);
+    result.m_Dataset = m_Dataset;
+    return result;
+  }
+
+  /**
+   * Copies the instance but fills up its values based on the given array of
+   * doubles. The copy is a plain DenseInstance with access to the same
+   * dataset.
+   *
+   * @param values the array with new values
+   * @return the new instance
+   */
+  @Override
+  public Instance copy(double[] values) {
+
+    DenseInstance result = new DenseInstance(m_Weight, values);
+    result.m_Dataset = m_Dataset;
+    return result;
+  }
+
+  /**
+   * Returns the index of the attribute stored at the given position. Just
+   * returns the given value.
+   *
+   * @param position the position
+   * @return the index of the attribute stored at the given position
+   */
+  @Override
+  public/* @pure@ */int index(int position) {
+
+    return position;
+  }
+
+  /**
+   * Merges this instance with the given instance and returns the result.
+   * Dataset is set to null. The result is a DenseInstance.
+   *
+   * @param inst the instance to be merged with this one
+   * @return the merged instances
+   */
+  @Override
+  public Instance mergeInstance(Instance inst) {
+
+    int m = 0;
+    double[] newVals = new double[numAttributes() + inst.numAttributes()];
+    for (int j = 0; j < numAttributes(); j++, m++) {
+      newVals[m] = value(j);
+    }
+    for (int j = 0; j < inst.numAttributes(); j++, m++) {
+      newVals[m] = inst.value(j);
+    }
+    return new DenseInstance(1.0, newVals);
+  }
+
+  /**
+   * Returns the number of attributes.
+   *
+   * @return the number of attributes as an integer
+   */
+  @Override
+  public/* @pure@ */int numAttributes() {
+
+    return m_Projection.length;
+  }
+
+  /**
+   * Returns the number of values present. Always the same as numAttributes().
+   *
+   * @return the number of values
+   */
+  @Override
+  public/* @pure@ */int numValues() {
+
+    return m_Projection.length;
+  }
+
+  /**
+   * Replaces all missing values in the instance with the values contained in
+   * the given array. The projected values are copied into a private vector
+   * first, unless they already are in one.
+   *
+   * @param array containing the means and modes
+   * @throws IllegalArgumentException if numbers of attributes are unequal
+   */
+  @Override
+  public void replaceMissingValues(double[] array) {
+
+    if ((array == null) || (array.length != m_Projection.length)) {
+      throw new IllegalArgumentException("Unequal number of attributes!");
+    }
+    freshAttributeVector();
+    for (int i = 0; i < m_Projection.length; i++) {
+      if (isMissing(i)) {
+        m_AttValues[m_Projection[i]] = array[i];
+      }
+    }
+  }
+
+  /**
+   * Sets a specific value in the instance to the given value (internal
+   * floating-point format). The projected values are copied into a private
+   * vector first, unless they already are in one.
+   *
+   * @param attIndex the attribute's index
+   * @param value the new attribute value (If the corresponding attribute is
+   *          nominal (or a string) then this is the new value's index as a
+   *          double).
+   */
+  @Override
+  public void setValue(int attIndex, double value) {
+
+    freshAttributeVector();
+    m_AttValues[m_Projection[attIndex]] = value;
+  }
+
+  /**
+   * Sets a specific value in the instance to the given value (internal
+   * floating-point format). Does exactly the same thing as setValue().
+   *
+   * @param indexOfIndex the index of the attribute's index
+   * @param value the new attribute value (If the corresponding attribute is
+   *          nominal (or a string) then this is the new value's index as a
+   *          double).
+   */
+  @Override
+  public void setValueSparse(int indexOfIndex, double value) {
+
+    setValue(indexOfIndex, value);
+  }
+
+  /**
+   * Returns the projected values of each attribute as an array of doubles.
+   *
+   * @return an array containing all the instance attribute values
+   */
+  @Override
+  public double[] toDoubleArray() {
+
+    double[] newValues = new double[m_Projection.length];
+    for (int i = 0; i < m_Projection.length; i++) {
+      newValues[i] = m_AttValues[m_Projection[i]];
+    }
+    return newValues;
+  }
+
+  /**
+   * Returns the description of one instance (without weight appended). If the
+   * instance doesn't have access to a dataset, it returns the internal
+   * floating-point values. Quotes string values that contain whitespace
+   * characters.
+   *
+   * @return the instance's description as a string
+   */
+  @Override
+  public String toStringNoWeight() {
+    return toStringNoWeight(AbstractInstance.s_numericAfterDecimalPoint);
+  }
+
+  /**
+   * Returns the description of one instance (without weight appended). If the
+   * instance doesn't have access to a dataset, it returns the internal
+   * floating-point values. Quotes string values that contain whitespace
+   * characters.
+   *
+   * @param afterDecimalPoint maximum number of digits after the decimal point
+   *          for numeric values
+   *
+   * @return the instance's description as a string
+   */
+  @Override
+  public String toStringNoWeight(int afterDecimalPoint) {
+    StringBuffer text = new StringBuffer();
+
+    for (int i = 0; i < m_Projection.length; i++) {
+      if (i > 0) {
+        text.append(",");
+      }
+      text.append(toString(i, afterDecimalPoint));
+    }
+
+    return text.toString();
+  }
+
+  /**
+   * Returns an instance's attribute value in internal format.
+   *
+   * @param attIndex the attribute's index
+   * @return the specified value as a double (If the corresponding attribute is
+   *         nominal (or a string) then it returns the value's index as a
+   *         double).
+   */
+  @Override
+  public/* @pure@ */double value(int attIndex) {
+
+    return m_AttValues[m_Projection[attIndex]];
+  }
+
+  /**
+   * Returns an instance's attribute value in internal format, given an index in
+   * the sparse representation.
+   *
+   * @param indexOfIndex the index of the attribute's index
+   * @return the specified value as a double
+   */
+  @Override
+  public/* @pure@ */double valueSparse(int indexOfIndex) {
+
+    return m_AttValues[m_Projection[indexOfIndex]];
+  }
+
+  /**
+   * Deletes an attribute at the given position (0 to numAttributes() - 1).
+   *
+   * @param position the attribute's position
+   */
+  @Override
+  protected void forceDeleteAttributeAt(int position) {
+
+    int[] newProjection = new int[m_Projection.length - 1];
+
+    System.arraycopy(m_Projection, 0, newProjection, 0, position);
+    if (position < m_Projection.length - 1) {
+      System.arraycopy(m_Projection, position + 1, newProjection, position,
+        m_Projection.length - (position + 1));
+    }
+    m_Projection = newProjection;
+  }
+
+  /**
+   * Inserts an attribute at the given position (0 to numAttributes()) and sets
+   * its value to be missing.
+   *
+   * @param position the attribute's position
+   */
+  @Override
+  protected void forceInsertAttributeAt(int position) {
+
+    double[] newValues = new double[m_Projection.length + 1];
+
+    for (int i = 0; i < position; i++) {
+      newValues[i] = value(i);
+    }
+    newValues[position] = Utils.missingValue();
+    for (int i = position; i < m_Projection.length; i++) {
+      newValues[i + 1] = value(i);
+    }
+    m_AttValues = newValues;
+    m_Projection = identity(m_AttValues.length);
+    m_OwnsValues = true;
+  }
+
+  /**
+   * Copies the projected values into a private attribute vector, after which
+   * the index map is the identity. Does nothing if the vector is already
+   * private.
+   */
+  private void freshAttributeVector() {
+
+    if (m_OwnsValues) {
+      return;
+    }
+    m_AttValues = toDoubleArray();
+    m_Projection = identity(m_AttValues.length);
+    m_OwnsValues = true;
+  }
+
+  /**
+   * Returns the identity index map of the given length.
+   *
+   * @param length the number of attributes
+   * @return the index map
+   */
+  private static int[] identity(int length) {
+
+    int[] projection = new int[length];
+    for (int i = 0; i < length; i++) {
+      projection[i] = i;
+    }
+    return projection;
+  }
+
+  /**
+   * Returns the revision string.
+   *
+   * @return the revision
+   */
+  @Override
+  public String getRevision() {
+    return RevisionUtils.extract("$Revision$");
+  }
+}
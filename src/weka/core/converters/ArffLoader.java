@@ -73,6 +73,12 @@ public class ArffLoader extends AbstractFileLoader implements BatchConverter,
   /** The parser for the ARFF file */
   protected transient ArffReader m_ArffReader = null;
 
+  /**
+   * The source file if it can be memory-mapped for reading the data in batch
+   * mode, null otherwise
+   */
+  protected transient File m_mappableFile = null;
+
   /**
    * Whether the values of string attributes should be retained in memory when
    * reading incrementally
@@ -1176,10 +1182,35 @@ public class ArffLoader extends AbstractFileLoader implements BatchConverter,
   public void setSource(InputStream in) throws IOException {
     m_File = (new File(System.getProperty("user.dir"))).getAbsolutePath();
     m_URL = "http://";
+    m_mappableFile = null;
 
     m_sourceReader = new BufferedReader(new InputStreamReader(in));
   }
 
+  /**
+   * Resets the Loader object and sets the source of the data set to be the
+   * supplied File object. Uncompressed files are read with MappedArffReader
+   * in batch mode.
+   * 
+   * @param file the source file.
+   * @throws IOException if an error occurs
+   */
+  @Override
+  public void setSource(File file) throws IOException {
+    super.setSource(file);
+
+    String fName = file.getPath();
+    try {
+      fName = m_env.substitute(fName);
+    } catch (Exception e) {
+      // read with the ArffReader like any other source
+    }
+    File source = new File(fName);
+    if (source.isFile() && !fName.endsWith(FILE_EXTENSION_COMPRESSED)) {
+      m_mappableFile = source;
+    }
+  }
+
   /**
    * Determines and returns (if possible) the structure (internally the header)
    * of the data set as an empty set of instances.
@@ -1234,11 +1265,17 @@ public class ArffLoader extends AbstractFileLoader implements BatchConverter,
         getStructure();
       }
 
-      // Read all instances
-      insts = new Instances(m_structure, 0);
-      Instance inst;
-      while ((inst = m_ArffReader.readInstance(m_structure)) != null) {
-        insts.add(inst);
+      // Read all instances, from the mapped file if the data allow it
+      if (m_mappableFile != null) {
+        insts = new MappedArffReader(m_mappableFile, Runtime.getRuntime()
+          .availableProcessors()).readData(m_structure);
+      }
+      if (insts == null) {
+        insts = new Instances(m_structure, 0);
+        Instance inst;
+        while ((inst = m_ArffReader.readInstance(m_structure)) != null) {
+          insts.add(inst);
+        }
       }
 
       // Instances readIn = new Instances(m_structure);
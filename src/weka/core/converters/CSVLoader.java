@@ -24,6 +24,7 @@ package weka.core.converters;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
@@ -43,9 +44,11 @@ import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Vector;
+import java.util.zip.GZIPInputStream;
 
 import weka.core.Attribute;
 import weka.core.DenseInstance;
+import weka.core.Environment;
 import weka.core.Instance;
 import weka.core.Instances;
 import weka.core.Option;
@@ -124,6 +127,11 @@ import weka.core.converters.ArffLoader.ArffReader;
  *  The size of the in memory buffer (in rows).
  *  (default: 100)</pre>
  * 
+ * <pre> -reconcile
+ *  When reading incrementally from a file, determine the
+ *  structure from a pass over the whole file rather than
+ *  from the first buffer of rows only.</pre>
+ * 
  <!-- options-end -->
  * 
  * @author Mark Hall (mhall{[at]}pentaho{[dot]}com)
@@ -192,6 +200,12 @@ public class CSVLoader extends AbstractFileLoader implements BatchConverter,
   /** Reader used to process and output data incrementally */
   protected ArffReader m_incrementalReader;
 
+  /**
+   * Whether to check the types determined from the first buffer of rows
+   * against the rest of the file when reading incrementally
+   */
+  protected boolean m_reconcileTypes = false;
+
   protected transient int m_rowCount;
 
   /**
@@ -560,6 +574,39 @@ public class CSVLoader extends AbstractFileLoader implements BatchConverter,
     return "The number of rows to process in memory at any one time.";
   }
 
+  /**
+   * Get whether the structure determined from the first buffer of rows is
+   * checked against the rest of the file when reading incrementally.
+   *
+   * @return true if the types are reconciled with a pass over the file
+   */
+  public boolean getReconcileTypes() {
+    return m_reconcileTypes;
+  }
+
+  /**
+   * Set whether the structure determined from the first buffer of rows is
+   * checked against the rest of the file when reading incrementally.
+   *
+   * @param reconcile true to reconcile the types with a pass over the file
+   */
+  public void setReconcileTypes(boolean reconcile) {
+    m_reconcileTypes = reconcile;
+  }
+
+  /**
+   * Returns the tip text for this property.
+   *
+   * @return tip text for this property suitable for displaying in the
+   *         explorer/experimenter gui
+   */
+  public String reconcileTypesTipText() {
+    return "When reading incrementally from a file, make a first pass over "
+      + "the whole file to determine attribute types and nominal values, "
+      + "rather than only looking at the first buffer full of rows. Rows "
+      + "are not kept in memory during this pass.";
+  }
+
   /**
    * Get label specifications for nominal attributes.
    *
@@ -666,6 +713,12 @@ public class CSVLoader extends AbstractFileLoader implements BatchConverter,
     result.add(new Option("\tThe size of the in memory buffer (in rows).\n"
       + "\t(default: 100)", "B", 1, "-B <num>"));
 
+    result.add(new Option(
+      "\tWhen reading incrementally from a file, determine the\n"
+        + "\tstructure from a pass over the whole file rather than\n"
+        + "\tfrom the first buffer of rows only.", "reconcile", 0,
+      "-reconcile"));
+
     return result.elements();
   }
 
@@ -701,6 +754,10 @@ public class CSVLoader extends AbstractFileLoader implements BatchConverter,
     result.add("-B");
     result.add("" + getBufferSize());
 
+    if (getReconcileTypes()) {
+      result.add("-reconcile");
+    }
+
     result.add("-E");
     result.add(getEnclosureCharacters());
 
@@ -772,6 +829,8 @@ public class CSVLoader extends AbstractFileLoader implements BatchConverter,
       setBufferSize(buff);
     }
 
+    setReconcileTypes(Utils.getFlag("reconcile", options));
+
     tmpStr = Utils.getOption("E", options);
     if (tmpStr.length() > 0) {
       setEnclosureCharacters(tmpStr);
@@ -823,10 +882,7 @@ public class CSVLoader extends AbstractFileLoader implements BatchConverter,
       // 0);
       m_numBufferedRows = -1;
 
-      m_st = new StreamTokenizer(m_sourceReader);
-      initTokenizer(m_st);
-      m_st.ordinaryChar(m_FieldSeparator.charAt(0));
-      //
+      // carry on with the tokenizer that read the buffer, as it reads ahead
       m_incrementalReader = null;
     }
 
@@ -835,7 +891,7 @@ public class CSVLoader extends AbstractFileLoader implements BatchConverter,
       if (m_incrementalReader != null) {
         current = m_incrementalReader.readInstance(m_structure);
       } else {
-        if (getInstance(m_st) != null) {
+        if (readRow(m_st)) {
           current = makeInstance();
         }
       }
@@ -966,6 +1022,9 @@ public class CSVLoader extends AbstractFileLoader implements BatchConverter,
 
     if (m_structure == null) {
       readHeader();
+      if (m_reconcileTypes && getRetrieval() != BATCH) {
+        reconcileTypes();
+      }
     }
 
     return m_structure;
@@ -987,10 +1046,12 @@ public class CSVLoader extends AbstractFileLoader implements BatchConverter,
         m_structure.attribute(i).setStringValue(Utils.unquote(val.toString()));
       } else if (m_structure.attribute(i).isDate()) {
         String format = m_structure.attribute(i).getDateFormat();
-        SimpleDateFormat sdf = new SimpleDateFormat(format);
+        if (m_formatter == null || !m_formatter.toPattern().equals(format)) {
+          m_formatter = new SimpleDateFormat(format);
+        }
         String dateVal = Utils.unquote(val.toString());
         try {
-          vals[i] = sdf.parse(dateVal).getTime();
+          vals[i] = m_formatter.parse(dateVal).getTime();
         } catch (ParseException e) {
           throw new IOException("Unable to parse date value " + dateVal
             + " using date format " + format + " for date attribute "
@@ -1080,10 +1141,7 @@ public class CSVLoader extends AbstractFileLoader implements BatchConverter,
     // no header row
     StringReader sr = new StringReader(firstRow + "\n");
     // System.out.print(firstRow + "\n");
-    m_st = new StreamTokenizer(sr);
-    initTokenizer(m_st);
-
-    m_st.ordinaryChar(m_FieldSeparator.charAt(0));
+    m_st = newTokenizer(sr);
 
     int attNum = 1;
     StreamTokenizerUtils.getFirstToken(m_st);
@@ -1198,22 +1256,68 @@ public class CSVLoader extends AbstractFileLoader implements BatchConverter,
     // case where there is no header row and we're
     // running in batch mode
     if (m_noHeaderRow && getRetrieval() == BATCH) {
-      StreamTokenizer tempT = new StreamTokenizer(new StringReader(firstRow));
-      initTokenizer(tempT);
-      tempT.ordinaryChar(m_FieldSeparator.charAt(0));
+      StreamTokenizer tempT = newTokenizer(new StringReader(firstRow));
       String checked = getInstance(tempT);
       dumpRow(checked);
     }
 
-    m_st = new StreamTokenizer(m_sourceReader);
-    initTokenizer(m_st);
-    m_st.ordinaryChar(m_FieldSeparator.charAt(0));
+    m_st = newTokenizer(m_sourceReader);
 
     // try and determine a more accurate structure from the first batch
     readData(false || getRetrieval() == BATCH);
     makeStructure();
   }
 
+  /**
+   * Determines the types and nominal values from all rows of the source
+   * file, continuing from those of the first buffer of rows, and makes the
+   * final structure from them. The rows are only scanned, not kept. Does
+   * nothing if the source is not a file.
+   *
+   * @throws IOException if the file can't be read or parsed
+   */
+  protected void reconcileTypes() throws IOException {
+    if (m_sourceFile == null) {
+      return;
+    }
+    String fName = m_sourceFile.getPath();
+    try {
+      if (m_env == null) {
+        m_env = Environment.getSystemWide();
+      }
+      fName = m_env.substitute(fName);
+    } catch (Exception e) {
+      // use the path as it is
+    }
+    File file = new File(fName);
+    if (!file.isFile()) {
+      return;
+    }
+
+    InputStream input = new FileInputStream(file);
+    if (file.getName().endsWith(
+      getFileExtension() + FILE_EXTENSION_COMPRESSED)) {
+      input = new GZIPInputStream(input);
+    }
+    BufferedReader reader = new BufferedReader(new InputStreamReader(input));
+    int rowCount = m_rowCount;
+    try {
+      // the first rows are scanned again, which doesn't change their types
+      m_rowCount = 1;
+      StreamTokenizer tokenizer = newTokenizer(reader);
+      if (!m_noHeaderRow) {
+        skipRow(tokenizer);
+      }
+      while (readRow(tokenizer)) {
+        ;
+      }
+    } finally {
+      reader.close();
+      m_rowCount = rowCount;
+    }
+    makeStructure();
+  }
+
   protected void openTempFiles() throws IOException {
     String tempPrefix = "" + Math.random() + "arffOut";
     m_tempFile = File.createTempFile(tempPrefix, null);
@@ -1249,28 +1353,23 @@ public class CSVLoader extends AbstractFileLoader implements BatchConverter,
   }
 
   /**
-   * Initializes the stream tokenizer.
+   * Creates a tokenizer for the field separator and enclosures.
    *
-   * @param tokenizer the tokenizer to initialize
+   * @param reader the source of the tokens
+   * @return the tokenizer
    */
-  private void initTokenizer(StreamTokenizer tokenizer) {
-    tokenizer.resetSyntax();
-    tokenizer.whitespaceChars(0, (' ' - 1));
-    tokenizer.wordChars(' ', '\u00FF');
-    tokenizer.whitespaceChars(m_FieldSeparator.charAt(0),
-      m_FieldSeparator.charAt(0));
-    // tokenizer.commentChar('%');
-
+  private StreamTokenizer newTokenizer(Reader reader) {
     String[] parts = m_Enclosures.split(",");
-    for (String e : parts) {
-      if (e.length() > 1 || e.length() == 0) {
+    char[] enclosures = new char[parts.length];
+    for (int i = 0; i < parts.length; i++) {
+      if (parts[i].length() > 1 || parts[i].length() == 0) {
         throw new IllegalArgumentException(
           "Enclosures can only be single characters");
       }
-      tokenizer.quoteChar(e.charAt(0));
+      enclosures[i] = parts[i].charAt(0);
     }
 
-    tokenizer.eolIsSignificant(true);
+    return new CSVTokenizer(reader, m_FieldSeparator.charAt(0), enclosures);
   }
 
   /**
@@ -1296,11 +1395,49 @@ public class CSVLoader extends AbstractFileLoader implements BatchConverter,
    */
   private String getInstance(StreamTokenizer tokenizer) throws IOException {
 
+    if (!readRow(tokenizer)) {
+      return null;
+    }
+
+    StringBuilder temp = new StringBuilder();
+    for (Object o : m_current) {
+      temp.append(o.toString()).append(m_FieldSeparator);
+    }
+
+    return temp.substring(0, temp.length() - 1);
+  }
+
+  /**
+   * Reads past a row without parsing its values, e.g. the header row, which
+   * may hold enclosed line breaks like any other row.
+   *
+   * @param tokenizer the tokenizer
+   * @throws IOException if an error occurs
+   */
+  private void skipRow(StreamTokenizer tokenizer) throws IOException {
+
+    StreamTokenizerUtils.getFirstToken(tokenizer);
+    while (tokenizer.ttype != StreamTokenizer.TT_EOL
+      && tokenizer.ttype != StreamTokenizer.TT_EOF) {
+      StreamTokenizerUtils.getToken(tokenizer);
+    }
+  }
+
+  /**
+   * Parses a line of the data set into m_current, with String and nominal
+   * attribute values quoted if necessary, and updates the attribute types.
+   *
+   * @param tokenizer the tokenizer
+   * @return false if the end of the data has been reached
+   * @exception IOException if an error occurs
+   */
+  private boolean readRow(StreamTokenizer tokenizer) throws IOException {
+
     try {
       // Check if end of file reached.
       StreamTokenizerUtils.getFirstToken(tokenizer);
       if (tokenizer.ttype == StreamTokenizer.TT_EOF) {
-        return null;
+        return false;
       }
 
       boolean first = true;
@@ -1373,14 +1510,9 @@ public class CSVLoader extends AbstractFileLoader implements BatchConverter,
       throw new IOException(ex.getMessage() + " Problem encountered on line: "
         + (m_rowCount + 1));
     }
-
-    StringBuilder temp = new StringBuilder();
-    for (Object o : m_current) {
-      temp.append(o.toString()).append(m_FieldSeparator);
-    }
     m_rowCount++;
 
-    return temp.substring(0, temp.length() - 1);
+    return true;
   }
 
   @Override
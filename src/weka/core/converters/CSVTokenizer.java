@@ -0,0 +1,393 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ *    CSVTokenizer.java
+ *
+ */
+
+package weka.core.converters;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StreamTokenizer;
+
+import weka.core.RevisionHandler;
+import weka.core.RevisionUtils;
+
+/**
+ * Tokenizer for CSV files that produces the same tokens as a StreamTokenizer
+ * set up by CSVLoader: characters below a space are whitespace, the field
+ * separator is an ordinary character, the enclosures are quote characters
+ * (with backslash escapes) and all other characters form words. End of line
+ * is significant.<br/>
+ * <br/>
+ * Unlike StreamTokenizer, which reads its source one character at a time,
+ * the tokenizer reads blocks of characters into its own buffer and scans
+ * words within it. The syntax is fixed when it is created, so the methods
+ * of StreamTokenizer that change the syntax have no effect.
+ *
+ * @see CSVLoader
+ */
+public class CSVTokenizer extends StreamTokenizer implements RevisionHandler {
+
+  /** the size of the read buffer */
+  protected static final int BUFFER_SIZE = 1 << 16;
+
+  /** no character has been read ahead */
+  protected static final int NEED_CHAR = Integer.MAX_VALUE;
+
+  /** the last token was an end of line at a '\r', which a '\n' may follow */
+  protected static final int SKIP_LF = Integer.MAX_VALUE - 1;
+
+  /** the type before the first token, as in StreamTokenizer */
+  protected static final int TT_NOTHING = -4;
+
+  /** the source */
+  protected Reader m_Reader;
+
+  /** the read buffer */
+  protected char[] m_Buffer = new char[BUFFER_SIZE];
+
+  /** the position of the next character in the buffer */
+  protected int m_Pos;
+
+  /** the number of characters in the buffer */
+  protected int m_Length;
+
+  /** the character read ahead */
+  protected int m_Peek = NEED_CHAR;
+
+  /** whether the last token has been pushed back */
+  protected boolean m_PushedBack;
+
+  /** the current line */
+  protected int m_LineNo = 1;
+
+  /** the field separator */
+  protected char m_Separator;
+
+  /** the enclosures */
+  protected char[] m_Enclosures;
+
+  /** buffer for the text of tokens */
+  protected char[] m_Token = new char[64];
+
+  /**
+   * Constructor.
+   *
+   * @param reader the source
+   * @param separator the field separator
+   * @param enclosures the characters enclosing quoted values
+   */
+  public CSVTokenizer(Reader reader, char separator, char[] enclosures) {
+    super(reader);
+    m_Reader = reader;
+    m_Separator = separator;
+    // the separator stays an ordinary character
+    StringBuilder quotes = new StringBuilder();
+    for (char e : enclosures) {
+      if (e != separator) {
+        quotes.append(e);
+      }
+    }
+    m_Enclosures = quotes.toString().toCharArray();
+  }
+
+  /**
+   * Whether a character is an enclosure.
+   *
+   * @param c the character
+   * @return true for enclosures
+   */
+  protected boolean isEnclosure(int c) {
+    for (char e : m_Enclosures) {
+      if (c == e) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Whether a character is part of a word.
+   *
+   * @param c the character
+   * @return true for word characters
+   */
+  protected boolean isWordChar(int c) {
+    return c >= ' ' && c != m_Separator && !isEnclosure(c);
+  }
+
+  /**
+   * Whether a character is whitespace, including line terminators.
+   *
+   * @param c the character
+   * @return true for whitespace
+   */
+  protected boolean isWhitespace(int c) {
+    return c >= 0 && c < ' ' && c != m_Separator && !isEnclosure(c);
+  }
+
+  /**
+   * Reads the next character.
+   *
+   * @return the character, or -1 at the end of the source
+   * @throws IOException if the source can't be read
+   */
+  protected int read() throws IOException {
+    if (m_Pos == m_Length) {
+      m_Pos = 0;
+      m_Length = 0;
+      int n;
+      do {
+        n = m_Reader.read(m_Buffer, 0, m_Buffer.length);
+      } while (n == 0);
+      if (n < 0) {
+        return -1;
+      }
+      m_Length = n;
+    }
+    return m_Buffer[m_Pos++];
+  }
+
+  /**
+   * Appends a character to the text of the current token.
+   *
+   * @param i the length of the text so far
+   * @param c the character
+   */
+  protected void append(int i, int c) {
+    if (i == m_Token.length) {
+      char[] token = new char[2 * m_Token.length];
+      System.arraycopy(m_Token, 0, token, 0, i);
+      m_Token = token;
+    }
+    m_Token[i] = (char) c;
+  }
+
+  /**
+   * Parses the next token, setting ttype and sval as StreamTokenizer does.
+   *
+   * @return the type of the token
+   * @throws IOException if the source can't be read
+   */
+  @Override
+  public int nextToken() throws IOException {
+
+    if (m_PushedBack) {
+      m_PushedBack = false;
+      return ttype;
+    }
+    sval = null;
+
+    int c = m_Peek;
+    if (c == SKIP_LF) {
+      c = read();
+      if (c < 0) {
+        return ttype = TT_EOF;
+      }
+      if (c == '\n') {
+        c = NEED_CHAR;
+      }
+    }
+    if (c == NEED_CHAR) {
+      c = read();
+      if (c < 0) {
+        return ttype = TT_EOF;
+      }
+    }
+    ttype = c;
+    m_Peek = NEED_CHAR;
+
+    while (isWhitespace(c)) {
+      if (c == '\r') {
+        m_LineNo++;
+        m_Peek = SKIP_LF;
+        return ttype = TT_EOL;
+      }
+      if (c == '\n') {
+        m_LineNo++;
+        return ttype = TT_EOL;
+      }
+      c = read();
+      if (c < 0) {
+        return ttype = TT_EOF;
+      }
+    }
+
+    if (isWordChar(c)) {
+      int i = 0;
+      append(i++, c);
+      while (true) {
+        // scan the rest of the buffer without going through read()
+        int start = m_Pos;
+        while (m_Pos < m_Length && isWordChar(m_Buffer[m_Pos])) {
+          m_Pos++;
+        }
+        int n = m_Pos - start;
+        if (n > 0) {
+          if (i + n > m_Token.length) {
+            char[] token = new char[Math.max(2 * m_Token.length, i + n)];
+            System.arraycopy(m_Token, 0, token, 0, i);
+            m_Token = token;
+          }
+          System.arraycopy(m_Buffer, start, m_Token, i, n);
+          i += n;
+        }
+        if (m_Pos < m_Length) {
+          break;
+        }
+        c = read();
+        if (c < 0) {
+          break;
+        }
+        if (!isWordChar(c)) {
+          m_Peek = c;
+          break;
+        }
+        append(i++, c);
+      }
+      sval = new String(m_Token, 0, i);
+      return ttype = TT_WORD;
+    }
+
+    if (isEnclosure(c)) {
+      ttype = c;
+      int i = 0;
+      int d = read();
+      while (d >= 0 && d != ttype && d != '\n' && d != '\r') {
+        if (d == '\\') {
+          c = read();
+          int first = c;
+          if (c >= '0' && c <= '7') {
+            c = c - '0';
+            int c2 = read();
+            if ('0' <= c2 && c2 <= '7') {
+              c = (c << 3) + (c2 - '0');
+              c2 = read();
+              if ('0' <= c2 && c2 <= '7' && first <= '3') {
+                c = (c << 3) + (c2 - '0');
+                d = read();
+              } else {
+                d = c2;
+              }
+            } else {
+              d = c2;
+            }
+          } else {
+            switch (c) {
+            case 'a':
+              c = 0x7;
+              break;
+            case 'b':
+              c = '\b';
+              break;
+            case 'f':
+              c = 0xC;
+              break;
+            case 'n':
+              c = '\n';
+              break;
+            case 'r':
+              c = '\r';
+              break;
+            case 't':
+              c = '\t';
+              break;
+            case 'v':
+              c = 0xB;
+              break;
+            }
+            d = read();
+          }
+        } else {
+          c = d;
+          d = read();
+        }
+        append(i++, c);
+      }
+      // an unterminated value ends at the end of the line, which is kept
+      m_Peek = (d == ttype) ? NEED_CHAR : (d < 0 ? NEED_CHAR : d);
+      sval = new String(m_Token, 0, i);
+      return ttype;
+    }
+
+    // the field separator
+    return ttype = c;
+  }
+
+  /**
+   * Causes the next call to nextToken to return the current token again.
+   */
+  @Override
+  public void pushBack() {
+    if (ttype != TT_NOTHING) {
+      m_PushedBack = true;
+    }
+  }
+
+  /**
+   * Returns the current line number.
+   *
+   * @return the line number
+   */
+  @Override
+  public int lineno() {
+    return m_LineNo;
+  }
+
+  /**
+   * Returns a description of the current token and line, in the format of
+   * StreamTokenizer.
+   *
+   * @return the description
+   */
+  @Override
+  public String toString() {
+    String ret;
+    switch (ttype) {
+    case TT_EOF:
+      ret = "EOF";
+      break;
+    case TT_EOL:
+      ret = "EOL";
+      break;
+    case TT_WORD:
+      ret = sval;
+      break;
+    case TT_NOTHING:
+      ret = "NOTHING";
+      break;
+    default:
+      if (isEnclosure(ttype) && sval != null) {
+        ret = sval;
+      } else {
+        ret = "'" + (char) ttype + "'";
+      }
+    }
+    return "Token[" + ret + "], line " + m_LineNo;
+  }
+
+  /**
+   * Returns the revision string.
+   *
+   * @return the revision
+   */
+  @Override
+  public String getRevision() {
+    return RevisionUtils.extract("$Revision$");
+  }
+}
@@ -0,0 +1,859 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ *    ColumnarInstancesLoader.java
+ *
+ */
+
+package weka.core.converters;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+
+import weka.core.Attribute;
+import weka.core.ColumnStore;
+import weka.core.DenseInstance;
+import weka.core.Environment;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.RevisionHandler;
+import weka.core.RevisionUtils;
+import weka.core.Utils;
+
+/**
+ <!-- globalinfo-start -->
+ * Reads a source that contains instances written column by column by
+ * ColumnarInstancesSaver. Files are memory-mapped and columns are only
+ * decoded when they are first used.
+ * <p/>
+ <!-- globalinfo-end -->
+ *
+ * The file is big-endian and laid out as follows:
+ * <pre>
+ * int     magic number 'WBCI', format version
+ * int     number of instances, attributes, class index, rows per block
+ * int     length of the header, followed by the ARFF header in UTF-8
+ * byte    1 if the instances are weighted, followed by one double each
+ * per attribute: byte encoding, long offsets of the values, of the block
+ *         index and of the values of a string attribute (0 if none)
+ * per attribute, each section starting at a multiple of 8:
+ *         the values of all instances, in the attribute's encoding
+ *         the minimum and maximum of each block (NaN if all are missing)
+ *         for string attributes, the number of values, then the length
+ *         and UTF-8 bytes of each
+ * </pre>
+ * Numeric and date values are stored as doubles. Nominal and string values
+ * are stored as the indices of their values, in as few bytes as the number
+ * of values permits, with the largest code standing for a missing value.
+ * Sparse instances are stored dense; relational attributes are not
+ * supported.<br/>
+ * <br/>
+ * The datasets returned by getDataSet() are columnar (see
+ * Instances#setColumnar(boolean)), over a ColumnStore that reads each
+ * column from the file when it is first accessed. A learner that only uses
+ * a few of the attributes, e.g. after Instances#attributeFilter(int[]),
+ * therefore never reads the others. The block index can be used to skip
+ * blocks of instances that can't contain a value of interest.
+ *
+ * @see ColumnarInstancesSaver
+ * @see Loader
+ */
+public class ColumnarInstancesLoader extends AbstractFileLoader implements
+  BatchConverter, IncrementalConverter {
+
+  /** for serialization */
+  static final long serialVersionUID = 4436498931805278946L;
+
+  /** the file extension */
+  public static String FILE_EXTENSION = ".bci";
+
+  /** the magic number at the start of the file */
+  public static final int MAGIC = 0x57424349;
+
+  /** the version of the format */
+  public static final int VERSION = 1;
+
+  /** the number of rows per block of the index */
+  public static final int BLOCK_SIZE = 1 << 16;
+
+  /** the number of bytes before the header */
+  public static final int PREAMBLE_SIZE = 7 * 4;
+
+  /** the number of bytes in the directory per attribute */
+  public static final int DIRECTORY_ENTRY_SIZE = 1 + 3 * 8;
+
+  /** values stored as doubles */
+  public static final byte DOUBLES = 0;
+
+  /** value indices stored in a byte */
+  public static final byte BYTE_CODES = 1;
+
+  /** value indices stored in a short */
+  public static final byte SHORT_CODES = 2;
+
+  /** value indices stored in an int */
+  public static final byte INT_CODES = 3;
+
+  /** the byte code of a missing value */
+  public static final int MISSING_BYTE = 0xFF;
+
+  /** the short code of a missing value */
+  public static final int MISSING_SHORT = 0xFFFF;
+
+  /** Holds the structure (header) of the data set. */
+  protected Instances m_Dataset = null;
+
+  /** the columns of the current source */
+  protected transient ColumnFile m_Columns = null;
+
+  /** the file about to be set as source, which is mapped instead of read */
+  protected transient File m_mappableFile = null;
+
+  /** The current index position for incremental reading */
+  protected int m_IncrementalIndex = 0;
+
+  /**
+   * Reads the sections of a columnar file, from a memory-mapped file or from
+   * a copy in memory of a stream. The sections of each attribute are only
+   * read when they are first needed.
+   */
+  public static class ColumnFile implements ColumnStore.ColumnLoader,
+    RevisionHandler {
+
+    /** the file, null if read from a stream */
+    protected File m_File;
+
+    /** the bytes after the directory, if read from a stream */
+    protected byte[] m_Bytes;
+
+    /** the offset of the first of m_Bytes in the file */
+    protected long m_Base;
+
+    /** the number of instances */
+    protected int m_NumRows;
+
+    /** the number of rows per block */
+    protected int m_BlockSize;
+
+    /** the encoding of each attribute */
+    protected byte[] m_Encodings;
+
+    /** the offset of the values of each attribute */
+    protected long[] m_DataOffsets;
+
+    /** the offset of the block index of each attribute */
+    protected long[] m_IndexOffsets;
+
+    /** the offset of the values of each string attribute */
+    protected long[] m_DictionaryOffsets;
+
+    /** the weights, null if all are 1 */
+    protected double[] m_Weights;
+
+    /** the header, with class index set */
+    protected Instances m_Header;
+
+    /** the values of each attribute, once mapped */
+    protected ByteBuffer[] m_Data;
+
+    /** the block index of each attribute, once mapped */
+    protected ByteBuffer[] m_Index;
+
+    /**
+     * Reads the preamble, header and directory of a columnar file.
+     *
+     * @param in the stream, positioned at the start of the file
+     * @param file the file to map the sections from, or null to read them
+     *          from the rest of the stream
+     * @throws IOException if the source is not a columnar file
+     */
+    public ColumnFile(DataInputStream in, File file)
+      throws IOException {
+
+      if (in.readInt() != MAGIC) {
+        throw new IOException("Not a columnar instances file!");
+      }
+      int version = in.readInt();
+      if (version != VERSION) {
+        throw new IOException("Unsupported version " + version
+          + " of columnar instances file!");
+      }
+      m_NumRows = in.readInt();
+      int numColumns = in.readInt();
+      int classIndex = in.readInt();
+      m_BlockSize = in.readInt();
+      byte[] header = new byte[in.readInt()];
+      in.readFully(header);
+      long pos = PREAMBLE_SIZE + header.length + 1;
+      if (in.readBoolean()) {
+        m_Weights = new double[m_NumRows];
+        for (int i = 0; i < m_NumRows; i++) {
+          m_Weights[i] = in.readDouble();
+        }
+        pos += 8L * m_NumRows;
+      }
+      m_Encodings = new byte[numColumns];
+      m_DataOffsets = new long[numColumns];
+      m_IndexOffsets = new long[numColumns];
+      m_DictionaryOffsets = new long[numColumns];
+      for (int j = 0; j < numColumns; j++) {
+        m_Encodings[j] = in.readByte();
+        m_DataOffsets[j] = in.readLong();
+        m_IndexOffsets[j] = in.readLong();
+        m_DictionaryOffsets[j] = in.readLong();
+      }
+      pos += (long) DIRECTORY_ENTRY_SIZE * numColumns;
+      m_Data = new ByteBuffer[numColumns];
+      m_Index = new ByteBuffer[numColumns];
+
+      if (file != null) {
+        m_File = file;
+      } else {
+        ByteArrayOutputStream rest = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1 << 16];
+        int n;
+        while ((n = in.read(buffer)) > 0) {
+          rest.write(buffer, 0, n);
+        }
+        m_Bytes = rest.toByteArray();
+        m_Base = pos;
+      }
+
+      Instances data = new ArffLoader.ArffReader(new StringReader(new String(
+        header, "UTF-8")), 0).getStructure();
+      if (data.numAttributes() != numColumns) {
+        throw new IOException("Header has " + data.numAttributes()
+          + " attributes instead of " + numColumns + "!");
+      }
+      for (int j = 0; j < numColumns; j++) {
+        if (m_DictionaryOffsets[j] != 0) {
+          readDictionary(j, data.attribute(j));
+        }
+      }
+      data.setClassIndex(classIndex);
+      m_Header = data;
+    }
+
+    /**
+     * Returns a section of the file.
+     *
+     * @param offset the offset of the section in the file
+     * @param length the length of the section
+     * @return the section, positioned at its start
+     * @throws IOException if the section can't be read
+     */
+    protected ByteBuffer region(long offset, long length) throws IOException {
+
+      if (length > Integer.MAX_VALUE) {
+        throw new IOException("Section of " + length
+          + " bytes is too large to map!");
+      }
+      if (m_File == null) {
+        if (offset < m_Base || offset - m_Base + length > m_Bytes.length) {
+          throw new IOException("Columnar instances file is truncated!");
+        }
+        return ByteBuffer.wrap(m_Bytes, (int) (offset - m_Base), (int) length)
+          .slice();
+      }
+      FileInputStream in = new FileInputStream(m_File);
+      try {
+        FileChannel channel = in.getChannel();
+        if (offset + length > channel.size()) {
+          throw new IOException("Columnar instances file is truncated!");
+        }
+        // the mapping stays valid once the channel is closed
+        return channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+      } finally {
+        in.close();
+      }
+    }
+
+    /**
+     * Returns the values of an attribute, in its encoding.
+     *
+     * @param column the attribute's index
+     * @return the values
+     * @throws IOException if they can't be read
+     */
+    protected synchronized ByteBuffer data(int column) throws IOException {
+
+      if (m_Data[column] == null) {
+        m_Data[column] = region(m_DataOffsets[column],
+          (long) width(m_Encodings[column]) * m_NumRows);
+      }
+      return m_Data[column];
+    }
+
+    /**
+     * Returns the block index of an attribute.
+     *
+     * @param column the attribute's index
+     * @return the minimum and maximum of each block
+     * @throws IOException if it can't be read
+     */
+    protected synchronized ByteBuffer index(int column) throws IOException {
+
+      if (m_Index[column] == null) {
+        m_Index[column] =
+          region(m_IndexOffsets[column], 16L * numBlocks());
+      }
+      return m_Index[column];
+    }
+
+    /**
+     * Adds the values of a string attribute to its header.
+     *
+     * @param column the attribute's index
+     * @param att the attribute
+     * @throws IOException if the values can't be read
+     */
+    protected void readDictionary(int column, Attribute att)
+      throws IOException {
+
+      long offset = m_DictionaryOffsets[column];
+      ByteBuffer values = region(offset, sectionEnd(offset) - offset);
+      int numValues = nextLength(values);
+      for (int i = 0; i < numValues; i++) {
+        int length = nextLength(values);
+        if (length > values.remaining()) {
+          throw new IOException("Columnar instances file is truncated!");
+        }
+        byte[] value = new byte[length];
+        values.get(value);
+        att.addStringValue(new String(value, "UTF-8"));
+      }
+    }
+
+    /**
+     * Reads a count or length from a section.
+     *
+     * @param section the section, positioned at the count
+     * @return the count
+     * @throws IOException if the section ends before it or it is negative
+     */
+    protected static int nextLength(ByteBuffer section) throws IOException {
+
+      if (section.remaining() < 4) {
+        throw new IOException("Columnar instances file is truncated!");
+      }
+      int length = section.getInt();
+      if (length < 0) {
+        throw new IOException("Columnar instances file is corrupt!");
+      }
+      return length;
+    }
+
+    /**
+     * Returns the end of a section: the start of the next one, or the end of
+     * the file if it is the last.
+     *
+     * @param offset the offset of the section in the file
+     * @return the offset of the end of the section
+     */
+    protected long sectionEnd(long offset) {
+
+      long end = (m_File == null) ? m_Base + m_Bytes.length : m_File.length();
+      for (int j = 0; j < m_DataOffsets.length; j++) {
+        for (long next : new long[] { m_DataOffsets[j], m_IndexOffsets[j],
+          m_DictionaryOffsets[j] }) {
+          if (next > offset && next < end) {
+            end = next;
+          }
+        }
+      }
+      return end;
+    }
+
+    /**
+     * Returns the header of the file. String attributes hold all their
+     * values.
+     *
+     * @return the header, with class index set
+     */
+    public Instances header() {
+      return m_Header;
+    }
+
+    /**
+     * Returns the number of instances.
+     *
+     * @return the number of instances
+     */
+    public int numRows() {
+      return m_NumRows;
+    }
+
+    /**
+     * Returns the weights of the instances.
+     *
+     * @return the weights, or null if all are 1
+     */
+    public double[] weights() {
+      return m_Weights;
+    }
+
+    /**
+     * Returns the weight of an instance.
+     *
+     * @param row the instance's index
+     * @return the weight
+     */
+    public double weight(int row) {
+      return m_Weights == null ? 1.0 : m_Weights[row];
+    }
+
+    /**
+     * Returns the number of rows per block.
+     *
+     * @return the block size
+     */
+    public int blockSize() {
+      return m_BlockSize;
+    }
+
+    /**
+     * Returns the number of blocks.
+     *
+     * @return the number of blocks
+     */
+    public int numBlocks() {
+      return (m_NumRows + m_BlockSize - 1) / m_BlockSize;
+    }
+
+    /**
+     * Returns the smallest value of an attribute in a block.
+     *
+     * @param column the attribute's index
+     * @param block the block's index
+     * @return the minimum (a value index for nominal and string attributes),
+     *         or NaN if all values in the block are missing
+     * @throws IOException if the index can't be read
+     */
+    public double blockMinimum(int column, int block) throws IOException {
+      return index(column).getDouble(16 * block);
+    }
+
+    /**
+     * Returns the largest value of an attribute in a block.
+     *
+     * @param column the attribute's index
+     * @param block the block's index
+     * @return the maximum (a value index for nominal and string attributes),
+     *         or NaN if all values in the block are missing
+     * @throws IOException if the index can't be read
+     */
+    public double blockMaximum(int column, int block) throws IOException {
+      return index(column).getDouble(16 * block + 8);
+    }
+
+    /**
+     * Decodes a value.
+     *
+     * @param values the values of the attribute
+     * @param encoding the attribute's encoding
+     * @param row the instance's index
+     * @return the value in internal format
+     */
+    protected static double decode(ByteBuffer values, byte encoding, int row) {
+
+      int code;
+      switch (encoding) {
+      case BYTE_CODES:
+        code = values.get(row) & 0xFF;
+        return code == MISSING_BYTE ? Utils.missingValue() : code;
+      case SHORT_CODES:
+        code = values.getShort(2 * row) & 0xFFFF;
+        return code == MISSING_SHORT ? Utils.missingValue() : code;
+      case INT_CODES:
+        code = values.getInt(4 * row);
+        return code == -1 ? Utils.missingValue() : code;
+      default:
+        return values.getDouble(8 * row);
+      }
+    }
+
+    /**
+     * Returns a value.
+     *
+     * @param column the attribute's index
+     * @param row the instance's index
+     * @return the value in internal format
+     * @throws IOException if the values can't be read
+     */
+    public double value(int column, int row) throws IOException {
+      return decode(data(column), m_Encodings[column], row);
+    }
+
+    /**
+     * Reads and decodes the values of an attribute.
+     *
+     * @param column the attribute's index
+     * @return the values, by instance
+     * @throws IllegalStateException if the values can't be read
+     */
+    @Override
+    public double[] loadColumn(int column) {
+
+      ByteBuffer values;
+      try {
+        values = data(column);
+      } catch (IOException e) {
+        throw new IllegalStateException("Can't read attribute " + column
+          + " from columnar instances file: " + e.getMessage(), e);
+      }
+      double[] result = new double[m_NumRows];
+      byte encoding = m_Encodings[column];
+      if (encoding == DOUBLES) {
+        values.duplicate().asDoubleBuffer().get(result);
+      } else {
+        for (int i = 0; i < m_NumRows; i++) {
+          result[i] = decode(values, encoding, i);
+        }
+      }
+      return result;
+    }
+
+    /**
+     * Returns the revision string.
+     *
+     * @return the revision
+     */
+    @Override
+    public String getRevision() {
+      return RevisionUtils.extract("$Revision$");
+    }
+  }
+
+  /**
+   * Returns the encoding used for the values of an attribute.
+   *
+   * @param att the attribute
+   * @return the encoding
+   */
+  public static byte encoding(Attribute att) {
+
+    if (!att.isNominal() && !att.isString()) {
+      return DOUBLES;
+    }
+    if (att.numValues() < MISSING_BYTE) {
+      return BYTE_CODES;
+    }
+    if (att.numValues() < MISSING_SHORT) {
+      return SHORT_CODES;
+    }
+    return INT_CODES;
+  }
+
+  /**
+   * Returns the number of bytes per value of an encoding.
+   *
+   * @param encoding the encoding
+   * @return the number of bytes
+   */
+  public static int width(byte encoding) {
+
+    switch (encoding) {
+    case BYTE_CODES:
+      return 1;
+    case SHORT_CODES:
+      return 2;
+    case INT_CODES:
+      return 4;
+    default:
+      return 8;
+    }
+  }
+
+  /**
+   * Returns a string describing this object
+   *
+   * @return a description of the classifier suitable for displaying in the
+   *         explorer/experimenter gui
+   */
+  public String globalInfo() {
+    return "Reads a source that contains instances written column by column "
+      + "by ColumnarInstancesSaver. Files are memory-mapped and columns are "
+      + "only decoded when they are first used.";
+  }
+
+  /** Resets the Loader ready to read a new data set */
+  @Override
+  public void reset() {
+
+    m_Dataset = null;
+    m_Columns = null;
+    m_IncrementalIndex = 0;
+  }
+
+  /**
+   * Get the file extension used for columnar files
+   *
+   * @return the file extension
+   */
+  @Override
+  public String getFileExtension() {
+    return FILE_EXTENSION;
+  }
+
+  /**
+   * Gets all the file extensions used for this type of file
+   *
+   * @return the file extensions
+   */
+  @Override
+  public String[] getFileExtensions() {
+    return new String[] { getFileExtension() };
+  }
+
+  /**
+   * Returns a description of the file type.
+   *
+   * @return a short file description
+   */
+  @Override
+  public String getFileDescription() {
+    return "Binary columnar instances";
+  }
+
+  /**
+   * Resets the Loader object and sets the source of the data set to be the
+   * supplied File object. Uncompressed files are memory-mapped rather than
+   * read.
+   *
+   * @param file the source file.
+   * @throws IOException if an error occurs
+   */
+  @Override
+  public void setSource(File file) throws IOException {
+
+    if (file != null) {
+      String fName = file.getPath();
+      try {
+        if (m_env == null) {
+          m_env = Environment.getSystemWide();
+        }
+        fName = m_env.substitute(fName);
+      } catch (Exception e) {
+        // read from a stream like any other source
+      }
+      File source = new File(fName);
+      if (source.isFile() && !fName.endsWith(FILE_EXTENSION_COMPRESSED)) {
+        m_mappableFile = source;
+      }
+    }
+    try {
+      super.setSource(file);
+    } finally {
+      m_mappableFile = null;
+    }
+  }
+
+  /**
+   * Resets the Loader object and sets the source of the data set to be the
+   * supplied InputStream. Only the header is read from a stream opened on a
+   * file being set as source; otherwise the whole stream is read into memory.
+   *
+   * @param in the source InputStream.
+   * @throws IOException if there is a problem with IO
+   */
+  @Override
+  public void setSource(InputStream in) throws IOException {
+
+    reset();
+    DataInputStream data = new DataInputStream(new BufferedInputStream(in));
+    try {
+      m_Columns = new ColumnFile(data, m_mappableFile);
+      m_Dataset = m_Columns.header();
+    } finally {
+      data.close();
+    }
+  }
+
+  /**
+   * Determines and returns (if possible) the structure (internally the
+   * header) of the data set as an empty set of instances.
+   *
+   * @return the structure of the data set as an empty set of Instances
+   * @throws IOException if an error occurs
+   */
+  @Override
+  public Instances getStructure() throws IOException {
+
+    if (m_Dataset == null) {
+      throw new IOException("No source has been specified");
+    }
+
+    return new Instances(m_Dataset, 0);
+  }
+
+  /**
+   * Return the full data set, as a columnar dataset whose columns are read
+   * when they are first used.
+   *
+   * @return the data set
+   * @throws IOException if there is no source
+   */
+  @Override
+  public Instances getDataSet() throws IOException {
+
+    if (m_Dataset == null) {
+      throw new IOException("No source has been specified");
+    }
+
+    Instances result = new Instances(m_Dataset, new ColumnStore(
+      m_Dataset.numAttributes(), m_Columns.numRows(), m_Columns),
+      m_Columns.weights());
+    result.setClassIndex(m_Dataset.classIndex());
+    return result;
+  }
+
+  /**
+   * Read the data set incrementally---get the next instance in the data set
+   * or returns null if there are no more instances to get.
+   *
+   * @param structure ignored
+   * @return the next instance in the data set as an Instance object or null
+   *         if there are no more instances to be read
+   * @throws IOException if there is an error reading the values
+   */
+  @Override
+  public Instance getNextInstance(Instances structure) throws IOException {
+
+    if (m_Dataset == null) {
+      throw new IOException("No source has been specified");
+    }
+    if (m_IncrementalIndex == m_Columns.numRows()) {
+      return null;
+    }
+
+    int row = m_IncrementalIndex++;
+    double[] values = new double[m_Dataset.numAttributes()];
+    for (int j = 0; j < values.length; j++) {
+      values[j] = m_Columns.value(j, row);
+    }
+    Instance result = new DenseInstance(m_Columns.weight(row), values);
+    result.setDataset(m_Dataset);
+    return result;
+  }
+
+  /**
+   * Returns the number of instances per block of the index.
+   *
+   * @return the block size
+   * @throws IOException if there is no source
+   */
+  public int getBlockSize() throws IOException {
+
+    if (m_Columns == null) {
+      throw new IOException("No source has been specified");
+    }
+    return m_Columns.blockSize();
+  }
+
+  /**
+   * Returns the smallest value of an attribute among the instances of a
+   * block, a value index for nominal and string attributes.
+   *
+   * @param att the attribute's index
+   * @param block the block's index
+   * @return the minimum, or NaN if all values in the block are missing
+   * @throws IOException if there is no source or the index can't be read
+   */
+  public double getBlockMinimum(int att, int block) throws IOException {
+
+    if (m_Columns == null) {
+      throw new IOException("No source has been specified");
+    }
+    return m_Columns.blockMinimum(att, block);
+  }
+
+  /**
+   * Returns the largest value of an attribute among the instances of a
+   * block, a value index for nominal and string attributes.
+   *
+   * @param att the attribute's index
+   * @param block the block's index
+   * @return the maximum, or NaN if all values in the block are missing
+   * @throws IOException if there is no source or the index can't be read
+   */
+  public double getBlockMaximum(int att, int block) throws IOException {
+
+    if (m_Columns == null) {
+      throw new IOException("No source has been specified");
+    }
+    return m_Columns.blockMaximum(att, block);
+  }
+
+  /**
+   * Returns the blocks that may contain instances whose value of an attribute
+   * lies in a range. Block b holds instances b * getBlockSize() up to (but
+   * excluding) (b + 1) * getBlockSize().
+   *
+   * @param att the attribute's index
+   * @param lower the lower end of the range
+   * @param upper the upper end of the range
+   * @return the indices of the blocks, in ascending order
+   * @throws IOException if there is no source or the index can't be read
+   */
+  public int[] blocksInRange(int att, double lower, double upper)
+    throws IOException {
+
+    if (m_Columns == null) {
+      throw new IOException("No source has been specified");
+    }
+    ArrayList<Integer> blocks = new ArrayList<Integer>();
+    for (int b = 0; b < m_Columns.numBlocks(); b++) {
+      double min = m_Columns.blockMinimum(att, b);
+      double max = m_Columns.blockMaximum(att, b);
+      if (!Double.isNaN(min) && min <= upper && max >= lower) {
+        blocks.add(b);
+      }
+    }
+    int[] result = new int[blocks.size()];
+    for (int i = 0; i < result.length; i++) {
+      result[i] = blocks.get(i);
+    }
+    return result;
+  }
+
+  /**
+   * Returns the revision string.
+   *
+   * @return the revision
+   */
+  @Override
+  public String getRevision() {
+    return RevisionUtils.extract("$Revision$");
+  }
+
+  /**
+   * Main method.
+   *
+   * @param args should contain the name of an input file.
+   */
+  public static void main(String[] args) {
+    runFileLoader(new ColumnarInstancesLoader(), args);
+  }
+}
@@ -0,0 +1,391 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ *    ColumnarInstancesSaver.java
+ *
+ */
+
+package weka.core.converters;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import weka.core.Attribute;
+import weka.core.Capabilities;
+import weka.core.Capabilities.Capability;
+import weka.core.Instances;
+import weka.core.RevisionUtils;
+import weka.core.Utils;
+
+/**
+ <!-- globalinfo-start -->
+ * Writes the instances column by column to a binary file with extension bci,
+ * which ColumnarInstancesLoader memory-maps and loads lazily.
+ * <p/>
+ <!-- globalinfo-end -->
+ *
+ <!-- options-start -->
+ * Valid options are: <p/>
+ *
+ * <pre> -i &lt;the input file&gt;
+ * The input file</pre>
+ *
+ * <pre> -o &lt;the output file&gt;
+ * The output file</pre>
+ *
+ <!-- options-end -->
+ *
+ * @see ColumnarInstancesLoader
+ * @see Saver
+ */
+public class ColumnarInstancesSaver extends AbstractFileSaver implements
+  BatchConverter {
+
+  /** for serialization. */
+  static final long serialVersionUID = -2978493154208352270L;
+
+  /** the output stream. */
+  protected DataOutputStream m_dataStream;
+
+  /** Constructor. */
+  public ColumnarInstancesSaver() {
+    resetOptions();
+  }
+
+  /**
+   * Returns a string describing this Saver.
+   *
+   * @return a description of the Saver suitable for displaying in the
+   *         explorer/experimenter gui
+   */
+  public String globalInfo() {
+    return "Writes the instances column by column to a binary file with "
+      + "extension bci, which ColumnarInstancesLoader memory-maps and loads "
+      + "lazily.";
+  }
+
+  /**
+   * Returns a description of the file type.
+   *
+   * @return a short file description
+   */
+  @Override
+  public String getFileDescription() {
+    return "Binary columnar instances";
+  }
+
+  /**
+   * Resets the Saver.
+   */
+  @Override
+  public void resetOptions() {
+    super.resetOptions();
+    setFileExtension(ColumnarInstancesLoader.FILE_EXTENSION);
+  }
+
+  /**
+   * Returns the Capabilities of this saver.
+   *
+   * @return the capabilities of this object
+   * @see Capabilities
+   */
+  @Override
+  public Capabilities getCapabilities() {
+    Capabilities result = super.getCapabilities();
+
+    // attributes
+    result.enable(Capability.NOMINAL_ATTRIBUTES);
+    result.enable(Capability.NUMERIC_ATTRIBUTES);
+    result.enable(Capability.DATE_ATTRIBUTES);
+    result.enable(Capability.STRING_ATTRIBUTES);
+    result.enable(Capability.MISSING_VALUES);
+
+    // class
+    result.enable(Capability.NOMINAL_CLASS);
+    result.enable(Capability.NUMERIC_CLASS);
+    result.enable(Capability.DATE_CLASS);
+    result.enable(Capability.STRING_CLASS);
+    result.enable(Capability.MISSING_CLASS_VALUES);
+    result.enable(Capability.NO_CLASS);
+
+    return result;
+  }
+
+  /**
+   * Resets the writer, setting writer and data stream to null.
+   */
+  @Override
+  public void resetWriter() {
+    super.resetWriter();
+    m_dataStream = null;
+  }
+
+  /**
+   * Sets the destination output stream.
+   *
+   * @param output the output stream.
+   * @throws IOException throws an IOException if destination cannot be set
+   */
+  @Override
+  public void setDestination(OutputStream output) throws IOException {
+    super.setDestination(output);
+    m_dataStream = new DataOutputStream(new BufferedOutputStream(output));
+  }
+
+  /**
+   * Writes a Batch of instances.
+   *
+   * @throws IOException throws IOException if saving in batch mode is not
+   *           possible
+   */
+  @Override
+  public void writeBatch() throws IOException {
+    if (getRetrieval() == INCREMENTAL) {
+      throw new IOException("Batch and incremental saving cannot be mixed.");
+    }
+    if (getInstances() == null) {
+      throw new IOException("No instances to save");
+    }
+    if (getInstances().checkForAttributeType(Attribute.RELATIONAL)) {
+      throw new IOException("Relational attributes can't be saved in "
+        + getFileDescription().toLowerCase() + "!");
+    }
+
+    setRetrieval(BATCH);
+
+    if (m_dataStream == null) {
+      throw new IOException("No output for the columns.");
+    }
+
+    setWriteMode(WRITE);
+    write(getInstances(), m_dataStream);
+    m_dataStream.flush();
+    m_dataStream.close();
+    setWriteMode(WAIT);
+    resetWriter();
+    setWriteMode(CANCEL);
+  }
+
+  /**
+   * Writes instances in the columnar format. The layout is described in
+   * ColumnarInstancesLoader.
+   *
+   * @param data the instances
+   * @param out the stream to write to
+   * @throws IOException if writing fails
+   */
+  public static void write(Instances data, DataOutputStream out)
+    throws IOException {
+
+    int numRows = data.numInstances();
+    int numColumns = data.numAttributes();
+    int blockSize = ColumnarInstancesLoader.BLOCK_SIZE;
+    int numBlocks = (numRows + blockSize - 1) / blockSize;
+    byte[] header = new Instances(data, 0).stringFreeStructure().toString()
+      .getBytes("UTF-8");
+
+    boolean weighted = false;
+    for (int i = 0; i < numRows && !weighted; i++) {
+      weighted = data.instance(i).weight() != 1.0;
+    }
+
+    // work out where everything goes
+    byte[] encodings = new byte[numColumns];
+    byte[][] dictionaries = new byte[numColumns][];
+    long[] dataOffsets = new long[numColumns];
+    long[] indexOffsets = new long[numColumns];
+    long[] dictionaryOffsets = new long[numColumns];
+    long start = ColumnarInstancesLoader.PREAMBLE_SIZE + header.length + 1
+      + (weighted ? 8L * numRows : 0)
+      + (long) ColumnarInstancesLoader.DIRECTORY_ENTRY_SIZE * numColumns;
+    long pos = start;
+    for (int j = 0; j < numColumns; j++) {
+      Attribute att = data.attribute(j);
+      encodings[j] = ColumnarInstancesLoader.encoding(att);
+      if (att.isString()) {
+        dictionaries[j] = dictionary(att);
+      }
+      pos = align(pos);
+      dataOffsets[j] = pos;
+      pos += (long) ColumnarInstancesLoader.width(encodings[j]) * numRows;
+      pos = align(pos);
+      indexOffsets[j] = pos;
+      pos += 16L * numBlocks;
+      if (dictionaries[j] != null) {
+        dictionaryOffsets[j] = pos;
+        pos += dictionaries[j].length;
+      }
+    }
+
+    out.writeInt(ColumnarInstancesLoader.MAGIC);
+    out.writeInt(ColumnarInstancesLoader.VERSION);
+    out.writeInt(numRows);
+    out.writeInt(numColumns);
+    out.writeInt(data.classIndex());
+    out.writeInt(blockSize);
+    out.writeInt(header.length);
+    out.write(header);
+    out.writeBoolean(weighted);
+    if (weighted) {
+      for (int i = 0; i < numRows; i++) {
+        out.writeDouble(data.instance(i).weight());
+      }
+    }
+    for (int j = 0; j < numColumns; j++) {
+      out.writeByte(encodings[j]);
+      out.writeLong(dataOffsets[j]);
+      out.writeLong(indexOffsets[j]);
+      out.writeLong(dictionaryOffsets[j]);
+    }
+
+    pos = start;
+    double[] values = new double[numRows];
+    for (int j = 0; j < numColumns; j++) {
+      for (int i = 0; i < numRows; i++) {
+        values[i] = data.instance(i).value(j);
+      }
+      pos = pad(out, pos, dataOffsets[j]);
+      for (int i = 0; i < numRows; i++) {
+        writeValue(out, encodings[j], values[i]);
+      }
+      pos += (long) ColumnarInstancesLoader.width(encodings[j]) * numRows;
+
+      pos = pad(out, pos, indexOffsets[j]);
+      for (int b = 0; b < numBlocks; b++) {
+        double min = Double.NaN;
+        double max = Double.NaN;
+        for (int i = b * blockSize; i < Math.min(numRows, (b + 1) * blockSize); i++) {
+          if (!Utils.isMissingValue(values[i])) {
+            if (Double.isNaN(min) || values[i] < min) {
+              min = values[i];
+            }
+            if (Double.isNaN(max) || values[i] > max) {
+              max = values[i];
+            }
+          }
+        }
+        out.writeDouble(min);
+        out.writeDouble(max);
+      }
+      pos += 16L * numBlocks;
+
+      if (dictionaries[j] != null) {
+        out.write(dictionaries[j]);
+        pos += dictionaries[j].length;
+      }
+    }
+  }
+
+  /**
+   * Writes a value in a column's encoding.
+   *
+   * @param out the stream
+   * @param encoding the encoding
+   * @param value the value
+   * @throws IOException if writing fails
+   */
+  protected static void writeValue(DataOutputStream out, byte encoding,
+    double value) throws IOException {
+
+    boolean missing = Utils.isMissingValue(value);
+    switch (encoding) {
+    case ColumnarInstancesLoader.BYTE_CODES:
+      out.writeByte(missing ? ColumnarInstancesLoader.MISSING_BYTE : (int) value);
+      break;
+    case ColumnarInstancesLoader.SHORT_CODES:
+      out.writeShort(missing ? ColumnarInstancesLoader.MISSING_SHORT : (int) value);
+      break;
+    case ColumnarInstancesLoader.INT_CODES:
+      out.writeInt(missing ? -1 : (int) value);
+      break;
+    default:
+      out.writeDouble(value);
+    }
+  }
+
+  /**
+   * Encodes the values of a string attribute: their number, then the length
+   * and UTF-8 bytes of each value.
+   *
+   * @param att the attribute
+   * @return the encoded values
+   * @throws IOException if encoding fails
+   */
+  protected static byte[] dictionary(Attribute att) throws IOException {
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    out.writeInt(att.numValues());
+    for (int i = 0; i < att.numValues(); i++) {
+      byte[] value = att.value(i).getBytes("UTF-8");
+      out.writeInt(value.length);
+      out.write(value);
+    }
+    out.flush();
+    return bytes.toByteArray();
+  }
+
+  /**
+   * Rounds a position up to a multiple of 8.
+   *
+   * @param pos the position
+   * @return the aligned position
+   */
+  protected static long align(long pos) {
+    return (pos + 7) & ~7L;
+  }
+
+  /**
+   * Writes zeros up to a position.
+   *
+   * @param out the stream
+   * @param pos the current position
+   * @param target the position to pad to
+   * @return the target position
+   * @throws IOException if writing fails
+   */
+  protected static long pad(DataOutputStream out, long pos, long target)
+    throws IOException {
+
+    while (pos < target) {
+      out.writeByte(0);
+      pos++;
+    }
+    return pos;
+  }
+
+  /**
+   * Returns the revision string.
+   *
+   * @return the revision
+   */
+  @Override
+  public String getRevision() {
+    return RevisionUtils.extract("$Revision$");
+  }
+
+  /**
+   * Main method.
+   *
+   * @param args should contain the options of a Saver.
+   */
+  public static void main(String[] args) {
+    runFileSaver(new ColumnarInstancesSaver(), args);
+  }
+}
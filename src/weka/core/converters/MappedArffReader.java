@@ -0,0 +1,972 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ *    MappedArffReader.java
+ *
+ */
+
+package weka.core.converters;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import weka.core.Attribute;
+import weka.core.DenseInstance;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.RevisionHandler;
+import weka.core.RevisionUtils;
+import weka.core.SparseInstance;
+import weka.core.Utils;
+import weka.core.converters.ArffLoader.ArffReader;
+
+/**
+ * Reads the data section of an ARFF file from a memory-mapped buffer, for
+ * loading whole files faster than ArffReader does with its StreamTokenizer.
+ * The bytes are tokenized directly, following the rules of the tokenizer
+ * set up by ArffReader, and numbers are decoded without creating strings
+ * where this gives the same double as Double.valueOf. Large data sections
+ * are split at line boundaries into chunks that are parsed in parallel.<br/>
+ * <br/>
+ * The header is not parsed here: the structure read by ArffReader is passed
+ * in. Whenever the data contain something the reader can't be sure to turn
+ * into exactly the instances ArffReader would produce, including anything
+ * ArffReader reports as an error, <code>readData</code> returns null and the
+ * file should be read with ArffReader instead. This is also the case for
+ * headers with string or relational attributes, whose values are added to
+ * the header as they are read, and for charsets in which the bytes of
+ * delimiters can occur inside other characters.
+ *
+ * @see ArffLoader
+ */
+public class MappedArffReader implements RevisionHandler {
+
+  /** data sections smaller than this are not split */
+  public static final int MIN_CHUNK_SIZE = 1 << 20;
+
+  /** the charsets the bytes of which can be tokenized directly */
+  protected static final List<String> ASCII_COMPATIBLE = Arrays.asList(
+    "UTF-8", "US-ASCII", "ISO-8859-1", "ISO-8859-15", "windows-1252");
+
+  /** nominal attributes with more values are looked up by string */
+  protected static final int MAX_BYTE_LOOKUP = 16;
+
+  /** exactly representable powers of ten */
+  protected static final double[] POWERS_OF_TEN = new double[23];
+
+  static {
+    POWERS_OF_TEN[0] = 1;
+    for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+      POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+    }
+  }
+
+  /** token types */
+  protected static final int TT_EOL = 0;
+  protected static final int TT_EOF = 1;
+  protected static final int TT_WORD = 2;
+  protected static final int TT_QUOTED = 3;
+  protected static final int TT_OPEN = 4;
+  protected static final int TT_CLOSE = 5;
+
+  /**
+   * Thrown when the data can't be read exactly as ArffReader reads it.
+   */
+  protected static class Unsupported extends Exception {
+
+    /** for serialization */
+    private static final long serialVersionUID = 4216794528717473906L;
+  }
+
+  /** the file */
+  protected File m_File;
+
+  /** the number of chunks to parse in parallel */
+  protected int m_NumThreads;
+
+  /** the charset the file is read in */
+  protected Charset m_Charset = Charset.defaultCharset();
+
+  /**
+   * Constructor.
+   *
+   * @param file the ARFF file
+   * @param numThreads the number of chunks to parse in parallel
+   */
+  public MappedArffReader(File file, int numThreads) {
+    m_File = file;
+    m_NumThreads = Math.max(1, numThreads);
+  }
+
+  /**
+   * Reads the data section of the file.
+   *
+   * @param structure the header, as read by ArffReader
+   * @return the data, or null if the file has to be read with ArffReader
+   * @throws IOException if the file can't be read
+   */
+  public Instances readData(Instances structure) throws IOException {
+
+    if (!ASCII_COMPATIBLE.contains(m_Charset.name())
+      || structure.checkForStringAttributes()
+      || structure.checkForAttributeType(Attribute.RELATIONAL)) {
+      return null;
+    }
+    ByteBuffer buffer;
+    FileChannel channel = FileChannel.open(m_File.toPath(),
+      StandardOpenOption.READ);
+    try {
+      if (channel.size() > Integer.MAX_VALUE) {
+        return null;
+      }
+      buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    } finally {
+      channel.close();
+    }
+    int start = dataStart(new Chunk(buffer.duplicate(), structure, m_Charset,
+      0, buffer.limit()));
+    if (start < 0) {
+      return null;
+    }
+
+    // dates are parsed with the attribute's SimpleDateFormat, which can't be
+    // shared between threads
+    int numChunks = Math.min(m_NumThreads,
+      Math.max(1, (buffer.limit() - start) / MIN_CHUNK_SIZE));
+    if (structure.checkForAttributeType(Attribute.DATE)) {
+      numChunks = 1;
+    }
+    Chunk[] chunks = parse(buffer, structure, start, numChunks);
+    if (chunks == null) {
+      // a row ran across a chunk boundary
+      chunks = parse(buffer, structure, start, 1);
+    }
+    if (chunks == null) {
+      return null;
+    }
+
+    int numRows = 0;
+    for (Chunk chunk : chunks) {
+      if (chunk.m_Rows == null) {
+        return null;
+      }
+      numRows += chunk.m_Rows.size();
+    }
+    Instances result = new Instances(structure, numRows);
+    for (Chunk chunk : chunks) {
+      for (Instance row : chunk.m_Rows) {
+        result.add(row);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Parses the data section in chunks.
+   *
+   * @param buffer the file
+   * @param structure the header
+   * @param start the start of the data section
+   * @param numChunks the number of chunks
+   * @return the parsed chunks, or null if a row ran across a chunk boundary
+   * @throws IOException if a chunk fails unexpectedly
+   */
+  protected Chunk[] parse(ByteBuffer buffer, Instances structure, int start,
+    int numChunks) throws IOException {
+
+    int[] bounds = new int[numChunks + 1];
+    bounds[0] = start;
+    bounds[numChunks] = buffer.limit();
+    for (int i = 1; i < numChunks; i++) {
+      bounds[i] = lineStart(buffer,
+        Math.max(bounds[i - 1], start + (int) ((long) (buffer.limit() - start) * i / numChunks)));
+    }
+    Chunk[] chunks = new Chunk[numChunks];
+    for (int i = 0; i < numChunks; i++) {
+      chunks[i] = new Chunk(buffer.duplicate(), structure, m_Charset,
+        bounds[i], bounds[i + 1]);
+    }
+
+    if (numChunks == 1) {
+      chunks[0].call();
+    } else {
+      ExecutorService pool = Executors.newFixedThreadPool(numChunks);
+      try {
+        List<Future<Chunk>> results = new ArrayList<Future<Chunk>>();
+        for (Chunk chunk : chunks) {
+          results.add(pool.submit(chunk));
+        }
+        for (Future<Chunk> result : results) {
+          try {
+            result.get();
+          } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+          } catch (InterruptedException e) {
+            throw new IOException(e);
+          }
+        }
+      } finally {
+        pool.shutdownNow();
+      }
+    }
+
+    for (int i = 0; i < numChunks - 1; i++) {
+      if (chunks[i].m_End > bounds[i + 1]) {
+        return null;
+      }
+    }
+    return chunks;
+  }
+
+  /**
+   * Returns the position after the @data keyword, which ArffReader expects
+   * as the first token of a line after the attribute declarations.
+   *
+   * @param tokens a chunk spanning the whole file
+   * @return the position, or -1 if there is no such line
+   */
+  protected static int dataStart(Chunk tokens) {
+
+    boolean lineStart = true;
+    tokens.m_Pos = 0;
+    while (true) {
+      tokens.nextToken();
+      if (tokens.m_Type == TT_EOF) {
+        return -1;
+      }
+      if (tokens.m_Type == TT_EOL) {
+        lineStart = true;
+        continue;
+      }
+      if (lineStart && (tokens.m_Type == TT_WORD || tokens.m_Type == TT_QUOTED)
+        && Instances.ARFF_DATA.equalsIgnoreCase(tokens.tokenString())) {
+        return tokens.m_Pos;
+      }
+      lineStart = false;
+    }
+  }
+
+  /**
+   * Returns the start of the line following the given position, or the
+   * position if a line starts there.
+   *
+   * @param buffer the file
+   * @param pos the position
+   * @return the start of the line
+   */
+  protected static int lineStart(ByteBuffer buffer, int pos) {
+
+    int limit = buffer.limit();
+    while (pos < limit && !isEOL(buffer.get(pos - 1))) {
+      pos++;
+    }
+    if (pos < limit && buffer.get(pos - 1) == '\r' && buffer.get(pos) == '\n') {
+      pos++;
+    }
+    return pos;
+  }
+
+  /**
+   * Whether a byte separates tokens on a line, as whitespace or the field
+   * separator.
+   *
+   * @param b the byte
+   * @return true for separators
+   */
+  protected static boolean isSpace(byte b) {
+    return (b >= 0 && b <= ' ' && b != '\n' && b != '\r') || b == ',';
+  }
+
+  /**
+   * Whether a byte ends a line.
+   *
+   * @param b the byte
+   * @return true for line terminators
+   */
+  protected static boolean isEOL(byte b) {
+    return b == '\n' || b == '\r';
+  }
+
+  /**
+   * Whether a byte is part of a word token. All bytes of non-ASCII
+   * characters are.
+   *
+   * @param b the byte
+   * @return true for word bytes
+   */
+  protected static boolean isWord(byte b) {
+    return b < 0
+      || (b > ' ' && b != ',' && b != '%' && b != '\'' && b != '"' && b != '{' && b != '}');
+  }
+
+  /**
+   * Parses the rows that start within a range of the data section.
+   */
+  protected static class Chunk implements Callable<Chunk> {
+
+    /** the file */
+    protected ByteBuffer m_Buffer;
+
+    /** the header */
+    protected Instances m_Structure;
+
+    /** the charset */
+    protected Charset m_Charset;
+
+    /** the attribute types */
+    protected int[] m_Types;
+
+    /** the encoded values of nominal attributes, if few enough */
+    protected byte[][][] m_NominalBytes;
+
+    /** the start of the range */
+    protected int m_Start;
+
+    /** the end of the range; the last row may extend beyond it */
+    protected int m_Limit;
+
+    /** the position after the last row */
+    protected int m_End;
+
+    /** the current position */
+    protected int m_Pos;
+
+    /** the type, start and end of the current token */
+    protected int m_Type;
+    protected int m_TokenStart;
+    protected int m_TokenEnd;
+
+    /** whether the current quoted token contains escapes */
+    protected boolean m_Escaped;
+
+    /** buffer for decoding tokens */
+    protected byte[] m_Bytes = new byte[64];
+
+    /** buffers for sparse rows */
+    protected double[] m_Values;
+    protected int[] m_Indices;
+
+    /** the rows, or null if the chunk can't be read exactly */
+    protected ArrayList<Instance> m_Rows;
+
+    /**
+     * Constructor.
+     *
+     * @param buffer the file
+     * @param structure the header
+     * @param charset the charset
+     * @param start the start of the range
+     * @param limit the end of the range
+     */
+    public Chunk(ByteBuffer buffer, Instances structure, Charset charset,
+      int start, int limit) {
+
+      m_Buffer = buffer;
+      m_Structure = structure;
+      m_Charset = charset;
+      m_Start = start;
+      m_Limit = limit;
+      int n = structure.numAttributes();
+      m_Types = new int[n];
+      m_NominalBytes = new byte[n][][];
+      for (int i = 0; i < n; i++) {
+        Attribute att = structure.attribute(i);
+        m_Types[i] = att.type();
+        if (att.isNominal() && att.numValues() <= MAX_BYTE_LOOKUP) {
+          m_NominalBytes[i] = new byte[att.numValues()][];
+          for (int j = 0; j < att.numValues(); j++) {
+            byte[] bytes = att.value(j).getBytes(charset);
+            if (!new String(bytes, charset).equals(att.value(j))) {
+              // not representable in the charset
+              m_NominalBytes[i] = null;
+              break;
+            }
+            m_NominalBytes[i][j] = bytes;
+          }
+        }
+      }
+      m_Values = new double[n];
+      m_Indices = new int[n];
+    }
+
+    /**
+     * Parses the rows.
+     *
+     * @return this chunk
+     */
+    @Override
+    public Chunk call() {
+
+      ArrayList<Instance> rows = new ArrayList<Instance>();
+      m_Pos = m_Start;
+      m_End = m_Start;
+      try {
+        while (true) {
+          nextToken();
+          while (m_Type == TT_EOL) {
+            nextToken();
+          }
+          if (m_Type == TT_EOF || m_TokenStart >= m_Limit) {
+            break;
+          }
+          rows.add(m_Type == TT_OPEN ? sparseRow() : denseRow());
+          m_End = m_Pos;
+        }
+        m_Rows = rows;
+      } catch (Unsupported e) {
+        m_Rows = null;
+      }
+      return this;
+    }
+
+    /**
+     * Parses a dense row, the first token of which has been read.
+     *
+     * @return the row
+     * @throws Unsupported if the row can't be read exactly
+     */
+    protected Instance denseRow() throws Unsupported {
+
+      double[] values = new double[m_Types.length];
+      for (int i = 0; i < values.length; i++) {
+        if (i > 0) {
+          nextToken();
+        }
+        values[i] = value(i);
+      }
+      return new DenseInstance(weight(), values);
+    }
+
+    /**
+     * Parses a sparse row, the opening brace of which has been read.
+     *
+     * @return the row
+     * @throws Unsupported if the row can't be read exactly
+     */
+    protected Instance sparseRow() throws Unsupported {
+
+      int numValues = 0;
+      int maxIndex = -1;
+      while (true) {
+        nextToken();
+        if (m_Type == TT_CLOSE) {
+          break;
+        }
+        if (m_Type != TT_WORD) {
+          throw new Unsupported();
+        }
+        int index = parseIndex();
+        if (index <= maxIndex || index >= m_Types.length) {
+          throw new Unsupported();
+        }
+        maxIndex = index;
+        nextToken();
+        m_Indices[numValues] = index;
+        m_Values[numValues] = value(index);
+        numValues++;
+      }
+      double weight = weight();
+      return new SparseInstance(weight, Arrays.copyOf(m_Values, numValues),
+        Arrays.copyOf(m_Indices, numValues), m_Types.length);
+    }
+
+    /**
+     * Reads the optional weight and the end of a row.
+     *
+     * @return the weight
+     * @throws Unsupported if the rest of the row can't be read exactly
+     */
+    protected double weight() throws Unsupported {
+
+      nextToken();
+      if (m_Type == TT_EOL || m_Type == TT_EOF) {
+        return 1.0;
+      }
+      if (m_Type != TT_OPEN) {
+        throw new Unsupported();
+      }
+      nextToken();
+      if (m_Type != TT_WORD && m_Type != TT_QUOTED) {
+        throw new Unsupported();
+      }
+      double weight;
+      try {
+        weight = Double.parseDouble(tokenString());
+      } catch (NumberFormatException e) {
+        throw new Unsupported();
+      }
+      if (Double.isNaN(weight)) {
+        throw new Unsupported();
+      }
+      nextToken();
+      if (m_Type != TT_CLOSE) {
+        throw new Unsupported();
+      }
+      nextToken();
+      if (m_Type != TT_EOL && m_Type != TT_EOF) {
+        throw new Unsupported();
+      }
+      return weight;
+    }
+
+    /**
+     * Converts the current token to a value of an attribute.
+     *
+     * @param att the attribute's index
+     * @return the value
+     * @throws Unsupported if the token is not a valid value
+     */
+    protected double value(int att) throws Unsupported {
+
+      if (m_Type == TT_WORD && m_TokenEnd - m_TokenStart == 1
+        && m_Buffer.get(m_TokenStart) == '?') {
+        return Utils.missingValue();
+      }
+      if (m_Type != TT_WORD && m_Type != TT_QUOTED) {
+        throw new Unsupported();
+      }
+      switch (m_Types[att]) {
+      case Attribute.NUMERIC:
+        return parseNumber();
+      case Attribute.NOMINAL:
+        int index = nominalIndex(att);
+        if (index < 0) {
+          throw new Unsupported();
+        }
+        return index;
+      case Attribute.DATE:
+        try {
+          return m_Structure.attribute(att).parseDate(tokenString());
+        } catch (ParseException e) {
+          throw new Unsupported();
+        }
+      default:
+        throw new Unsupported();
+      }
+    }
+
+    /**
+     * Looks up the current token among the values of a nominal attribute,
+     * comparing bytes for attributes with few values.
+     *
+     * @param att the attribute's index
+     * @return the index of the value, or -1 if it is not declared
+     */
+    protected int nominalIndex(int att) {
+
+      byte[][] values = m_NominalBytes[att];
+      if (values != null && !m_Escaped) {
+        int length = m_TokenEnd - m_TokenStart;
+        for (int j = 0; j < values.length; j++) {
+          byte[] value = values[j];
+          if (value.length != length) {
+            continue;
+          }
+          int k = 0;
+          while (k < length && value[k] == m_Buffer.get(m_TokenStart + k)) {
+            k++;
+          }
+          if (k == length) {
+            return j;
+          }
+        }
+      }
+      return m_Structure.attribute(att).indexOfValue(tokenString());
+    }
+
+    /**
+     * Parses the current token as an attribute index, as Integer.valueOf
+     * does.
+     *
+     * @return the index
+     * @throws Unsupported if the token is not an integer
+     */
+    protected int parseIndex() throws Unsupported {
+
+      int pos = m_TokenStart;
+      boolean negative = false;
+      if (m_Buffer.get(pos) == '-' || m_Buffer.get(pos) == '+') {
+        negative = m_Buffer.get(pos) == '-';
+        pos++;
+      }
+      if (pos == m_TokenEnd || m_TokenEnd - pos > 9) {
+        throw new Unsupported();
+      }
+      int index = 0;
+      for (; pos < m_TokenEnd; pos++) {
+        int digit = m_Buffer.get(pos) - '0';
+        if (digit < 0 || digit > 9) {
+          throw new Unsupported();
+        }
+        index = 10 * index + digit;
+      }
+      if (negative && index != 0) {
+        throw new Unsupported();
+      }
+      return index;
+    }
+
+    /**
+     * Parses the current token as a number. Decimal numbers with at most 19
+     * significant digits whose mantissa and power of ten are exact doubles
+     * are computed with a single multiplication or division, which rounds
+     * correctly just as Double.valueOf does; everything else is passed to
+     * Double.valueOf.
+     *
+     * @return the number
+     * @throws Unsupported if the token is not a number
+     */
+    protected double parseNumber() throws Unsupported {
+
+      if (m_Escaped) {
+        return parseNumberString();
+      }
+      int pos = m_TokenStart;
+      int end = m_TokenEnd;
+      boolean negative = false;
+      if (pos < end && (m_Buffer.get(pos) == '-' || m_Buffer.get(pos) == '+')) {
+        negative = m_Buffer.get(pos) == '-';
+        pos++;
+      }
+      long mantissa = 0;
+      int digits = 0;
+      int exponent = 0;
+      boolean any = false;
+      byte b;
+      while (pos < end && (b = m_Buffer.get(pos)) >= '0' && b <= '9') {
+        any = true;
+        if (mantissa != 0 || b != '0') {
+          if (digits == 19) {
+            return parseNumberString();
+          }
+          mantissa = 10 * mantissa + (b - '0');
+          digits++;
+        }
+        pos++;
+      }
+      if (pos < end && m_Buffer.get(pos) == '.') {
+        pos++;
+        while (pos < end && (b = m_Buffer.get(pos)) >= '0' && b <= '9') {
+          any = true;
+          if (mantissa != 0 || b != '0') {
+            if (digits == 19) {
+              return parseNumberString();
+            }
+            mantissa = 10 * mantissa + (b - '0');
+            digits++;
+          }
+          exponent--;
+          pos++;
+        }
+      }
+      if (!any) {
+        return parseNumberString();
+      }
+      if (pos < end && (m_Buffer.get(pos) == 'e' || m_Buffer.get(pos) == 'E')) {
+        pos++;
+        boolean negativeExponent = false;
+        if (pos < end && (m_Buffer.get(pos) == '-' || m_Buffer.get(pos) == '+')) {
+          negativeExponent = m_Buffer.get(pos) == '-';
+          pos++;
+        }
+        int e = 0;
+        int start = pos;
+        while (pos < end && (b = m_Buffer.get(pos)) >= '0' && b <= '9'
+          && pos - start < 4) {
+          e = 10 * e + (b - '0');
+          pos++;
+        }
+        if (pos == start) {
+          return parseNumberString();
+        }
+        exponent += negativeExponent ? -e : e;
+      }
+      if (pos != end) {
+        return parseNumberString();
+      }
+      double value;
+      if (mantissa == 0) {
+        value = 0;
+      } else if (mantissa > (1L << 53)) {
+        return parseNumberString();
+      } else if (exponent == 0) {
+        value = mantissa;
+      } else if (exponent > 0 && exponent < POWERS_OF_TEN.length) {
+        value = mantissa * POWERS_OF_TEN[exponent];
+      } else if (exponent < 0 && -exponent < POWERS_OF_TEN.length) {
+        value = mantissa / POWERS_OF_TEN[-exponent];
+      } else {
+        return parseNumberString();
+      }
+      return negative ? -value : value;
+    }
+
+    /**
+     * Parses the current token as a number with Double.valueOf.
+     *
+     * @return the number
+     * @throws Unsupported if the token is not a number
+     */
+    protected double parseNumberString() throws Unsupported {
+      try {
+        return Double.valueOf(tokenString()).doubleValue();
+      } catch (NumberFormatException e) {
+        throw new Unsupported();
+      }
+    }
+
+    /**
+     * Decodes the current token, resolving escapes in quoted tokens as
+     * StreamTokenizer does.
+     *
+     * @return the token as a string
+     */
+    protected String tokenString() {
+
+      int length = m_TokenEnd - m_TokenStart;
+      if (m_Bytes.length < length) {
+        m_Bytes = new byte[Math.max(length, 2 * m_Bytes.length)];
+      }
+      for (int i = 0; i < length; i++) {
+        m_Bytes[i] = m_Buffer.get(m_TokenStart + i);
+      }
+      String raw = new String(m_Bytes, 0, length, m_Charset);
+      return m_Escaped ? unescape(raw) : raw;
+    }
+
+    /**
+     * Reads the next token. A line terminator or comment is returned as
+     * TT_EOL and consumed, so that the position is then at the start of the
+     * next line.
+     */
+    protected void nextToken() {
+
+      int limit = m_Buffer.limit();
+      while (m_Pos < limit && isSpace(m_Buffer.get(m_Pos))) {
+        m_Pos++;
+      }
+      m_TokenStart = m_Pos;
+      m_Escaped = false;
+      if (m_Pos >= limit) {
+        m_Type = TT_EOF;
+        return;
+      }
+      byte b = m_Buffer.get(m_Pos);
+      if (b == '%') {
+        while (m_Pos < limit && !isEOL(m_Buffer.get(m_Pos))) {
+          m_Pos++;
+        }
+        if (m_Pos >= limit) {
+          m_Type = TT_EOF;
+          return;
+        }
+        b = m_Buffer.get(m_Pos);
+      }
+      if (isEOL(b)) {
+        m_Pos++;
+        if (b == '\r' && m_Pos < limit && m_Buffer.get(m_Pos) == '\n') {
+          m_Pos++;
+        }
+        m_Type = TT_EOL;
+      } else if (b == '{') {
+        m_Pos++;
+        m_Type = TT_OPEN;
+      } else if (b == '}') {
+        m_Pos++;
+        m_Type = TT_CLOSE;
+      } else if (b == '\'' || b == '"') {
+        // up to the matching quote, or the end of the line if there is none
+        m_Pos++;
+        m_TokenStart = m_Pos;
+        while (m_Pos < limit) {
+          byte c = m_Buffer.get(m_Pos);
+          if (c == b || isEOL(c)) {
+            break;
+          }
+          if (c == '\\') {
+            m_Escaped = true;
+            m_Pos++;
+          }
+          m_Pos++;
+        }
+        m_Pos = Math.min(m_Pos, limit);
+        m_TokenEnd = m_Pos;
+        if (m_Pos < limit && m_Buffer.get(m_Pos) == b) {
+          m_Pos++;
+        }
+        m_Type = TT_QUOTED;
+      } else {
+        while (m_Pos < limit && isWord(m_Buffer.get(m_Pos))) {
+          m_Pos++;
+        }
+        m_TokenEnd = m_Pos;
+        m_Type = TT_WORD;
+      }
+    }
+  }
+
+  /**
+   * Resolves escapes in the text of a quoted token as StreamTokenizer does.
+   *
+   * @param s the text between the quotes
+   * @return the resolved text
+   */
+  protected static String unescape(String s) {
+
+    StringBuilder result = new StringBuilder(s.length());
+    int n = s.length();
+    int i = 0;
+    while (i < n) {
+      char d = s.charAt(i);
+      if (d != '\\') {
+        result.append(d);
+        i++;
+        continue;
+      }
+      i++;
+      int c = i < n ? s.charAt(i) : -1;
+      int first = c;
+      if (c >= '0' && c <= '7') {
+        c = c - '0';
+        i++;
+        int c2 = i < n ? s.charAt(i) : -1;
+        if ('0' <= c2 && c2 <= '7') {
+          c = (c << 3) + (c2 - '0');
+          i++;
+          c2 = i < n ? s.charAt(i) : -1;
+          if ('0' <= c2 && c2 <= '7' && first <= '3') {
+            c = (c << 3) + (c2 - '0');
+            i++;
+          }
+        }
+      } else {
+        switch (c) {
+        case 'a':
+          c = 0x7;
+          break;
+        case 'b':
+          c = '\b';
+          break;
+        case 'f':
+          c = 0xC;
+          break;
+        case 'n':
+          c = '\n';
+          break;
+        case 'r':
+          c = '\r';
+          break;
+        case 't':
+          c = '\t';
+          break;
+        case 'v':
+          c = 0xB;
+          break;
+        }
+        i++;
+      }
+      result.append((char) c);
+    }
+    return result.toString();
+  }
+
+  /**
+   * Returns the revision string.
+   *
+   * @return the revision
+   */
+  @Override
+  public String getRevision() {
+    return RevisionUtils.extract("$Revision$");
+  }
+
+  /**
+   * Compares the reader with ArffReader on an ARFF file, reporting the rows
+   * read per second by each and whether they read the same data.<br/>
+   * Usage: MappedArffReader &lt;file&gt; [repetitions [threads]]
+   *
+   * @param args the file, and optionally the number of repetitions and
+   *          threads
+   */
+  public static void main(String[] args) {
+    try {
+      if (args.length == 0) {
+        throw new Exception(
+          "Usage: MappedArffReader <file> [repetitions [threads]]");
+      }
+      File file = new File(args[0]);
+      int repetitions = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+      int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime
+        .getRuntime().availableProcessors();
+
+      Instances expected = null;
+      Instances actual = null;
+      long streamTime = Long.MAX_VALUE;
+      long mappedTime = Long.MAX_VALUE;
+      for (int r = 0; r < repetitions; r++) {
+        long start = System.nanoTime();
+        BufferedReader reader = new BufferedReader(new FileReader(file));
+        expected = new ArffReader(reader).getData();
+        reader.close();
+        streamTime = Math.min(streamTime, System.nanoTime() - start);
+
+        start = System.nanoTime();
+        reader = new BufferedReader(new FileReader(file));
+        Instances structure = new ArffReader(reader, 1, true).getStructure();
+        reader.close();
+        actual = new MappedArffReader(file, threads).readData(structure);
+        mappedTime = Math.min(mappedTime, System.nanoTime() - start);
+        if (actual == null) {
+          System.out.println("The file has to be read with ArffReader.");
+          return;
+        }
+      }
+
+      boolean same = expected.numInstances() == actual.numInstances()
+        && expected.equalHeaders(actual);
+      for (int i = 0; same && i < expected.numInstances(); i++) {
+        Instance e = expected.instance(i);
+        Instance a = actual.instance(i);
+        same = e.getClass() == a.getClass() && e.weight() == a.weight()
+          && Arrays.equals(e.toDoubleArray(), a.toDoubleArray());
+      }
+      int n = expected.numInstances();
+      System.out.println("rows: " + n + ", threads: " + threads);
+      System.out.println("ArffReader:       "
+        + Utils.doubleToString(n / (streamTime / 1e9), 2) + " rows/s");
+      System.out.println("MappedArffReader: "
+        + Utils.doubleToString(n / (mappedTime / 1e9), 2) + " rows/s");
+      System.out.println("same data: " + same);
+    } catch (Exception e) {
+      e.printStackTrace();
+    }
+  }
+}
@@ -272,6 +272,70 @@ public class LinearNNSearch
     
     return neighbours;    
   }
+
+  /**
+   * Returns the indices of the k nearest neighbours, given the distances of
+   * the target to every instance in the current neighbourhood. The distances
+   * must not be post processed yet, i.e. they are what the distance function's
+   * distance(first, second, cutOffValue) returns. Neighbours are selected and
+   * ordered exactly as by kNearestNeighbours(Instance, int), including the
+   * handling of ties at the k'th distance, and getDistances() returns their
+   * post processed distances afterwards.
+   *
+   * @param distances 	the distances of the target to the instances of the
+   * 			neighbourhood, in the order of the neighbourhood
+   * @param kNN		The number of nearest neighbours to find.
+   * @return		the indices of the k nearest neighbours
+   * @throws Exception  if the neighbours could not be found.
+   */
+  public int[] kNearestNeighbours(double[] distances, int kNN) throws Exception {
+
+    MyHeap heap = new MyHeap(kNN);
+    double distance; int firstkNN=0;
+    for(int i=0; i<distances.length; i++) {
+      distance = distances[i];
+      if(firstkNN<kNN) {
+        if(distance == 0.0 && m_SkipIdentical)
+          if(i<distances.length-1)
+            continue;
+          else
+            heap.put(i, distance);
+        heap.put(i, distance);
+        firstkNN++;
+      }
+      else {
+        MyHeapElement temp = heap.peek();
+        if(distance == 0.0 && m_SkipIdentical)
+          continue;
+        if(distance < temp.distance) {
+          heap.putBySubstitute(i, distance);
+        }
+        else if(distance == temp.distance) {
+          heap.putKthNearest(i, distance);
+        }
+      }
+    }
+
+    m_Distances = new double[heap.size()+heap.noOfKthNearest()];
+    int [] indices = new int[heap.size()+heap.noOfKthNearest()];
+    int i=1; MyHeapElement h;
+    while(heap.noOfKthNearest()>0) {
+      h = heap.getKthNearest();
+      indices[indices.length-i] = h.index;
+      m_Distances[indices.length-i] = h.distance;
+      i++;
+    }
+    while(heap.size()>0) {
+      h = heap.get();
+      indices[indices.length-i] = h.index;
+      m_Distances[indices.length-i] = h.distance;
+      i++;
+    }
+    
+    m_DistanceFunction.postProcessDistances(m_Distances);
+
+    return indices;
+  }
   
   /** 
    * Returns the distances of the k nearest neighbours. The kNearestNeighbours
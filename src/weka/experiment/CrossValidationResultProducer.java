@@ -371,8 +371,8 @@ public class CrossValidationResultProducer implements ResultProducer,
     if (m_Instances == null) {
       throw new Exception("No Instances set");
     }
-    // Randomize on a copy of the original dataset
-    Instances runInstances = new Instances(m_Instances);
+    // Randomize on a view of the original dataset
+    Instances runInstances = m_Instances.view();
     Random random = new Random(run);
     runInstances.randomize(random);
     if (runInstances.classAttribute().isNominal()) {
@@ -194,8 +194,8 @@ public class CrossValidationSplitResultProducer extends
     int fold = (run - 1) % m_NumFolds;
     run = ((run - 1) / m_NumFolds) + 1;
 
-    // Randomize on a copy of the original dataset
-    Instances runInstances = new Instances(m_Instances);
+    // Randomize on a view of the original dataset
+    Instances runInstances = m_Instances.view();
     Random random = new Random(run);
     runInstances.randomize(random);
     if (runInstances.classAttribute().isNominal()) {
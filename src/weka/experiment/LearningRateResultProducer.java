@@ -292,8 +292,8 @@ public class LearningRateResultProducer implements ResultListener,
       throw new Exception("No Instances set");
     }
 
-    // Randomize on a copy of the original dataset
-    Instances runInstances = new Instances(m_Instances);
+    // Randomize on a view of the original dataset
+    Instances runInstances = m_Instances.view();
     runInstances.randomize(new Random(run));
 
     /*
@@ -313,8 +313,7 @@ public class LearningRateResultProducer implements ResultListener,
     }
     while (m_CurrentSize <= m_Instances.numInstances()
       && ((m_UpperSize == -1) || (m_CurrentSize <= m_UpperSize))) {
-      m_ResultProducer.setInstances(new Instances(runInstances, 0,
-        m_CurrentSize));
+      m_ResultProducer.setInstances(runInstances.view(0, m_CurrentSize));
       m_ResultProducer.doRun(run);
       m_CurrentSize += m_StepSize;
     }
@@ -370,8 +370,8 @@ public class RandomSplitResultProducer implements ResultProducer,
     System.arraycopy(seKey, 0, key, 2, seKey.length);
     if (m_ResultListener.isResultRequired(this, key)) {
 
-      // Randomize on a copy of the original dataset
-      Instances runInstances = new Instances(m_Instances);
+      // Randomize on a view of the original dataset
+      Instances runInstances = m_Instances.view();
 
       Instances train;
       Instances test;
@@ -382,8 +382,8 @@ public class RandomSplitResultProducer implements ResultProducer,
         int trainSize = Utils.round(runInstances.numInstances()
           * m_TrainPercent / 100);
         int testSize = runInstances.numInstances() - trainSize;
-        train = new Instances(runInstances, 0, trainSize);
-        test = new Instances(runInstances, trainSize, testSize);
+        train = runInstances.view(0, trainSize);
+        test = runInstances.view(trainSize, testSize);
       } else {
         Random rand = new Random(run);
         runInstances.randomize(rand);
@@ -441,8 +441,8 @@ public class RandomSplitResultProducer implements ResultProducer,
           int trainSize = Utils.probRound(runInstances.numInstances()
             * m_TrainPercent / 100, rand);
           int testSize = runInstances.numInstances() - trainSize;
-          train = new Instances(runInstances, 0, trainSize);
-          test = new Instances(runInstances, trainSize, testSize);
+          train = runInstances.view(0, trainSize);
+          test = runInstances.view(trainSize, testSize);
         }
       }
       try {